@@ -64,13 +64,21 @@ public class Constants {
     public static final String PREFS_DEVICEPROTECTEDDATA = "backupDeviceProtectedData";
     public static final String PREFS_NUM_BACKUP_REVISIONS = "numBackupRevisions";
     public static final String PREFS_HOUSEKEEPING_MOMENT = "housekeepingMoment";
+    public static final String PREFS_DEDUPLICATE_APKS = "deduplicateApks";
 
     public static final String PREFS_DISABLEVERIFICATION = "disableVerification";
     public static final String PREFS_KILLBEFOREACTION = "killBeforeAction";
+    public static final String PREFS_BATCH_WORKERS = "batchWorkers";
+    public static final String PREFS_BATCH_IO_STAGES = "batchIoStages";
+    public static final String PREFS_BATCH_INSTALL_SESSIONS = "batchInstallSessions";
+    public static final String PREFS_ROOT_SHELLS = "rootShells";
+    public static final String PREFS_ROOT_SHELL_TIMEOUT = "rootShellTimeout";
+    public static final String PREFS_TRACING = "tracing";
 
     public static final String PREFS_QUICK_REBOOT = "quickReboot";
     public static final String PREFS_BATCH_DELETE = "batchDelete";
     public static final String PREFS_LOGVIEWER = "logViewer";
+    public static final String PREFS_BATCH_HISTORY = "batchHistory";
 
     public static final String BUNDLE_THREADID = "threadId";
     public static final String BUNDLE_USERS = "users";
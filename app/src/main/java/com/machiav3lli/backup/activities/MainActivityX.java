@@ -35,6 +35,7 @@ import androidx.appcompat.widget.AppCompatCheckBox;
 import androidx.navigation.NavController;
 import androidx.navigation.fragment.NavHostFragment;
 import androidx.navigation.ui.NavigationUI;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -48,21 +49,30 @@ import com.machiav3lli.backup.dialogs.BatchConfirmDialog;
 import com.machiav3lli.backup.fragments.AppSheet;
 import com.machiav3lli.backup.fragments.HelpSheet;
 import com.machiav3lli.backup.fragments.SortFilterSheet;
-import com.machiav3lli.backup.handler.BackendController;
+import com.machiav3lli.backup.handler.AppListSnapshot;
+import com.machiav3lli.backup.handler.AppRegistry;
 import com.machiav3lli.backup.handler.BackupRestoreHelper;
+import com.machiav3lli.backup.handler.BatchEngine;
 import com.machiav3lli.backup.handler.NotificationHelper;
+import com.machiav3lli.backup.handler.PackageIndex;
+import com.machiav3lli.backup.handler.RootShellPool;
+import com.machiav3lli.backup.handler.SearchIndex;
 import com.machiav3lli.backup.handler.ShellHandler;
 import com.machiav3lli.backup.handler.SortFilterManager;
+import com.machiav3lli.backup.handler.StorageStatsProvider;
 import com.machiav3lli.backup.items.ActionResult;
 import com.machiav3lli.backup.items.AppInfoX;
 import com.machiav3lli.backup.items.AppMetaInfo;
-import com.machiav3lli.backup.items.BackupItem;
 import com.machiav3lli.backup.items.BatchItemX;
 import com.machiav3lli.backup.items.MainItemX;
 import com.machiav3lli.backup.items.SortFilterModel;
+import com.machiav3lli.backup.tasks.QueuedTask;
+import com.machiav3lli.backup.tasks.TaskQueue;
 import com.machiav3lli.backup.utils.FileUtils;
+import com.machiav3lli.backup.utils.ItemUtils;
 import com.machiav3lli.backup.utils.LogUtils;
 import com.machiav3lli.backup.utils.PrefUtils;
+import com.machiav3lli.backup.utils.TraceUtils;
 import com.machiav3lli.backup.utils.UIUtils;
 import com.mikepenz.fastadapter.FastAdapter;
 import com.mikepenz.fastadapter.adapters.ItemAdapter;
@@ -75,13 +85,23 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 public class MainActivityX extends BaseActivity implements BatchConfirmDialog.ConfirmListener {
     private static final String TAG = Constants.classTag(".MainActivityX");
+    private static final long SEARCH_DEBOUNCE_MS = 150;
     private static ShellHandler shellHandler;
 
     static {
@@ -95,8 +115,8 @@ public class MainActivityX extends BaseActivity implements BatchConfirmDialog.Co
 
     private List<AppInfoX> appsList;
     // TODO optimize usage (maybe a map instead?)
-    public List<String> apkCheckedList = new ArrayList<>();
-    public List<String> dataCheckedList = new ArrayList<>();
+    public Set<String> apkCheckedList = new HashSet<>();
+    public Set<String> dataCheckedList = new HashSet<>();
 
 
     private BadgeDrawable updatedBadge;
@@ -115,6 +135,20 @@ public class MainActivityX extends BaseActivity implements BatchConfirmDialog.Co
     private AppSheet sheetApp;
     public HelpSheet sheetHelp;
     private SearchViewController searchViewController;
+    // set from the listener callbacks on background threads, cleared on the ui thread
+    private final AtomicBoolean resortScheduled = new AtomicBoolean(false);
+    private final ExecutorService listExecutor = Executors.newSingleThreadExecutor();
+    private final Runnable searchRunnable = this::runSearch;
+    private volatile String searchQuery = "";
+    private volatile List<MainItemX> mainItems = new ArrayList<>();
+    private volatile List<BatchItemX> batchItems = new ArrayList<>();
+    private final StorageStatsProvider.OnStatsLoadedListener statsLoadedListener = packageNames -> {
+        // resort progressively while the sizes come in, but not more than once per interval
+        if (SortFilterManager.isSortByDataSize(SortFilterManager.getFilterPreferences(this).toString()))
+            scheduleResort();
+    };
+    private final AppRegistry.OnRegistryChangedListener registryChangedListener = packageNames -> scheduleResort();
+    private List<QueuedTask> activeBatchTasks = new ArrayList<>();
 
 
     @Override
@@ -128,14 +162,39 @@ public class MainActivityX extends BaseActivity implements BatchConfirmDialog.Co
         setupViews(savedInstanceState);
         setupNavigation();
         setupOnClicks();
+        StorageStatsProvider.getInstance(this).addOnStatsLoadedListener(statsLoadedListener);
+        AppRegistry.getInstance(this).addOnRegistryChangedListener(registryChangedListener);
+        TaskQueue.getInstance(this).getActiveTasks().observe(this, this::onActiveTasksChanged);
+        if (MainActivityX.shellHandler != null) {
+            // continue batches the process was killed in
+            final Context context = getApplicationContext();
+            TaskQueue.getInstance(this).coordinate(() -> BatchEngine.resumeInterrupted(context, MainActivityX.shellHandler));
+        }
         runOnUiThread(this::showEncryptionDialog);
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // keep the data sizes loaded in the meantime for the next cold start
+        if (AppRegistry.getInstance(this).isSeeded()) {
+            final Context context = getApplicationContext();
+            new Thread(() -> AppListSnapshot.save(context, AppRegistry.getInstance(context).getSnapshot())).start();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        StorageStatsProvider.getInstance(this).removeOnStatsLoadedListener(statsLoadedListener);
+        AppRegistry.getInstance(this).removeOnRegistryChangedListener(registryChangedListener);
+        super.onDestroy();
+    }
+
     @Override
     protected void onRestoreInstanceState(@NonNull Bundle savedInstanceState) {
         super.onRestoreInstanceState(savedInstanceState);
-        apkCheckedList = savedInstanceState.getStringArrayList("apkCheckedList");
-        dataCheckedList = savedInstanceState.getStringArrayList("dataCheckedList");
+        apkCheckedList = new HashSet<>(savedInstanceState.getStringArrayList("apkCheckedList"));
+        dataCheckedList = new HashSet<>(savedInstanceState.getStringArrayList("dataCheckedList"));
         setupViews(savedInstanceState);
         setupNavigation();
     }
@@ -189,7 +248,7 @@ public class MainActivityX extends BaseActivity implements BatchConfirmDialog.Co
             }
         }
         binding.recyclerView.setLayoutManager(new LinearLayoutManager(this));
-        binding.refreshLayout.setOnRefreshListener(this::cleanRefresh);
+        binding.refreshLayout.setOnRefreshListener(this::rescanRefresh);
     }
 
     private void setupNavigation() {
@@ -226,13 +285,32 @@ public class MainActivityX extends BaseActivity implements BatchConfirmDialog.Co
         mainBoolean = false;
         binding.batchBar.setVisibility(View.VISIBLE);
         binding.modeBar.setVisibility(View.VISIBLE);
-        binding.buttonAction.setText(backupBoolean ? R.string.backup : R.string.restore);
         binding.recyclerView.setAdapter(batchFastAdapter);
-        binding.buttonAction.setOnClickListener(v -> actionOnClick(backupBoolean));
+        updateActionButton();
         apkCheckedList.clear();
         dataCheckedList.clear();
     }
 
+    private void onActiveTasksChanged(List<QueuedTask> tasks) {
+        activeBatchTasks = tasks.stream()
+                .filter(task -> task.getPriority() == QueuedTask.Priority.BATCH && !task.isCancelled())
+                .collect(Collectors.toList());
+        if (!mainBoolean) updateActionButton();
+    }
+
+    /**
+     * While a batch is running, the action button shows its progress and cancels it
+     */
+    private void updateActionButton() {
+        if (activeBatchTasks.isEmpty()) {
+            binding.buttonAction.setText(backupBoolean ? R.string.backup : R.string.restore);
+            binding.buttonAction.setOnClickListener(v -> actionOnClick(backupBoolean));
+        } else {
+            binding.buttonAction.setText(getString(R.string.batch_cancel, activeBatchTasks.size()));
+            binding.buttonAction.setOnClickListener(v -> TaskQueue.getInstance(this).cancelAll(QueuedTask.Priority.BATCH));
+        }
+    }
+
     private void setupOnClicks() {
         binding.buttonSettings.setOnClickListener(v -> startActivity(new Intent(getApplicationContext(), PrefsActivity.class)));
         binding.buttonScheduler.setOnClickListener(v -> startActivity(new Intent(getApplicationContext(), SchedulerActivityX.class)));
@@ -243,12 +321,16 @@ public class MainActivityX extends BaseActivity implements BatchConfirmDialog.Co
             sheetSortFilter.show(getSupportFragmentManager(), "SORTFILTERSHEET");
         });
         mainFastAdapter.setOnClickListener((view, itemIAdapter, item, position) -> {
+            // the snapshot shown on a cold start lacks the details, wait for the real list
+            if (item.getApp().isFromSnapshot()) return false;
             if (sheetApp != null) sheetApp.dismissAllowingStateLoss();
             sheetApp = new AppSheet(item, position);
             sheetApp.showNow(getSupportFragmentManager(), "APPSHEET");
             return false;
         });
         batchFastAdapter.setOnClickListener((view, itemIAdapter, item, integer) -> {
+            // snapshot entries can't be processed, see actionOnClick
+            if (item.getApp().isFromSnapshot()) return false;
             boolean oldChecked = item.isChecked();
             item.setApkChecked(!oldChecked);
             item.setDataChecked(!oldChecked);
@@ -379,6 +461,12 @@ public class MainActivityX extends BaseActivity implements BatchConfirmDialog.Co
     }
 
     private void actionOnClick(boolean backupBoolean) {
+        // the snapshot shown on a cold start has neither package info nor backup dir
+        if (this.batchItemAdapter.getAdapterItems().stream()
+                .anyMatch(item -> item.isChecked() && item.getApp().isFromSnapshot())) {
+            Toast.makeText(this, getString(R.string.batch_wait_for_list), Toast.LENGTH_SHORT).show();
+            return;
+        }
         ArrayList<AppMetaInfo> selectedList = this.batchItemAdapter.getAdapterItems().stream()
                 .filter(BatchItemX::isChecked)
                 .map(item -> item.getApp().getAppInfo())
@@ -398,10 +486,9 @@ public class MainActivityX extends BaseActivity implements BatchConfirmDialog.Co
 
     @Override
     public void onConfirmed(List<Pair<AppMetaInfo, Integer>> selectedItems) {
-        new Thread(() -> runBatchTask(selectedItems)).start();
+        TaskQueue.getInstance(this).coordinate(() -> runBatchTask(selectedItems));
     }
 
-    // TODO 1. optimize/reduce complexity
     public void runBatchTask(List<Pair<AppMetaInfo, Integer>> selectedItems) {
         @SuppressLint("InvalidWakeLockTag") PowerManager.WakeLock wl = this.powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, MainActivityX.TAG);
         if (this.prefs.getBoolean("acquireWakelock", true)) {
@@ -409,13 +496,21 @@ public class MainActivityX extends BaseActivity implements BatchConfirmDialog.Co
             Log.i(MainActivityX.TAG, "wakelock acquired");
         }
         // get the AppInfoX objects again
-        List<Pair<AppInfoX, Integer>> selectedApps = new ArrayList<>(selectedItems.size());
+        // the adapter may still hold snapshot entries, the registry has the live ones
+        final AppRegistry registry = AppRegistry.getInstance(this);
+        PackageIndex adapterIndex = new PackageIndex(this.batchItemAdapter.getAdapterItems().stream()
+                .map(BatchItemX::getApp)
+                .map(app -> app.isFromSnapshot() ? registry.get(app.getPackageName()) : app)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList()));
+        final BackupRestoreHelper.ActionType actionType = this.backupBoolean
+                ? BackupRestoreHelper.ActionType.BACKUP : BackupRestoreHelper.ActionType.RESTORE;
+        List<BatchEngine.Job> jobs = new ArrayList<>(selectedItems.size());
         for (Pair<AppMetaInfo, Integer> itemInfo : selectedItems) {
-            Optional<BatchItemX> foundItem = this.batchItemAdapter.getAdapterItems().stream()
-                    .filter(item -> item.getApp().getPackageName().equals(itemInfo.first.getPackageName()))
-                    .findFirst();
-            if (foundItem.isPresent()) {
-                selectedApps.add(new Pair<>(foundItem.get().getApp(), itemInfo.second));
+            AppInfoX foundApp = adapterIndex.get(itemInfo.first.getPackageName());
+            if (foundApp != null) {
+                // Latest backup for now on restore
+                jobs.add(new BatchEngine.Job(foundApp, itemInfo.second, actionType));
             } else {
                 throw new RuntimeException("Selected item for processing went lost from the item adapter.");
             }
@@ -423,32 +518,26 @@ public class MainActivityX extends BaseActivity implements BatchConfirmDialog.Co
 
         int notificationId = (int) System.currentTimeMillis();
         int totalOfActions = selectedItems.size();
-        final BackupRestoreHelper backupRestoreHelper = new BackupRestoreHelper();
+        final String progressMessage = this.backupBoolean ? this.getString(R.string.backupProgress) : this.getString(R.string.restoreProgress);
         List<Integer> mileStones = IntStream.range(0, 5).map(step -> (step * totalOfActions / 5) + 1).boxed().collect(Collectors.toList());
-        ActionResult result;
-        List<ActionResult> results = new ArrayList<>(totalOfActions);
-        int i = 1;
-        for (Pair<AppInfoX, Integer> itemInfo : selectedApps) {
-            final String message = String.format("%s (%d/%d)", this.backupBoolean ? this.getString(R.string.backupProgress) : this.getString(R.string.restoreProgress), i, totalOfActions);
-            NotificationHelper.showNotification(this, MainActivityX.class, notificationId, message, itemInfo.first.getPackageLabel(), false);
-            if (mileStones.contains(i)) {
-                runOnUiThread(() -> Toast.makeText(this, message, Toast.LENGTH_SHORT).show());
+        List<ActionResult> results = new BatchEngine(this, MainActivityX.getShellHandlerInstance()).run(jobs, new BatchEngine.OnJobListener() {
+            @Override
+            public void onJobStarted(int index, BatchEngine.Job job) {
+                final String message = String.format("%s (%d/%d)", progressMessage, index + 1, totalOfActions);
+                NotificationHelper.showProgressNotification(MainActivityX.this, MainActivityX.class, notificationId, message, job.getApp().getPackageLabel(), QueuedTask.Priority.BATCH);
             }
-            int mode = itemInfo.second;
-            if (this.backupBoolean) {
-                result = backupRestoreHelper.backup(this, MainActivityX.getShellHandlerInstance(), itemInfo.first, mode);
-            } else {
-                // Latest backup for now
-                BackupItem selectedBackup = itemInfo.first.getLatestBackup();
-                result = backupRestoreHelper.restore(this, itemInfo.first, selectedBackup.getBackupProperties(),
-                        selectedBackup.getBackupLocation(), MainActivityX.getShellHandlerInstance(), mode);
-            }
-            if (!result.succeeded) {
-                NotificationHelper.showNotification(this, MainActivityX.class, result.hashCode(), itemInfo.first.getPackageLabel(), result.message, false);
+
+            @Override
+            public void onJobFinished(int index, BatchEngine.Job job, ActionResult result, int finishedCount) {
+                if (mileStones.contains(finishedCount)) {
+                    final String message = String.format("%s (%d/%d)", progressMessage, finishedCount, totalOfActions);
+                    runOnUiThread(() -> Toast.makeText(MainActivityX.this, message, Toast.LENGTH_SHORT).show());
+                }
+                if (!result.succeeded) {
+                    NotificationHelper.showNotification(MainActivityX.this, MainActivityX.class, result.hashCode(), job.getApp().getPackageLabel(), result.message, false);
+                }
             }
-            results.add(result);
-            i++;
-        }
+        });
         if (wl.isHeld()) {
             wl.release();
             Log.i(MainActivityX.TAG, "wakelock released");
@@ -481,7 +570,9 @@ public class MainActivityX extends BaseActivity implements BatchConfirmDialog.Co
         this.cleanRefresh();
     }
 
-    public static boolean initShellHandler() {
+    public static boolean initShellHandler(Context context) {
+        TraceUtils.init(context);
+        RootShellPool.getInstance().init(context);
         try {
             MainActivityX.shellHandler = new ShellHandler();
         } catch (ShellHandler.UtilboxNotAvailableException e) {
@@ -493,11 +584,15 @@ public class MainActivityX extends BaseActivity implements BatchConfirmDialog.Co
 
     private void checkUtilBox() {
         // Initialize the ShellHandler for further root checks
-        if (!MainActivityX.initShellHandler()) {
+        if (!MainActivityX.initShellHandler(this)) {
             UIUtils.showWarning(this, MainActivityX.TAG, this.getString(R.string.busyboxProblem), (dialog, id) -> this.finishAffinity());
         }
     }
 
+    public void rescanRefresh() {
+        refresh(this.mainBoolean, !this.mainBoolean && backupBoolean, true, true);
+    }
+
     public void cleanRefresh() {
         refresh(this.mainBoolean, !this.mainBoolean && backupBoolean, true);
     }
@@ -511,6 +606,10 @@ public class MainActivityX extends BaseActivity implements BatchConfirmDialog.Co
     }
 
     public void refresh(boolean mainBoolean, boolean backupOrAppSheetBoolean, boolean cleanBoolean) {
+        refresh(mainBoolean, backupOrAppSheetBoolean, cleanBoolean, false);
+    }
+
+    public void refresh(boolean mainBoolean, boolean backupOrAppSheetBoolean, boolean cleanBoolean, boolean rescanBoolean) {
         Log.d(MainActivityX.TAG, "refreshing");
         runOnUiThread(() -> {
             binding.refreshLayout.setRefreshing(true);
@@ -524,37 +623,179 @@ public class MainActivityX extends BaseActivity implements BatchConfirmDialog.Co
         sheetSortFilter = new SortFilterSheet(SortFilterManager.getFilterPreferences(this));
         new Thread(() -> {
             try {
-                appsList = BackendController.getApplicationList(this.getApplicationContext());
-                PrefUtils.getPrivateSharedPrefs(this).getBoolean(Constants.PREFS_ENABLESPECIALBACKUPS, false);
+                boolean snapshotShown = false;
+                if (appsList == null && !AppRegistry.getInstance(this).isSeeded()) {
+                    // cold start: show the last known list until the real one is computed
+                    List<AppInfoX> snapshotList = AppListSnapshot.load(this);
+                    if (!snapshotList.isEmpty()) {
+                        snapshotShown = true;
+                        appsList = snapshotList;
+                        List<AppInfoX> filteredSnapshot = SortFilterManager.applyFilter(appsList,
+                                SortFilterManager.getFilterPreferences(this).toString(), this);
+                        // published as intermediate state, the spinner keeps running
+                        if (!filteredSnapshot.isEmpty()) {
+                            if (mainBoolean)
+                                refreshMain(filteredSnapshot, false, false);
+                            else
+                                refreshBatch(filteredSnapshot, false, false);
+                        }
+                        badgeCounter = 0;
+                    }
+                }
+                // the snapshot is complete, don't replace it with a partial list
+                final boolean publishChunks = !snapshotShown;
+                final List<AppInfoX> loadedApps = new ArrayList<>();
+                appsList = AppRegistry.getInstance(this).getApps(rescanBoolean, chunk -> {
+                    loadedApps.addAll(chunk);
+                    if (!publishChunks) return;
+                    // show what's there so far, installed apps come first
+                    appsList = new ArrayList<>(loadedApps);
+                    List<AppInfoX> filteredChunk = SortFilterManager.applyFilter(appsList,
+                            SortFilterManager.getFilterPreferences(this).toString(), this);
+                    if (filteredChunk.isEmpty()) return;
+                    badgeCounter = 0;
+                    if (mainBoolean)
+                        refreshMain(filteredChunk, false, false);
+                    else
+                        refreshBatch(filteredChunk, backupOrAppSheetBoolean, false);
+                });
+                badgeCounter = 0;
                 List<AppInfoX> filteredList = SortFilterManager.applyFilter(appsList,
                         SortFilterManager.getFilterPreferences(this).toString(), this);
                 if (mainBoolean)
                     refreshMain(filteredList, backupOrAppSheetBoolean);
                 else
                     refreshBatch(filteredList, backupOrAppSheetBoolean);
+                // the list is visible, now fill in the sizes
+                StorageStatsProvider.getInstance(this).loadAsync(appsList);
+                AppListSnapshot.save(this, appsList);
             } catch (FileUtils.BackupLocationIsAccessibleException | PrefUtils.StorageLocationNotConfiguredException e) {
                 Log.e(TAG, "Could not update application list: " + e);
             }
         }).start();
     }
 
-    private void refreshMain(List<AppInfoX> filteredList, boolean appSheetBoolean) {
-        ArrayList<MainItemX> mainList = createMainAppsList(filteredList);
-        runOnUiThread(() -> {
-            if (filteredList.isEmpty()) {
-                Toast.makeText(getBaseContext(), getString(R.string.empty_filtered_list), Toast.LENGTH_SHORT).show();
-                mainItemAdapter.clear();
+    /**
+     * Shows the apps matching the query, the best matches first. The query is debounced and
+     * run against the search index on a background thread.
+     *
+     * @param query text from the search box
+     */
+    public void search(String query) {
+        searchQuery = query;
+        binding.recyclerView.removeCallbacks(searchRunnable);
+        binding.recyclerView.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MS);
+    }
+
+    private void runSearch() {
+        final String query = searchQuery;
+        final boolean main = mainBoolean;
+        listExecutor.execute(() -> {
+            List<String> ranking = Collections.emptyList();
+            if (!query.trim().isEmpty()) {
+                SearchIndex searchIndex;
+                if (AppRegistry.getInstance(this).isSeeded()) {
+                    searchIndex = AppRegistry.getInstance(this).getSearchIndex();
+                } else {
+                    // still showing the snapshot, which is not indexed
+                    searchIndex = new SearchIndex();
+                    searchIndex.rebuild(appsList != null ? appsList : Collections.emptyList());
+                }
+                ranking = searchIndex.search(query);
+            }
+            // a newer query is on its way
+            if (!query.equals(searchQuery)) return;
+            if (main) {
+                List<MainItemX> result = rankItems(mainItems, ranking, query, item -> item.getApp().getPackageName());
+                DiffUtil.DiffResult diffResult = FastAdapterDiffUtil.INSTANCE.calculateDiff(
+                        mainItemAdapter, result, ItemUtils.MAIN_ITEM_DIFF_CALLBACK, true);
+                runOnUiThread(() -> FastAdapterDiffUtil.INSTANCE.set(mainItemAdapter, diffResult));
+            } else {
+                List<BatchItemX> result = rankItems(batchItems, ranking, query, item -> item.getApp().getPackageName());
+                DiffUtil.DiffResult diffResult = FastAdapterDiffUtil.INSTANCE.calculateDiff(
+                        batchItemAdapter, result, ItemUtils.BATCH_ITEM_DIFF_CALLBACK, true);
+                runOnUiThread(() -> {
+                    FastAdapterDiffUtil.INSTANCE.set(batchItemAdapter, diffResult);
+                    updateCheckAll();
+                });
             }
-            FastAdapterDiffUtil.INSTANCE.set(mainItemAdapter, mainList);
-            searchViewController.setup();
-            if (updatedBadge != null) {
-                updatedBadge.setNumber(badgeCounter);
-                updatedBadge.setVisible(badgeCounter != 0);
+        });
+    }
+
+    private static <T> List<T> rankItems(List<T> items, List<String> ranking, String query, Function<T, String> packageName) {
+        if (query.trim().isEmpty()) return items;
+        Map<String, T> itemsByPackage = new HashMap<>(items.size());
+        for (T item : items) {
+            itemsByPackage.put(packageName.apply(item), item);
+        }
+        List<T> result = new ArrayList<>(ranking.size());
+        for (String match : ranking) {
+            T item = itemsByPackage.get(match);
+            if (item != null) result.add(item);
+        }
+        return result;
+    }
+
+    private void scheduleResort() {
+        if (!resortScheduled.compareAndSet(false, true)) return;
+        binding.recyclerView.postDelayed(() -> {
+            resortScheduled.set(false);
+            resort();
+        }, 500);
+    }
+
+    private void resort() {
+        if (appsList == null) return;
+        new Thread(() -> {
+            // pick up entries the registry patched in the meantime
+            if (AppRegistry.getInstance(this).isSeeded())
+                appsList = AppRegistry.getInstance(this).getSnapshot();
+            List<AppInfoX> filteredList = SortFilterManager.applyFilter(appsList,
+                    SortFilterManager.getFilterPreferences(this).toString(), this);
+            if (mainBoolean) {
+                badgeCounter = 0;
+                refreshMain(filteredList, false);
+            } else {
+                refreshBatch(filteredList, backupBoolean);
             }
-            mainFastAdapter.notifyAdapterDataSetChanged();
-            binding.refreshLayout.setRefreshing(false);
-            if (appSheetBoolean && sheetApp != null) refreshAppSheet();
-            UIUtils.slideUp(binding.bottomBar);
+        }).start();
+    }
+
+    private void refreshMain(List<AppInfoX> filteredList, boolean appSheetBoolean) {
+        refreshMain(filteredList, appSheetBoolean, true);
+    }
+
+    /**
+     * Publishes the list to the main adapter. The diff is calculated on the list executor,
+     * only its dispatch runs on the main thread.
+     *
+     * @param filteredList    filtered and sorted apps to show
+     * @param appSheetBoolean update the open app sheet
+     * @param finished        false for intermediate chunks of a running scan
+     */
+    private void refreshMain(List<AppInfoX> filteredList, boolean appSheetBoolean, boolean finished) {
+        ArrayList<MainItemX> mainList = createMainAppsList(filteredList);
+        final int updatedCount = badgeCounter;
+        listExecutor.execute(() -> {
+            DiffUtil.DiffResult diffResult = FastAdapterDiffUtil.INSTANCE.calculateDiff(
+                    mainItemAdapter, mainList, ItemUtils.MAIN_ITEM_DIFF_CALLBACK, true);
+            runOnUiThread(() -> {
+                FastAdapterDiffUtil.INSTANCE.set(mainItemAdapter, diffResult);
+                mainItems = mainList;
+                if (updatedBadge != null) {
+                    updatedBadge.setNumber(updatedCount);
+                    updatedBadge.setVisible(updatedCount != 0);
+                }
+                if (!finished) return;
+                if (filteredList.isEmpty()) {
+                    Toast.makeText(getBaseContext(), getString(R.string.empty_filtered_list), Toast.LENGTH_SHORT).show();
+                }
+                if (!searchQuery.trim().isEmpty()) search(searchQuery);
+                searchViewController.setup();
+                binding.refreshLayout.setRefreshing(false);
+                if (appSheetBoolean && sheetApp != null) refreshAppSheet();
+                UIUtils.slideUp(binding.bottomBar);
+            });
         });
     }
 
@@ -589,18 +830,34 @@ public class MainActivityX extends BaseActivity implements BatchConfirmDialog.Co
     }
 
     private void refreshBatch(List<AppInfoX> filteredList, boolean backupBoolean) {
+        refreshBatch(filteredList, backupBoolean, true);
+    }
+
+    /**
+     * Publishes the list to the batch adapter, see refreshMain
+     *
+     * @param filteredList  filtered and sorted apps to show
+     * @param backupBoolean whether the batch is for backups or restores
+     * @param finished      false for intermediate chunks of a running scan
+     */
+    private void refreshBatch(List<AppInfoX> filteredList, boolean backupBoolean, boolean finished) {
         ArrayList<BatchItemX> batchList = createBatchAppsList(filteredList, backupBoolean);
-        runOnUiThread(() -> {
-            if (filteredList.isEmpty()) {
-                Toast.makeText(this, getString(R.string.empty_filtered_list), Toast.LENGTH_SHORT).show();
-                batchItemAdapter.clear();
-            }
-            FastAdapterDiffUtil.INSTANCE.set(batchItemAdapter, batchList);
-            searchViewController.setup();
-            batchFastAdapter.notifyAdapterDataSetChanged();
-            updateCheckAll();
-            binding.refreshLayout.setRefreshing(false);
-            UIUtils.slideUp(binding.bottomBar);
+        listExecutor.execute(() -> {
+            DiffUtil.DiffResult diffResult = FastAdapterDiffUtil.INSTANCE.calculateDiff(
+                    batchItemAdapter, batchList, ItemUtils.BATCH_ITEM_DIFF_CALLBACK, true);
+            runOnUiThread(() -> {
+                FastAdapterDiffUtil.INSTANCE.set(batchItemAdapter, diffResult);
+                batchItems = batchList;
+                updateCheckAll();
+                if (!finished) return;
+                if (filteredList.isEmpty()) {
+                    Toast.makeText(this, getString(R.string.empty_filtered_list), Toast.LENGTH_SHORT).show();
+                }
+                if (!searchQuery.trim().isEmpty()) search(searchQuery);
+                searchViewController.setup();
+                binding.refreshLayout.setRefreshing(false);
+                UIUtils.slideUp(binding.bottomBar);
+            });
         });
     }
 
@@ -43,12 +43,15 @@ import com.machiav3lli.backup.activities.MainActivityX;
 import com.machiav3lli.backup.databinding.SheetAppBinding;
 import com.machiav3lli.backup.dialogs.BackupDialogFragment;
 import com.machiav3lli.backup.dialogs.RestoreDialogFragment;
+import com.machiav3lli.backup.handler.AppRegistry;
 import com.machiav3lli.backup.handler.BackupRestoreHelper;
 import com.machiav3lli.backup.handler.HandleMessages;
 import com.machiav3lli.backup.handler.NotificationHelper;
 import com.machiav3lli.backup.handler.ShellCommands;
 import com.machiav3lli.backup.handler.ShellHandler;
 import com.machiav3lli.backup.handler.SortFilterManager;
+import com.machiav3lli.backup.handler.StorageStatsProvider;
+import com.machiav3lli.backup.items.ActionStats;
 import com.machiav3lli.backup.items.AppInfoX;
 import com.machiav3lli.backup.items.AppMetaInfo;
 import com.machiav3lli.backup.items.BackupItem;
@@ -56,7 +59,9 @@ import com.machiav3lli.backup.items.BackupItemX;
 import com.machiav3lli.backup.items.BackupProperties;
 import com.machiav3lli.backup.items.MainItemX;
 import com.machiav3lli.backup.tasks.BackupTask;
+import com.machiav3lli.backup.tasks.QueuedTask;
 import com.machiav3lli.backup.tasks.RestoreTask;
+import com.machiav3lli.backup.tasks.TaskQueue;
 import com.machiav3lli.backup.utils.ItemUtils;
 import com.machiav3lli.backup.utils.UIUtils;
 import com.mikepenz.fastadapter.FastAdapter;
@@ -153,6 +158,7 @@ public class AppSheet extends BottomSheetDialogFragment implements ActionListene
             binding.recyclerView.setLayoutManager(new LinearLayoutManager(requireContext()));
             backupFastAdapter.addEventHook(new OnRestoreClickHook());
             backupFastAdapter.addEventHook(new OnDeleteClickHook());
+            backupFastAdapter.addEventHook(new OnStatsClickHook());
             List<BackupItemX> backupList = new ArrayList<>();
             for (BackupItem backup : app.getBackupHistory())
                 backupList.add(new BackupItemX(backup));
@@ -222,6 +228,7 @@ public class AppSheet extends BottomSheetDialogFragment implements ActionListene
             try {
                 Log.i(AppSheet.TAG, String.format("%s: Wiping cache", this.app));
                 ShellCommands.wipeCache(this.requireContext(), this.app);
+                StorageStatsProvider.getInstance(this.requireContext()).invalidate(this.app.getPackageName());
                 this.requireMainActivity().refreshWithAppSheet();
             } catch (ShellCommands.ShellActionFailedException e) {
                 // Not a critical issue
@@ -245,13 +252,14 @@ public class AppSheet extends BottomSheetDialogFragment implements ActionListene
         binding.deleteAll.setOnClickListener(v -> new AlertDialog.Builder(this.requireContext())
                 .setTitle(this.app.getPackageLabel())
                 .setMessage(R.string.deleteBackupDialogMessage)
-                .setPositiveButton(R.string.dialogYes, (dialog, which) -> new Thread(() -> {
+                .setPositiveButton(R.string.dialogYes, (dialog, which) -> TaskQueue.getInstance(this.requireContext()).submit(QueuedTask.of(QueuedTask.Priority.INTERACTIVE, this.app.getPackageLabel(), () -> {
                     this.handleMessages.showMessage(this.app.getPackageLabel(), getString(R.string.delete_all_backups));
                     // Latest backup only currently
                     this.app.deleteAllBackups();
+                    AppRegistry.getInstance(this.requireContext()).notifyPackageChanged(this.app.getPackageName());
                     this.handleMessages.endMessage();
                     this.requireMainActivity().refreshWithAppSheet();
-                }).start())
+                })))
                 .setNegativeButton(R.string.dialogNo, null)
                 .show()
         );
@@ -330,31 +338,54 @@ public class AppSheet extends BottomSheetDialogFragment implements ActionListene
             new AlertDialog.Builder(AppSheet.this.requireContext())
                     .setTitle(AppSheet.this.app.getPackageLabel())
                     .setMessage(R.string.deleteBackupDialogMessage)
-                    .setPositiveButton(R.string.dialogYes, (dialog, which) -> new Thread(() -> {
+                    .setPositiveButton(R.string.dialogYes, (dialog, which) -> TaskQueue.getInstance(AppSheet.this.requireContext()).submit(QueuedTask.of(QueuedTask.Priority.INTERACTIVE, AppSheet.this.app.getPackageLabel(), () -> {
                         AppSheet.this.handleMessages.showMessage(AppSheet.this.app.getPackageLabel(), getString(R.string.deleteBackup));
                         if (!AppSheet.this.app.hasBackups()) {
                             Log.w(AppSheet.TAG, "UI Issue! Tried to delete backups for app without backups.");
                             return;
                         }
                         AppSheet.this.app.delete(item.getBackup());
+                        AppRegistry.getInstance(AppSheet.this.requireContext()).notifyPackageChanged(AppSheet.this.app.getPackageName());
                         AppSheet.this.handleMessages.endMessage();
                         AppSheet.this.requireMainActivity().refreshWithAppSheet();
-                    }).start())
+                    })))
                     .setNegativeButton(R.string.dialogNo, null)
                     .show();
         }
     }
 
+    public class OnStatsClickHook extends ClickEventHook<BackupItemX> {
+
+        @Nullable
+        @Override
+        public View onBind(@NotNull RecyclerView.ViewHolder viewHolder) {
+            return viewHolder.itemView.findViewById(R.id.stats);
+        }
+
+        @Override
+        public void onClick(@NotNull View view, int i, @NotNull FastAdapter<BackupItemX> fastAdapter, @NotNull BackupItemX item) {
+            ActionStats stats = item.getBackup().getBackupProperties().getStats();
+            if (stats == null) {
+                return;
+            }
+            new AlertDialog.Builder(AppSheet.this.requireContext())
+                    .setTitle(R.string.backup_stats)
+                    .setMessage(ItemUtils.formatStats(AppSheet.this.requireContext(), stats))
+                    .setPositiveButton(R.string.dialogOK, null)
+                    .show();
+        }
+    }
+
     @Override
     public void onActionCalled(BackupRestoreHelper.ActionType actionType, int mode) {
         if (actionType == BackupRestoreHelper.ActionType.BACKUP) {
-            new BackupTask(this.app, handleMessages, requireMainActivity(), MainActivityX.getShellHandlerInstance(), mode).execute();
+            new BackupTask(this.app, handleMessages, requireMainActivity(), MainActivityX.getShellHandlerInstance(), mode).enqueue(requireContext());
         } else if (actionType == BackupRestoreHelper.ActionType.RESTORE) {
             // Latest Backup for now
             BackupItem selectedBackup = this.app.getLatestBackup();
             new RestoreTask(this.app, this.handleMessages, this.requireMainActivity(),
                     selectedBackup.getBackupProperties(), selectedBackup.getBackupLocation(),
-                    MainActivityX.getShellHandlerInstance(), mode).execute();
+                    MainActivityX.getShellHandlerInstance(), mode).enqueue(requireContext());
         } else {
             Log.e(TAG, "unknown actionType: " + actionType);
         }
@@ -50,19 +50,13 @@ public class BatchFragment extends Fragment implements SearchViewController {
         binding.searchBar.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
             @Override
             public boolean onQueryTextChange(String newText) {
-                requireMainActivity().getBatchItemAdapter().filter(newText);
-                requireMainActivity().getBatchItemAdapter().getItemFilter().setFilterPredicate((mainItemX, charSequence) ->
-                        mainItemX.getApp().getPackageLabel().toLowerCase().contains(String.valueOf(charSequence).toLowerCase())
-                                || mainItemX.getApp().getPackageName().toLowerCase().contains(String.valueOf(charSequence).toLowerCase()));
+                requireMainActivity().search(newText);
                 return true;
             }
 
             @Override
             public boolean onQueryTextSubmit(String query) {
-                requireMainActivity().getBatchItemAdapter().filter(query);
-                requireMainActivity().getBatchItemAdapter().getItemFilter().setFilterPredicate((mainItemX, charSequence) ->
-                        mainItemX.getApp().getPackageLabel().toLowerCase().contains(String.valueOf(charSequence).toLowerCase())
-                                || mainItemX.getApp().getPackageName().toLowerCase().contains(String.valueOf(charSequence).toLowerCase()));
+                requireMainActivity().search(query);
                 return true;
             }
         });
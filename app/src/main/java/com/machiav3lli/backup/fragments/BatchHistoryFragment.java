@@ -0,0 +1,290 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.fragments;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.text.format.DateUtils;
+import android.text.format.Formatter;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.fragment.app.Fragment;
+
+import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.R;
+import com.machiav3lli.backup.databinding.FragmentBatchHistoryBinding;
+import com.machiav3lli.backup.handler.AppRegistry;
+import com.machiav3lli.backup.handler.BackupRestoreHelper;
+import com.machiav3lli.backup.handler.BatchJournal;
+import com.machiav3lli.backup.items.ActionStats;
+import com.machiav3lli.backup.items.BackupItem;
+import com.machiav3lli.backup.tasks.db.BatchJobEntry;
+import com.machiav3lli.backup.tasks.db.BatchRun;
+import com.machiav3lli.backup.utils.ItemUtils;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Shows the history of the batches: averages and the trend per schedule, the latest batches, the
+ * apps which took the longest with the stats of the slowest restores, the apps whose backups
+ * grew the most and the slowest and largest backups there are
+ */
+public class BatchHistoryFragment extends Fragment {
+    private static final String TAG = Constants.classTag(".BatchHistoryFragment");
+    private static final int HISTORY_LIMIT = 200;
+    private static final int RECENT_LIMIT = 20;
+    private static final int SLOWEST_LIMIT = 3;
+    private static final int SLOWEST_OVERALL_LIMIT = 15;
+    private static final long SLOWEST_PERIOD = TimeUnit.DAYS.toMillis(30);
+    private static final int SLOWEST_RESTORES_LIMIT = 5;
+    private static final int SIZE_TREND_LIMIT = 15;
+    private static final int BACKUPS_BY_STATS_LIMIT = 10;
+    // growth of the latest backup over the average of the ones before worth mentioning
+    private static final int SIZE_TREND_THRESHOLD = 25;
+    private static final long SIZE_TREND_PERIOD = TimeUnit.DAYS.toMillis(90);
+    private FragmentBatchHistoryBinding binding;
+
+    @Nullable
+    @Override
+    public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container,
+                             @Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        binding = FragmentBatchHistoryBinding.inflate(inflater, container, false);
+        return binding.getRoot();
+    }
+
+    @Override
+    public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+        final Context context = this.requireContext().getApplicationContext();
+        // Room doesn't allow queries on the ui thread
+        new Thread(() -> {
+            BatchJournal journal = new BatchJournal(context);
+            List<BatchRun> history = journal.getHistory(BatchHistoryFragment.HISTORY_LIMIT);
+            String schedulesText = this.describeSchedules(context, history);
+            String runsText = this.describeRuns(context, journal, history);
+            String slowestText = this.describeSlowest(context,
+                    journal.getSlowestEntries(System.currentTimeMillis() - BatchHistoryFragment.SLOWEST_PERIOD,
+                            BatchHistoryFragment.SLOWEST_OVERALL_LIMIT));
+            String restoresText = this.describeRestores(context,
+                    journal.getSucceededEntries(BackupRestoreHelper.ActionType.RESTORE,
+                            System.currentTimeMillis() - BatchHistoryFragment.SLOWEST_PERIOD));
+            String sizeTrendText = this.describeSizeTrends(context,
+                    journal.getSucceededEntries(BackupRestoreHelper.ActionType.BACKUP,
+                            System.currentTimeMillis() - BatchHistoryFragment.SIZE_TREND_PERIOD));
+            AppRegistry registry = AppRegistry.getInstance(context);
+            String slowestBackupsText = this.describeBackups(context,
+                    registry.getBackupsByStats(ActionStats::getDuration, BatchHistoryFragment.BACKUPS_BY_STATS_LIMIT));
+            String largestBackupsText = this.describeBackups(context,
+                    registry.getBackupsByStats(ActionStats::getBytesWritten, BatchHistoryFragment.BACKUPS_BY_STATS_LIMIT));
+            view.post(() -> {
+                if (this.binding == null) {
+                    return;
+                }
+                if (!schedulesText.isEmpty()) this.binding.schedulesText.setText(schedulesText);
+                if (!runsText.isEmpty()) this.binding.runsText.setText(runsText);
+                if (!slowestText.isEmpty()) this.binding.slowestText.setText(slowestText);
+                if (!restoresText.isEmpty()) this.binding.restoresText.setText(restoresText);
+                if (!sizeTrendText.isEmpty()) this.binding.sizeTrendText.setText(sizeTrendText);
+                if (!slowestBackupsText.isEmpty()) this.binding.slowestBackupsText.setText(slowestBackupsText);
+                if (!largestBackupsText.isEmpty()) this.binding.largestBackupsText.setText(largestBackupsText);
+            });
+        }).start();
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        binding = null;
+    }
+
+    /**
+     * Averages the batches per schedule and compares the latest batch of each with the average
+     * of the ones before. Batches started by hand are grouped by their action, because backups
+     * count the bytes written and restores the bytes read.
+     */
+    private String describeSchedules(Context context, List<BatchRun> history) {
+        // newest first, like the history
+        Map<String, List<BatchRun>> groups = new LinkedHashMap<>();
+        for (BatchRun batchRun : history) {
+            groups.computeIfAbsent(BatchHistoryFragment.describeOrigin(context, batchRun), key -> new ArrayList<>()).add(batchRun);
+        }
+        List<String> descriptions = new ArrayList<>(groups.size());
+        for (Map.Entry<String, List<BatchRun>> group : groups.entrySet()) {
+            final List<BatchRun> runs = group.getValue();
+            final long duration = (long) runs.stream().mapToLong(BatchRun::getDuration).average().orElse(0);
+            final long bytes = (long) runs.stream().mapToLong(BatchRun::getTotalBytes).average().orElse(0);
+            final long throughput = (long) runs.stream().mapToLong(BatchRun::getThroughput).average().orElse(0);
+            final int apps = runs.stream().mapToInt(BatchRun::getAppCount).sum();
+            final int failed = runs.stream().mapToInt(BatchRun::getFailed).sum();
+            StringBuilder description = new StringBuilder(context.getString(R.string.batch_history_group,
+                    group.getKey(),
+                    runs.size(),
+                    DateUtils.formatElapsedTime(duration / 1000),
+                    Formatter.formatFileSize(context, bytes),
+                    Formatter.formatFileSize(context, throughput),
+                    apps > 0 ? failed * 100 / apps : 0));
+            if (runs.size() > 1) {
+                final BatchRun latest = runs.get(0);
+                final List<BatchRun> previous = runs.subList(1, runs.size());
+                description.append('\n').append(context.getString(R.string.batch_history_trend,
+                        BatchHistoryFragment.percentChange(latest.getDuration(), previous.stream().mapToLong(BatchRun::getDuration).average().orElse(0)),
+                        BatchHistoryFragment.percentChange(latest.getTotalBytes(), previous.stream().mapToLong(BatchRun::getTotalBytes).average().orElse(0))));
+            }
+            descriptions.add(description.toString());
+        }
+        return String.join("\n\n", descriptions);
+    }
+
+    private String describeRuns(Context context, BatchJournal journal, List<BatchRun> history) {
+        List<String> descriptions = new ArrayList<>();
+        for (BatchRun batchRun : history.subList(0, Math.min(history.size(), BatchHistoryFragment.RECENT_LIMIT))) {
+            StringBuilder description = new StringBuilder(context.getString(R.string.batch_history_run,
+                    ItemUtils.getFormattedDate(LocalDateTime.ofInstant(Instant.ofEpochMilli(batchRun.getTimeStarted()), ZoneId.systemDefault()), true),
+                    BatchHistoryFragment.describeOrigin(context, batchRun),
+                    batchRun.getAppCount(),
+                    batchRun.getFailed(),
+                    DateUtils.formatElapsedTime(batchRun.getDuration() / 1000),
+                    Formatter.formatFileSize(context, batchRun.getTotalBytes()),
+                    Formatter.formatFileSize(context, batchRun.getThroughput())));
+            List<BatchJobEntry> slowest = journal.getSlowestEntries(batchRun, BatchHistoryFragment.SLOWEST_LIMIT);
+            if (!slowest.isEmpty()) {
+                description.append('\n').append(context.getString(R.string.batch_history_slowest,
+                        slowest.stream().map(entry -> BatchHistoryFragment.describeEntry(context, entry)).collect(Collectors.joining(", "))));
+            }
+            descriptions.add(description.toString());
+        }
+        return String.join("\n\n", descriptions);
+    }
+
+    private String describeSlowest(Context context, List<BatchJobEntry> entries) {
+        return entries.stream()
+                .map(entry -> BatchHistoryFragment.describeEntry(context, entry))
+                .collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * Lists the slowest restores with the stats of their stages
+     *
+     * @param entries succeeded restores
+     */
+    private String describeRestores(Context context, List<BatchJobEntry> entries) {
+        return entries.stream()
+                .sorted(Comparator.comparingLong(BatchJobEntry::getDuration).reversed())
+                .limit(BatchHistoryFragment.SLOWEST_RESTORES_LIMIT)
+                .map(entry -> entry.getStats() != null
+                        ? BatchHistoryFragment.describeEntry(context, entry) + '\n' + ItemUtils.formatStats(context, entry.getStats())
+                        : BatchHistoryFragment.describeEntry(context, entry))
+                .collect(Collectors.joining("\n\n"));
+    }
+
+    /**
+     * Compares the latest backup of each app with the average of its backups before and lists
+     * the apps whose backups grew the most, e.g. because an update started to store much more
+     *
+     * @param entries succeeded backups grouped by package, newest first within each package
+     */
+    private String describeSizeTrends(Context context, List<BatchJobEntry> entries) {
+        Map<String, List<BatchJobEntry>> packages = entries.stream()
+                .collect(Collectors.groupingBy(BatchJobEntry::getPackageName, LinkedHashMap::new, Collectors.toList()));
+        List<SizeTrend> trends = new ArrayList<>();
+        for (List<BatchJobEntry> backups : packages.values()) {
+            if (backups.size() < 2) {
+                continue;
+            }
+            final BatchJobEntry latest = backups.get(0);
+            final List<BatchJobEntry> previous = backups.subList(1, backups.size());
+            final int change = BatchHistoryFragment.percentChange(latest.getBytes(),
+                    previous.stream().mapToLong(BatchJobEntry::getBytes).average().orElse(0));
+            if (change >= BatchHistoryFragment.SIZE_TREND_THRESHOLD) {
+                trends.add(new SizeTrend(latest, change, previous.size()));
+            }
+        }
+        return trends.stream()
+                .sorted(Comparator.comparingInt((SizeTrend trend) -> trend.change).reversed())
+                .limit(BatchHistoryFragment.SIZE_TREND_LIMIT)
+                .map(trend -> context.getString(R.string.batch_history_size_trend,
+                        trend.latest.getPackageName(),
+                        Formatter.formatFileSize(context, trend.latest.getBytes()),
+                        trend.change,
+                        trend.previous))
+                .collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * Lists backups there are with the stats they were taken with
+     *
+     * @param backups backups with stats
+     */
+    private String describeBackups(Context context, List<BackupItem> backups) {
+        return backups.stream()
+                .map(backup -> {
+                    final ActionStats stats = backup.getBackupProperties().getStats();
+                    return context.getString(R.string.batch_history_backup,
+                            backup.getBackupProperties().getPackageName(),
+                            ItemUtils.getFormattedDate(backup.getBackupProperties().getBackupDate(), true),
+                            DateUtils.formatElapsedTime(stats.getDuration() / 1000),
+                            Formatter.formatFileSize(context, stats.getBytesWritten()));
+                })
+                .collect(Collectors.joining("\n"));
+    }
+
+    private static String describeOrigin(Context context, BatchRun batchRun) {
+        if (batchRun.getSchedules() != null) {
+            return context.getString(R.string.batch_history_schedules, batchRun.getSchedules());
+        }
+        return context.getString(R.string.batch_history_manual,
+                context.getString(BackupRestoreHelper.ActionType.RESTORE.name().equals(batchRun.getActionType())
+                        ? R.string.restore : R.string.backup));
+    }
+
+    private static String describeEntry(Context context, BatchJobEntry entry) {
+        return context.getString(R.string.batch_history_app, entry.getPackageName(),
+                DateUtils.formatElapsedTime(entry.getDuration() / 1000),
+                Formatter.formatFileSize(context, entry.getBytes()));
+    }
+
+    private static int percentChange(long value, double average) {
+        return average > 0 ? (int) Math.round((value - average) * 100 / average) : 0;
+    }
+
+    private static class SizeTrend {
+        final BatchJobEntry latest;
+        final int change;
+        final int previous;
+
+        SizeTrend(BatchJobEntry latest, int change, int previous) {
+            this.latest = latest;
+            this.change = change;
+            this.previous = previous;
+        }
+    }
+}
@@ -59,19 +59,13 @@ public class MainFragment extends Fragment implements SearchViewController {
         binding.searchBar.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
             @Override
             public boolean onQueryTextChange(String newText) {
-                requireMainActivity().getMainItemAdapter().filter(newText);
-                requireMainActivity().getMainItemAdapter().getItemFilter().setFilterPredicate((mainItemX, charSequence) ->
-                        mainItemX.getApp().getPackageLabel().toLowerCase().contains(String.valueOf(charSequence).toLowerCase())
-                                || mainItemX.getApp().getPackageName().toLowerCase().contains(String.valueOf(charSequence).toLowerCase()));
+                requireMainActivity().search(newText);
                 return true;
             }
 
             @Override
             public boolean onQueryTextSubmit(String query) {
-                requireMainActivity().getMainItemAdapter().filter(query);
-                requireMainActivity().getMainItemAdapter().getItemFilter().setFilterPredicate((mainItemX, charSequence) ->
-                        mainItemX.getApp().getPackageLabel().toLowerCase().contains(String.valueOf(charSequence).toLowerCase())
-                                || mainItemX.getApp().getPackageName().toLowerCase().contains(String.valueOf(charSequence).toLowerCase()));
+                requireMainActivity().search(query);
                 return true;
             }
         });
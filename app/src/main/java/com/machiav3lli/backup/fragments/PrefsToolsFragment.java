@@ -31,11 +31,13 @@ import androidx.preference.PreferenceFragmentCompat;
 import com.machiav3lli.backup.Constants;
 import com.machiav3lli.backup.R;
 import com.machiav3lli.backup.activities.PrefsActivity;
-import com.machiav3lli.backup.handler.BackendController;
+import com.machiav3lli.backup.handler.AppRegistry;
 import com.machiav3lli.backup.handler.HandleMessages;
 import com.machiav3lli.backup.handler.NotificationHelper;
 import com.machiav3lli.backup.handler.ShellCommands;
 import com.machiav3lli.backup.items.AppInfoX;
+import com.machiav3lli.backup.tasks.QueuedTask;
+import com.machiav3lli.backup.tasks.TaskQueue;
 import com.machiav3lli.backup.utils.FileUtils;
 import com.machiav3lli.backup.utils.PrefUtils;
 import com.machiav3lli.backup.utils.UIUtils;
@@ -72,6 +74,9 @@ public class PrefsToolsFragment extends PreferenceFragmentCompat {
 
         pref = findPreference(Constants.PREFS_LOGVIEWER);
         pref.setOnPreferenceClickListener(preference -> this.launchFragment(new LogsFragment()));
+
+        pref = findPreference(Constants.PREFS_BATCH_HISTORY);
+        pref.setOnPreferenceClickListener(preference -> this.launchFragment(new BatchHistoryFragment()));
     }
 
     @Override
@@ -79,7 +84,7 @@ public class PrefsToolsFragment extends PreferenceFragmentCompat {
         super.onResume();
         new Thread(() -> {
             try {
-                appInfoList = BackendController.getApplicationList(requireContext());
+                appInfoList = AppRegistry.getInstance(requireContext()).getApps(false);
             } catch (FileUtils.BackupLocationIsAccessibleException | PrefUtils.StorageLocationNotConfiguredException e) {
                 e.printStackTrace();
             }
@@ -119,7 +124,8 @@ public class PrefsToolsFragment extends PreferenceFragmentCompat {
                     .setMessage(message.toString().trim())
                     .setPositiveButton(R.string.dialogYes, (dialog, which) -> {
                         changesMade();
-                        new Thread(() -> deleteBackups(deleteList)).start();
+                        TaskQueue.getInstance(requireContext()).submit(QueuedTask.of(QueuedTask.Priority.BATCH,
+                                getString(R.string.batchDeleteNotificationTitle), () -> deleteBackups(deleteList)));
                     })
                     .setNegativeButton(R.string.dialogNo, null)
                     .show();
@@ -146,11 +152,17 @@ public class PrefsToolsFragment extends PreferenceFragmentCompat {
 
     public void deleteBackups(List<AppInfoX> deleteList) {
         handleMessages.showMessage(getString(R.string.batchDeleteMessage), "");
+        final QueuedTask task = QueuedTask.getCurrent();
         for (AppInfoX appInfo : deleteList) {
+            if (task != null && task.isCancelled()) {
+                Log.i(TAG, "batch delete cancelled");
+                break;
+            }
             handleMessages.showMessage(getString(R.string.batchDeleteMessage), appInfo.getPackageLabel());
             Log.i(TAG, "deleting backups of " + appInfo.getPackageLabel());
             appInfo.deleteAllBackups();
             appInfo.refreshBackupHistory();
+            AppRegistry.getInstance(requireContext()).notifyPackageChanged(appInfo.getPackageName());
         }
         handleMessages.endMessage();
         NotificationHelper.showNotification(requireContext(), PrefsActivity.class, (int) System.currentTimeMillis(), getString(R.string.batchDeleteNotificationTitle), getString(R.string.batchDeleteBackupsDeleted) + " " + deleteList.size(), false);
@@ -21,7 +21,9 @@ import android.app.Dialog;
 import android.app.TimePickerDialog;
 import android.content.Context;
 import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.PowerManager;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -42,6 +44,7 @@ import com.machiav3lli.backup.Constants;
 import com.machiav3lli.backup.R;
 import com.machiav3lli.backup.activities.SchedulerActivityX;
 import com.machiav3lli.backup.databinding.SheetScheduleBinding;
+import com.machiav3lli.backup.dialogs.BatteryLevelDialog;
 import com.machiav3lli.backup.dialogs.IntervalInDaysDialog;
 import com.machiav3lli.backup.items.SchedulerItemX;
 import com.machiav3lli.backup.schedules.BlacklistsDBHelper;
@@ -59,7 +62,8 @@ import java.util.List;
 import java.util.Optional;
 
 // TODO take care of: "Resource IDs will be non-final in Android Gradle Plugin version 5.0, avoid using them in switch case statements"
-public class ScheduleSheet extends BottomSheetDialogFragment implements TimePickerDialog.OnTimeSetListener, IntervalInDaysDialog.ConfirmListener {
+public class ScheduleSheet extends BottomSheetDialogFragment implements TimePickerDialog.OnTimeSetListener, IntervalInDaysDialog.ConfirmListener,
+        BatteryLevelDialog.ConfirmListener {
     private static final String TAG = Constants.classTag(".ScheduleSheet");
     private final Schedule sched;
     private HandleAlarms handleAlarms;
@@ -174,6 +178,14 @@ public class ScheduleSheet extends BottomSheetDialogFragment implements TimePick
         binding.intervalDays.setText(String.valueOf(sched.getInterval()));
         binding.enableCheckbox.setChecked(sched.isEnabled());
         binding.enableCustomList.setChecked(sched.isEnableCustomList());
+        binding.skipUnchanged.setChecked(sched.isSkipUnchanged());
+        binding.requireCharging.setChecked(sched.isRequireCharging());
+        binding.requireIdle.setChecked(sched.isRequireIdle());
+        binding.requireUnmetered.setChecked(sched.isRequireUnmetered());
+        binding.requireCool.setChecked(sched.getMaxThermalStatus() < PowerManager.THERMAL_STATUS_SHUTDOWN);
+        // the thermal status is only available since Android 10
+        binding.requireCool.setVisibility(Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q ? View.VISIBLE : View.GONE);
+        binding.minBatteryLevel.setText(String.valueOf(sched.getMinBatteryLevel()));
         setTimeLeft(sched, System.currentTimeMillis());
         idNumber = sched.getId();
 
@@ -214,6 +226,14 @@ public class ScheduleSheet extends BottomSheetDialogFragment implements TimePick
                 new IntervalInDaysDialog(this, binding.intervalDays.getText())
                         .show(requireActivity().getSupportFragmentManager(), "DialogFragment"));
         binding.excludeSystem.setOnClickListener(v -> refreshSheet());
+        binding.skipUnchanged.setOnClickListener(v -> refreshSheet());
+        binding.requireCharging.setOnClickListener(v -> refreshSheet());
+        binding.requireIdle.setOnClickListener(v -> refreshSheet());
+        binding.requireUnmetered.setOnClickListener(v -> refreshSheet());
+        binding.requireCool.setOnClickListener(v -> refreshSheet());
+        binding.minBatteryLevel.setOnClickListener(v ->
+                new BatteryLevelDialog(this, binding.minBatteryLevel.getText())
+                        .show(requireActivity().getSupportFragmentManager(), "DialogFragment"));
         binding.enableCustomList.setOnClickListener(v -> refreshSheet());
         binding.customListUpdate.setOnClickListener(v -> CustomPackageList.showList(requireActivity(),
                 (int) idNumber, idToMode(binding.schedMode.getCheckedChipId())));
@@ -257,6 +277,12 @@ public class ScheduleSheet extends BottomSheetDialogFragment implements TimePick
         refreshSheet();
     }
 
+    @Override
+    public void onBatteryLevelConfirmed(int batteryLevel) {
+        binding.minBatteryLevel.setText(String.valueOf(batteryLevel));
+        refreshSheet();
+    }
+
     private void changeScheduleMode(Schedule.Mode mode, long id) {
         final ModeChangerRunnable modeChangerRunnable =
                 new ModeChangerRunnable((SchedulerActivityX) requireActivity(), id, mode);
@@ -280,11 +306,16 @@ public class ScheduleSheet extends BottomSheetDialogFragment implements TimePick
     private Schedule getScheduleDataFromView(int id) {
         final boolean enableCustomList = binding.enableCustomList.isChecked();
         final boolean excludeSystemPackages = binding.excludeSystem.isChecked();
+        final boolean skipUnchanged = binding.skipUnchanged.isChecked();
         final boolean enabled = binding.enableCheckbox.isChecked();
         final String[] time = binding.timeOfDay.getText().toString().split(":");
         final int timeHour = Integer.parseInt(time[0]);
         final int timeMinute = Integer.parseInt(time[1]);
         final int interval = Integer.parseInt(binding.intervalDays.getText().toString());
+        final int minBatteryLevel = Integer.parseInt(binding.minBatteryLevel.getText().toString());
+        // the backup waits while the device is warmer than lightly throttled
+        final int maxThermalStatus = binding.requireCool.isChecked()
+                ? PowerManager.THERMAL_STATUS_LIGHT : PowerManager.THERMAL_STATUS_SHUTDOWN;
         if (enabled) handleAlarms.setAlarm(id, interval, timeHour, timeMinute);
 
         return new Schedule.Builder()
@@ -298,6 +329,12 @@ public class ScheduleSheet extends BottomSheetDialogFragment implements TimePick
                 .withEnabled(enabled)
                 .withExcludeSystem(excludeSystemPackages)
                 .withEnableCustomList(enableCustomList)
+                .withSkipUnchanged(skipUnchanged)
+                .withRequireCharging(binding.requireCharging.isChecked())
+                .withRequireIdle(binding.requireIdle.isChecked())
+                .withRequireUnmetered(binding.requireUnmetered.isChecked())
+                .withMinBatteryLevel(minBatteryLevel)
+                .withMaxThermalStatus(maxThermalStatus)
                 .build();
     }
 
@@ -495,8 +532,7 @@ public class ScheduleSheet extends BottomSheetDialogFragment implements TimePick
                     final HandleScheduledBackups handleScheduledBackups =
                             handleScheduledBackupsReference.get();
                     if (handleScheduledBackups != null) {
-                        handleScheduledBackups.initiateBackup((int) id, schedule.getMode(),
-                                schedule.getSubmode().getValue(), schedule.isExcludeSystem(), schedule.isEnableCustomList());
+                        handleScheduledBackups.initiateBackup(schedule);
                     }
                 }
             });
@@ -0,0 +1,288 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.handler;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.items.AppInfoX;
+import com.machiav3lli.backup.items.BackupItem;
+import com.machiav3lli.backup.items.BackupProperties;
+import com.machiav3lli.backup.tasks.QueuedTask;
+import com.machiav3lli.backup.utils.DocumentHelper;
+import com.machiav3lli.backup.utils.FileUtils;
+import com.machiav3lli.backup.utils.PrefUtils;
+import com.topjohnwu.superuser.io.SuFile;
+import com.topjohnwu.superuser.io.SuFileInputStream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content addressed storage of apks, shared by all backup revisions of a package. Every apk is
+ * stored once per versionCode and SHA-256 in the "apks" directory of the package's backup
+ * directory and backups only reference it. A stored apk is deleted as soon as no backup of the
+ * package references it anymore. The store directories are kept by package, so they aren't
+ * searched in the backup location again for every apk.
+ */
+public final class ApkStore {
+    private static final String TAG = Constants.classTag(".ApkStore");
+    public static final String STORE_DIR = "apks";
+    private static final String PARTIAL_SUFFIX = ".partial";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Map<String, StorageFile> storeDirs = new ConcurrentHashMap<>();
+
+    private ApkStore() {
+    }
+
+    public static String getBlobName(int versionCode, String sha256) {
+        return String.format("%d-%s.apk", versionCode, sha256);
+    }
+
+    /**
+     * Forgets the store directories, e.g. because the backup location changed
+     */
+    public static void forgetStoreDirs() {
+        ApkStore.storeDirs.clear();
+    }
+
+    /**
+     * @return the known store directory of the package or null if it isn't known or doesn't
+     * exist anymore
+     */
+    private static StorageFile getKnownStoreDir(String packageName) {
+        StorageFile storeDir = ApkStore.storeDirs.get(packageName);
+        if (storeDir != null && !storeDir.exists()) {
+            ApkStore.storeDirs.remove(packageName, storeDir);
+            return null;
+        }
+        return storeDir;
+    }
+
+    /**
+     * Puts the apks into the store of the package. Only apks, which aren't stored yet, are copied.
+     * Hashes of the latest backup are reused for files with the same name, size and modification
+     * time, so unchanged apks aren't even read.
+     *
+     * @param context      context to access the storage with
+     * @param app          package the apks belong to
+     * @param appBackupDir backup directory of the package
+     * @param apkPaths     paths of the base apk and the splits, base apk first
+     * @return references to the stored apks in the order of the given paths
+     * @throws IOException on errors reading an apk or writing the store
+     */
+    public static List<BackupProperties.ApkFile> store(Context context, AppInfoX app, Uri appBackupDir, String[] apkPaths) throws IOException {
+        // blobs are created, renamed and deleted through StorageFile, which keeps the cached
+        // listing of the store directory up to date
+        StorageFile storeDir = ApkStore.getKnownStoreDir(app.getPackageName());
+        if (storeDir == null) {
+            storeDir = DocumentHelper.ensureDirectory(StorageFile.fromUri(context, appBackupDir), ApkStore.STORE_DIR);
+            ApkStore.storeDirs.put(app.getPackageName(), storeDir);
+        }
+        Map<String, BackupProperties.ApkFile> previous = new HashMap<>();
+        BackupItem latestBackup = app.getLatestBackup();
+        if (latestBackup != null && latestBackup.getBackupProperties().getVersionCode() == app.getVersionCode()
+                && latestBackup.getBackupProperties().getApkFiles() != null) {
+            latestBackup.getBackupProperties().getApkFiles().forEach(apkFile -> previous.put(apkFile.getName(), apkFile));
+        }
+        List<BackupProperties.ApkFile> result = new ArrayList<>(apkPaths.length);
+        for (String apkPath : apkPaths) {
+            QueuedTask.throwIfCancelled();
+            File apk = new File(apkPath);
+            if (!apk.canRead()) {
+                apk = new SuFile(apkPath);
+            }
+            final long size = apk.length();
+            final long lastModified = apk.lastModified();
+            BackupProperties.ApkFile known = previous.get(apk.getName());
+            String sha256;
+            if (known != null && known.getSize() == size && known.getLastModified() == lastModified) {
+                sha256 = known.getSha256();
+            } else {
+                sha256 = ApkStore.hash(apk);
+            }
+            final String blobName = ApkStore.getBlobName(app.getVersionCode(), sha256);
+            StorageFile blob = storeDir.findFile(blobName);
+            if (blob != null && blob.exists()) {
+                Log.d(ApkStore.TAG, String.format("%s: %s is already stored as %s", app, apk.getName(), blobName));
+            } else {
+                Log.d(ApkStore.TAG, String.format("%s: Storing %s as %s", app, apk.getName(), blobName));
+                ApkStore.copyToStore(context, apk, storeDir, blobName);
+            }
+            result.add(new BackupProperties.ApkFile(apk.getName(), sha256, size, lastModified));
+        }
+        return result;
+    }
+
+    /**
+     * @param context    context to access the storage with
+     * @param properties backup to find the apks of
+     * @return stored apks of the backup by their original file names, base apk first, or null if
+     * the backup keeps its apks in the backup instance itself
+     * @throws FileNotFoundException if a referenced apk is missing in the store
+     */
+    public static Map<String, StorageFile> resolve(Context context, BackupProperties properties) throws FileNotFoundException {
+        List<BackupProperties.ApkFile> apkFiles = properties.getApkFiles();
+        if (apkFiles == null) {
+            return null;
+        }
+        StorageFile storeDir = ApkStore.getKnownStoreDir(properties.getPackageName());
+        if (storeDir == null) {
+            try {
+                StorageFile packageDir = DocumentHelper.getBackupRoot(context).findFile(properties.getPackageName());
+                storeDir = packageDir != null ? packageDir.findFile(ApkStore.STORE_DIR) : null;
+            } catch (FileUtils.BackupLocationIsAccessibleException | PrefUtils.StorageLocationNotConfiguredException e) {
+                throw new FileNotFoundException("Backup location is not accessible: " + e.getMessage());
+            }
+            if (storeDir == null) {
+                throw new FileNotFoundException(String.format("No apks stored for %s", properties.getPackageName()));
+            }
+            ApkStore.storeDirs.put(properties.getPackageName(), storeDir);
+        }
+        Map<String, StorageFile> result = new LinkedHashMap<>();
+        boolean relisted = false;
+        for (BackupProperties.ApkFile apkFile : apkFiles) {
+            final String blobName = ApkStore.getBlobName(properties.getVersionCode(), apkFile.getSha256());
+            StorageFile blob = storeDir.findFile(blobName);
+            if (blob == null && !relisted) {
+                // the blob might have been stored by something else than the ApkStore
+                storeDir.invalidateListing();
+                relisted = true;
+                blob = storeDir.findFile(blobName);
+            }
+            if (blob == null) {
+                throw new FileNotFoundException(String.format("Stored apk %s for %s is missing", blobName, apkFile.getName()));
+            }
+            result.put(apkFile.getName(), blob);
+        }
+        return result;
+    }
+
+    /**
+     * Deletes all stored apks of the package, which aren't referenced by any of the given
+     * backups anymore, as well as leftovers of interrupted copies.
+     *
+     * @param context      context to access the storage with
+     * @param packageName  package the backups belong to
+     * @param appBackupDir backup directory of the package
+     * @param backups      all remaining backups of the package
+     * @return number of deleted files
+     */
+    public static int prune(Context context, String packageName, Uri appBackupDir, List<BackupItem> backups) {
+        if (appBackupDir == null || backups == null) {
+            return 0;
+        }
+        StorageFile storeDir = ApkStore.getKnownStoreDir(packageName);
+        if (storeDir == null) {
+            storeDir = StorageFile.fromUri(context, appBackupDir).findFile(ApkStore.STORE_DIR);
+            if (storeDir == null) {
+                return 0;
+            }
+        }
+        Map<String, Integer> references = new HashMap<>();
+        for (BackupItem backup : backups) {
+            BackupProperties properties = backup.getBackupProperties();
+            if (properties.getApkFiles() != null) {
+                for (BackupProperties.ApkFile apkFile : properties.getApkFiles()) {
+                    references.merge(ApkStore.getBlobName(properties.getVersionCode(), apkFile.getSha256()), 1, Integer::sum);
+                }
+            }
+        }
+        int deleted = 0;
+        try {
+            for (StorageFile blob : storeDir.listFiles()) {
+                final String name = blob.getName();
+                if (name.endsWith(ApkStore.PARTIAL_SUFFIX) || !references.containsKey(name)) {
+                    Log.d(ApkStore.TAG, String.format("Deleting unreferenced apk %s", name));
+                    if (blob.delete()) {
+                        deleted++;
+                    }
+                }
+            }
+        } catch (FileNotFoundException e) {
+            Log.w(ApkStore.TAG, String.format("Could not list the apk store in %s: %s", appBackupDir, e));
+        }
+        if (references.isEmpty() && storeDir.delete()) {
+            ApkStore.storeDirs.remove(packageName);
+        }
+        return deleted;
+    }
+
+    private static void copyToStore(Context context, File apk, StorageFile storeDir, String blobName) throws IOException {
+        // copy under a temporary name, so an interrupted copy never looks like a valid blob
+        StorageFile partial = storeDir.createFile("application/octet-stream", blobName + ApkStore.PARTIAL_SUFFIX);
+        if (partial == null) {
+            throw new IOException("Could not create " + blobName + " in the apk store");
+        }
+        boolean complete = false;
+        try {
+            try (InputStream in = ApkStore.openApk(apk);
+                 OutputStream out = context.getContentResolver().openOutputStream(partial.getUri(), "w")) {
+                QueuedTask.copy(in, out, ApkStore.BUFFER_SIZE);
+            }
+            if (!partial.renameTo(blobName)) {
+                throw new IOException("Could not rename " + partial.getName() + " to " + blobName);
+            }
+            complete = true;
+        } finally {
+            if (!complete) {
+                partial.delete();
+            }
+        }
+    }
+
+    private static String hash(File apk) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+        byte[] buffer = new byte[ApkStore.BUFFER_SIZE];
+        try (InputStream in = ApkStore.openApk(apk)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                QueuedTask.throwIfCancelled();
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static InputStream openApk(File apk) throws IOException {
+        return apk instanceof SuFile ? new SuFileInputStream(apk) : new FileInputStream(apk);
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.handler;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.items.AppInfoX;
+import com.machiav3lli.backup.items.AppMetaInfo;
+import com.machiav3lli.backup.items.BackupItem;
+import com.machiav3lli.backup.items.BackupProperties;
+import com.machiav3lli.backup.items.SpecialAppMetaInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Persists the last computed app list in a compact binary format in the app's private storage.
+ * It's rendered right away on a cold start while the real list is computed in the background.
+ * Only what's needed to display the list is stored: package, label, version, flags, a summary
+ * of the backups and the data size. Icons are loaded from PackageManager when bound.
+ */
+public final class AppListSnapshot {
+    private static final String TAG = Constants.classTag(".AppListSnapshot");
+    private static final String SNAPSHOT_FILE = "applist.snapshot";
+    private static final int MAGIC = 0x4f414258; // OABX
+    private static final int VERSION = 1;
+
+    private static final int FLAG_INSTALLED = 1;
+    private static final int FLAG_SYSTEM = 1 << 1;
+    private static final int FLAG_SPECIAL = 1 << 2;
+    private static final int FLAG_DISABLED = 1 << 3;
+    private static final int FLAG_HAS_BACKUPS = 1 << 4;
+
+    private static final int BACKUP_APK = 1;
+    private static final int BACKUP_DATA = 1 << 1;
+    private static final int BACKUP_DEVICE_PROTECTED = 1 << 2;
+    private static final int BACKUP_EXTERNAL = 1 << 3;
+    private static final int BACKUP_OBB = 1 << 4;
+
+    private AppListSnapshot() {
+    }
+
+    private static File getSnapshotFile(Context context) {
+        return new File(context.getFilesDir(), AppListSnapshot.SNAPSHOT_FILE);
+    }
+
+    /**
+     * Writes the given list to the snapshot file. The file is replaced atomically, so a crash
+     * during writing leaves the previous snapshot intact.
+     *
+     * @param context Context object
+     * @param apps    list to persist
+     */
+    public static synchronized void save(Context context, List<AppInfoX> apps) {
+        File snapshotFile = AppListSnapshot.getSnapshotFile(context);
+        File tempFile = new File(snapshotFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(AppListSnapshot.MAGIC);
+            out.writeInt(AppListSnapshot.VERSION);
+            out.writeInt(apps.size());
+            for (AppInfoX app : apps) {
+                AppListSnapshot.writeApp(out, app);
+            }
+        } catch (IOException e) {
+            Log.w(AppListSnapshot.TAG, "Could not write app list snapshot: " + e);
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(snapshotFile)) {
+            Log.w(AppListSnapshot.TAG, "Could not replace app list snapshot");
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Reads the last persisted list. The returned objects are marked as snapshot objects.
+     *
+     * @param context Context object
+     * @return the persisted list or an empty list if there is no valid snapshot
+     */
+    public static synchronized List<AppInfoX> load(Context context) {
+        File snapshotFile = AppListSnapshot.getSnapshotFile(context);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            if (in.readInt() != AppListSnapshot.MAGIC || in.readInt() != AppListSnapshot.VERSION) {
+                Log.i(AppListSnapshot.TAG, "Ignoring app list snapshot of an unknown format");
+                return Collections.emptyList();
+            }
+            int count = in.readInt();
+            List<AppInfoX> apps = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                apps.add(AppListSnapshot.readApp(context, in));
+            }
+            return apps;
+        } catch (FileNotFoundException e) {
+            return Collections.emptyList();
+        } catch (IOException | RuntimeException e) {
+            Log.w(AppListSnapshot.TAG, "Discarding broken app list snapshot: " + e);
+            //noinspection ResultOfMethodCallIgnored
+            snapshotFile.delete();
+            return Collections.emptyList();
+        }
+    }
+
+    private static void writeApp(DataOutputStream out, AppInfoX app) throws IOException {
+        int flags = 0;
+        if (app.isInstalled()) flags |= AppListSnapshot.FLAG_INSTALLED;
+        if (app.getAppInfo().isSystem()) flags |= AppListSnapshot.FLAG_SYSTEM;
+        if (app.isSpecial()) flags |= AppListSnapshot.FLAG_SPECIAL;
+        if (app.isDisabled()) flags |= AppListSnapshot.FLAG_DISABLED;
+        if (app.hasBackups()) flags |= AppListSnapshot.FLAG_HAS_BACKUPS;
+        out.writeByte(flags);
+        out.writeUTF(app.getPackageName());
+        out.writeUTF(app.getPackageLabel());
+        AppListSnapshot.writeNullableUTF(out, app.getVersionName());
+        out.writeInt(app.getVersionCode());
+        out.writeInt(app.getAppInfo().getProfileId());
+        out.writeLong(app.getDataBytes());
+        if (app.hasBackups()) {
+            BackupProperties latest = app.getLatestBackup().getBackupProperties();
+            int backupFlags = 0;
+            if (app.hasApk()) backupFlags |= AppListSnapshot.BACKUP_APK;
+            if (app.hasAppData()) backupFlags |= AppListSnapshot.BACKUP_DATA;
+            if (app.hasDeviceProtectedData()) backupFlags |= AppListSnapshot.BACKUP_DEVICE_PROTECTED;
+            if (app.hasExternalData()) backupFlags |= AppListSnapshot.BACKUP_EXTERNAL;
+            if (app.hasObbData()) backupFlags |= AppListSnapshot.BACKUP_OBB;
+            out.writeByte(backupFlags);
+            AppListSnapshot.writeNullableUTF(out, latest.getBackupDate() != null ? latest.getBackupDate().toString() : null);
+            AppListSnapshot.writeNullableUTF(out, latest.getVersionName());
+            out.writeInt(latest.getVersionCode());
+            AppListSnapshot.writeNullableUTF(out, latest.getCipherType());
+        }
+    }
+
+    private static AppInfoX readApp(Context context, DataInputStream in) throws IOException {
+        int flags = in.readByte();
+        String packageName = in.readUTF();
+        String label = in.readUTF();
+        String versionName = AppListSnapshot.readNullableUTF(in);
+        int versionCode = in.readInt();
+        int profileId = in.readInt();
+        long dataBytes = in.readLong();
+        boolean isSystem = (flags & AppListSnapshot.FLAG_SYSTEM) != 0;
+        AppMetaInfo metaInfo;
+        if ((flags & AppListSnapshot.FLAG_SPECIAL) != 0) {
+            metaInfo = new SpecialAppMetaInfo(packageName, label, versionName, versionCode, new String[0]);
+        } else {
+            metaInfo = new AppMetaInfo(packageName, label, versionName, versionCode, profileId, null, null, isSystem);
+        }
+        BackupItem latestBackup = null;
+        if ((flags & AppListSnapshot.FLAG_HAS_BACKUPS) != 0) {
+            int backupFlags = in.readByte();
+            String backupDate = AppListSnapshot.readNullableUTF(in);
+            String backupVersionName = AppListSnapshot.readNullableUTF(in);
+            int backupVersionCode = in.readInt();
+            String cipherType = AppListSnapshot.readNullableUTF(in);
+            BackupProperties properties = new BackupProperties(null, packageName, label,
+                    backupVersionName, backupVersionCode, profileId, null, null, isSystem,
+                    backupDate != null ? LocalDateTime.parse(backupDate) : null,
+                    (backupFlags & AppListSnapshot.BACKUP_APK) != 0,
+                    (backupFlags & AppListSnapshot.BACKUP_DATA) != 0,
+                    (backupFlags & AppListSnapshot.BACKUP_DEVICE_PROTECTED) != 0,
+                    (backupFlags & AppListSnapshot.BACKUP_EXTERNAL) != 0,
+                    (backupFlags & AppListSnapshot.BACKUP_OBB) != 0,
+                    cipherType, null);
+            latestBackup = new BackupItem(properties, null);
+        }
+        return new AppInfoX(context, metaInfo, latestBackup,
+                (flags & AppListSnapshot.FLAG_INSTALLED) != 0,
+                (flags & AppListSnapshot.FLAG_DISABLED) != 0,
+                dataBytes);
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
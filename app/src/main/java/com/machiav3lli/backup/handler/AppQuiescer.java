@@ -0,0 +1,362 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.handler;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.tasks.QueuedTask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps apps from changing their files while they are backed up or restored. All processes of
+ * the app's uid are frozen with the cgroup freezer of the kernel if available, otherwise they
+ * are stopped with signals. Freezes are counted per uid, so apps sharing a uid and apps frozen
+ * ahead of time by a batch are only thawed once nobody needs them frozen anymore.
+ * <p>
+ * The root commands run outside of the lock of the quiescer, one after the other per uid, so a
+ * slow root shell doesn't hold up freezing and thawing other apps.
+ * <p>
+ * Apps must not stay frozen by accident: a watchdog thaws apps whose holders are gone and a root
+ * process thaws them if OAndBackupX itself dies. A holder working for a QueuedTask is gone as
+ * soon as its task is done, others only as long as their thread lives and at most for
+ * MAX_FREEZE_TIME.
+ */
+public class AppQuiescer {
+    private static final String TAG = Constants.classTag(".AppQuiescer");
+    private static final String CGROUP_V2_ROOT = "/sys/fs/cgroup";
+    private static final String FREEZER_V1_GROUP = "oabx_%d";
+    // processes of shared uids which are essential for the system, grep -E pattern
+    private static final String EXCLUDED_PROCESSES = " PID | android\\.|\\.providers\\.|systemui";
+    private static final long AHEAD_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+    private static final long MAX_FREEZE_TIME = TimeUnit.MINUTES.toMillis(30);
+    private static final long WATCHDOG_INTERVAL = 5;
+    private static final List<String> doNotStop = Arrays.asList(
+            "com.android.shell",            // don't remove this
+            "com.android.systemui",
+            "com.android.externalstorage",
+            "com.android.providers.media",
+            "com.google.android.gms",
+            "com.google.android.gsf"
+    );
+    private static AppQuiescer instance;
+
+    private final Context context;
+    private final Map<Integer, Freeze> frozen = new HashMap<>();
+    // latest root command per uid, the next one for the uid only starts after it
+    private final Map<Integer, CompletableFuture<Void>> commands = new HashMap<>();
+    private final ExecutorService shellExecutor = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+    private final Object methodLock = new Object();
+    private volatile Method method;
+    private volatile String freezerMount;
+
+    private AppQuiescer(Context context) {
+        this.context = context.getApplicationContext();
+        this.watchdog.scheduleWithFixedDelay(this::watch, AppQuiescer.WATCHDOG_INTERVAL,
+                AppQuiescer.WATCHDOG_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    public static synchronized AppQuiescer getInstance(Context context) {
+        if (AppQuiescer.instance == null) {
+            AppQuiescer.instance = new AppQuiescer(context);
+        }
+        return AppQuiescer.instance;
+    }
+
+    /**
+     * Freezes the app for the caller and waits until it is frozen
+     *
+     * @param packageName app to freeze
+     * @return hold to pass to thaw or null if the app isn't frozen
+     */
+    public Hold freeze(String packageName) {
+        Hold hold;
+        synchronized (this) {
+            Freeze freeze = this.acquire(packageName);
+            if (freeze == null) {
+                return null;
+            }
+            hold = new Hold(freeze, QueuedTask.getCurrent());
+            freeze.holders.add(hold);
+        }
+        try {
+            hold.freeze.applied.get();
+        } catch (InterruptedException e) {
+            Log.w(AppQuiescer.TAG, String.format("Interrupted while freezing %s", packageName));
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.w(AppQuiescer.TAG, String.format("Could not freeze %s: %s", packageName, e.getCause()));
+        }
+        return hold;
+    }
+
+    /**
+     * Freezes an app which is going to be processed next, so the batch doesn't wait for it. The
+     * freeze is taken over by the next call of freeze for the app or released after a short
+     * time. Doesn't wait until the app is frozen.
+     *
+     * @param packageName app to freeze
+     */
+    public synchronized void freezeAhead(String packageName) {
+        Freeze freeze = this.acquire(packageName);
+        if (freeze != null) {
+            freeze.aheadUntil = System.currentTimeMillis() + AppQuiescer.AHEAD_TIMEOUT;
+        }
+    }
+
+    /**
+     * Releases the hold, the app continues if nobody else holds it. Holds which were already
+     * released are ignored.
+     *
+     * @param hold hold returned by freeze, may be null
+     */
+    public synchronized void thaw(Hold hold) {
+        if (hold == null) {
+            return;
+        }
+        Freeze freeze = hold.freeze;
+        if (!freeze.holders.remove(hold)) {
+            Log.w(AppQuiescer.TAG, String.format("%s isn't held by the caller, ignoring thaw", freeze.packageName));
+            return;
+        }
+        if (freeze.holders.isEmpty() && freeze.aheadUntil < System.currentTimeMillis()) {
+            this.release(freeze);
+        }
+    }
+
+    // must be called with the lock held
+    private Freeze acquire(String packageName) {
+        if (AppQuiescer.doNotStop.contains(packageName)) {
+            return null;
+        }
+        int uid;
+        try {
+            uid = this.context.getPackageManager().getApplicationInfo(packageName, 0).uid;
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(AppQuiescer.TAG, packageName + " does not exist. Cannot freeze!");
+            return null;
+        }
+        if (uid < 10000) { // exclude several system users, e.g. system, radio
+            Log.w(AppQuiescer.TAG, String.format("Requested to freeze processes of UID %d. Refusing to freeze system's processes!", uid));
+            return null;
+        }
+        Freeze freeze = this.frozen.get(uid);
+        if (freeze != null) {
+            // frozen ahead or shared with another app
+            freeze.aheadUntil = 0;
+            return freeze;
+        }
+        final Freeze newFreeze = new Freeze(packageName, uid);
+        newFreeze.applied = this.runCommand(uid, () -> {
+            try {
+                List<String> out = ShellHandler.runAsRoot(this.getFreezeCommand(newFreeze)).getOut();
+                // the command reports the way it used and the pid of the root side watchdog
+                if (out.size() >= 2) {
+                    newFreeze.method = Method.valueOf(out.get(0).trim());
+                    newFreeze.watchdogPid = out.get(1).trim();
+                }
+                Log.i(AppQuiescer.TAG, String.format("Froze %s (uid %d) using %s", packageName, uid, newFreeze.method));
+            } catch (ShellHandler.ShellCommandFailedException | IllegalArgumentException e) {
+                Log.w(AppQuiescer.TAG, String.format("Could not freeze %s: %s", packageName, e));
+            }
+        });
+        this.frozen.put(uid, newFreeze);
+        return newFreeze;
+    }
+
+    // must be called with the lock held
+    private void release(Freeze freeze) {
+        this.frozen.remove(freeze.uid);
+        this.runCommand(freeze.uid, () -> {
+            // the freeze command ran before, so the way it used is known
+            String command = this.getThawCommand(freeze);
+            if (freeze.watchdogPid != null) {
+                command = String.format("kill %s 2>/dev/null; %s", freeze.watchdogPid, command);
+            }
+            try {
+                ShellHandler.runAsRoot(command);
+                Log.i(AppQuiescer.TAG, String.format("Thawed %s (uid %d)", freeze.packageName, freeze.uid));
+            } catch (ShellHandler.ShellCommandFailedException e) {
+                Log.w(AppQuiescer.TAG, String.format("Could not thaw %s: %s", freeze.packageName, String.join(" ", e.getShellResult().getErr())));
+            }
+        });
+    }
+
+    // must be called with the lock held
+    private CompletableFuture<Void> runCommand(int uid, Runnable command) {
+        CompletableFuture<Void> previous = this.commands.get(uid);
+        CompletableFuture<Void> next = previous == null
+                ? CompletableFuture.runAsync(command, this.shellExecutor)
+                : previous.exceptionally(e -> null).thenRunAsync(command, this.shellExecutor);
+        this.commands.put(uid, next);
+        return next;
+    }
+
+    private synchronized void watch() {
+        final long now = System.currentTimeMillis();
+        for (Freeze freeze : new ArrayList<>(this.frozen.values())) {
+            freeze.holders.removeIf(hold -> {
+                if (hold.isAlive(now)) {
+                    return false;
+                }
+                Log.w(AppQuiescer.TAG, String.format("A holder of %s is gone without thawing it", freeze.packageName));
+                return true;
+            });
+            if (freeze.holders.isEmpty() && freeze.aheadUntil < now) {
+                Log.w(AppQuiescer.TAG, String.format("Nobody holds %s frozen anymore, thawing it", freeze.packageName));
+                this.release(freeze);
+            }
+        }
+    }
+
+    private Method getMethod() {
+        synchronized (this.methodLock) {
+            if (this.method != null) {
+                return this.method;
+            }
+            this.method = Method.SIGNAL;
+            try {
+                List<String> out = ShellHandler.runAsRoot(String.format(
+                        "if [ -f %s/uid_0/cgroup.freeze ]; then echo CGROUP_V2; "
+                                + "else grep ' cgroup .*freezer' /proc/mounts | head -n 1 | cut -d ' ' -f 2; fi",
+                        AppQuiescer.CGROUP_V2_ROOT)).getOut();
+                if (!out.isEmpty() && out.get(0).equals(Method.CGROUP_V2.name())) {
+                    this.method = Method.CGROUP_V2;
+                } else if (!out.isEmpty() && !out.get(0).trim().isEmpty()) {
+                    this.method = Method.CGROUP_V1;
+                    this.freezerMount = out.get(0).trim();
+                }
+            } catch (ShellHandler.ShellCommandFailedException e) {
+                Log.w(AppQuiescer.TAG, "No cgroup freezer available: " + String.join(" ", e.getShellResult().getErr()));
+            }
+            Log.i(AppQuiescer.TAG, "Freezing apps using " + this.method);
+        }
+        return this.method;
+    }
+
+    private String getFreezeCommand(Freeze freeze) {
+        final String signalFreeze = AppQuiescer.getSignalCommand(freeze.uid, "STOP");
+        String command;
+        switch (this.getMethod()) {
+            case CGROUP_V2:
+                command = String.format("echo 1 > %s/uid_%d/cgroup.freeze", AppQuiescer.CGROUP_V2_ROOT, freeze.uid);
+                break;
+            case CGROUP_V1:
+                command = String.format("g=%s/%s; mkdir -p $g && for pid in $(ps -o PID -u %d | grep -v PID); "
+                                + "do echo $pid > $g/cgroup.procs; done; echo FROZEN > $g/freezer.state",
+                        this.freezerMount, String.format(AppQuiescer.FREEZER_V1_GROUP, freeze.uid), freeze.uid);
+                break;
+            default:
+                command = null;
+        }
+        // a frozen cgroup would also freeze essential processes sharing the uid
+        String script = command == null
+                ? String.format("%s; echo %s", signalFreeze, Method.SIGNAL)
+                : String.format("if ps -o PID,NAME -u %d | grep -q -E '%s'; then %s; echo %s; else %s && echo %s || { %s; echo %s; }; fi",
+                freeze.uid, AppQuiescer.EXCLUDED_PROCESSES.replace(" PID |", ""),
+                signalFreeze, Method.SIGNAL, command, this.method, signalFreeze, Method.SIGNAL);
+        // thaws the app if OAndBackupX dies while the app is frozen. It isn't known yet which
+        // way is going to be used, continuing processes which aren't stopped doesn't hurt.
+        String recovery = command == null ? this.getThawCommand(freeze.uid, Method.SIGNAL)
+                : String.format("%s; %s", this.getThawCommand(freeze.uid, this.method), this.getThawCommand(freeze.uid, Method.SIGNAL));
+        return String.format("%s; nohup sh -c 'while kill -0 %d 2>/dev/null; do sleep 5; done; %s' >/dev/null 2>&1 & echo $!",
+                script, Process.myPid(), recovery.replace('\'', '"'));
+    }
+
+    private String getThawCommand(Freeze freeze) {
+        return this.getThawCommand(freeze.uid, freeze.method);
+    }
+
+    private String getThawCommand(int uid, Method method) {
+        switch (method) {
+            case CGROUP_V2:
+                return String.format("echo 0 > %s/uid_%d/cgroup.freeze", AppQuiescer.CGROUP_V2_ROOT, uid);
+            case CGROUP_V1:
+                return String.format("g=%s/%s; echo THAWED > $g/freezer.state; for pid in $(cat $g/cgroup.procs); "
+                                + "do echo $pid > %s/cgroup.procs; done; rmdir $g",
+                        this.freezerMount, String.format(AppQuiescer.FREEZER_V1_GROUP, uid), this.freezerMount);
+            default:
+                return AppQuiescer.getSignalCommand(uid, "CONT");
+        }
+    }
+
+    private static String getSignalCommand(int uid, String signal) {
+        // one kill for all processes of the uid
+        return String.format("pids=$(ps -o PID,NAME -u %d | grep -v -E '%s' | while read pid name; do echo $pid; done); "
+                + "[ -z \"$pids\" ] || kill -%s $pids", uid, AppQuiescer.EXCLUDED_PROCESSES, signal);
+    }
+
+    private enum Method {CGROUP_V2, CGROUP_V1, SIGNAL}
+
+    private static class Freeze {
+        private final String packageName;
+        private final int uid;
+        private final List<Hold> holders = new ArrayList<>();
+        private long aheadUntil = 0;
+        private CompletableFuture<Void> applied;
+        private volatile Method method = Method.SIGNAL;
+        private volatile String watchdogPid;
+
+        private Freeze(String packageName, int uid) {
+            this.packageName = packageName;
+            this.uid = uid;
+        }
+    }
+
+    /**
+     * Freeze of an app held by one caller
+     */
+    public static final class Hold {
+        private final Freeze freeze;
+        @Nullable
+        private final QueuedTask task;
+        private final Thread thread = Thread.currentThread();
+        private final long since = System.currentTimeMillis();
+
+        private Hold(Freeze freeze, @Nullable QueuedTask task) {
+            this.freeze = freeze;
+            this.task = task;
+        }
+
+        private boolean isAlive(long now) {
+            if (this.task != null) {
+                // pooled threads outlive their tasks, but the task tells if it's still working
+                QueuedTask.State state = this.task.getState();
+                return state == QueuedTask.State.QUEUED || state == QueuedTask.State.RUNNING;
+            }
+            return this.thread.isAlive() && now - this.since <= AppQuiescer.MAX_FREEZE_TIME;
+        }
+    }
+}
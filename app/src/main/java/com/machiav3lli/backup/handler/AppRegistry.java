@@ -0,0 +1,299 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.handler;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ChangedPackages;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.util.Log;
+
+import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.items.ActionResult;
+import com.machiav3lli.backup.items.ActionStats;
+import com.machiav3lli.backup.items.AppInfoX;
+import com.machiav3lli.backup.items.BackupItem;
+import com.machiav3lli.backup.utils.DocumentHelper;
+import com.machiav3lli.backup.utils.FileUtils;
+import com.machiav3lli.backup.utils.PrefUtils;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory registry of all known apps. It's seeded once with a full scan and afterwards
+ * patched in place: PackageManager broadcasts, the changed packages since the last known
+ * sequence number and finished backup/restore actions only recompute the affected entries.
+ */
+public final class AppRegistry implements BackupRestoreHelper.OnActionDoneListener {
+    private static final String TAG = Constants.classTag(".AppRegistry");
+    private static AppRegistry instance;
+
+    private final Context context;
+    private final PackageIndex apps = new PackageIndex();
+    private final SearchIndex searchIndex = new SearchIndex();
+    private final List<OnRegistryChangedListener> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private volatile boolean seeded = false;
+    private int sequenceNumber = 0;
+
+    private final BroadcastReceiver packageChangeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Uri data = intent.getData();
+            if (data == null) return;
+            // an update sends REMOVED and ADDED before REPLACED, wait for the last one
+            if (!Intent.ACTION_PACKAGE_REPLACED.equals(intent.getAction())
+                    && intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+                return;
+            }
+            final String packageName = data.getSchemeSpecificPart();
+            AppRegistry.this.executor.execute(() -> AppRegistry.this.notifyPackageChanged(packageName));
+        }
+    };
+
+    private AppRegistry(Context context) {
+        this.context = context.getApplicationContext();
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        this.context.registerReceiver(this.packageChangeReceiver, filter);
+        BackupRestoreHelper.addOnActionDoneListener(this);
+    }
+
+    public static synchronized AppRegistry getInstance(Context context) {
+        if (AppRegistry.instance == null) {
+            AppRegistry.instance = new AppRegistry(context);
+        }
+        return AppRegistry.instance;
+    }
+
+    public void addOnRegistryChangedListener(OnRegistryChangedListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeOnRegistryChangedListener(OnRegistryChangedListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    public boolean isSeeded() {
+        return this.seeded;
+    }
+
+    /**
+     * Returns a copy of the current app list. The first call or a call with rescan set
+     * runs a full scan, all others only apply the changes PackageManager reports.
+     *
+     * @param rescan throw away the current state and scan everything again
+     * @return list of all known apps
+     * @throws FileUtils.BackupLocationIsAccessibleException   when the backup location cannot be read for any reason
+     * @throws PrefUtils.StorageLocationNotConfiguredException when the backup location is not set in the configuration
+     */
+    public List<AppInfoX> getApps(boolean rescan)
+            throws FileUtils.BackupLocationIsAccessibleException, PrefUtils.StorageLocationNotConfiguredException {
+        return this.getApps(rescan, null);
+    }
+
+    /**
+     * Same as getApps(boolean), but passes the chunks of a full scan to the listener while the
+     * list is being built. Without a full scan the listener isn't called.
+     *
+     * @param rescan   throw away the current state and scan everything again
+     * @param listener receives the chunks of a full scan, may be null
+     * @return list of all known apps
+     * @throws FileUtils.BackupLocationIsAccessibleException   when the backup location cannot be read for any reason
+     * @throws PrefUtils.StorageLocationNotConfiguredException when the backup location is not set in the configuration
+     */
+    public synchronized List<AppInfoX> getApps(boolean rescan, BackendController.OnChunkLoadedListener listener)
+            throws FileUtils.BackupLocationIsAccessibleException, PrefUtils.StorageLocationNotConfiguredException {
+        if (rescan || !this.seeded) {
+            this.seed(BackendController.getApplicationList(this.context, true, listener));
+        } else {
+            this.syncChangedPackages();
+        }
+        return this.apps.getApps();
+    }
+
+    /**
+     * Returns a copy of the current state without asking PackageManager for changes.
+     *
+     * @return list of all known apps, empty if the registry hasn't been seeded yet
+     */
+    public synchronized List<AppInfoX> getSnapshot() {
+        return this.apps.getApps();
+    }
+
+    public synchronized AppInfoX get(String packageName) {
+        return this.apps.get(packageName);
+    }
+
+    /**
+     * Returns the backups of all known apps ordered by a metric of their stats, largest first.
+     * This finds e.g. the slowest backups or the ones growing the most across the whole history.
+     * Backups made before stats were recorded are left out.
+     *
+     * @param metric value to order by, e.g. ActionStats::getDuration
+     * @param limit  maximum number of backups to return
+     * @return backups ordered by the metric
+     */
+    public List<BackupItem> getBackupsByStats(ToLongFunction<ActionStats> metric, int limit) {
+        return this.getSnapshot().stream()
+                .flatMap(app -> app.getBackupHistory().stream())
+                .filter(backup -> backup.getBackupProperties().getStats() != null)
+                .sorted(Comparator.comparingLong((BackupItem backup) -> metric.applyAsLong(backup.getBackupProperties().getStats())).reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the search index, it's kept up to date with the registry
+     *
+     * @return search index over all known apps
+     */
+    public SearchIndex getSearchIndex() {
+        return this.searchIndex;
+    }
+
+    private synchronized void seed(List<AppInfoX> appList) {
+        this.apps.clear();
+        this.apps.putAll(appList);
+        this.searchIndex.rebuild(appList);
+        ChangedPackages changedPackages = this.context.getPackageManager().getChangedPackages(this.sequenceNumber);
+        if (changedPackages != null) {
+            this.sequenceNumber = changedPackages.getSequenceNumber();
+        }
+        this.seeded = true;
+        Log.d(AppRegistry.TAG, String.format("Seeded with %d apps at sequence number %d", this.apps.size(), this.sequenceNumber));
+    }
+
+    /**
+     * Asks PackageManager which packages changed since the last sync and recomputes them.
+     * Catches changes that happened while no broadcast receiver was listening.
+     */
+    public synchronized void syncChangedPackages() {
+        if (!this.seeded) return;
+        ChangedPackages changedPackages = this.context.getPackageManager().getChangedPackages(this.sequenceNumber);
+        if (changedPackages == null) return;
+        this.sequenceNumber = changedPackages.getSequenceNumber();
+        List<String> packageNames = changedPackages.getPackageNames();
+        Log.d(AppRegistry.TAG, String.format("%d packages changed since the last sync", packageNames.size()));
+        for (String packageName : packageNames) {
+            this.updatePackage(packageName);
+        }
+        this.dispatchChanged(packageNames);
+    }
+
+    /**
+     * Recomputes a single entry and notifies the listeners about it.
+     *
+     * @param packageName name of the package that changed on the device or in the backup location
+     */
+    public void notifyPackageChanged(String packageName) {
+        synchronized (this) {
+            if (!this.seeded) return;
+            this.updatePackage(packageName);
+        }
+        this.dispatchChanged(Collections.singletonList(packageName));
+    }
+
+    private synchronized void updatePackage(String packageName) {
+        AppInfoX existing = this.apps.get(packageName);
+        if (existing != null && existing.isSpecial()) {
+            // virtual packages are not known by PackageManager
+            return;
+        }
+        StorageStatsProvider.getInstance(this.context).invalidate(packageName);
+        try {
+            StorageFile backupRoot = DocumentHelper.getBackupRoot(this.context);
+            // StorageFile keeps the listing of the root up to date when the backup directory is
+            // created or deleted, only the listings of the package's backups are read again
+            StorageFile packageDir = backupRoot.findFile(packageName);
+            if (packageDir != null) {
+                packageDir.invalidateListing();
+            }
+            AppInfoX updated = null;
+            try {
+                PackageInfo packageInfo = this.context.getPackageManager().getPackageInfo(packageName, 0);
+                if (!BackendController.isIgnored(packageName)) {
+                    updated = new AppInfoX(this.context, packageInfo, backupRoot.getUri());
+                }
+            } catch (PackageManager.NameNotFoundException e) {
+                if (packageDir != null) try {
+                    updated = new AppInfoX(this.context, packageDir.getUri());
+                } catch (AssertionError ae) {
+                    Log.i(AppRegistry.TAG, String.format("%s is not installed and has no valid backups", packageName));
+                }
+            }
+            if (updated != null) {
+                this.apps.put(updated);
+                this.searchIndex.put(updated);
+            } else {
+                this.apps.remove(packageName);
+                this.searchIndex.remove(packageName);
+            }
+            Log.d(AppRegistry.TAG, String.format("Updated %s: %s", packageName, updated != null ? "present" : "removed"));
+        } catch (FileUtils.BackupLocationIsAccessibleException | PrefUtils.StorageLocationNotConfiguredException e) {
+            Log.e(AppRegistry.TAG, String.format("Could not update %s: %s", packageName, e));
+        }
+    }
+
+    @Override
+    public void onActionDone(BackupRestoreHelper.ActionType actionType, AppInfoX app, ActionResult result) {
+        if (actionType == BackupRestoreHelper.ActionType.BACKUP) {
+            // backups patch the history of the entry in place, nothing to rescan
+            synchronized (this) {
+                if (this.seeded) {
+                    this.apps.put(app);
+                    this.searchIndex.put(app);
+                }
+            }
+            this.dispatchChanged(Collections.singletonList(app.getPackageName()));
+        } else {
+            // a restore might have installed or updated the package
+            this.notifyPackageChanged(app.getPackageName());
+        }
+    }
+
+    private void dispatchChanged(List<String> packageNames) {
+        if (packageNames.isEmpty()) return;
+        for (OnRegistryChangedListener listener : this.listeners) {
+            listener.onRegistryChanged(packageNames);
+        }
+    }
+
+    public interface OnRegistryChangedListener {
+        /**
+         * Called on a background thread after entries have been recomputed
+         *
+         * @param packageNames names of the updated, added or removed packages
+         */
+        void onRegistryChanged(List<String> packageNames);
+    }
+}
@@ -1,12 +1,9 @@
 package com.machiav3lli.backup.handler;
 
-import android.app.usage.StorageStats;
-import android.app.usage.StorageStatsManager;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.os.Process;
 import android.util.Log;
 
 import com.machiav3lli.backup.BuildConfig;
@@ -19,12 +16,11 @@ import com.machiav3lli.backup.utils.FileUtils;
 import com.machiav3lli.backup.utils.PrefUtils;
 
 import java.io.FileNotFoundException;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Objects;
-import java.util.UUID;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public final class BackendController {
@@ -32,14 +28,18 @@ public final class BackendController {
     /*
     List of packages ignored for any reason
      */
-    private static final List<String> ignoredPackages = Arrays.asList(
+    private static final Set<String> ignoredPackages = new HashSet<>(Arrays.asList(
             "android", // virtual package. Data directory is /data -> not a good idea to backup
             BuildConfig.APPLICATION_ID // ignore own package, it would send a SIGTERM to itself on backup/restore
-    );
+    ));
 
     private BackendController() {
     }
 
+    public static boolean isIgnored(String packageName) {
+        return ignoredPackages.contains(packageName);
+    }
+
     public static List<PackageInfo> getPackageInfoList(Context context, Schedule.Mode mode) {
         PackageManager pm = context.getPackageManager();
         return pm.getInstalledPackages(0).stream()
@@ -64,48 +64,64 @@ public final class BackendController {
 
     public static List<AppInfoX> getApplicationList(Context context, boolean includeUninstalled)
             throws FileUtils.BackupLocationIsAccessibleException, PrefUtils.StorageLocationNotConfiguredException {
+        return BackendController.getApplicationList(context, includeUninstalled, null);
+    }
+
+    /**
+     * Builds the list of all apps. The listener is called with chunks of the list while it is
+     * built: installed apps come first, special and backup-only apps later.
+     *
+     * @param context            Context object
+     * @param includeUninstalled include apps that are not installed but have backups
+     * @param listener           receives the chunks on the calling thread, may be null
+     * @return the complete list
+     * @throws FileUtils.BackupLocationIsAccessibleException   when the backup location cannot be read for any reason
+     * @throws PrefUtils.StorageLocationNotConfiguredException when the backup location is not set in the configuration
+     */
+    public static List<AppInfoX> getApplicationList(Context context, boolean includeUninstalled, OnChunkLoadedListener listener)
+            throws FileUtils.BackupLocationIsAccessibleException, PrefUtils.StorageLocationNotConfiguredException {
         StorageFile.invalidateCache();
         boolean includeSpecial = PrefUtils.getDefaultSharedPreferences(context).getBoolean(Constants.PREFS_ENABLESPECIALBACKUPS, false);
         PackageManager pm = context.getPackageManager();
         StorageFile backupRoot = DocumentHelper.getBackupRoot(context);
         List<PackageInfo> packageInfoList = pm.getInstalledPackages(0);
-        List<AppInfoX> packageList = packageInfoList.stream()
-                .filter(packageInfo -> !ignoredPackages.contains(packageInfo.packageName))
-                // Get AppInfoX objects with history etc
-                .map(pi -> new AppInfoX(context, pi, backupRoot.getUri()))
-                .collect(Collectors.toList());
+        ChunkPublisher publisher = new ChunkPublisher(listener);
+        List<AppInfoX> packageList = new ArrayList<>(packageInfoList.size());
+        for (PackageInfo packageInfo : packageInfoList) {
+            if (ignoredPackages.contains(packageInfo.packageName)) continue;
+            // Get AppInfoX objects with history etc
+            AppInfoX app = new AppInfoX(context, packageInfo, backupRoot.getUri());
+            packageList.add(app);
+            publisher.add(app);
+        }
         // Special Backups must added before the uninstalled packages, because otherwise it would
         // discover the backup directory and run in a special case where no the directory is empty.
         // This would mean, that no package info is available – neither from backup.properties
         // nor from PackageManager.
         if (includeSpecial) {
-            packageList.addAll(SpecialAppMetaInfo.getSpecialPackages(context));
+            List<AppInfoX> specialPackages = SpecialAppMetaInfo.getSpecialPackages(context);
+            packageList.addAll(specialPackages);
+            publisher.addAll(specialPackages);
         }
 
         if (includeUninstalled) {
-            List<String> installedPackageNames = packageList.stream()
-                    .map(AppInfoX::getPackageName)
-                    .collect(Collectors.toList());
+            PackageIndex installedPackages = new PackageIndex(packageList);
 
             List<StorageFile> directoriesInBackupRoot = BackendController.getDirectoriesInBackupRoot(context);
-            List<AppInfoX> missingAppsWithBackup = directoriesInBackupRoot.stream()
-                    .filter(backupDir -> !installedPackageNames.contains(backupDir.getName()))
-                    // Try to create AppInfoX objects
-                    // if it fails, null the object for filtering in the next step to avoid crashes
-                    .map(backupDir -> {
-                        try {
-                            return new AppInfoX(context, backupDir.getUri());
-                        } catch (AssertionError e) {
-                            Log.e(TAG, "Could not process backup folder for uninstalled application in " + backupDir.getName() + ": " + e);
-                            return null;
-                        }
-                    })
-                    // filter out previously failed backups
-                    .filter(Objects::nonNull)
-                    .collect(Collectors.toList());
-            packageList.addAll(missingAppsWithBackup);
-
+            for (StorageFile backupDir : directoriesInBackupRoot) {
+                if (installedPackages.contains(backupDir.getName())) continue;
+                // Try to create AppInfoX objects
+                // if it fails, skip the directory to avoid crashes
+                try {
+                    AppInfoX app = new AppInfoX(context, backupDir.getUri());
+                    packageList.add(app);
+                    publisher.add(app);
+                } catch (AssertionError e) {
+                    Log.e(TAG, "Could not process backup folder for uninstalled application in " + backupDir.getName() + ": " + e);
+                }
+            }
         }
+        publisher.flush();
         return packageList;
     }
 
@@ -122,19 +138,36 @@ public final class BackendController {
         return new ArrayList<>();
     }
 
-    public static StorageStats getPackageStorageStats(Context context, String packageName) throws PackageManager.NameNotFoundException {
-        UUID storageUuid = context.getPackageManager().getApplicationInfo(packageName, 0).storageUuid;
-        return BackendController.getPackageStorageStats(context, packageName, storageUuid);
+    public interface OnChunkLoadedListener {
+        void onChunkLoaded(List<AppInfoX> chunk);
     }
 
-    public static StorageStats getPackageStorageStats(Context context, String packageName, UUID storageUuid) throws PackageManager.NameNotFoundException {
-        StorageStatsManager storageStatsManager = (StorageStatsManager) context.getSystemService(Context.STORAGE_STATS_SERVICE);
-        try {
-            return storageStatsManager.queryStatsForPackage(storageUuid, packageName, Process.myUserHandle());
-        } catch (IOException e) {
-            Log.e(BackendController.TAG, String.format("Could not retrieve storage stats of %s: %s", packageName, e));
-            return null;
+    private static class ChunkPublisher {
+        private static final int CHUNK_SIZE = 50;
+        private final OnChunkLoadedListener listener;
+        private List<AppInfoX> chunk = new ArrayList<>(ChunkPublisher.CHUNK_SIZE);
+
+        ChunkPublisher(OnChunkLoadedListener listener) {
+            this.listener = listener;
+        }
+
+        void add(AppInfoX app) {
+            if (this.listener == null) return;
+            this.chunk.add(app);
+            if (this.chunk.size() >= ChunkPublisher.CHUNK_SIZE) this.flush();
+        }
+
+        void addAll(List<AppInfoX> apps) {
+            for (AppInfoX app : apps) {
+                this.add(app);
+            }
         }
-    }
 
+        void flush() {
+            if (this.listener == null || this.chunk.isEmpty()) return;
+            List<AppInfoX> published = this.chunk;
+            this.chunk = new ArrayList<>(ChunkPublisher.CHUNK_SIZE);
+            this.listener.onChunkLoaded(published);
+        }
+    }
 }
@@ -38,6 +38,7 @@ import com.machiav3lli.backup.items.BackupProperties;
 import com.machiav3lli.backup.utils.DocumentHelper;
 import com.machiav3lli.backup.utils.FileUtils;
 import com.machiav3lli.backup.utils.PrefUtils;
+import com.machiav3lli.backup.utils.TraceUtils;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -45,12 +46,28 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.IntStream;
 
 import static com.machiav3lli.backup.Constants.PREFS_HOUSEKEEPING_MOMENT;
 
 public class BackupRestoreHelper {
     private static final String TAG = Constants.classTag(".BackupRestoreHelper");
+    private static final List<OnActionDoneListener> actionDoneListeners = new CopyOnWriteArrayList<>();
+
+    public static void addOnActionDoneListener(OnActionDoneListener listener) {
+        BackupRestoreHelper.actionDoneListeners.add(listener);
+    }
+
+    public static void removeOnActionDoneListener(OnActionDoneListener listener) {
+        BackupRestoreHelper.actionDoneListeners.remove(listener);
+    }
+
+    private static void dispatchActionDone(ActionType actionType, AppInfoX app, ActionResult result) {
+        for (OnActionDoneListener listener : BackupRestoreHelper.actionDoneListeners) {
+            listener.onActionDone(actionType, app, result);
+        }
+    }
 
     public ActionResult backup(Context context, ShellHandler shell, @NotNull AppInfoX app, int backupMode) {
         Constants.HousekeepingMoment housekeepingWhen = Constants.HousekeepingMoment.fromString(
@@ -75,21 +92,28 @@ public class BackupRestoreHelper {
         }
         Log.d(BackupRestoreHelper.TAG, String.format("%s: Using %s class", app, action.getClass().getSimpleName()));
 
-        // create the new backup
-        ActionResult result = action.run(app, backupMode);
+        // create the new backup, batch jobs overlap so it's an async slice
+        ActionResult result;
+        try (TraceUtils.Section ignored = TraceUtils.asyncSection("backup", app.getPackageName())) {
+            result = action.run(app, backupMode);
+        }
         Log.i(BackupRestoreHelper.TAG, String.format("%s: Backup succeeded: %s", app, result.succeeded));
         if (PrefUtils.getDefaultSharedPreferences(context).getBoolean("copySelfApk", true)) {
-            try {
-                this.copySelfApk(context, shell);
-            } catch (IOException e) {
-                // This is not critical, but the user should be informed about this problem
-                // in some low priority way
-                Log.e(TAG, "OABX apk was not copied to the backup dir: " + e);
+            // parallel batch jobs would otherwise race on the same target file
+            synchronized (BackupRestoreHelper.class) {
+                try {
+                    this.copySelfApk(context, shell);
+                } catch (IOException e) {
+                    // This is not critical, but the user should be informed about this problem
+                    // in some low priority way
+                    Log.e(TAG, "OABX apk was not copied to the backup dir: " + e);
+                }
             }
         }
         if (housekeepingWhen.equals(Constants.HousekeepingMoment.AFTER)) {
             this.housekeepPackageBackups(context, app, housekeepingWhen);
         }
+        BackupRestoreHelper.dispatchActionDone(ActionType.BACKUP, app, result);
         return result;
     }
 
@@ -104,8 +128,14 @@ public class BackupRestoreHelper {
         } else {
             restoreAction = new RestoreAppAction(context, shell);
         }
-        ActionResult result = restoreAction.run(app, backupProperties, backupLocation, mode);
+        ActionResult result;
+        try (TraceUtils.Section ignored = TraceUtils.asyncSection("restore", app.getPackageName())) {
+            result = restoreAction.run(app, backupProperties, backupLocation, mode);
+        }
+        // the app's files have been replaced, the known sizes are outdated
+        StorageStatsProvider.getInstance(context).invalidate(app.getPackageName());
         Log.i(BackupRestoreHelper.TAG, String.format("%s: Restore succeeded: %s", app, result.succeeded));
+        BackupRestoreHelper.dispatchActionDone(ActionType.RESTORE, app, result);
         return result;
     }
 
@@ -177,4 +207,8 @@ public class BackupRestoreHelper {
     public interface OnBackupRestoreListener {
         void onBackupRestoreDone();
     }
+
+    public interface OnActionDoneListener {
+        void onActionDone(ActionType actionType, AppInfoX app, ActionResult result);
+    }
 }
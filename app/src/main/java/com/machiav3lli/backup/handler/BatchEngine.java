@@ -0,0 +1,346 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.handler;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.R;
+import com.machiav3lli.backup.activities.MainActivityX;
+import com.machiav3lli.backup.handler.action.BaseAppAction;
+import com.machiav3lli.backup.items.ActionResult;
+import com.machiav3lli.backup.items.AppInfoX;
+import com.machiav3lli.backup.items.BackupItem;
+import com.machiav3lli.backup.tasks.QueuedTask;
+import com.machiav3lli.backup.tasks.TaskQueue;
+import com.machiav3lli.backup.tasks.db.BatchJobEntry;
+import com.machiav3lli.backup.tasks.db.BatchRun;
+import com.machiav3lli.backup.utils.DocumentHelper;
+import com.machiav3lli.backup.utils.FileUtils;
+import com.machiav3lli.backup.utils.PrefUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the backups or restores of a batch as tasks of the TaskQueue. While one app is compressing,
+ * another one can copy its files, the StageLimiter keeps the number of concurrent CPU-bound
+ * and I/O-bound stages within limits. A failing app doesn't affect the others and the results
+ * are returned in the order of the jobs, no matter in which order they finished.
+ */
+public class BatchEngine {
+    private static final String TAG = Constants.classTag(".BatchEngine");
+    // ids of the journaled batches running in this process
+    private static final Set<Long> activeBatches = ConcurrentHashMap.newKeySet();
+
+    private final Context context;
+    private final ShellHandler shell;
+    private final int workers;
+    private final QueuedTask.Priority priority;
+    private final StageLimiter limiter;
+    private final BatchJournal journal;
+    private String schedules = null;
+
+    public BatchEngine(Context context, ShellHandler shell) {
+        this(context, shell, QueuedTask.Priority.BATCH);
+    }
+
+    public BatchEngine(Context context, ShellHandler shell, QueuedTask.Priority priority) {
+        this.context = context;
+        this.priority = priority;
+        this.shell = shell;
+        this.workers = Math.max(1, PrefUtils.getDefaultSharedPreferences(context).getInt(Constants.PREFS_BATCH_WORKERS, 2));
+        int ioStages = Math.max(1, PrefUtils.getDefaultSharedPreferences(context).getInt(Constants.PREFS_BATCH_IO_STAGES, 2));
+        int cpuStages = Math.min(this.workers, Runtime.getRuntime().availableProcessors());
+        this.limiter = new StageLimiter(cpuStages, ioStages);
+        this.journal = new BatchJournal(context);
+    }
+
+    public int getWorkers() {
+        return this.workers;
+    }
+
+    /**
+     * Marks the following batches as planned for the given schedules, so the history can
+     * compare them per schedule
+     *
+     * @param scheduleIds ids of the schedules
+     */
+    public void setSchedules(Collection<Long> scheduleIds) {
+        this.schedules = scheduleIds.stream().sorted().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    /**
+     * Queues all jobs and blocks until they are done. The batch is recorded in the journal, so
+     * it can be resumed if the process dies before it is done.
+     *
+     * @param jobs     apps and modes to process
+     * @param listener gets notified about progress from the worker threads, may be null
+     * @return one result per job, in the order of the jobs
+     */
+    public List<ActionResult> run(List<Job> jobs, OnJobListener listener) {
+        BatchRun batchRun = this.journal.begin(jobs, this.priority, this.schedules);
+        List<BatchJobEntry> entries = this.journal.getEntries(batchRun);
+        if (batchRun != null) {
+            BatchEngine.activeBatches.add(batchRun.getId());
+        }
+        try {
+            return this.run(jobs, entries.size() == jobs.size() ? entries : null, listener);
+        } finally {
+            this.journal.finish(batchRun);
+            if (batchRun != null) {
+                BatchEngine.activeBatches.remove(batchRun.getId());
+            }
+        }
+    }
+
+    private List<ActionResult> run(List<Job> jobs, List<BatchJobEntry> entries, OnJobListener listener) {
+        final ActionResult[] results;
+        if (RestorePlanner.isSuitable(jobs)) {
+            Log.i(BatchEngine.TAG, String.format("Restoring %d apps in two phases with priority %s", jobs.size(), this.priority));
+            results = new RestorePlanner(this.context, this.shell, this.priority, this.limiter,
+                    this.journal, jobs, entries, listener).run();
+        } else {
+            results = this.runJobs(jobs, entries, listener);
+        }
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                results[i] = new ActionResult(jobs.get(i).app, null, String.format("%s: Not processed", jobs.get(i).app), false);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    private ActionResult[] runJobs(List<Job> jobs, List<BatchJobEntry> entries, OnJobListener listener) {
+        Log.i(BatchEngine.TAG, String.format("Queueing %d jobs with priority %s", jobs.size(), this.priority));
+        final AtomicInteger finishedCount = new AtomicInteger(0);
+        final AtomicInteger lastStarted = new AtomicInteger(-1);
+        final boolean freezeAhead = PrefUtils.isKillBeforeActionEnabled(this.context);
+        final TaskQueue queue = TaskQueue.getInstance(this.context);
+        List<QueuedTask> tasks = new ArrayList<>(jobs.size());
+        for (int i = 0; i < jobs.size(); i++) {
+            final int index = i;
+            final Job job = jobs.get(i);
+            final BatchJobEntry entry = entries != null ? entries.get(i) : null;
+            QueuedTask task = new QueuedTask(this.priority, job.app.getPackageLabel()) {
+                @Override
+                protected ActionResult execute() {
+                    lastStarted.accumulateAndGet(index, Math::max);
+                    BatchEngine.this.journal.markRunning(entry);
+                    if (listener != null) listener.onJobStarted(index, job);
+                    ActionResult result = BatchEngine.this.runJob(job);
+                    BatchEngine.this.journal.markFinished(entry, result);
+                    if (listener != null)
+                        listener.onJobFinished(index, job, result, finishedCount.incrementAndGet());
+                    return result;
+                }
+
+                @Override
+                public void onBackupInstanceCreated(Uri instanceUri) {
+                    BatchEngine.this.journal.setInstance(entry, instanceUri);
+                }
+
+                @Override
+                public void onAppDataSaved() {
+                    // the next app is frozen while this one finishes, so it can start right away
+                    final int next = lastStarted.get() + 1;
+                    if (freezeAhead && next < jobs.size() && BatchEngine.needsFreeze(jobs.get(next))) {
+                        AppQuiescer.getInstance(BatchEngine.this.context).freezeAhead(jobs.get(next).app.getPackageName());
+                    }
+                }
+            };
+            task.setStageLimiter(this.limiter);
+            tasks.add(queue.submit(task));
+        }
+        final ActionResult[] results = new ActionResult[jobs.size()];
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                results[i] = tasks.get(i).await();
+            } catch (InterruptedException e) {
+                Log.w(BatchEngine.TAG, "Interrupted while waiting for the batch, cancelling the remaining jobs");
+                tasks.forEach(QueuedTask::cancel);
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Resumes the batches which were interrupted by the death of the process. Backup instances
+     * which were being written at that moment are deleted, apps which were done are skipped.
+     *
+     * @param context context to use
+     * @param shell   shell to run the actions with
+     */
+    public static void resumeInterrupted(Context context, ShellHandler shell) {
+        BatchJournal journal = new BatchJournal(context);
+        for (BatchRun batchRun : journal.getUnfinished()) {
+            // batches of this process are still running and not interrupted
+            if (!BatchEngine.activeBatches.add(batchRun.getId())) {
+                continue;
+            }
+            try {
+                BatchEngine.resume(context, shell, journal, batchRun);
+            } finally {
+                journal.finish(batchRun);
+                BatchEngine.activeBatches.remove(batchRun.getId());
+            }
+        }
+    }
+
+    private static void resume(Context context, ShellHandler shell, BatchJournal journal, BatchRun batchRun) {
+        AppRegistry registry = AppRegistry.getInstance(context);
+        try {
+            registry.getApps(false);
+        } catch (FileUtils.BackupLocationIsAccessibleException | PrefUtils.StorageLocationNotConfiguredException e) {
+            Log.e(BatchEngine.TAG, String.format("Cannot resume %s: %s", batchRun, e));
+            return;
+        }
+        List<Job> jobs = new ArrayList<>();
+        List<BatchJobEntry> remaining = new ArrayList<>();
+        for (BatchJobEntry entry : journal.getEntries(batchRun)) {
+            if (entry.getState() == BatchJobEntry.State.DONE || entry.getState() == BatchJobEntry.State.FAILED) {
+                continue;
+            }
+            if (entry.getState() == BatchJobEntry.State.RUNNING) {
+                if (entry.getInstanceUri() != null) {
+                    Log.i(BatchEngine.TAG, String.format("%s: Deleting incomplete backup %s", entry.getPackageName(), entry.getInstanceUri()));
+                    DocumentHelper.deleteRecursive(context, Uri.parse(entry.getInstanceUri()));
+                }
+                journal.markPending(entry);
+            }
+            AppInfoX app = registry.get(entry.getPackageName());
+            if (app == null) {
+                journal.markFinished(entry, new ActionResult(null, null,
+                        String.format("%s: Not available anymore", entry.getPackageName()), false));
+                continue;
+            }
+            jobs.add(new Job(app, entry.getMode(), BackupRestoreHelper.ActionType.valueOf(entry.getActionType())));
+            remaining.add(entry);
+        }
+        if (jobs.isEmpty()) {
+            return;
+        }
+        Log.i(BatchEngine.TAG, String.format("Resuming %s with %d remaining jobs", batchRun, jobs.size()));
+        final int notificationId = (int) System.currentTimeMillis();
+        final int totalOfActions = jobs.size();
+        final QueuedTask.Priority priority = QueuedTask.Priority.valueOf(batchRun.getPriority());
+        BatchEngine engine = new BatchEngine(context, shell, priority);
+        List<ActionResult> results = engine.run(jobs, remaining, new OnJobListener() {
+            @Override
+            public void onJobStarted(int index, Job job) {
+                String progress = context.getString(job.getActionType() == BackupRestoreHelper.ActionType.BACKUP
+                        ? R.string.backupProgress : R.string.restoreProgress);
+                NotificationHelper.showProgressNotification(context, MainActivityX.class, notificationId,
+                        String.format("%s (%d/%d)", progress, index + 1, totalOfActions), job.getApp().getPackageLabel(), priority);
+            }
+
+            @Override
+            public void onJobFinished(int index, Job job, ActionResult result, int finishedCount) {
+                // the overall result is shown once all jobs are done
+            }
+        });
+        boolean succeeded = results.stream().anyMatch(result -> result.succeeded);
+        NotificationHelper.showNotification(context, MainActivityX.class, notificationId,
+                context.getString(succeeded ? R.string.batchSuccess : R.string.batchFailure),
+                context.getString(jobs.get(0).getActionType() == BackupRestoreHelper.ActionType.BACKUP
+                        ? R.string.batchbackup : R.string.batchrestore), true);
+    }
+
+    private static boolean needsFreeze(Job job) {
+        // a job which might be skipped isn't frozen before it knows it has to back up
+        return job.actionType == BackupRestoreHelper.ActionType.BACKUP && !job.app.isSpecial()
+                && !job.skipUnchanged && (job.mode & BaseAppAction.MODE_DATA) == BaseAppAction.MODE_DATA;
+    }
+
+    private ActionResult runJob(Job job) {
+        BackupRestoreHelper backupRestoreHelper = new BackupRestoreHelper();
+        try {
+            if (job.actionType == BackupRestoreHelper.ActionType.BACKUP) {
+                // fingerprinting takes a while, so it's done by the job instead of when planning
+                if (job.skipUnchanged && DataFingerprint.isUnchanged(this.context, this.shell, job.app, job.mode)) {
+                    Log.i(BatchEngine.TAG, String.format("%s unchanged since the latest backup, skipping", job.app));
+                    return new ActionResult(job.app, null, String.format("%s: unchanged since the latest backup", job.app), true);
+                }
+                return backupRestoreHelper.backup(this.context, this.shell, job.app, job.mode);
+            }
+            BackupItem backup = job.app.getLatestBackup();
+            if (backup == null) {
+                return new ActionResult(job.app, null, String.format("%s: No backup to restore", job.app), false);
+            }
+            return backupRestoreHelper.restore(this.context, job.app, backup.getBackupProperties(),
+                    backup.getBackupLocation(), this.shell, job.mode);
+        } catch (RuntimeException e) {
+            Log.e(BatchEngine.TAG, String.format("%s: %s failed unexpectedly: %s", job.app, job.actionType, e));
+            return new ActionResult(job.app, null, String.format("%s: %s", e.getClass().getSimpleName(), e.getMessage()), false);
+        }
+    }
+
+    public static class Job {
+        private final AppInfoX app;
+        private final int mode;
+        private final BackupRestoreHelper.ActionType actionType;
+        private final boolean skipUnchanged;
+
+        public Job(AppInfoX app, int mode, BackupRestoreHelper.ActionType actionType) {
+            this(app, mode, actionType, false);
+        }
+
+        /**
+         * @param skipUnchanged true to skip the backup when the app didn't change since its
+         *                      latest backup, checked when the job runs
+         */
+        public Job(AppInfoX app, int mode, BackupRestoreHelper.ActionType actionType, boolean skipUnchanged) {
+            this.app = app;
+            this.mode = mode;
+            this.actionType = actionType;
+            this.skipUnchanged = skipUnchanged;
+        }
+
+        public AppInfoX getApp() {
+            return this.app;
+        }
+
+        public int getMode() {
+            return this.mode;
+        }
+
+        public BackupRestoreHelper.ActionType getActionType() {
+            return this.actionType;
+        }
+
+        public boolean isSkipUnchanged() {
+            return this.skipUnchanged;
+        }
+    }
+
+    public interface OnJobListener {
+        void onJobStarted(int index, Job job);
+
+        void onJobFinished(int index, Job job, ActionResult result, int finishedCount);
+    }
+}
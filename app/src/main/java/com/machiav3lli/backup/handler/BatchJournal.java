@@ -0,0 +1,246 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.handler;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.items.ActionResult;
+import com.machiav3lli.backup.tasks.QueuedTask;
+import com.machiav3lli.backup.tasks.db.BatchDao;
+import com.machiav3lli.backup.tasks.db.BatchDatabaseHelper;
+import com.machiav3lli.backup.tasks.db.BatchJobEntry;
+import com.machiav3lli.backup.tasks.db.BatchRun;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable record of the batches and the state of each of their apps. The journal is written
+ * before and after every app, so a batch interrupted by a crash or a kill can be resumed with
+ * the remaining apps. Finished batches are kept with a summary as history of the batches.
+ * Failing to write the journal never fails the batch itself.
+ */
+public class BatchJournal {
+    private static final String TAG = Constants.classTag(".BatchJournal");
+    // long enough to see trends over the seasons
+    private static final long KEEP_FINISHED_MILLIS = TimeUnit.DAYS.toMillis(365);
+
+    private final BatchDao dao;
+
+    public BatchJournal(Context context) {
+        this.dao = BatchDatabaseHelper.getBatchDatabase(context).batchDao();
+    }
+
+    /**
+     * Records a new batch with all its apps pending
+     *
+     * @param jobs      jobs of the batch
+     * @param priority  priority the batch runs with
+     * @param schedules ids of the schedules the batch was planned for, null if it was started by hand
+     * @return the recorded batch or null if the journal couldn't be written
+     */
+    public BatchRun begin(List<BatchEngine.Job> jobs, QueuedTask.Priority priority, String schedules) {
+        try {
+            this.dao.deleteFinishedBefore(System.currentTimeMillis() - BatchJournal.KEEP_FINISHED_MILLIS);
+            BatchRun batchRun = new BatchRun();
+            batchRun.setActionType(jobs.isEmpty() ? null : jobs.get(0).getActionType().name());
+            batchRun.setPriority(priority.name());
+            batchRun.setSchedules(schedules);
+            batchRun.setAppCount(jobs.size());
+            batchRun.setId(this.dao.insertRun(batchRun));
+            List<BatchJobEntry> entries = new ArrayList<>(jobs.size());
+            for (int i = 0; i < jobs.size(); i++) {
+                BatchJobEntry entry = new BatchJobEntry();
+                entry.setBatchId(batchRun.getId());
+                entry.setPosition(i);
+                entry.setPackageName(jobs.get(i).getApp().getPackageName());
+                entry.setActionType(jobs.get(i).getActionType().name());
+                entry.setMode(jobs.get(i).getMode());
+                entries.add(entry);
+            }
+            this.dao.insertEntries(entries);
+            return batchRun;
+        } catch (RuntimeException e) {
+            Log.e(BatchJournal.TAG, "Could not record the batch: " + e);
+            return null;
+        }
+    }
+
+    public List<BatchJobEntry> getEntries(BatchRun batchRun) {
+        if (batchRun == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return this.dao.getEntries(batchRun.getId());
+        } catch (RuntimeException e) {
+            Log.e(BatchJournal.TAG, "Could not read the batch journal: " + e);
+            return Collections.emptyList();
+        }
+    }
+
+    public List<BatchRun> getUnfinished() {
+        try {
+            return this.dao.getUnfinished();
+        } catch (RuntimeException e) {
+            Log.e(BatchJournal.TAG, "Could not read the batch journal: " + e);
+            return Collections.emptyList();
+        }
+    }
+
+    public void markRunning(BatchJobEntry entry) {
+        if (entry == null) return;
+        entry.setState(BatchJobEntry.State.RUNNING);
+        entry.setTimeStarted(System.currentTimeMillis());
+        this.update(entry);
+    }
+
+    public void setInstance(BatchJobEntry entry, Uri instanceUri) {
+        if (entry == null) return;
+        entry.setInstanceUri(instanceUri.toString());
+        this.update(entry);
+    }
+
+    public void markFinished(BatchJobEntry entry, ActionResult result) {
+        if (entry == null) return;
+        entry.setState(result.succeeded ? BatchJobEntry.State.DONE : BatchJobEntry.State.FAILED);
+        entry.setMessage(result.getMessage());
+        entry.setTimeFinished(System.currentTimeMillis());
+        if (result.stats != null) {
+            if (BackupRestoreHelper.ActionType.valueOf(entry.getActionType()) == BackupRestoreHelper.ActionType.BACKUP) {
+                entry.setBytes(result.stats.getBytesWritten());
+            } else {
+                entry.setBytes(result.stats.getBytesRead());
+                entry.setStats(result.stats);
+            }
+        }
+        this.update(entry);
+    }
+
+    /**
+     * Resets an entry interrupted while running, so it is processed again
+     *
+     * @param entry entry to reset
+     */
+    public void markPending(BatchJobEntry entry) {
+        entry.setState(BatchJobEntry.State.PENDING);
+        entry.setInstanceUri(null);
+        this.update(entry);
+    }
+
+    /**
+     * Marks the batch as finished and sums up its apps. A resumed batch is summed up over all
+     * its apps, including the ones done before the interruption.
+     *
+     * @param batchRun batch to finish
+     */
+    public void finish(BatchRun batchRun) {
+        if (batchRun == null) return;
+        batchRun.setFinished(true);
+        batchRun.setTimeFinished(System.currentTimeMillis());
+        try {
+            int succeeded = 0;
+            int failed = 0;
+            long totalBytes = 0;
+            List<BatchJobEntry> entries = this.dao.getEntries(batchRun.getId());
+            for (BatchJobEntry entry : entries) {
+                if (entry.getState() == BatchJobEntry.State.DONE) {
+                    succeeded++;
+                } else if (entry.getState() == BatchJobEntry.State.FAILED) {
+                    failed++;
+                }
+                totalBytes += entry.getBytes();
+            }
+            batchRun.setAppCount(entries.size());
+            batchRun.setSucceeded(succeeded);
+            batchRun.setFailed(failed);
+            batchRun.setTotalBytes(totalBytes);
+            this.dao.updateRun(batchRun);
+        } catch (RuntimeException e) {
+            Log.e(BatchJournal.TAG, "Could not finish the batch in the journal: " + e);
+        }
+    }
+
+    /**
+     * @param limit maximum number of batches
+     * @return the latest finished batches, newest first
+     */
+    public List<BatchRun> getHistory(int limit) {
+        try {
+            return this.dao.getFinished(limit);
+        } catch (RuntimeException e) {
+            Log.e(BatchJournal.TAG, "Could not read the batch history: " + e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @param batchRun batch to look into
+     * @param limit    maximum number of apps
+     * @return the apps of the batch which took the longest, slowest first
+     */
+    public List<BatchJobEntry> getSlowestEntries(BatchRun batchRun, int limit) {
+        try {
+            return this.dao.getSlowestEntries(batchRun.getId(), limit);
+        } catch (RuntimeException e) {
+            Log.e(BatchJournal.TAG, "Could not read the batch history: " + e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @param since time in milliseconds since the epoch
+     * @param limit maximum number of apps
+     * @return the apps of all batches since the given time which took the longest, slowest first
+     */
+    public List<BatchJobEntry> getSlowestEntries(long since, int limit) {
+        try {
+            return this.dao.getSlowestEntriesSince(since, limit);
+        } catch (RuntimeException e) {
+            Log.e(BatchJournal.TAG, "Could not read the batch history: " + e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @param actionType action of the apps
+     * @param since      time in milliseconds since the epoch
+     * @return the apps which succeeded in all batches since the given time, grouped by package
+     * and newest first within each package
+     */
+    public List<BatchJobEntry> getSucceededEntries(BackupRestoreHelper.ActionType actionType, long since) {
+        try {
+            return this.dao.getSucceededEntriesSince(actionType.name(), since);
+        } catch (RuntimeException e) {
+            Log.e(BatchJournal.TAG, "Could not read the batch history: " + e);
+            return Collections.emptyList();
+        }
+    }
+
+    private void update(BatchJobEntry entry) {
+        try {
+            this.dao.updateEntry(entry);
+        } catch (RuntimeException e) {
+            Log.e(BatchJournal.TAG, String.format("Could not update %s: %s", entry, e));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.handler;
+
+import android.content.Context;
+
+import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.items.AppInfoX;
+import com.machiav3lli.backup.utils.PrefUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A sort and filter code compiled into a single predicate and a comparator. The list is walked
+ * once and all conditions are tested on the cached backup flags of the apps, afterwards the
+ * matches are sorted. Labels are compared by their cached collation keys.
+ */
+public class CompiledFilter {
+    private static final Predicate<AppInfoX> ALL = appInfoX -> true;
+
+    private final String code;
+    private final Predicate<AppInfoX> predicate;
+    private final Comparator<AppInfoX> comparator;
+
+    /**
+     * Compiles the filter code as used by SortFilterModel
+     *
+     * @param filter  the code: sort order, app type, backup and special filter
+     * @param context Context object to read the configured age of old backups
+     */
+    public CompiledFilter(CharSequence filter, Context context) {
+        this.code = filter.toString();
+        Predicate<AppInfoX> predicate = CompiledFilter.ALL;
+        predicate = CompiledFilter.and(predicate, CompiledFilter.compileTypeFilter(filter.charAt(1)));
+        predicate = CompiledFilter.and(predicate, CompiledFilter.compileBackupFilter(filter.charAt(2)));
+        predicate = CompiledFilter.and(predicate, CompiledFilter.compileSpecialFilter(filter.charAt(3), context));
+        this.predicate = predicate;
+        this.comparator = CompiledFilter.compileSort(filter.charAt(0));
+    }
+
+    public String getCode() {
+        return this.code;
+    }
+
+    public boolean test(AppInfoX app) {
+        return this.predicate.test(app);
+    }
+
+    /**
+     * Filters and sorts the given list in a single pass
+     *
+     * @param list apps to filter, it's not modified
+     * @return new list of the matching apps in sorted order
+     */
+    public List<AppInfoX> apply(List<AppInfoX> list) {
+        List<AppInfoX> filteredList = new ArrayList<>(list.size());
+        if (this.predicate == CompiledFilter.ALL) {
+            filteredList.addAll(list);
+        } else {
+            for (AppInfoX app : list) {
+                if (this.predicate.test(app)) filteredList.add(app);
+            }
+        }
+        filteredList.sort(this.comparator);
+        return filteredList;
+    }
+
+    private static Predicate<AppInfoX> and(Predicate<AppInfoX> first, Predicate<AppInfoX> second) {
+        // skip the indirection of always true conditions
+        if (first == CompiledFilter.ALL) return second;
+        if (second == CompiledFilter.ALL) return first;
+        return first.and(second);
+    }
+
+    private static Predicate<AppInfoX> compileTypeFilter(char filter) {
+        switch (filter) {
+            case '1':
+                return AppInfoX::isSystem;
+            case '2':
+                return appInfoX -> !appInfoX.isSystem();
+            case '3':
+                return AppInfoX::isSpecial;
+            default: // equal to 0
+                return CompiledFilter.ALL;
+        }
+    }
+
+    private static Predicate<AppInfoX> compileBackupFilter(char filter) {
+        switch (filter) {
+            case '1':
+                final int both = AppInfoX.BACKUP_FLAG_APK | AppInfoX.BACKUP_FLAG_DATA;
+                return appInfoX -> (appInfoX.getBackupFlags() & both) == both;
+            case '2':
+                return appInfoX -> (appInfoX.getBackupFlags() & AppInfoX.BACKUP_FLAG_APK) != 0;
+            case '3':
+                return appInfoX -> (appInfoX.getBackupFlags() & AppInfoX.BACKUP_FLAG_DATA) != 0;
+            case '4':
+                return appInfoX -> !appInfoX.hasBackups();
+            default: // equal to 0
+                return CompiledFilter.ALL;
+        }
+    }
+
+    private static Predicate<AppInfoX> compileSpecialFilter(char filter, Context context) {
+        switch (filter) {
+            case '1':
+                return appInfoX -> !appInfoX.hasBackups() || appInfoX.isUpdated();
+            case '2':
+                return appInfoX -> !appInfoX.isInstalled();
+            case '3':
+                int days = Integer.parseInt(PrefUtils.getDefaultSharedPreferences(context).getString(Constants.PREFS_OLDBACKUPS, "7"));
+                // compare against a fixed point in time instead of computing the age of every backup
+                final LocalDateTime threshold = LocalDateTime.now().minusDays(days);
+                return appInfoX -> appInfoX.hasBackups()
+                        && !appInfoX.getLatestBackup().getBackupProperties().getBackupDate().isAfter(threshold);
+            case '4':
+                return appInfoX -> appInfoX.getApkSplits() != null && appInfoX.getApkSplits().length != 0;
+            default: // equal to 0
+                return CompiledFilter.ALL;
+        }
+    }
+
+    private static Comparator<AppInfoX> compileSort(char sort) {
+        switch (sort) {
+            case '1':
+                return SortFilterManager.APP_INFO_PACKAGE_NAME_COMPARATOR;
+            case '2':
+                return SortFilterManager.APP_INFO_DATA_SIZE_COMPARATOR;
+            default:
+                return SortFilterManager.APP_INFO_LABEL_COMPARATOR;
+        }
+    }
+}
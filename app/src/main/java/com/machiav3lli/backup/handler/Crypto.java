@@ -20,6 +20,7 @@ package com.machiav3lli.backup.handler;
 import android.util.Log;
 
 import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.utils.TraceUtils;
 
 import java.io.File;
 import java.io.InputStream;
@@ -77,10 +78,12 @@ public final class Crypto {
     }
 
     public static SecretKey generateKeyFromPassword(String password, byte[] salt, String keyFactoryAlgorithm, String cipherAlgorithm) throws NoSuchAlgorithmException, InvalidKeySpecException {
-        SecretKeyFactory factory = SecretKeyFactory.getInstance(keyFactoryAlgorithm);
-        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, Crypto.ITERATION_COUNT, Crypto.KEY_LENGTH);
-        byte[] keyBytes = factory.generateSecret(spec).getEncoded();
-        return new SecretKeySpec(keyBytes, cipherAlgorithm.split(File.separator)[0]);
+        try (TraceUtils.Section ignored = TraceUtils.section("crypto derive key", keyFactoryAlgorithm)) {
+            SecretKeyFactory factory = SecretKeyFactory.getInstance(keyFactoryAlgorithm);
+            KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, Crypto.ITERATION_COUNT, Crypto.KEY_LENGTH);
+            byte[] keyBytes = factory.generateSecret(spec).getEncoded();
+            return new SecretKeySpec(keyBytes, cipherAlgorithm.split(File.separator)[0]);
+        }
     }
 
     public static CipherOutputStream encryptStream(OutputStream os, String password, byte[] salt) throws CryptoSetupException {
@@ -98,7 +101,7 @@ public final class Crypto {
     }
 
     public static CipherOutputStream encryptStream(OutputStream os, SecretKey secret, String cipherAlgorithm) throws CryptoSetupException {
-        try {
+        try (TraceUtils.Section ignored = TraceUtils.section("crypto init encryption", cipherAlgorithm)) {
             Cipher cipher = Cipher.getInstance(cipherAlgorithm);
             final IvParameterSpec iv = new IvParameterSpec(Crypto.initIv(cipherAlgorithm));
             cipher.init(Cipher.ENCRYPT_MODE, secret, iv);
@@ -124,7 +127,7 @@ public final class Crypto {
     }
 
     public static CipherInputStream decryptStream(InputStream in, SecretKey secret, String cipherAlgorithm) throws CryptoSetupException {
-        try {
+        try (TraceUtils.Section ignored = TraceUtils.section("crypto init decryption", cipherAlgorithm)) {
             Cipher cipher = Cipher.getInstance(cipherAlgorithm);
             final IvParameterSpec iv = new IvParameterSpec(Crypto.initIv(cipherAlgorithm));
             cipher.init(Cipher.DECRYPT_MODE, secret, iv);
@@ -0,0 +1,177 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.handler;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.handler.action.BaseAppAction;
+import com.machiav3lli.backup.items.AppInfoX;
+import com.machiav3lli.backup.items.BackupItem;
+import com.machiav3lli.backup.items.BackupProperties;
+import com.machiav3lli.backup.utils.PrefUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Cheap fingerprint of an app's data: a hash over path, size and modification time of every
+ * file in the data directories that would be backed up, taken from a single root listing.
+ * Equal fingerprints mean the data hasn't changed since the backup, without reading any file.
+ */
+public final class DataFingerprint {
+    private static final String TAG = Constants.classTag(".DataFingerprint");
+
+    private DataFingerprint() {
+    }
+
+    /**
+     * @param context context to read the preferences with
+     * @param shell   shell to list the files with
+     * @param app     app to fingerprint
+     * @return hex encoded fingerprint or null if it couldn't be taken
+     */
+    public static String compute(Context context, ShellHandler shell, AppInfoX app) {
+        if (shell == null || app.isSpecial() || app.getDataDir() == null) {
+            return null;
+        }
+        List<String> sourceDirectories = new ArrayList<>(4);
+        sourceDirectories.add(app.getDataDir());
+        if (PrefUtils.getDefaultSharedPreferences(context).getBoolean(Constants.PREFS_EXTERNALDATA, true)) {
+            sourceDirectories.add(app.getExternalDataDir());
+            sourceDirectories.add(app.getObbFilesDir());
+        }
+        if (PrefUtils.getDefaultSharedPreferences(context).getBoolean(Constants.PREFS_DEVICEPROTECTEDDATA, true)) {
+            sourceDirectories.add(app.getDeviceProtectedDataDir());
+        }
+        final boolean excludeCache = PrefUtils.getDefaultSharedPreferences(context).getBoolean(Constants.PREFS_EXCLUDECACHE, true);
+        // missing directories are fine, they just don't contribute to the fingerprint
+        final String command = String.format("%1$s find %2$s -exec %1$s stat -c '%%n %%s %%Y' {} + 2>/dev/null; true",
+                shell.getUtilboxPath(),
+                sourceDirectories.stream().map(dir -> '"' + dir + '"').collect(Collectors.joining(" ")));
+        final MessageDigest lineDigest;
+        final MessageDigest digest;
+        try {
+            lineDigest = MessageDigest.getInstance("SHA-256");
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            Log.e(DataFingerprint.TAG, "SHA-256 is not available: " + e);
+            return null;
+        }
+        // The lines are hashed one by one while they arrive and the hashes are summed up, so the
+        // order find lists them in doesn't matter and the listing is never held in memory
+        final byte[] sum = new byte[lineDigest.getDigestLength()];
+        try {
+            ShellHandler.runAsRoot(line -> {
+                if (line.isEmpty() || (excludeCache && DataFingerprint.isExcluded(line, sourceDirectories))) {
+                    return;
+                }
+                DataFingerprint.add(sum, lineDigest.digest(line.getBytes(StandardCharsets.UTF_8)));
+            }, command);
+        } catch (ShellHandler.ShellCommandFailedException e) {
+            Log.w(DataFingerprint.TAG, String.format("%s: Could not list the data: %s", app, e));
+            return null;
+        }
+        for (String dir : sourceDirectories) {
+            digest.update(dir.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        digest.update(sum);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Adds the value to the sum, both are unsigned big endian numbers of the same length. The
+     * overflow is dropped.
+     */
+    private static void add(byte[] sum, byte[] value) {
+        int carry = 0;
+        for (int i = sum.length - 1; i >= 0; i--) {
+            final int digit = (sum[i] & 0xff) + (value[i] & 0xff) + carry;
+            sum[i] = (byte) digit;
+            carry = digit >>> 8;
+        }
+    }
+
+    /**
+     * Checks if the app is unchanged since its latest backup, by its versionCode and, if the
+     * data is part of the backup, by the data fingerprint
+     *
+     * @param context    context to read the preferences with
+     * @param shell      shell to list the files with
+     * @param app        app to check
+     * @param backupMode mode of the backup that is about to run
+     * @return true, if the latest backup already contains the current state
+     */
+    public static boolean isUnchanged(Context context, ShellHandler shell, AppInfoX app, int backupMode) {
+        BackupItem latestBackup = app.getLatestBackup();
+        if (latestBackup == null || !app.isInstalled()) {
+            return false;
+        }
+        BackupProperties properties = latestBackup.getBackupProperties();
+        if (properties.getVersionCode() != app.getVersionCode()) {
+            return false;
+        }
+        if ((backupMode & BaseAppAction.MODE_APK) == BaseAppAction.MODE_APK && !properties.hasApk()) {
+            return false;
+        }
+        if ((backupMode & BaseAppAction.MODE_DATA) != BaseAppAction.MODE_DATA) {
+            return true;
+        }
+        final String fingerprint = properties.getDataFingerprint();
+        return fingerprint != null && fingerprint.equals(DataFingerprint.compute(context, shell, app));
+    }
+
+    private static boolean isExcluded(String line, List<String> sourceDirectories) {
+        for (String dir : sourceDirectories) {
+            if (line.startsWith(dir + '/')) {
+                String relative = line.substring(dir.length() + 1);
+                int separator = relative.indexOf('/');
+                // a root-level entry is followed by its size and time, the name can contain spaces
+                String topLevel = separator >= 0 ? relative.substring(0, separator) : DataFingerprint.stripStatFields(relative);
+                return BaseAppAction.DATA_EXCLUDED_DIRS.contains(topLevel);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param line line of the listing, "name size time"
+     * @return the name without the trailing size and time
+     */
+    private static String stripStatFields(String line) {
+        int end = line.length();
+        for (int field = 0; field < 2; field++) {
+            final int separator = line.lastIndexOf(' ', end - 1);
+            if (separator < 0) {
+                return line;
+            }
+            end = separator;
+        }
+        return line.substring(0, end);
+    }
+}
@@ -14,6 +14,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
 import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.utils.TraceUtils;
 
 @RequiresApi(26)
 public class DocumentContractApi {
@@ -101,7 +102,7 @@ public class DocumentContractApi {
     public static boolean exists(Context context, Uri self) {
         final ContentResolver resolver = context.getContentResolver();
         Cursor cursor = null;
-        try {
+        try (TraceUtils.Section ignored = TraceUtils.section("saf exists")) {
             cursor = resolver.query(self, new String[]{
                     DocumentsContract.Document.COLUMN_DOCUMENT_ID}, null, null, null);
             return cursor.getCount() > 0;
@@ -117,7 +118,7 @@ public class DocumentContractApi {
     private static String queryForString(Context context, Uri self, String column, @Nullable String defaultValue) {
         final ContentResolver resolver = context.getContentResolver();
         Cursor cursor = null;
-        try {
+        try (TraceUtils.Section ignored = TraceUtils.section("saf query", column)) {
             //noinspection resource
             cursor = resolver.query(self, new String[]{column}, null, null, null);
             if (cursor.moveToFirst() && !cursor.isNull(0)) {
@@ -140,7 +141,7 @@ public class DocumentContractApi {
                                      long defaultValue) {
         final ContentResolver resolver = context.getContentResolver();
         Cursor cursor = null;
-        try {
+        try (TraceUtils.Section ignored = TraceUtils.section("saf query", column)) {
             cursor = resolver.query(self, new String[]{column}, null, null, null);
             if (cursor.moveToFirst() && !cursor.isNull(0)) {
                 return cursor.getLong(0);
@@ -0,0 +1,203 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.handler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact list of the files of a backup. Data directories can contain hundreds of thousands of
+ * files, a FileInfo object with its path strings per file would need hundreds of MB. Instead the
+ * attributes are kept in columns: the parent directories and the owners and groups are stored
+ * once in tables and referenced by index, mode, size and modification time are primitive arrays.
+ * Only the name is stored per file. Paths are assembled when they are asked for.
+ */
+public class FileList {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final ShellHandler.FileInfo.FileType[] FILE_TYPES = ShellHandler.FileInfo.FileType.values();
+
+    // parent directories, relative to the root of the backup and absolute
+    private final List<String> relativeParents = new ArrayList<>();
+    private final List<String> absoluteParents = new ArrayList<>();
+    private final Map<String, Integer> parentIndex = new HashMap<>();
+    // owners and groups
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> nameIndex = new HashMap<>();
+    // symbolic links are rare
+    private final Map<Integer, String> linkNames = new HashMap<>();
+
+    private String[] filenames = new String[FileList.INITIAL_CAPACITY];
+    private int[] parents = new int[FileList.INITIAL_CAPACITY];
+    private byte[] types = new byte[FileList.INITIAL_CAPACITY];
+    private short[] owners = new short[FileList.INITIAL_CAPACITY];
+    private short[] groups = new short[FileList.INITIAL_CAPACITY];
+    private short[] modes = new short[FileList.INITIAL_CAPACITY];
+    private long[] sizes = new long[FileList.INITIAL_CAPACITY];
+    private long[] modificationTimes = new long[FileList.INITIAL_CAPACITY];
+    private int size = 0;
+    private int lastParent = -1;
+    private long totalSize = 0;
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * @return sum of the sizes of all regular files in bytes
+     */
+    public long getTotalSize() {
+        return this.totalSize;
+    }
+
+    /**
+     * Adds the file. Only the attributes are kept, not the object itself.
+     *
+     * @param file file to add
+     */
+    public void add(ShellHandler.FileInfo file) {
+        final String filename = file.getFilename();
+        final String filepath = file.getFilepath();
+        final String absolutePath = file.getAbsolutePath();
+        final int parent = this.getParent(
+                filepath, Math.max(0, filepath.length() - filename.length() - 1),
+                absolutePath, Math.max(0, absolutePath.length() - filename.length() - 1));
+        this.ensureCapacity(this.size + 1);
+        final int index = this.size++;
+        this.filenames[index] = filename;
+        this.parents[index] = parent;
+        this.types[index] = (byte) file.getFiletype().ordinal();
+        this.owners[index] = this.getName(file.getOwner());
+        this.groups[index] = this.getName(file.getGroup());
+        this.modes[index] = file.getFilemode();
+        this.sizes[index] = file.getFilesize();
+        if (file.getFiletype() == ShellHandler.FileInfo.FileType.REGULAR_FILE) {
+            this.totalSize += file.getFilesize();
+        }
+        this.modificationTimes[index] = file.getModificationTime();
+        if (file.getLinkName() != null) {
+            this.linkNames.put(index, file.getLinkName());
+        }
+    }
+
+    public String getFilename(int index) {
+        return this.filenames[index];
+    }
+
+    /**
+     * @return path of the file relative to the root of the backup
+     */
+    public String getFilepath(int index) {
+        final String parent = this.relativeParents.get(this.parents[index]);
+        return parent.isEmpty() ? this.filenames[index] : parent + '/' + this.filenames[index];
+    }
+
+    /**
+     * @return path of the parent directory relative to the root of the backup, empty for the root
+     */
+    public String getParentPath(int index) {
+        return this.relativeParents.get(this.parents[index]);
+    }
+
+    public String getAbsolutePath(int index) {
+        return this.absoluteParents.get(this.parents[index]) + '/' + this.filenames[index];
+    }
+
+    public ShellHandler.FileInfo.FileType getFiletype(int index) {
+        return FileList.FILE_TYPES[this.types[index]];
+    }
+
+    public String getOwner(int index) {
+        return this.names.get(this.owners[index]);
+    }
+
+    public String getGroup(int index) {
+        return this.names.get(this.groups[index]);
+    }
+
+    public short getFilemode(int index) {
+        return this.modes[index];
+    }
+
+    public long getFilesize(int index) {
+        return this.sizes[index];
+    }
+
+    public long getModificationTime(int index) {
+        return this.modificationTimes[index];
+    }
+
+    public String getLinkName(int index) {
+        return this.linkNames.get(index);
+    }
+
+    private int getParent(String filepath, int relativeLength, String absolutePath, int absoluteLength) {
+        // files are added directory by directory, so the parent is usually the one of the last file
+        if (this.lastParent >= 0) {
+            final String relative = this.relativeParents.get(this.lastParent);
+            final String absolute = this.absoluteParents.get(this.lastParent);
+            if (relative.length() == relativeLength && absolute.length() == absoluteLength
+                    && filepath.startsWith(relative) && absolutePath.startsWith(absolute)) {
+                return this.lastParent;
+            }
+        }
+        final String relative = filepath.substring(0, relativeLength);
+        final String absolute = absolutePath.substring(0, absoluteLength);
+        final String key = relative + '\0' + absolute;
+        Integer parent = this.parentIndex.get(key);
+        if (parent == null) {
+            parent = this.relativeParents.size();
+            this.relativeParents.add(relative);
+            this.absoluteParents.add(absolute);
+            this.parentIndex.put(key, parent);
+        }
+        this.lastParent = parent;
+        return parent;
+    }
+
+    private short getName(String name) {
+        Integer index = this.nameIndex.get(name);
+        if (index == null) {
+            index = this.names.size();
+            this.names.add(name);
+            this.nameIndex.put(name, index);
+        }
+        return index.shortValue();
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= this.filenames.length) {
+            return;
+        }
+        final int newCapacity = Math.max(capacity, this.filenames.length * 2);
+        this.filenames = Arrays.copyOf(this.filenames, newCapacity);
+        this.parents = Arrays.copyOf(this.parents, newCapacity);
+        this.types = Arrays.copyOf(this.types, newCapacity);
+        this.owners = Arrays.copyOf(this.owners, newCapacity);
+        this.groups = Arrays.copyOf(this.groups, newCapacity);
+        this.modes = Arrays.copyOf(this.modes, newCapacity);
+        this.sizes = Arrays.copyOf(this.sizes, newCapacity);
+        this.modificationTimes = Arrays.copyOf(this.modificationTimes, newCapacity);
+    }
+}
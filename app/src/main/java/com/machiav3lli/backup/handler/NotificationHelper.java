@@ -30,27 +30,47 @@ import androidx.core.app.NotificationManagerCompat;
 import com.machiav3lli.backup.Constants;
 import com.machiav3lli.backup.R;
 import com.machiav3lli.backup.activities.BaseActivity;
+import com.machiav3lli.backup.tasks.CancelTasksReceiver;
+import com.machiav3lli.backup.tasks.QueuedTask;
 
 public class NotificationHelper {
     private static final String TAG = Constants.classTag(".NotificationHelper");
 
     public static void showNotification(Context context, Class<? extends BaseActivity> parentActivity, int id, String title, String text, boolean autocancel) {
+        NotificationHelper.notify(context, id, NotificationHelper.createBuilder(context, parentActivity, title, text)
+                .setAutoCancel(autocancel));
+    }
+
+    /**
+     * Shows the progress of running tasks with an action to cancel them
+     *
+     * @param priority priority of the tasks the cancel action stops
+     */
+    public static void showProgressNotification(Context context, Class<? extends BaseActivity> parentActivity, int id, String title, String text, QueuedTask.Priority priority) {
+        NotificationHelper.notify(context, id, NotificationHelper.createBuilder(context, parentActivity, title, text)
+                .setAutoCancel(false)
+                .addAction(0, context.getString(R.string.dialogCancel), CancelTasksReceiver.getPendingIntent(context, priority)));
+    }
+
+    private static NotificationCompat.Builder createBuilder(Context context, Class<? extends BaseActivity> parentActivity, String title, String text) {
         final Intent resultIntent = new Intent(context, parentActivity);
         resultIntent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
         final PendingIntent resultPendingIntent = PendingIntent.getActivity(context, 0, resultIntent, PendingIntent.FLAG_UPDATE_CURRENT);
 
-        final NotificationChannel notificationChannel =
-                new NotificationChannel(TAG, TAG, NotificationManager.IMPORTANCE_LOW);
-        final NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
-        notificationManager.createNotificationChannel(notificationChannel);
-        final Notification notification = new NotificationCompat.Builder(context, TAG)
+        return new NotificationCompat.Builder(context, TAG)
                 .setPriority(NotificationCompat.PRIORITY_DEFAULT)
                 .setSmallIcon(R.drawable.ic_app)
                 .setContentTitle(title)
                 .setContentText(text.isEmpty() ? null : text)
-                .setAutoCancel(autocancel)
-                .setContentIntent(resultPendingIntent)
-                .build();
+                .setContentIntent(resultPendingIntent);
+    }
+
+    private static void notify(Context context, int id, NotificationCompat.Builder builder) {
+        final NotificationChannel notificationChannel =
+                new NotificationChannel(TAG, TAG, NotificationManager.IMPORTANCE_LOW);
+        final NotificationManagerCompat notificationManager = NotificationManagerCompat.from(context);
+        notificationManager.createNotificationChannel(notificationChannel);
+        final Notification notification = builder.build();
         notificationManager.notify(id, notification);
     }
 }
@@ -0,0 +1,146 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.handler;
+
+import com.machiav3lli.backup.items.AppInfoX;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of apps keyed by package name with secondary indexes for the properties the list
+ * filters and the scheduler select by. Lookups are constant time instead of scanning lists.
+ * Entries keep their insertion order. Not thread safe, callers synchronize themselves.
+ */
+public class PackageIndex {
+    private final Map<String, AppInfoX> apps = new LinkedHashMap<>();
+    private final Set<String> installed = new HashSet<>();
+    private final Set<String> system = new HashSet<>();
+    private final Set<String> special = new HashSet<>();
+    private final Set<String> withBackups = new HashSet<>();
+
+    public PackageIndex() {
+    }
+
+    public PackageIndex(Collection<AppInfoX> apps) {
+        this.putAll(apps);
+    }
+
+    /**
+     * Adds or replaces an entry. Has to be called again after the backup history of an entry
+     * changed to keep the secondary indexes up to date.
+     *
+     * @param app entry to index
+     */
+    public void put(AppInfoX app) {
+        String packageName = app.getPackageName();
+        this.apps.put(packageName, app);
+        PackageIndex.setMembership(this.installed, packageName, app.isInstalled());
+        PackageIndex.setMembership(this.system, packageName, app.isSystem());
+        PackageIndex.setMembership(this.special, packageName, app.isSpecial());
+        PackageIndex.setMembership(this.withBackups, packageName, app.hasBackups());
+    }
+
+    public void putAll(Collection<AppInfoX> apps) {
+        for (AppInfoX app : apps) {
+            this.put(app);
+        }
+    }
+
+    public AppInfoX remove(String packageName) {
+        this.installed.remove(packageName);
+        this.system.remove(packageName);
+        this.special.remove(packageName);
+        this.withBackups.remove(packageName);
+        return this.apps.remove(packageName);
+    }
+
+    public void clear() {
+        this.apps.clear();
+        this.installed.clear();
+        this.system.clear();
+        this.special.clear();
+        this.withBackups.clear();
+    }
+
+    public AppInfoX get(String packageName) {
+        return this.apps.get(packageName);
+    }
+
+    public boolean contains(String packageName) {
+        return this.apps.containsKey(packageName);
+    }
+
+    public int size() {
+        return this.apps.size();
+    }
+
+    public boolean isInstalled(String packageName) {
+        return this.installed.contains(packageName);
+    }
+
+    public boolean isSystem(String packageName) {
+        return this.system.contains(packageName);
+    }
+
+    public boolean isSpecial(String packageName) {
+        return this.special.contains(packageName);
+    }
+
+    public boolean hasBackups(String packageName) {
+        return this.withBackups.contains(packageName);
+    }
+
+    public Set<String> getPackageNames() {
+        return Collections.unmodifiableSet(this.apps.keySet());
+    }
+
+    public Set<String> getInstalled() {
+        return Collections.unmodifiableSet(this.installed);
+    }
+
+    public Set<String> getSystem() {
+        return Collections.unmodifiableSet(this.system);
+    }
+
+    public Set<String> getSpecial() {
+        return Collections.unmodifiableSet(this.special);
+    }
+
+    public Set<String> getWithBackups() {
+        return Collections.unmodifiableSet(this.withBackups);
+    }
+
+    public List<AppInfoX> getApps() {
+        return new ArrayList<>(this.apps.values());
+    }
+
+    private static void setMembership(Set<String> index, String packageName, boolean member) {
+        if (member) {
+            index.add(packageName);
+        } else {
+            index.remove(packageName);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.handler;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.handler.action.BaseAppAction;
+import com.machiav3lli.backup.items.ActionResult;
+import com.machiav3lli.backup.items.ActionStats;
+import com.machiav3lli.backup.items.BackupItem;
+import com.machiav3lli.backup.tasks.QueuedTask;
+import com.machiav3lli.backup.tasks.TaskQueue;
+import com.machiav3lli.backup.tasks.db.BatchJobEntry;
+import com.machiav3lli.backup.utils.PrefUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Plans a batch restore in two phases. Installing an apk is mostly waiting for the package
+ * manager verifying and compiling it, so only a few install tasks are queued at a time. As soon
+ * as an app is installed, its data is queued as a task of its own and restored while the next
+ * apps are still being installed. The data of an app is only restored if its apk was installed
+ * successfully, both phases are journaled as one result.
+ */
+class RestorePlanner {
+    private static final String TAG = Constants.classTag(".RestorePlanner");
+
+    private final Context context;
+    private final ShellHandler shell;
+    private final QueuedTask.Priority priority;
+    private final StageLimiter limiter;
+    private final BatchJournal journal;
+    private final List<BatchEngine.Job> jobs;
+    private final List<BatchJobEntry> entries;
+    private final BatchEngine.OnJobListener listener;
+    private final List<CompletableFuture<ActionResult>> results;
+    private final ConcurrentLinkedQueue<Integer> pendingInstalls = new ConcurrentLinkedQueue<>();
+    private final List<QueuedTask> tasks = new CopyOnWriteArrayList<>();
+    private final ActionResult[] apkResults;
+    private final AtomicInteger finishedCount = new AtomicInteger(0);
+    private final int cancellations;
+    private volatile boolean cancelled = false;
+
+    RestorePlanner(Context context, ShellHandler shell, QueuedTask.Priority priority, StageLimiter limiter,
+                   BatchJournal journal, List<BatchEngine.Job> jobs, List<BatchJobEntry> entries,
+                   BatchEngine.OnJobListener listener) {
+        this.context = context;
+        this.shell = shell;
+        this.priority = priority;
+        this.limiter = limiter;
+        this.journal = journal;
+        this.jobs = jobs;
+        this.entries = entries;
+        this.listener = listener;
+        this.cancellations = TaskQueue.getInstance(context).getCancellations(priority);
+        this.results = new ArrayList<>(jobs.size());
+        this.apkResults = new ActionResult[jobs.size()];
+        for (int i = 0; i < jobs.size(); i++) {
+            this.results.add(new CompletableFuture<>());
+        }
+    }
+
+    /**
+     * Only restores with apk and data of more than one app profit from the two phases
+     *
+     * @param jobs jobs of the batch
+     * @return true if the batch should be planned by the RestorePlanner
+     */
+    static boolean isSuitable(List<BatchEngine.Job> jobs) {
+        return jobs.size() > 1 && jobs.stream().allMatch(job ->
+                job.getActionType() == BackupRestoreHelper.ActionType.RESTORE
+                        && (job.getMode() & BaseAppAction.MODE_BOTH) == BaseAppAction.MODE_BOTH);
+    }
+
+    /**
+     * Runs both phases and blocks until all jobs are done
+     *
+     * @return one result per job, in the order of the jobs; null for jobs that were not processed
+     */
+    ActionResult[] run() {
+        final int sessions = Math.max(1, PrefUtils.getDefaultSharedPreferences(this.context)
+                .getInt(Constants.PREFS_BATCH_INSTALL_SESSIONS, 2));
+        for (int i = 0; i < this.jobs.size(); i++) {
+            BatchEngine.Job job = this.jobs.get(i);
+            if (job.getApp().getLatestBackup() == null) {
+                this.finish(i, new ActionResult(job.getApp(), null, String.format("%s: No backup to restore", job.getApp()), false));
+            } else if (job.getApp().isSpecial() || (job.getMode() & BaseAppAction.MODE_APK) != BaseAppAction.MODE_APK) {
+                // nothing to install, the data doesn't depend on anything
+                this.start(i);
+                this.queueData(i);
+            } else {
+                this.pendingInstalls.add(i);
+            }
+        }
+        Log.i(RestorePlanner.TAG, String.format("Installing %d apks with %d sessions, restoring data of %d apps",
+                this.pendingInstalls.size(), sessions, this.jobs.size()));
+        for (int i = 0; i < sessions; i++) {
+            this.queueNextInstall();
+        }
+        final ActionResult[] actionResults = new ActionResult[this.jobs.size()];
+        for (int i = 0; i < this.results.size(); i++) {
+            try {
+                actionResults[i] = this.results.get(i).get();
+            } catch (InterruptedException e) {
+                Log.w(RestorePlanner.TAG, "Interrupted while waiting for the batch, cancelling the remaining jobs");
+                this.cancelled = true;
+                this.tasks.forEach(QueuedTask::cancel);
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                Log.e(RestorePlanner.TAG, String.format("%s: %s", this.jobs.get(i).getApp(), e.getCause()));
+            }
+        }
+        return actionResults;
+    }
+
+    /**
+     * Queues the install of the next apk. Every finished install queues the next one, so only
+     * as many installs as there are sessions are queued at a time.
+     */
+    private void queueNextInstall() {
+        Integer index;
+        while ((index = this.pendingInstalls.poll()) != null) {
+            if (this.isCancelled()) {
+                // reported as not processed
+                this.results.get(index).complete(null);
+                continue;
+            }
+            this.queueInstall(index);
+            return;
+        }
+    }
+
+    private void queueInstall(int index) {
+        final BatchEngine.Job job = this.jobs.get(index);
+        QueuedTask task = new QueuedTask(this.priority, job.getApp().getPackageLabel()) {
+            private volatile boolean dataQueued = false;
+
+            @Override
+            protected ActionResult execute() {
+                RestorePlanner.this.start(index);
+                ActionResult result = RestorePlanner.this.restore(index, BaseAppAction.MODE_APK);
+                if (!result.succeeded) {
+                    RestorePlanner.this.finish(index, result);
+                } else if (!RestorePlanner.this.isCancelled()) {
+                    RestorePlanner.this.apkResults[index] = result;
+                    RestorePlanner.this.queueData(index);
+                    this.dataQueued = true;
+                }
+                return result;
+            }
+
+            @Override
+            protected void onFinished(ActionResult result) {
+                // cancelled tasks are finished without being executed, the data task reports
+                // the result of installed apps
+                if (!this.dataQueued) {
+                    RestorePlanner.this.results.get(index).complete(null);
+                }
+                RestorePlanner.this.queueNextInstall();
+            }
+        };
+        task.setStageLimiter(this.limiter);
+        this.tasks.add(task);
+        TaskQueue.getInstance(this.context).submit(task);
+    }
+
+    private boolean isCancelled() {
+        return this.cancelled
+                || TaskQueue.getInstance(this.context).getCancellations(this.priority) != this.cancellations;
+    }
+
+    private void queueData(int index) {
+        final BatchEngine.Job job = this.jobs.get(index);
+        QueuedTask task = new QueuedTask(this.priority, job.getApp().getPackageLabel()) {
+            @Override
+            protected ActionResult execute() {
+                ActionResult result = RestorePlanner.merge(RestorePlanner.this.apkResults[index],
+                        RestorePlanner.this.restore(index, BaseAppAction.MODE_DATA));
+                RestorePlanner.this.finish(index, result);
+                return result;
+            }
+
+            @Override
+            protected void onFinished(ActionResult result) {
+                // cancelled tasks are finished without being executed
+                RestorePlanner.this.results.get(index).complete(null);
+            }
+        };
+        task.setStageLimiter(this.limiter);
+        this.tasks.add(task);
+        TaskQueue.getInstance(this.context).submit(task);
+    }
+
+    /**
+     * @param apkResult  result of installing the apk, null if nothing was installed
+     * @param dataResult result of restoring the data
+     * @return one result for both phases
+     */
+    private static ActionResult merge(ActionResult apkResult, ActionResult dataResult) {
+        if (apkResult == null) {
+            return dataResult;
+        }
+        final String message = Stream.of(apkResult.getMessage(), dataResult.getMessage())
+                .filter(part -> !part.isEmpty())
+                .collect(Collectors.joining("\n"));
+        final ActionStats stats = apkResult.stats != null ? apkResult.stats.merge(dataResult.stats) : dataResult.stats;
+        return new ActionResult(dataResult.app, dataResult.backupProperties, message,
+                apkResult.succeeded && dataResult.succeeded, stats);
+    }
+
+    private ActionResult restore(int index, int mode) {
+        final BatchEngine.Job job = this.jobs.get(index);
+        BackupItem backup = job.getApp().getLatestBackup();
+        try {
+            return new BackupRestoreHelper().restore(this.context, job.getApp(), backup.getBackupProperties(),
+                    backup.getBackupLocation(), this.shell, mode);
+        } catch (RuntimeException e) {
+            Log.e(RestorePlanner.TAG, String.format("%s: Restore failed unexpectedly: %s", job.getApp(), e));
+            return new ActionResult(job.getApp(), null, String.format("%s: %s", e.getClass().getSimpleName(), e.getMessage()), false);
+        }
+    }
+
+    private void start(int index) {
+        this.journal.markRunning(this.getEntry(index));
+        if (this.listener != null) this.listener.onJobStarted(index, this.jobs.get(index));
+    }
+
+    private void finish(int index, ActionResult result) {
+        this.journal.markFinished(this.getEntry(index), result);
+        if (this.listener != null)
+            this.listener.onJobFinished(index, this.jobs.get(index), result, this.finishedCount.incrementAndGet());
+        this.results.get(index).complete(result);
+    }
+
+    private BatchJobEntry getEntry(int index) {
+        return this.entries != null ? this.entries.get(index) : null;
+    }
+}
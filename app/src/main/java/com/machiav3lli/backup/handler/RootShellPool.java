@@ -0,0 +1,330 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.handler;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.tasks.QueuedTask;
+import com.machiav3lli.backup.utils.PrefUtils;
+import com.topjohnwu.superuser.Shell;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Independent root shells for running commands in parallel. The global shell of libsu runs one
+ * command after the other, so the listing of one app had to wait for the restorecon of another.
+ * A shell is checked out for a single command and given back afterwards. Shells which died,
+ * didn't finish their command in time or have been idle for too long are closed and replaced
+ * on demand.
+ */
+public class RootShellPool {
+    private static final String TAG = Constants.classTag(".RootShellPool");
+    private static final int DEFAULT_SIZE = 3;
+    private static final long DEFAULT_COMMAND_TIMEOUT = TimeUnit.MINUTES.toSeconds(30);
+    private static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+    private static RootShellPool instance;
+
+    private final Deque<PooledShell> idle = new ArrayDeque<>();
+    private int size = RootShellPool.DEFAULT_SIZE;
+    private int checkedOut = 0;
+    private volatile long commandTimeout = RootShellPool.DEFAULT_COMMAND_TIMEOUT;
+    // priorities of the commands of tasks by task priority, applied when a shell is checked out
+    private final Map<QueuedTask.Priority, ShellPriority> priorities = new EnumMap<>(QueuedTask.Priority.class);
+    private volatile String priorityUtilbox;
+    // SharedPreferences only keeps weak references to its listeners
+    private SharedPreferences.OnSharedPreferenceChangeListener preferenceListener;
+
+    private RootShellPool() {
+    }
+
+    public static synchronized RootShellPool getInstance() {
+        if (RootShellPool.instance == null) {
+            RootShellPool.instance = new RootShellPool();
+        }
+        return RootShellPool.instance;
+    }
+
+    /**
+     * Applies the size and the command timeout from the preferences and follows their changes
+     *
+     * @param context context to get the preferences
+     */
+    public synchronized void init(Context context) {
+        SharedPreferences prefs = PrefUtils.getDefaultSharedPreferences(context);
+        this.applyPreferences(prefs);
+        if (this.preferenceListener == null) {
+            this.preferenceListener = (changedPrefs, key) -> {
+                if (Constants.PREFS_ROOT_SHELLS.equals(key) || Constants.PREFS_ROOT_SHELL_TIMEOUT.equals(key)) {
+                    this.applyPreferences(changedPrefs);
+                }
+            };
+            prefs.registerOnSharedPreferenceChangeListener(this.preferenceListener);
+        }
+    }
+
+    private void applyPreferences(SharedPreferences prefs) {
+        this.setSize(prefs.getInt(Constants.PREFS_ROOT_SHELLS, RootShellPool.DEFAULT_SIZE));
+        this.setCommandTimeout(TimeUnit.MINUTES.toSeconds(prefs.getInt(Constants.PREFS_ROOT_SHELL_TIMEOUT,
+                (int) TimeUnit.SECONDS.toMinutes(RootShellPool.DEFAULT_COMMAND_TIMEOUT))));
+    }
+
+    /**
+     * @param size maximum number of root shells, at least 1
+     */
+    public synchronized void setSize(int size) {
+        this.size = Math.max(1, size);
+        while (this.idle.size() + this.checkedOut > this.size && !this.idle.isEmpty()) {
+            RootShellPool.close(this.idle.poll());
+        }
+        this.notifyAll();
+    }
+
+    /**
+     * @param seconds time a single command may take before its shell is considered hung
+     */
+    public synchronized void setCommandTimeout(long seconds) {
+        this.commandTimeout = Math.max(1, seconds);
+    }
+
+    /**
+     * Sets the CPU and I/O priority for the commands of tasks with the given priority. A shell
+     * is adapted to the task whenever it is checked out, commands of other tasks and of threads
+     * outside of the TaskQueue keep running with the normal priority.
+     *
+     * @param taskPriority priority of the tasks to adapt the commands of
+     * @param utilboxPath  utilbox providing renice and ionice
+     * @param niceness     nice value to run with, 0 is the normal priority
+     * @param idleIo       true to get I/O time only if no one else needs it, otherwise best effort
+     */
+    public synchronized void setPriority(QueuedTask.Priority taskPriority, String utilboxPath, int niceness, boolean idleIo) {
+        this.priorityUtilbox = utilboxPath;
+        this.priorities.put(taskPriority, new ShellPriority(niceness, idleIo));
+    }
+
+    private synchronized ShellPriority getPriority() {
+        final QueuedTask task = QueuedTask.getCurrent();
+        ShellPriority priority = task != null ? this.priorities.get(task.getPriority()) : null;
+        return priority != null ? priority : ShellPriority.NORMAL;
+    }
+
+    /**
+     * Runs the commands in one of the shells of the pool, waiting for a free shell if necessary
+     *
+     * @param stdout   list to collect stdout in
+     * @param stderr   list to collect stderr in
+     * @param commands commands to run
+     * @return the result of the commands
+     */
+    public Shell.Result run(List<String> stdout, List<String> stderr, String... commands) {
+        final ShellPriority priority = this.getPriority();
+        PooledShell pooled;
+        try {
+            pooled = this.checkOut(priority);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.w(RootShellPool.TAG, "Interrupted while waiting for a shell, using the global shell");
+            return Shell.su(commands).to(stdout, stderr).exec();
+        }
+        if (pooled == null) {
+            // no additional root shell could be started, the global one still works
+            return Shell.su(commands).to(stdout, stderr).exec();
+        }
+        this.applyPriority(pooled, priority);
+        boolean healthy = false;
+        Future<Shell.Result> future = pooled.shell.newJob().add(commands).to(stdout, stderr).enqueue();
+        try {
+            Shell.Result result = future.get(this.commandTimeout, TimeUnit.SECONDS);
+            healthy = result.getCode() != Shell.Result.JOB_NOT_EXECUTED;
+            return result;
+        } catch (TimeoutException e) {
+            Log.e(RootShellPool.TAG, String.format("Commands did not finish within %d s, closing their shell", this.commandTimeout));
+            future.cancel(true);
+            return new FailedResult(stdout, stderr, "Timed out");
+        } catch (ExecutionException e) {
+            return new FailedResult(stdout, stderr, String.valueOf(e.getCause()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new FailedResult(stdout, stderr, "Interrupted");
+        } finally {
+            this.giveBack(pooled, healthy);
+        }
+    }
+
+    private PooledShell checkOut(ShellPriority priority) throws InterruptedException {
+        synchronized (this) {
+            while (this.checkedOut >= this.size) {
+                this.wait();
+            }
+            this.checkedOut++;
+            // health check: idle shells may have died or be kept around for too long
+            final long now = System.currentTimeMillis();
+            PooledShell pooled = null;
+            for (Iterator<PooledShell> iterator = this.idle.iterator(); iterator.hasNext(); ) {
+                PooledShell candidate = iterator.next();
+                if (!candidate.shell.isAlive() || now - candidate.lastUsed >= RootShellPool.IDLE_TIMEOUT) {
+                    iterator.remove();
+                    RootShellPool.close(candidate);
+                } else if (pooled == null || (candidate.priority.equals(priority) && !pooled.priority.equals(priority))) {
+                    // a shell already running with the priority of the task saves a renice
+                    pooled = candidate;
+                }
+            }
+            if (pooled != null) {
+                this.idle.remove(pooled);
+                return pooled;
+            }
+        }
+        // starting a shell takes a moment, don't block the others meanwhile
+        try {
+            Shell shell = Shell.Builder.create().setTimeout(20).build();
+            if (!shell.isRoot()) {
+                shell.close();
+                throw new IOException("Root access denied");
+            }
+            PooledShell pooled = new PooledShell(shell);
+            Log.d(RootShellPool.TAG, "Started a new root shell");
+            return pooled;
+        } catch (IOException | RuntimeException e) {
+            Log.w(RootShellPool.TAG, "Could not start a root shell: " + e);
+            synchronized (this) {
+                this.checkedOut--;
+                this.notifyAll();
+            }
+            return null;
+        }
+    }
+
+    private synchronized void giveBack(PooledShell pooled, boolean healthy) {
+        this.checkedOut--;
+        if (healthy && pooled.shell.isAlive() && this.idle.size() + this.checkedOut < this.size) {
+            pooled.lastUsed = System.currentTimeMillis();
+            this.idle.push(pooled);
+        } else {
+            RootShellPool.close(pooled);
+        }
+        this.notifyAll();
+    }
+
+    // the shell is checked out, so nobody else uses it meanwhile
+    private void applyPriority(PooledShell pooled, ShellPriority priority) {
+        final String utilbox = this.priorityUtilbox;
+        if (utilbox == null || pooled.priority.equals(priority)) {
+            return;
+        }
+        // renice only takes increments
+        final int ioLevel = priority.niceness > 0 ? 7 : 4;
+        Shell.Result result = pooled.shell.newJob().add(String.format("%1$s renice -n %2$d -p $$ && %1$s ionice -c %3$d -n %4$d -p $$",
+                utilbox, priority.niceness - pooled.priority.niceness, priority.idleIo ? 3 : 2, ioLevel)).exec();
+        if (result.isSuccess()) {
+            pooled.priority = priority;
+        } else {
+            Log.w(RootShellPool.TAG, "Could not change the priority of a root shell: " + String.join(" ", result.getErr()));
+        }
+    }
+
+    private static void close(PooledShell pooled) {
+        try {
+            pooled.shell.close();
+        } catch (IOException e) {
+            Log.w(RootShellPool.TAG, "Could not close shell: " + e);
+        }
+    }
+
+    private static class PooledShell {
+        private final Shell shell;
+        private long lastUsed = System.currentTimeMillis();
+        private ShellPriority priority = ShellPriority.NORMAL;
+
+        private PooledShell(Shell shell) {
+            this.shell = shell;
+        }
+    }
+
+    private static class ShellPriority {
+        private static final ShellPriority NORMAL = new ShellPriority(0, false);
+
+        private final int niceness;
+        private final boolean idleIo;
+
+        private ShellPriority(int niceness, boolean idleIo) {
+            this.niceness = niceness;
+            this.idleIo = idleIo;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || this.getClass() != o.getClass()) return false;
+            ShellPriority that = (ShellPriority) o;
+            return this.niceness == that.niceness && this.idleIo == that.idleIo;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.niceness, this.idleIo);
+        }
+    }
+
+    /**
+     * Result of commands which didn't finish, e.g. because their shell hung
+     */
+    private static class FailedResult extends Shell.Result {
+        private final List<String> out;
+        private final List<String> err;
+
+        private FailedResult(List<String> out, List<String> err, String reason) {
+            this.out = new ArrayList<>(out);
+            this.err = new ArrayList<>(err);
+            this.err.add(reason);
+        }
+
+        @NonNull
+        @Override
+        public List<String> getOut() {
+            return this.out;
+        }
+
+        @NonNull
+        @Override
+        public List<String> getErr() {
+            return this.err;
+        }
+
+        @Override
+        public int getCode() {
+            return Shell.Result.JOB_NOT_EXECUTED;
+        }
+    }
+}
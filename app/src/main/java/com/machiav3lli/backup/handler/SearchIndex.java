@@ -0,0 +1,188 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.handler;
+
+import com.machiav3lli.backup.items.AppInfoX;
+import com.machiav3lli.backup.items.BackupProperties;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Trigram index over the label, the package name and the backup metadata of the apps. A query
+ * only checks the apps that contain all trigrams of the query, shorter queries check all apps.
+ * The results are ranked by how well they match. Entries are updated one by one whenever the
+ * app registry changes.
+ */
+public class SearchIndex {
+    private static final int GRAM_LENGTH = 3;
+
+    private static final int SCORE_LABEL_EXACT = 100;
+    private static final int SCORE_LABEL_PREFIX = 80;
+    private static final int SCORE_LABEL_WORD_PREFIX = 60;
+    private static final int SCORE_LABEL_CONTAINS = 40;
+    private static final int SCORE_PACKAGE_PREFIX = 30;
+    private static final int SCORE_PACKAGE_CONTAINS = 20;
+    private static final int SCORE_METADATA_CONTAINS = 10;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, Set<String>> postings = new HashMap<>();
+
+    public synchronized void rebuild(Collection<AppInfoX> apps) {
+        this.entries.clear();
+        this.postings.clear();
+        for (AppInfoX app : apps) {
+            this.put(app);
+        }
+    }
+
+    public synchronized void put(AppInfoX app) {
+        this.remove(app.getPackageName());
+        Entry entry = new Entry(app);
+        this.entries.put(entry.packageName, entry);
+        for (String gram : entry.grams) {
+            Set<String> posting = this.postings.get(gram);
+            if (posting == null) {
+                posting = new HashSet<>();
+                this.postings.put(gram, posting);
+            }
+            posting.add(entry.packageName);
+        }
+    }
+
+    public synchronized void remove(String packageName) {
+        Entry entry = this.entries.remove(packageName);
+        if (entry == null) return;
+        for (String gram : entry.grams) {
+            Set<String> posting = this.postings.get(gram);
+            if (posting != null) {
+                posting.remove(packageName);
+                if (posting.isEmpty()) this.postings.remove(gram);
+            }
+        }
+    }
+
+    /**
+     * Searches the index
+     *
+     * @param query search text, case insensitive
+     * @return package names of the matching apps, the best matches first
+     */
+    public synchronized List<String> search(String query) {
+        final String needle = query.trim().toLowerCase(Locale.ROOT);
+        if (needle.isEmpty()) return Collections.emptyList();
+        Collection<String> candidates;
+        if (needle.length() < SearchIndex.GRAM_LENGTH) {
+            candidates = this.entries.keySet();
+        } else {
+            candidates = this.getCandidates(needle);
+        }
+        List<Entry> matches = new ArrayList<>();
+        Map<Entry, Integer> scores = new HashMap<>();
+        for (String packageName : candidates) {
+            Entry entry = this.entries.get(packageName);
+            int score = entry.score(needle);
+            if (score > 0) {
+                matches.add(entry);
+                scores.put(entry, score);
+            }
+        }
+        matches.sort((e1, e2) -> {
+            int byScore = Integer.compare(scores.get(e2), scores.get(e1));
+            return byScore != 0 ? byScore : e1.label.compareTo(e2.label);
+        });
+        List<String> result = new ArrayList<>(matches.size());
+        for (Entry entry : matches) {
+            result.add(entry.packageName);
+        }
+        return result;
+    }
+
+    private Collection<String> getCandidates(String needle) {
+        Set<String> grams = SearchIndex.grams(needle);
+        // start with the rarest trigram to keep the intersection small
+        List<Set<String>> postingLists = new ArrayList<>(grams.size());
+        for (String gram : grams) {
+            Set<String> posting = this.postings.get(gram);
+            if (posting == null) return Collections.emptyList();
+            postingLists.add(posting);
+        }
+        postingLists.sort((p1, p2) -> Integer.compare(p1.size(), p2.size()));
+        Set<String> candidates = new HashSet<>(postingLists.get(0));
+        for (int i = 1; i < postingLists.size() && !candidates.isEmpty(); i++) {
+            candidates.retainAll(postingLists.get(i));
+        }
+        return candidates;
+    }
+
+    private static Set<String> grams(String... fields) {
+        Set<String> grams = new HashSet<>();
+        for (String field : fields) {
+            for (int i = 0; i + SearchIndex.GRAM_LENGTH <= field.length(); i++) {
+                grams.add(field.substring(i, i + SearchIndex.GRAM_LENGTH));
+            }
+        }
+        return grams;
+    }
+
+    private static class Entry {
+        final String packageName;
+        final String label;
+        final String packageNameLower;
+        final String metadata;
+        final Set<String> grams;
+
+        Entry(AppInfoX app) {
+            this.packageName = app.getPackageName();
+            this.label = app.getPackageLabel().toLowerCase(Locale.ROOT);
+            this.packageNameLower = this.packageName.toLowerCase(Locale.ROOT);
+            StringBuilder metadata = new StringBuilder();
+            if (app.getVersionName() != null) metadata.append(app.getVersionName());
+            if (app.hasBackups()) {
+                BackupProperties latest = app.getLatestBackup().getBackupProperties();
+                if (latest.getVersionName() != null)
+                    metadata.append(' ').append(latest.getVersionName());
+                if (latest.getBackupDate() != null)
+                    metadata.append(' ').append(latest.getBackupDate().toLocalDate());
+            }
+            this.metadata = metadata.toString().toLowerCase(Locale.ROOT);
+            this.grams = SearchIndex.grams(this.label, this.packageNameLower, this.metadata);
+        }
+
+        int score(String needle) {
+            if (this.label.equals(needle)) return SearchIndex.SCORE_LABEL_EXACT;
+            if (this.label.startsWith(needle)) return SearchIndex.SCORE_LABEL_PREFIX;
+            int position = this.label.indexOf(needle);
+            if (position > 0) {
+                return Character.isLetterOrDigit(this.label.charAt(position - 1))
+                        ? SearchIndex.SCORE_LABEL_CONTAINS : SearchIndex.SCORE_LABEL_WORD_PREFIX;
+            }
+            if (this.packageNameLower.startsWith(needle)) return SearchIndex.SCORE_PACKAGE_PREFIX;
+            if (this.packageNameLower.contains(needle)) return SearchIndex.SCORE_PACKAGE_CONTAINS;
+            if (this.metadata.contains(needle)) return SearchIndex.SCORE_METADATA_CONTAINS;
+            return 0;
+        }
+    }
+}
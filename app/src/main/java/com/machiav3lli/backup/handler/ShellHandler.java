@@ -22,23 +22,27 @@ import android.util.Log;
 import androidx.annotation.Nullable;
 
 import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.tasks.QueuedTask;
 import com.machiav3lli.backup.utils.CommandUtils;
-import com.machiav3lli.backup.utils.FileUtils;
+import com.machiav3lli.backup.utils.TraceUtils;
+import com.topjohnwu.superuser.CallbackList;
 import com.topjohnwu.superuser.Shell;
 import com.topjohnwu.superuser.io.SuRandomAccessFile;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.nio.file.attribute.PosixFilePermission;
-import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.TimeZone;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class ShellHandler {
@@ -58,23 +62,58 @@ public class ShellHandler {
     }
 
     public static Shell.Result runAsRoot(String... commands) throws ShellCommandFailedException {
-        return ShellHandler.runShellCommand(Shell::su, commands);
+        return ShellHandler.runShellCommand((stdout, stderr) -> RootShellPool.getInstance().run(stdout, stderr, commands),
+                new ArrayList<>(), commands);
+    }
+
+    /**
+     * Runs the commands as root and hands each line of stdout to the callback as soon as it
+     * arrives instead of collecting the whole output. The callback runs on the thread reading
+     * the output, so the command can't produce output faster than it is consumed.
+     *
+     * @param onStdout gets every line of stdout, the result doesn't contain them
+     * @param commands commands to run
+     * @return the result of the commands with stderr only
+     * @throws ShellCommandFailedException if the commands failed
+     */
+    public static Shell.Result runAsRoot(LineCallback onStdout, String... commands) throws ShellCommandFailedException {
+        final RuntimeException[] callbackFailure = new RuntimeException[1];
+        List<String> stdout = new CallbackList<String>(Runnable::run) {
+            @Override
+            public void onAddElement(String line) {
+                // an exception would end the reader of the shell, skip the remaining lines instead
+                if (callbackFailure[0] == null) try {
+                    onStdout.onLine(line);
+                } catch (RuntimeException e) {
+                    callbackFailure[0] = e;
+                }
+            }
+        };
+        Shell.Result result = ShellHandler.runShellCommand(
+                (out, err) -> RootShellPool.getInstance().run(out, err, commands), stdout, commands);
+        if (callbackFailure[0] != null) {
+            throw callbackFailure[0];
+        }
+        return result;
     }
 
     public static Shell.Result runAsUser(String... commands) throws ShellCommandFailedException {
-        return ShellHandler.runShellCommand(Shell::sh, commands);
+        return ShellHandler.runShellCommand((stdout, stderr) -> Shell.sh(commands).to(stdout, stderr).exec(),
+                new ArrayList<>(), commands);
     }
 
-    private static Shell.Result runShellCommand(ShellHandler.RunnableShellCommand shell, String... commands) throws ShellCommandFailedException {
+    private static Shell.Result runShellCommand(ShellHandler.RunnableShellCommand shell, List<String> stdout, String... commands) throws ShellCommandFailedException {
         // defining stdout and stderr on our own
         // otherwise we would have to set set the flag redirect stderr to stdout:
         // Shell.Config.setFlags(Shell.FLAG_REDIRECT_STDERR);
         // stderr is used for logging, so it's better not to call an application that does that
         // and keeps quiet
         Log.d(ShellHandler.TAG, "Running Command: " + CommandUtils.iterableToString("; ", commands));
-        List<String> stdout = new ArrayList<>();
         List<String> stderr = new ArrayList<>();
-        Shell.Result result = shell.runCommand(commands).to(stdout, stderr).exec();
+        Shell.Result result;
+        try (TraceUtils.Section ignored = TraceUtils.section("shell", commands.length > 0 ? commands[0] : "")) {
+            result = shell.run(stdout, stderr);
+        }
         Log.d(ShellHandler.TAG, String.format("Command(s) '%s' ended with %d", Arrays.toString(commands), result.getCode()));
         if (!result.isSuccess()) {
             throw new ShellCommandFailedException(result);
@@ -82,6 +121,54 @@ public class ShellHandler {
         return result;
     }
 
+    /**
+     * Runs a single command in a separate root process and feeds the given stream to its stdin.
+     * The global root shell can't be used for this, because it reads the commands from stdin.
+     *
+     * @param command command to run
+     * @param input   data for stdin, it's not closed
+     * @return the combined stdout and stderr of the command
+     * @throws IOException if the stream could not be copied, the task has been cancelled or the
+     *                     command failed
+     */
+    public static List<String> runAsRootWithInput(String command, InputStream input) throws IOException {
+        Log.d(ShellHandler.TAG, "Running Command with input: " + command);
+        try (TraceUtils.Section ignored = TraceUtils.section("shell input", command)) {
+            return ShellHandler.runWithInput(command, input);
+        }
+    }
+
+    private static List<String> runWithInput(String command, InputStream input) throws IOException {
+        Process process = new ProcessBuilder("su", "-c", command).redirectErrorStream(true).start();
+        try {
+            IOException writeFailure = null;
+            try (OutputStream stdin = process.getOutputStream()) {
+                QueuedTask.copy(input, stdin, TarUtils.BUFFERSIZE);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                // Usually a broken pipe because the command bailed out early. Its output tells why.
+                writeFailure = e;
+            }
+            List<String> output;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                output = reader.lines().collect(Collectors.toList());
+            }
+            int exitCode = process.waitFor();
+            Log.d(ShellHandler.TAG, String.format("Command '%s' ended with %d", command, exitCode));
+            if (exitCode != 0 || writeFailure != null) {
+                throw new IOException(String.format("Command '%s' failed with %d: %s",
+                        command, exitCode, String.join("; ", output)), writeFailure);
+            }
+            return output;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Interrupted while waiting for '%s'", command));
+        } finally {
+            process.destroy();
+        }
+    }
+
     public String[] suGetDirectoryContents(File path) throws ShellCommandFailedException {
         Shell.Result shellResult = ShellHandler.runAsRoot(String.format("%s ls \"%s\"", this.utilboxPath, path.getAbsolutePath()));
         return shellResult.getOut().toArray(new String[0]);
@@ -92,31 +179,54 @@ public class ShellHandler {
     }
 
     public List<FileInfo> suGetDetailedDirectoryContents(String path, boolean recursive, @Nullable String parent) throws ShellCommandFailedException {
+        ArrayList<FileInfo> result = new ArrayList<>();
+        this.suForEachDetailedDirectoryContent(path, recursive, parent, result::add);
+        return result;
+    }
+
+    /**
+     * Lists the directory like suGetDetailedDirectoryContents, but hands each entry to the
+     * consumer while the output of ls arrives. Only the consumer decides what is kept in memory.
+     * Subdirectories are listed after their parent in the same order as the list would have.
+     *
+     * @param path      directory to list
+     * @param recursive true to list subdirectories, too
+     * @param parent    path of the directory relative to the root of the listing, null for the root
+     * @param consumer  gets each entry
+     * @throws ShellCommandFailedException if the directory could not be listed
+     */
+    public void suForEachDetailedDirectoryContent(String path, boolean recursive, @Nullable String parent, Consumer<FileInfo> consumer) throws ShellCommandFailedException {
+        this.suForEachDetailedDirectoryContent(path, recursive, parent, consumer, new FileInfo.NameTable());
+    }
+
+    private void suForEachDetailedDirectoryContent(String path, boolean recursive, @Nullable String parent, Consumer<FileInfo> consumer, FileInfo.NameTable names) throws ShellCommandFailedException {
         // Expecting something like this (with whitespace)
         // "drwxrwx--x 3 u0_a74 u0_a74       4096 2020-08-14 13:54 files"
         // Special case:
         // "lrwxrwxrwx 1 root   root           60 2020-08-13 23:28 lib -> /data/app/org.mozilla.fenix-ddea_jq2cVLmYxBKu0ummg==/lib/x86"
-        Shell.Result shellResult = ShellHandler.runAsRoot(String.format("%s ls -Al \"%s\"", this.utilboxPath, path));
         final String relativeParent = parent != null ? parent : "";
-        ArrayList<FileInfo> result = shellResult.getOut().stream()
-                .filter(line -> !line.isEmpty())
-                .filter(line -> !line.startsWith("total"))
-                .filter(line -> ShellHandler.splitWithoutEmptyValues(line, " ", 0).length > 7)
-                .map(line -> FileInfo.fromLsOOutput(line, relativeParent, path))
-                .collect(Collectors.toCollection(ArrayList::new));
-        if (recursive) {
-            FileInfo[] directories = result.stream()
-                    .filter(fileInfo -> fileInfo.filetype.equals(FileInfo.FileType.DIRECTORY))
-                    .toArray(FileInfo[]::new);
-            for (FileInfo dir : directories) {
-                result.addAll(this.suGetDetailedDirectoryContents(
-                        dir.getAbsolutePath(),
-                        true,
-                        parent != null ? parent + '/' + dir.getFilename() : dir.getFilename()
-                ));
+        // only the directories are remembered to descend into them once the listing is done
+        final List<FileInfo> directories = new ArrayList<>();
+        ShellHandler.runAsRoot(line -> {
+            FileInfo fileInfo = FileInfo.fromLsOOutput(line, relativeParent, path, names);
+            if (fileInfo == null) {
+                // empty lines, "total" and other lines which aren't entries
+                return;
             }
+            consumer.accept(fileInfo);
+            if (recursive && fileInfo.filetype.equals(FileInfo.FileType.DIRECTORY)) {
+                directories.add(fileInfo);
+            }
+        }, String.format("%s ls -Al \"%s\"", this.utilboxPath, path));
+        for (FileInfo dir : directories) {
+            this.suForEachDetailedDirectoryContent(
+                    dir.getAbsolutePath(),
+                    true,
+                    parent != null ? parent + '/' + dir.getFilename() : dir.getFilename(),
+                    consumer,
+                    names
+            );
         }
-        return result;
     }
 
     /**
@@ -141,6 +251,21 @@ public class ShellHandler {
         return result;
     }
 
+    /**
+     * Changes the CPU and I/O priority of the root commands of tasks with the given priority.
+     * Processes started by the commands inherit it. The global root shell and the commands of
+     * other tasks keep the normal priority.
+     *
+     * @param taskPriority priority of the tasks to change the commands of
+     * @param niceness     nice value to run with, 0 is the normal priority
+     * @param idleIo       true to get I/O time only if no one else needs it, otherwise best effort
+     */
+    public void setTaskPriority(QueuedTask.Priority taskPriority, int niceness, boolean idleIo) {
+        RootShellPool.getInstance().setPriority(taskPriority, this.utilboxPath, niceness, idleIo);
+        Log.d(ShellHandler.TAG, String.format("Root commands of %s tasks run with nice %d and %s io",
+                taskPriority, niceness, idleIo ? "idle" : "best effort"));
+    }
+
     public String getUtilboxPath() {
         return this.utilboxPath;
     }
@@ -159,18 +284,6 @@ public class ShellHandler {
         this.utilboxPath = utilboxPath;
     }
 
-    static String[] splitWithoutEmptyValues(String str, String regex, int limit) {
-        String[] split = Arrays.stream(str.split(regex)).filter(s -> !s.isEmpty()).toArray(String[]::new);
-        // add one to the limit because limit is not meant to count from zero
-        int targetSize = limit > 0 ? Math.min(split.length, limit + 1) : split.length;
-        String[] result = new String[targetSize];
-        System.arraycopy(split, 0, result, 0, targetSize);
-        for (int i = targetSize; i < split.length; i++) {
-            result[result.length - 1] += String.format("%s%s", regex, split[i]);
-        }
-        return result;
-    }
-
     public static boolean isFileNotFoundException(@NotNull ShellCommandFailedException ex) {
         List<String> err = ex.getShellResult().getErr();
         return (!err.isEmpty() && err.get(0).toLowerCase().contains("no such file or directory"));
@@ -188,6 +301,7 @@ public class ShellHandler {
         long readOverall = 0;
         int retriesLeft = maxRetries;
         while (true) {
+            QueuedTask.throwIfCancelled();
             int read = in.read(buf);
             if (0 > read && filesize > readOverall) {
                 // For some reason, SuFileInputStream throws eof much to early on slightly bigger files
@@ -226,7 +340,11 @@ public class ShellHandler {
 
 
     public interface RunnableShellCommand {
-        Shell.Job runCommand(String... commands);
+        Shell.Result run(List<String> stdout, List<String> stderr);
+    }
+
+    public interface LineCallback {
+        void onLine(String line);
     }
 
     public static class ShellCommandFailedException extends Exception {
@@ -269,7 +387,7 @@ public class ShellHandler {
     }
 
     public static class FileInfo {
-        private static final Pattern PATTERN_LINKSPLIT = Pattern.compile(" -> ");
+        private static final String LINK_SEPARATOR = " -> ";
 
         public enum FileType {
             REGULAR_FILE, BLOCK_DEVICE, CHAR_DEVICE, DIRECTORY, SYMBOLIC_LINK, NAMED_PIPE, SOCKET
@@ -282,6 +400,7 @@ public class ShellHandler {
         private final String group;
         private final short filemode;
         private final long filesize;
+        private long modificationTime = 0;
         private String linkName;
 
         public FileInfo(
@@ -294,80 +413,114 @@ public class ShellHandler {
                 final long filesize) {
             this.filepath = filepath;
             this.filetype = filetype;
-            this.absolutePath = absoluteParent + '/' + new File(filepath).getName();
+            this.absolutePath = absoluteParent + '/' + FileInfo.getName(filepath);
             this.owner = owner;
             this.group = group;
             this.filemode = filemode;
             this.filesize = filesize;
         }
 
+        /**
+         * Owners and groups repeat on every line of a listing. The table shares the few distinct
+         * ones between the entries of one listing and is dropped with it.
+         */
+        static class NameTable {
+            private static final int MAX_NAMES = 16;
+            private final String[] names = new String[NameTable.MAX_NAMES];
+            private int count = 0;
+
+            String get(String line, int start, int end) {
+                final int length = end - start;
+                for (int i = 0; i < this.count; i++) {
+                    final String known = this.names[i];
+                    if (known.length() == length && line.regionMatches(start, known, 0, length)) {
+                        return known;
+                    }
+                }
+                String name = line.substring(start, end);
+                if (this.count < NameTable.MAX_NAMES) {
+                    this.names[this.count++] = name;
+                }
+                return name;
+            }
+        }
+
         /**
          * Create an instance of FileInfo from a line of the output from
-         * `ls -AofF`
+         * `ls -Al`. The line is parsed in a single pass without splitting it.
          *
          * @param lsLine single output line of `ls -Al`
-         * @return an instance of FileInfo
+         * @return an instance of FileInfo or null if the line doesn't describe a file, e.g. "total"
          */
         public static FileInfo fromLsOOutput(String lsLine, String parentPath, String absoluteParent) {
+            return FileInfo.fromLsOOutput(lsLine, parentPath, absoluteParent, null);
+        }
+
+        static FileInfo fromLsOOutput(String lsLine, String parentPath, String absoluteParent, @Nullable NameTable names) {
             // Format
             // [0] Filemode, [1] number of directories/links inside, [2] owner [3] group [4] size
             // [5] mdate, [6] mtime, [7] filename
-            String[] tokens = ShellHandler.splitWithoutEmptyValues(lsLine, " ", 7);
-            String filepath;
-            final String owner = tokens[2];
-            final String group = tokens[3];
+            // Devices have "major, minor" instead of the size
+            final int length = lsLine.length();
+            final int[] starts = new int[7];
+            final int[] ends = new int[7];
+            int pos = 0;
+            for (int field = 0; field < 7; field++) {
+                while (pos < length && lsLine.charAt(pos) == ' ') pos++;
+                starts[field] = pos;
+                while (pos < length && lsLine.charAt(pos) != ' ') pos++;
+                ends[field] = pos;
+                if (starts[field] == ends[field]) {
+                    return null;
+                }
+                if (field == 4 && lsLine.charAt(pos - 1) == ',') {
+                    // skip the minor number of devices, it's not used
+                    while (pos < length && lsLine.charAt(pos) == ' ') pos++;
+                    while (pos < length && lsLine.charAt(pos) != ' ') pos++;
+                }
+            }
+            // exactly one space separates the time from the name, the name may contain spaces
+            pos++;
+            if (pos >= length || ends[0] - starts[0] < 10) {
+                return null;
+            }
+            final char typeChar = lsLine.charAt(starts[0]);
+            final String owner = names != null ? names.get(lsLine, starts[2], ends[2]) : lsLine.substring(starts[2], ends[2]);
+            final String group = names != null ? names.get(lsLine, starts[3], ends[3]) : lsLine.substring(starts[3], ends[3]);
+            String name = lsLine.substring(pos);
             // If ls was executed with a file as parameter, the full path is echoed. This is not
             // good for processing. Removing the absolute parent and setting the parent to be the parent
             // and not the file itself
-            if (tokens[7].startsWith(absoluteParent)) {
-                absoluteParent = new File(absoluteParent).getParent();
-                tokens[7] = tokens[7].substring(absoluteParent.length() + 1);
-            }
-            if (parentPath == null || parentPath.isEmpty()) {
-                filepath = tokens[7];
-            } else {
-                filepath = parentPath + '/' + tokens[7];
+            if (name.startsWith(absoluteParent)) {
+                absoluteParent = absoluteParent.substring(0, Math.max(0, absoluteParent.lastIndexOf('/')));
+                name = name.substring(absoluteParent.length() + 1);
             }
-            short filemode;
-            try {
-                Set<PosixFilePermission> posixFilePermissions = PosixFilePermissions.fromString(tokens[0].substring(1));
-                filemode = FileUtils.translatePosixPermissionToMode(posixFilePermissions);
-            } catch (IllegalArgumentException e) {
-                // Happens on cache and code_cache dir because of sticky bits
-                // drwxrws--x 2 u0_a108 u0_a108_cache 4096 2020-09-22 17:36 cache
-                // drwxrws--x 2 u0_a108 u0_a108_cache 4096 2020-09-22 17:36 code_cache
-                // These will be filtered out later, so don't print a warning here
-                // Downside: For all other directories with these names, the warning is also hidden
-                // This can be problematic for system packages, but for apps these bits do not
-                // make any sense.
-                if (filepath.equals("cache") || filepath.equals("code_cache")) {
-                    // Fall back to the known value of these directories
-                    filemode = 0771;
-                } else {
-                    // For all other directories use 0600 and for files 0700
-                    if (tokens[0].charAt(0) == 'd') {
-                        filemode = 0660;
-                    } else {
-                        filemode = 0700;
-                    }
-                    Log.w(ShellHandler.TAG, String.format(
-                            "Found a file with special mode (%s), which is not processable. Falling back to %s. filepath=%s ; absoluteParent=%s",
-                            tokens[0], filemode, filepath, absoluteParent)
-                    );
+            String linkName = null;
+            if (typeChar == 'l') {
+                int separator = name.indexOf(FileInfo.LINK_SEPARATOR);
+                if (separator >= 0) {
+                    linkName = name.substring(separator + FileInfo.LINK_SEPARATOR.length());
+                    name = name.substring(0, separator);
                 }
             }
-            String linkName = null;
+            String filepath = parentPath == null || parentPath.isEmpty() ? name : parentPath + '/' + name;
+            short filemode = FileInfo.decodeMode(lsLine, starts[0] + 1);
+            if (filemode < 0) {
+                // For all other directories use 0600 and for files 0700
+                filemode = (short) (typeChar == 'd' ? 0660 : 0700);
+                Log.w(ShellHandler.TAG, String.format(
+                        "Found a file with special mode (%s), which is not processable. Falling back to %s. filepath=%s ; absoluteParent=%s",
+                        lsLine.substring(starts[0], ends[0]), filemode, filepath, absoluteParent)
+                );
+            }
             long fileSize = 0;
             FileType type;
-            switch (tokens[0].charAt(0)) {
+            switch (typeChar) {
                 case 'd':
                     type = FileType.DIRECTORY;
                     break;
                 case 'l':
                     type = FileType.SYMBOLIC_LINK;
-                    String[] nameAndLink = FileInfo.PATTERN_LINKSPLIT.split(filepath);
-                    filepath = nameAndLink[0];
-                    linkName = nameAndLink[1];
                     break;
                 case 'p':
                     type = FileType.NAMED_PIPE;
@@ -384,11 +537,18 @@ public class ShellHandler {
                 case '-':
                 default:
                     type = FileType.REGULAR_FILE;
-                    fileSize = Long.parseLong(tokens[4]);
+                    for (int i = starts[4]; i < ends[4]; i++) {
+                        char c = lsLine.charAt(i);
+                        if (c < '0' || c > '9') {
+                            return null;
+                        }
+                        fileSize = fileSize * 10 + (c - '0');
+                    }
                     break;
             }
             FileInfo result = new FileInfo(filepath, type, absoluteParent, owner, group, filemode, fileSize);
             result.linkName = linkName;
+            result.modificationTime = FileInfo.parseModificationTime(lsLine, starts[5], ends[5], starts[6], ends[6]);
             return result;
         }
 
@@ -396,6 +556,83 @@ public class ShellHandler {
             return FileInfo.fromLsOOutput(lsLine, "", absoluteParent);
         }
 
+        /**
+         * Decodes the permission part of ls' mode string like "rwxr-x--x" into mode bits.
+         * setuid, setgid and the sticky bit (s, S, t, T) are not kept, only whether the
+         * execute bit underneath is set. Cache dirs are "rwxrws--x" for example.
+         *
+         * @param line  line containing the mode string
+         * @param start index of the first permission character
+         * @return the mode or -1 if the string contains unknown characters
+         */
+        private static short decodeMode(String line, int start) {
+            int mode = 0;
+            for (int i = 0; i < 9; i++) {
+                final char c = line.charAt(start + i);
+                final int bit = 1 << (8 - i);
+                switch (i % 3) {
+                    case 0:
+                        if (c == 'r') mode |= bit;
+                        else if (c != '-') return -1;
+                        break;
+                    case 1:
+                        if (c == 'w') mode |= bit;
+                        else if (c != '-') return -1;
+                        break;
+                    default:
+                        if (c == 'x' || c == 's' || c == 't') mode |= bit;
+                        else if (c != '-' && c != 'S' && c != 'T') return -1;
+                        break;
+                }
+            }
+            return (short) mode;
+        }
+
+        /**
+         * Converts the local date "YYYY-MM-DD" and time "HH:MM" printed by ls to milliseconds
+         * since the epoch.
+         *
+         * @return the time or 0 if the fields have another format
+         */
+        private static long parseModificationTime(String line, int dateStart, int dateEnd, int timeStart, int timeEnd) {
+            if (dateEnd - dateStart != 10 || timeEnd - timeStart != 5) {
+                return 0;
+            }
+            final int year = FileInfo.parseDigits(line, dateStart, 4);
+            final int month = FileInfo.parseDigits(line, dateStart + 5, 2);
+            final int day = FileInfo.parseDigits(line, dateStart + 8, 2);
+            final int hour = FileInfo.parseDigits(line, timeStart, 2);
+            final int minute = FileInfo.parseDigits(line, timeStart + 3, 2);
+            if (year < 0 || month < 1 || month > 12 || day < 1 || hour < 0 || minute < 0) {
+                return 0;
+            }
+            // days since 1970-01-01 of the proleptic gregorian date, years starting in march
+            final int y = month <= 2 ? year - 1 : year;
+            final int era = y / 400;
+            final int yearOfEra = y - era * 400;
+            final int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+            final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+            final long days = era * 146097L + dayOfEra - 719468;
+            final long local = ((days * 24 + hour) * 60 + minute) * 60000;
+            return local - TimeZone.getDefault().getOffset(local);
+        }
+
+        private static int parseDigits(String line, int start, int count) {
+            int value = 0;
+            for (int i = start; i < start + count; i++) {
+                final char c = line.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+                value = value * 10 + (c - '0');
+            }
+            return value;
+        }
+
+        private static String getName(String filepath) {
+            return filepath.substring(filepath.lastIndexOf('/') + 1);
+        }
+
         public FileType getFiletype() {
             return this.filetype;
         }
@@ -410,7 +647,7 @@ public class ShellHandler {
         }
 
         public String getFilename() {
-            return new File(this.filepath).getName();
+            return FileInfo.getName(this.filepath);
         }
 
         public String getAbsolutePath() {
@@ -437,6 +674,13 @@ public class ShellHandler {
             return this.filesize;
         }
 
+        /**
+         * @return milliseconds since the epoch with minute precision or 0 if unknown
+         */
+        public long getModificationTime() {
+            return this.modificationTime;
+        }
+
         @NotNull
         @Override
         public String toString() {
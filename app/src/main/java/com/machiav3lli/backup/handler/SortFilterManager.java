@@ -25,17 +25,14 @@ import com.machiav3lli.backup.items.BackupItemX;
 import com.machiav3lli.backup.items.SortFilterModel;
 import com.machiav3lli.backup.utils.PrefUtils;
 
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
 import java.util.Comparator;
 import java.util.List;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 public class SortFilterManager {
+    private static CompiledFilter lastCompiledFilter;
 
     public static final Comparator<AppInfoX> APP_INFO_LABEL_COMPARATOR = (m1, m2) ->
-            m1.getPackageLabel().compareToIgnoreCase(m2.getPackageLabel());
+            m1.getLabelCollationKey().compareTo(m2.getLabelCollationKey());
     public static final Comparator<AppInfoX> APP_INFO_PACKAGE_NAME_COMPARATOR = (m1, m2) ->
             m1.getPackageName().compareToIgnoreCase(m2.getPackageName());
     public static final Comparator<AppInfoX> APP_INFO_DATA_SIZE_COMPARATOR = (m1, m2) ->
@@ -60,98 +57,29 @@ public class SortFilterManager {
         return PrefUtils.getDefaultSharedPreferences(context).getBoolean(Constants.PREFS_REMEMBERFILTERING, true);
     }
 
-    public static List<AppInfoX> applyFilter(List<AppInfoX> list, CharSequence filter, Context context) {
-        Predicate<AppInfoX> predicate;
-        switch (filter.charAt(1)) {
-            case '1':
-                predicate = AppInfoX::isSystem;
-                break;
-            case '2':
-                predicate = appInfoX -> !appInfoX.isSystem();
-                break;
-            case '3':
-                predicate = AppInfoX::isSpecial;
-                break;
-            default: // equal to 0
-                predicate = appInfoX -> true;
-                break;
-        }
-        List<AppInfoX> filteredList = list.stream()
-                .filter(predicate)
-                .collect(Collectors.toList());
-        return applyBackupFilter(filteredList, filter, context);
+    public static boolean isSortByDataSize(CharSequence filter) {
+        return filter.charAt(0) == '2';
     }
 
-    private static List<AppInfoX> applyBackupFilter(List<AppInfoX> list, CharSequence filter, Context context) {
-        Predicate<AppInfoX> predicate;
-        switch (filter.charAt(2)) {
-            case '1':
-                predicate = appInfoX -> appInfoX.hasApk() && appInfoX.hasAppData();
-                break;
-            case '2':
-                predicate = AppInfoX::hasApk;
-                break;
-            case '3':
-                predicate = AppInfoX::hasAppData;
-                break;
-            case '4':
-                predicate = appInfoX -> !appInfoX.hasBackups();
-                break;
-            default: // equal to 0
-                predicate = appInfoX -> true;
-                break;
-        }
-        List<AppInfoX> filteredList = list.stream()
-                .filter(predicate)
-                .collect(Collectors.toList());
-        return applySpecialFilter(filteredList, filter, context);
-    }
-
-    private static List<AppInfoX> applySpecialFilter(List<AppInfoX> list, CharSequence filter, Context context) {
-        Predicate<AppInfoX> predicate;
-        switch (filter.charAt(3)) {
-            case '1':
-                predicate = appInfoX -> !appInfoX.hasBackups() || appInfoX.isUpdated();
-                break;
-            case '2':
-                predicate = appInfoX -> !appInfoX.isInstalled();
-                break;
-            case '3':
-                int days = Integer.parseInt(PrefUtils.getDefaultSharedPreferences(context).getString(Constants.PREFS_OLDBACKUPS, "7"));
-                predicate = appInfoX -> {
-                    if (appInfoX.hasBackups()) {
-                        LocalDateTime lastBackup = appInfoX.getLatestBackup().getBackupProperties().getBackupDate();
-                        long diff = ChronoUnit.DAYS.between(lastBackup, LocalDateTime.now());
-                        return diff >= days;
-                    } else {
-                        return false;
-                    }
-                };
-                break;
-            case '4':
-                predicate = appInfoX -> appInfoX.getApkSplits() != null && appInfoX.getApkSplits().length != 0;
-                break;
-            default: // equal to 0
-                predicate = appInfoX -> true;
-                break;
-        }
-        List<AppInfoX> filteredList = list.stream()
-                .filter(predicate)
-                .collect(Collectors.toList());
-        return applySort(filteredList, filter);
+    public static List<AppInfoX> applyFilter(List<AppInfoX> list, CharSequence filter, Context context) {
+        return SortFilterManager.compileFilter(filter, context).apply(list);
     }
 
-    private static List<AppInfoX> applySort(List<AppInfoX> list, CharSequence filter) {
-        switch (filter.charAt(0)) {
-            case '1':
-                list.sort(APP_INFO_PACKAGE_NAME_COMPARATOR);
-                break;
-            case '2':
-                list.sort(APP_INFO_DATA_SIZE_COMPARATOR);
-                break;
-            default:
-                list.sort(APP_INFO_LABEL_COMPARATOR);
+    /**
+     * Returns the compiled form of the filter code. The last compiled filter is reused as long
+     * as the code doesn't change.
+     *
+     * @param filter  the code as used by SortFilterModel
+     * @param context Context object
+     * @return compiled filter
+     */
+    public static synchronized CompiledFilter compileFilter(CharSequence filter, Context context) {
+        CompiledFilter compiled = SortFilterManager.lastCompiledFilter;
+        // the old backups filter depends on the current time, always recompile it
+        if (compiled == null || filter.charAt(3) == '3' || !compiled.getCode().contentEquals(filter)) {
+            compiled = new CompiledFilter(filter, context);
+            SortFilterManager.lastCompiledFilter = compiled;
         }
-        return list;
+        return compiled;
     }
 }
\ No newline at end of file
@@ -0,0 +1,80 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.handler;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits how many CPU-bound (compress, encrypt) and I/O-bound (list, copy, install) stages of
+ * the apps of a batch run at the same time. The limiter is bound to the worker threads of the
+ * batch, actions running outside of a batch aren't limited.
+ */
+public class StageLimiter {
+    private static final ThreadLocal<StageLimiter> current = new ThreadLocal<>();
+    private static final Permit NO_PERMIT = () -> {
+    };
+
+    private final Semaphore cpuPermits;
+    private final Semaphore ioPermits;
+
+    public StageLimiter(int cpuStages, int ioStages) {
+        this.cpuPermits = new Semaphore(Math.max(1, cpuStages), true);
+        this.ioPermits = new Semaphore(Math.max(1, ioStages), true);
+    }
+
+    /**
+     * Binds the limiter to the calling thread or unbinds it if null is given
+     *
+     * @param limiter limiter to use for the stages run on this thread
+     */
+    public static void bind(StageLimiter limiter) {
+        if (limiter != null) {
+            StageLimiter.current.set(limiter);
+        } else {
+            StageLimiter.current.remove();
+        }
+    }
+
+    public static StageLimiter getCurrent() {
+        return StageLimiter.current.get();
+    }
+
+    /**
+     * Waits until the stage may run. Meant to be used with try-with-resources, so the permit
+     * is returned when the stage is done.
+     *
+     * @param stage kind of work that is about to start
+     * @return permit to close after the stage
+     */
+    public static Permit acquire(Stage stage) {
+        StageLimiter limiter = StageLimiter.current.get();
+        if (limiter == null) {
+            return StageLimiter.NO_PERMIT;
+        }
+        final Semaphore semaphore = stage == Stage.CPU ? limiter.cpuPermits : limiter.ioPermits;
+        semaphore.acquireUninterruptibly();
+        return semaphore::release;
+    }
+
+    public enum Stage {CPU, IO}
+
+    public interface Permit extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
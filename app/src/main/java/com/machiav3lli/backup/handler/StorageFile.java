@@ -11,16 +11,19 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.utils.TraceUtils;
 
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class StorageFile {
     static final String TAG = Constants.classTag(".StorageFile");
-    static Map<String, StorageFile[]> cache;
-    static boolean cacheDirty = true;
+    // listings are shared by the batch workers, the pipeline stages and the registry
+    static final AtomicReference<Map<String, StorageFile[]>> cache = new AtomicReference<>(new ConcurrentHashMap<>());
+    static volatile boolean cacheDirty = false;
 
     @Nullable
     private final StorageFile parent;
@@ -43,16 +46,18 @@ public class StorageFile {
     public StorageFile createDirectory(@NonNull String displayName) {
         final Uri result = StorageFile.createFile(
                 this.context, this.uri, DocumentsContract.Document.MIME_TYPE_DIR, displayName);
+        this.forgetListing();
         return (result != null) ? new StorageFile(this, context, result) : null;
     }
 
     public StorageFile createFile(@NonNull String mimeType, @NonNull String displayName) {
         final Uri result = StorageFile.createFile(this.context, this.uri, mimeType, displayName);
+        this.forgetListing();
         return (result != null) ? new StorageFile(this, this.context, result) : null;
     }
 
     public static Uri createFile(Context context, Uri self, String mimeType, String displayName) {
-        try {
+        try (TraceUtils.Section ignored = TraceUtils.section("saf create", displayName)) {
             return DocumentsContract.createDocument(context.getContentResolver(), self, mimeType, displayName);
         } catch (FileNotFoundException e) {
             return null;
@@ -60,17 +65,44 @@ public class StorageFile {
     }
 
     public boolean delete() {
-        try {
+        try (TraceUtils.Section ignored = TraceUtils.section("saf delete")) {
             return DocumentsContract.deleteDocument(this.context.getContentResolver(), this.uri);
         } catch (FileNotFoundException e) {
             return false;
+        } finally {
+            this.invalidateListing();
+            if (this.parent != null) {
+                this.parent.forgetListing();
+            }
         }
     }
 
+    /**
+     * Drops all cached listings. Prefer {@link #invalidateListing()} on the directory that
+     * changed, the next listings of the whole backup location are expensive.
+     */
     public static void invalidateCache() {
         StorageFile.cacheDirty = true;
     }
 
+    /**
+     * Drops the cached listing of this directory and the cached listings below it, e.g. after
+     * its content was changed without going through StorageFile
+     */
+    public void invalidateListing() {
+        StorageFile[] children = StorageFile.cache.get().remove(this.uri.toString());
+        if (children != null) {
+            for (StorageFile child : children) {
+                child.invalidateListing();
+            }
+        }
+    }
+
+    // the listings below stay valid if only the entries of this directory changed
+    private void forgetListing() {
+        StorageFile.cache.get().remove(this.uri.toString());
+    }
+
     @Nullable
     public StorageFile findFile(@NonNull String displayName) {
         try {
@@ -91,18 +123,22 @@ public class StorageFile {
             throw new FileNotFoundException("File " + this.uri + " does not exist");
         }
         String uri = this.uri.toString();
-        if ((StorageFile.cache == null) || StorageFile.cacheDirty) {
-            StorageFile.cache = new HashMap<>();
+        Map<String, StorageFile[]> listings = StorageFile.cache.get();
+        if (StorageFile.cacheDirty) {
             StorageFile.cacheDirty = false;
+            // if another thread swapped the map in the meantime, use its map, it's new as well
+            StorageFile.cache.compareAndSet(listings, new ConcurrentHashMap<>());
+            listings = StorageFile.cache.get();
         }
-        if (StorageFile.cache.get(uri) == null) {
+        StorageFile[] cached = listings.get(uri);
+        if (cached == null) {
             final ContentResolver resolver = this.context.getContentResolver();
             final Uri childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(this.uri,
                     DocumentsContract.getDocumentId(this.uri));
             final ArrayList<Uri> results = new ArrayList<>();
             Cursor cursor = null;
             //noinspection OverlyBroadCatchBlock
-            try {
+            try (TraceUtils.Section ignored = TraceUtils.section("saf list")) {
                 cursor = resolver.query(childrenUri, new String[]{
                         DocumentsContract.Document.COLUMN_DOCUMENT_ID}, null, null, null);
                 Uri documentUri;
@@ -120,19 +156,26 @@ public class StorageFile {
             for (int i = 0; i < result.length; i++) {
                 resultFiles[i] = new StorageFile(this, this.context, result[i]);
             }
-            StorageFile.cache.put(uri, resultFiles);
+            // the map may have been swapped since, return this listing anyway
+            listings.put(uri, resultFiles);
+            cached = resultFiles;
         }
-        return StorageFile.cache.get(uri);
+        return cached;
     }
 
 
     public boolean renameTo(String displayName) {
         // noinspection OverlyBroadCatchBlock
-        try {
+        try (TraceUtils.Section ignored = TraceUtils.section("saf rename", displayName)) {
             final Uri result = DocumentsContract.renameDocument(
                     this.context.getContentResolver(), this.uri, displayName);
+            this.invalidateListing();
+            if (this.parent != null) {
+                this.parent.forgetListing();
+            }
             if (result != null) {
                 this.uri = result;
+                this.name = null;
                 return true;
             }
             return false;
@@ -167,6 +210,10 @@ public class StorageFile {
         return DocumentContractApi.exists(this.context, this.uri);
     }
 
+    public long length() {
+        return DocumentContractApi.length(this.context, this.uri);
+    }
+
     private static void closeQuietly(@Nullable AutoCloseable closeable) {
         if (closeable != null) {
             try {
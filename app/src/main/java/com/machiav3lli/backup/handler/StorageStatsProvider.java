@@ -0,0 +1,202 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.handler;
+
+import android.app.usage.StorageStats;
+import android.app.usage.StorageStatsManager;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Process;
+import android.os.UserHandle;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.items.AppInfoX;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Caches StorageStats of installed packages and loads them in the background.
+ * Stats are requested in batches grouped by the storage volume a package lives on, so the
+ * app list can be shown before all sizes are known. Cached values stay valid until
+ * {@link #invalidate(String)} is called for a package that changed.
+ */
+public final class StorageStatsProvider {
+    private static final String TAG = Constants.classTag(".StorageStatsProvider");
+    private static final int BATCH_SIZE = 50;
+    private static StorageStatsProvider instance;
+
+    private final Context context;
+    private final Map<String, StorageStats> cache = new ConcurrentHashMap<>();
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final List<OnStatsLoadedListener> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private StorageStatsProvider(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public static synchronized StorageStatsProvider getInstance(Context context) {
+        if (StorageStatsProvider.instance == null) {
+            StorageStatsProvider.instance = new StorageStatsProvider(context);
+        }
+        return StorageStatsProvider.instance;
+    }
+
+    public void addOnStatsLoadedListener(OnStatsLoadedListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeOnStatsLoadedListener(OnStatsLoadedListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * Returns the cached stats of the package without querying the system
+     *
+     * @param packageName name of the package
+     * @return the cached stats or null if they have not been loaded yet
+     */
+    @Nullable
+    public StorageStats getCached(String packageName) {
+        return this.cache.get(packageName);
+    }
+
+    public boolean isCached(String packageName) {
+        return this.cache.containsKey(packageName);
+    }
+
+    /**
+     * Drops the cached stats of a package. Should be called whenever the package has been
+     * installed, updated, removed, backed up or restored.
+     *
+     * @param packageName name of the changed package
+     */
+    public void invalidate(String packageName) {
+        this.cache.remove(packageName);
+    }
+
+    public void invalidateAll() {
+        this.cache.clear();
+    }
+
+    /**
+     * Queues all installed, non special apps of the list whose stats are not cached yet.
+     * Registered listeners are notified after every loaded batch.
+     *
+     * @param apps list of apps to load the stats for
+     */
+    public void loadAsync(List<AppInfoX> apps) {
+        // group the requests by volume, so every batch hits the same storage device
+        Map<UUID, List<String>> byVolume = new HashMap<>();
+        for (AppInfoX app : apps) {
+            if (app.isSpecial() || app.getPackageInfo() == null) continue;
+            String packageName = app.getPackageName();
+            if (this.cache.containsKey(packageName) || !this.pending.add(packageName)) continue;
+            UUID volume = app.getPackageInfo().applicationInfo.storageUuid;
+            byVolume.computeIfAbsent(volume, uuid -> new ArrayList<>()).add(packageName);
+        }
+        for (Map.Entry<UUID, List<String>> volume : byVolume.entrySet()) {
+            List<String> packages = volume.getValue();
+            for (int start = 0; start < packages.size(); start += BATCH_SIZE) {
+                List<String> batch = packages.subList(start, Math.min(start + BATCH_SIZE, packages.size()));
+                this.executor.execute(() -> this.loadBatch(volume.getKey(), batch));
+            }
+        }
+    }
+
+    /**
+     * Returns the stats of a single package. Serves from the cache if possible, otherwise
+     * the system is queried synchronously. Must not be called from the main thread.
+     *
+     * @param packageName name of the package
+     * @return the stats or null if they could not be retrieved
+     */
+    @Nullable
+    public StorageStats get(String packageName) {
+        StorageStats stats = this.cache.get(packageName);
+        if (stats != null) {
+            return stats;
+        }
+        try {
+            ApplicationInfo applicationInfo = this.context.getPackageManager().getApplicationInfo(packageName, 0);
+            stats = this.query(applicationInfo.storageUuid, packageName, Process.myUserHandle());
+            if (stats != null) {
+                this.cache.put(packageName, stats);
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(StorageStatsProvider.TAG, String.format("Could not load StorageStats. Package %s was not found", packageName));
+        }
+        return stats;
+    }
+
+    private void loadBatch(UUID volume, List<String> packageNames) {
+        StorageStatsManager storageStatsManager = (StorageStatsManager) this.context.getSystemService(Context.STORAGE_STATS_SERVICE);
+        UserHandle user = Process.myUserHandle();
+        List<String> loaded = new ArrayList<>(packageNames.size());
+        for (String packageName : packageNames) {
+            try {
+                StorageStats stats = storageStatsManager.queryStatsForPackage(volume, packageName, user);
+                this.cache.put(packageName, stats);
+                loaded.add(packageName);
+            } catch (PackageManager.NameNotFoundException | IOException e) {
+                Log.w(StorageStatsProvider.TAG, String.format("Could not retrieve storage stats of %s: %s", packageName, e));
+            } finally {
+                this.pending.remove(packageName);
+            }
+        }
+        if (!loaded.isEmpty()) {
+            for (OnStatsLoadedListener listener : this.listeners) {
+                listener.onStatsLoaded(loaded);
+            }
+        }
+    }
+
+    @Nullable
+    private StorageStats query(UUID volume, String packageName, UserHandle user) throws PackageManager.NameNotFoundException {
+        StorageStatsManager storageStatsManager = (StorageStatsManager) this.context.getSystemService(Context.STORAGE_STATS_SERVICE);
+        try {
+            return storageStatsManager.queryStatsForPackage(volume, packageName, user);
+        } catch (IOException e) {
+            Log.e(StorageStatsProvider.TAG, String.format("Could not retrieve storage stats of %s: %s", packageName, e));
+            return null;
+        }
+    }
+
+    public interface OnStatsLoadedListener {
+        /**
+         * Called on a background thread after a batch of stats has been loaded
+         *
+         * @param packageNames the packages whose stats are available now
+         */
+        void onStatsLoaded(List<String> packageNames);
+    }
+}
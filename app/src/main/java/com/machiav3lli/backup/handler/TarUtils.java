@@ -22,6 +22,8 @@ import android.system.Os;
 import android.util.Log;
 
 import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.tasks.QueuedTask;
+import com.machiav3lli.backup.utils.TraceUtils;
 import com.topjohnwu.superuser.io.SuFile;
 import com.topjohnwu.superuser.io.SuFileOutputStream;
 
@@ -29,7 +31,6 @@ import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.archivers.tar.TarConstants;
-import org.apache.commons.compress.utils.IOUtils;
 import org.apache.commons.io.FileUtils;
 
 import java.io.BufferedInputStream;
@@ -37,7 +38,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.List;
 import java.util.Objects;
 
 import kotlin.NotImplementedError;
@@ -46,6 +46,7 @@ import kotlin.NotImplementedError;
 public final class TarUtils {
     private static final String TAG = Constants.classTag(".TarUtils");
     public static final int BUFFERSIZE = 8 * 1024 * 1024;
+    private static final int COPY_BUFFERSIZE = 8 * 1024;
     public static final int FILE_MODE_OR_MASK = 0100000;
     public static final int DIR_MODE_OR_MASK = 040000;
 
@@ -69,7 +70,7 @@ public final class TarUtils {
 
         if (inputFilepath.isFile() && !FileUtils.isSymlink(inputFilepath)) {
             BufferedInputStream bis = new BufferedInputStream(new FileInputStream(inputFilepath));
-            IOUtils.copy(bis, archive);
+            QueuedTask.copy(bis, archive, TarUtils.COPY_BUFFERSIZE);
         } else if (inputFilepath.isDirectory()) {
             archive.closeArchiveEntry();
             for (File nextFile : Objects.requireNonNull(inputFilepath.listFiles(), "Directory listing returned null!")) {
@@ -81,20 +82,25 @@ public final class TarUtils {
         }
     }
 
-    public static void suAddFiles(TarArchiveOutputStream archive, List<ShellHandler.FileInfo> allFiles) throws IOException {
-        for (ShellHandler.FileInfo file : allFiles) {
-            Log.d(TarUtils.TAG, String.format("Adding %s to archive (filesize: %d)", file.getFilepath(), file.getFilesize()));
+    public static void suAddFiles(TarArchiveOutputStream archive, FileList allFiles) throws IOException {
+        for (int i = 0; i < allFiles.size(); i++) {
+            QueuedTask.throwIfCancelled();
+            final String filepath = allFiles.getFilepath(i);
+            Log.d(TarUtils.TAG, String.format("Adding %s to archive (filesize: %d)", filepath, allFiles.getFilesize(i)));
             TarArchiveEntry entry;
-            switch (file.getFiletype()) {
+            switch (allFiles.getFiletype(i)) {
                 case REGULAR_FILE:
-                    entry = new TarArchiveEntry(file.getFilepath());
-                    entry.setSize(file.getFilesize());
-                    entry.setNames(file.getOwner(), file.getGroup());
-                    entry.setMode(TarUtils.FILE_MODE_OR_MASK | file.getFilemode());
+                    entry = new TarArchiveEntry(filepath);
+                    entry.setSize(allFiles.getFilesize(i));
+                    entry.setNames(allFiles.getOwner(i), allFiles.getGroup(i));
+                    entry.setMode(TarUtils.FILE_MODE_OR_MASK | allFiles.getFilemode(i));
+                    TarUtils.setModificationTime(entry, allFiles, i);
                     archive.putArchiveEntry(entry);
-                    try {
-                        ShellHandler.quirkLibsuReadFileWorkaround(file, archive);
+                    TraceUtils.addBytesInFlight(allFiles.getFilesize(i));
+                    try (TraceUtils.Section ignored = TraceUtils.section("tar add", filepath)) {
+                        ShellHandler.quirkLibsuReadFileWorkaround(allFiles.getAbsolutePath(i), allFiles.getFilesize(i), archive);
                     } finally {
+                        TraceUtils.addBytesInFlight(-allFiles.getFilesize(i));
                         archive.closeArchiveEntry();
                     }
                     break;
@@ -103,24 +109,27 @@ public final class TarUtils {
                 case CHAR_DEVICE:
                     throw new NotImplementedError("Char devices should not occur");
                 case DIRECTORY:
-                    entry = new TarArchiveEntry(file.getFilepath(), TarConstants.LF_DIR);
-                    entry.setNames(file.getOwner(), file.getGroup());
-                    entry.setMode(TarUtils.DIR_MODE_OR_MASK | file.getFilemode());
+                    entry = new TarArchiveEntry(filepath, TarConstants.LF_DIR);
+                    entry.setNames(allFiles.getOwner(i), allFiles.getGroup(i));
+                    entry.setMode(TarUtils.DIR_MODE_OR_MASK | allFiles.getFilemode(i));
+                    TarUtils.setModificationTime(entry, allFiles, i);
                     archive.putArchiveEntry(entry);
                     archive.closeArchiveEntry();
                     break;
                 case SYMBOLIC_LINK:
-                    entry = new TarArchiveEntry(file.getFilepath(), TarConstants.LF_LINK);
-                    entry.setLinkName(file.getLinkName());
-                    entry.setNames(file.getOwner(), file.getGroup());
-                    entry.setMode(TarUtils.FILE_MODE_OR_MASK | file.getFilemode());
+                    entry = new TarArchiveEntry(filepath, TarConstants.LF_LINK);
+                    entry.setLinkName(allFiles.getLinkName(i));
+                    entry.setNames(allFiles.getOwner(i), allFiles.getGroup(i));
+                    entry.setMode(TarUtils.FILE_MODE_OR_MASK | allFiles.getFilemode(i));
+                    TarUtils.setModificationTime(entry, allFiles, i);
                     archive.putArchiveEntry(entry);
                     archive.closeArchiveEntry();
                     break;
                 case NAMED_PIPE:
-                    entry = new TarArchiveEntry(file.getFilepath(), TarConstants.LF_FIFO);
-                    entry.setNames(file.getOwner(), file.getGroup());
-                    entry.setMode(TarUtils.FILE_MODE_OR_MASK | file.getFilemode());
+                    entry = new TarArchiveEntry(filepath, TarConstants.LF_FIFO);
+                    entry.setNames(allFiles.getOwner(i), allFiles.getGroup(i));
+                    entry.setMode(TarUtils.FILE_MODE_OR_MASK | allFiles.getFilemode(i));
+                    TarUtils.setModificationTime(entry, allFiles, i);
                     archive.putArchiveEntry(entry);
                     archive.closeArchiveEntry();
                     break;
@@ -130,6 +139,13 @@ public final class TarUtils {
         }
     }
 
+    private static void setModificationTime(TarArchiveEntry entry, FileList files, int index) {
+        // unknown times are left at the time of the backup
+        if (files.getModificationTime(index) > 0) {
+            entry.setModTime(files.getModificationTime(index));
+        }
+    }
+
     public static void suUncompressTo(TarArchiveInputStream archive, String targetDir) throws IOException, ShellHandler.ShellCommandFailedException {
         TarArchiveEntry tarEntry;
         while ((tarEntry = archive.getNextTarEntry()) != null) {
@@ -139,8 +155,12 @@ public final class TarUtils {
                 ShellHandler.runAsRoot(String.format("mkdir \"%s\"", file.getAbsolutePath()));
                 TarUtils.suUncompressTo(archive, targetDir);
             } else if (tarEntry.isFile()) {
-                try (SuFileOutputStream fos = new SuFileOutputStream(SuFile.open(targetDir, tarEntry.getName()))) {
-                    IOUtils.copy(archive, fos, TarUtils.BUFFERSIZE);
+                TraceUtils.addBytesInFlight(tarEntry.getRealSize());
+                try (TraceUtils.Section ignored = TraceUtils.section("tar extract", tarEntry.getName());
+                     SuFileOutputStream fos = new SuFileOutputStream(SuFile.open(targetDir, tarEntry.getName()))) {
+                    QueuedTask.copy(archive, fos, TarUtils.BUFFERSIZE);
+                } finally {
+                    TraceUtils.addBytesInFlight(-tarEntry.getRealSize());
                 }
             } else if (tarEntry.isLink() || tarEntry.isSymbolicLink()) {
                 ShellHandler.runAsRoot(
@@ -158,9 +178,15 @@ public final class TarUtils {
         }
     }
 
-    public static void uncompressTo(TarArchiveInputStream archive, File targetDir) throws IOException {
+    /**
+     * @return number of extracted entries
+     */
+    public static int uncompressTo(TarArchiveInputStream archive, File targetDir) throws IOException {
         TarArchiveEntry tarEntry;
+        int entries = 0;
         while ((tarEntry = archive.getNextTarEntry()) != null) {
+            QueuedTask.throwIfCancelled();
+            entries++;
             final File targetPath = new File(targetDir, tarEntry.getName());
             Log.d(TarUtils.TAG, String.format("Uncompressing %s (filesize: %d)", tarEntry.getName(), tarEntry.getRealSize()));
             boolean doChmod = true;
@@ -186,8 +212,12 @@ public final class TarUtils {
                 if (!parent.exists() && !parent.mkdirs()) {
                     throw new IOException("Unable to create folder " + parent.getAbsolutePath());
                 }
-                try (FileOutputStream fos = new FileOutputStream(targetPath)) {
-                    IOUtils.copy(archive, fos);
+                TraceUtils.addBytesInFlight(tarEntry.getRealSize());
+                try (TraceUtils.Section ignored = TraceUtils.section("tar extract", tarEntry.getName());
+                     FileOutputStream fos = new FileOutputStream(targetPath)) {
+                    QueuedTask.copy(archive, fos, TarUtils.COPY_BUFFERSIZE);
+                } finally {
+                    TraceUtils.addBytesInFlight(-tarEntry.getRealSize());
                 }
             }
             if (doChmod) {
@@ -198,5 +228,6 @@ public final class TarUtils {
                 }
             }
         }
+        return entries;
     }
 }
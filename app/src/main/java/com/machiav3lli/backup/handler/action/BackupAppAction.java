@@ -24,21 +24,30 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 
 import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.handler.ApkStore;
+import com.machiav3lli.backup.handler.AppQuiescer;
 import com.machiav3lli.backup.handler.Crypto;
+import com.machiav3lli.backup.handler.DataFingerprint;
+import com.machiav3lli.backup.handler.FileList;
 import com.machiav3lli.backup.handler.ShellHandler;
+import com.machiav3lli.backup.handler.StageLimiter;
 import com.machiav3lli.backup.handler.StorageFile;
 import com.machiav3lli.backup.handler.TarUtils;
 import com.machiav3lli.backup.items.ActionResult;
+import com.machiav3lli.backup.items.ActionStats;
 import com.machiav3lli.backup.items.AppInfoX;
 import com.machiav3lli.backup.items.BackupItem;
 import com.machiav3lli.backup.items.BackupProperties;
+import com.machiav3lli.backup.tasks.QueuedTask;
 import com.machiav3lli.backup.utils.BackupBuilder;
 import com.machiav3lli.backup.utils.DocumentHelper;
 import com.machiav3lli.backup.utils.FileUtils;
 import com.machiav3lli.backup.utils.PrefUtils;
+import com.machiav3lli.backup.utils.TraceUtils;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.utils.CountingOutputStream;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.BufferedOutputStream;
@@ -48,7 +57,16 @@ import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.stream.Collectors;
 
 public class BackupAppAction extends BaseAppAction {
@@ -56,12 +74,18 @@ public class BackupAppAction extends BaseAppAction {
     public static final String LOG_START_BACKUP = "[%s] Starting %s backup";
     public static final String LOG_NO_THING_TO_BACKUP = "[%s] No %s to backup available";
 
+    // File lists of the upcoming data stages, keyed by their source directory
+    private final Map<String, Future<FileList>> prefetchedFileLists = new ConcurrentHashMap<>();
+    // Stages of the running backup
+    private ActionStats stats = new ActionStats();
+
     public BackupAppAction(Context context, ShellHandler shell) {
         super(context, shell);
     }
 
     public ActionResult run(AppInfoX app, int backupMode) {
         Log.i(BackupAppAction.TAG, String.format("Backing up: %s [%s]", app.getPackageName(), app.getPackageLabel()));
+        this.stats = new ActionStats();
         Uri appBackupRootUri;
         try {
             appBackupRootUri = app.getBackupDir(true);
@@ -76,90 +100,184 @@ public class BackupAppAction extends BaseAppAction {
         }
         BackupBuilder backupBuilder = new BackupBuilder(this.getContext(), app.getAppInfo(), appBackupRootUri);
         StorageFile backupInstanceDir = backupBuilder.getBackupPath();
+        final QueuedTask task = QueuedTask.getCurrent();
+        if (task != null) {
+            task.onBackupInstanceCreated(backupInstanceDir.getUri());
+        }
         boolean stopProcess = PrefUtils.isKillBeforeActionEnabled(this.getContext());
+        AppQuiescer.Hold hold = null;
         BackupItem backupItem;
 
-        if (stopProcess) {
-            Log.d(BackupAppAction.TAG, "preprocess package (to avoid file inconsistencies during backup etc.)");
-            this.preprocessPackage(app.getPackageName());
-        }
+        // The stages of the backup are pipelined: the apks are copied while the data is
+        // compressed and the file lists of the next data stages are assembled while the current
+        // one is archived. Worker threads inherit the stage limits and the task of the caller.
+        final StageLimiter limiter = StageLimiter.getCurrent();
+        ExecutorService stageExecutor = Executors.newFixedThreadPool(2);
+        Future<?> packageStage = null;
         try {
             if ((backupMode & BaseAppAction.MODE_APK) == BaseAppAction.MODE_APK) {
                 Log.i(BackupAppAction.TAG, String.format("%s: Backing up package", app));
-                this.backupPackage(app, backupInstanceDir);
-                backupBuilder.setHasApk(true);
+                // Copying the apks doesn't need the app to be stopped
+                packageStage = stageExecutor.submit(() -> {
+                    StageLimiter.bind(limiter);
+                    QueuedTask.bind(task);
+                    try {
+                        backupBuilder.setApkFiles(this.backupPackage(app, appBackupRootUri, backupInstanceDir));
+                    } finally {
+                        QueuedTask.bind(null);
+                        StageLimiter.bind(null);
+                    }
+                    return null;
+                });
             }
             if ((backupMode & BaseAppAction.MODE_DATA) == BaseAppAction.MODE_DATA) {
-                Log.i(BackupAppAction.TAG, String.format("%s: Backing up data", app));
-                boolean backupCreated = this.backupData(app, backupInstanceDir);
-                backupBuilder.setHasAppData(backupCreated);
-                if (PrefUtils.getDefaultSharedPreferences(this.getContext()).getBoolean(Constants.PREFS_EXTERNALDATA, true)) {
-                    backupCreated = this.backupExternalData(app, backupInstanceDir);
-                    backupBuilder.setHasExternalData(backupCreated);
-                    backupCreated = this.backupObbData(app, backupInstanceDir);
-                    backupBuilder.setHasObbData(backupCreated);
+                if (stopProcess) {
+                    Log.d(BackupAppAction.TAG, "preprocess package (to avoid file inconsistencies during backup etc.)");
+                    try (ActionStats.Timer ignored = this.stats.time(ActionStats.STAGE_QUIESCE, null)) {
+                        hold = this.preprocessPackage(app.getPackageName());
+                    }
                 }
-                if (PrefUtils.getDefaultSharedPreferences(this.getContext()).getBoolean(Constants.PREFS_DEVICEPROTECTEDDATA, true)) {
-                    backupCreated = this.backupDeviceProtectedData(app, backupInstanceDir);
-                    backupBuilder.setHasDevicesProtectedData(backupCreated);
+                try {
+                    Log.i(BackupAppAction.TAG, String.format("%s: Backing up data", app));
+                    this.prefetchFileLists(app, stageExecutor);
+                    // A stopped app can't change its files, so the fingerprint is taken alongside
+                    // the copy. A running app is fingerprinted before its data is copied, then
+                    // changes during the copy only make the next fingerprint differ and never let
+                    // the next backup be skipped with data that wasn't saved.
+                    Future<String> fingerprint = null;
+                    if (!app.isSpecial()) {
+                        FutureTask<String> fingerprintStage = new FutureTask<>(
+                                () -> DataFingerprint.compute(this.getContext(), this.getShell(), app));
+                        if (stopProcess) {
+                            stageExecutor.execute(fingerprintStage);
+                        } else {
+                            fingerprintStage.run();
+                        }
+                        fingerprint = fingerprintStage;
+                    }
+                    boolean backupCreated = this.backupData(app, backupInstanceDir);
+                    backupBuilder.setHasAppData(backupCreated);
+                    if (PrefUtils.getDefaultSharedPreferences(this.getContext()).getBoolean(Constants.PREFS_EXTERNALDATA, true)) {
+                        backupCreated = this.backupExternalData(app, backupInstanceDir);
+                        backupBuilder.setHasExternalData(backupCreated);
+                        backupCreated = this.backupObbData(app, backupInstanceDir);
+                        backupBuilder.setHasObbData(backupCreated);
+                    }
+                    if (PrefUtils.getDefaultSharedPreferences(this.getContext()).getBoolean(Constants.PREFS_DEVICEPROTECTEDDATA, true)) {
+                        backupCreated = this.backupDeviceProtectedData(app, backupInstanceDir);
+                        backupBuilder.setHasDevicesProtectedData(backupCreated);
+                    }
+                    if (fingerprint != null) {
+                        try {
+                            backupBuilder.setDataFingerprint(BackupAppAction.awaitStage(fingerprint, "data fingerprint"));
+                        } catch (BackupFailedException e) {
+                            // without fingerprint the next scheduled backup simply won't be skipped
+                            Log.w(BackupAppAction.TAG, String.format("%s: %s", app, e.getMessage()));
+                        }
+                    }
+                } finally {
+                    // Let the app continue as soon as its data is saved, the apks don't need it stopped
+                    if (stopProcess) {
+                        Log.d(BackupAppAction.TAG, "postprocess package (to set it back to normal operation)");
+                        try (ActionStats.Timer ignored = this.stats.time(ActionStats.STAGE_UNQUIESCE, null)) {
+                            this.postprocessPackage(hold);
+                        }
+                    }
+                    if (task != null) {
+                        task.onAppDataSaved();
+                    }
                 }
             }
+            if (packageStage != null) {
+                BackupAppAction.awaitStage(packageStage, "apks");
+                backupBuilder.setHasApk(true);
+            }
             if (PrefUtils.isEncryptionEnabled(this.getContext())) {
                 backupBuilder.setCipherType(Crypto.getCipherAlgorithm());
             }
+            // The properties get a copy with the stages up to here. Writing them is only recorded
+            // in the stats of the action result, so the saved properties and the ones kept in
+            // the backup history stay the same.
+            this.stats.finish();
+            backupBuilder.setStats(this.stats.copy());
             backupItem = backupBuilder.createBackupItem();
-            this.saveBackupProperties(StorageFile.fromUri(this.getContext(), appBackupRootUri), backupItem.getBackupProperties());
+            try (ActionStats.Timer timer = this.stats.time(ActionStats.STAGE_PROPERTIES, null)) {
+                timer.setBytes(0, this.saveBackupProperties(StorageFile.fromUri(this.getContext(), appBackupRootUri), backupItem.getBackupProperties()));
+            }
             app.addBackup(backupItem);
         } catch (BackupFailedException | Crypto.CryptoSetupException | IOException e) {
             Log.e(BackupAppAction.TAG, String.format("Backup failed due to %s: %s", e.getClass().getSimpleName(), e.getMessage()));
+            // The apk copy might still write into the backup directory
+            BackupAppAction.finishStage(packageStage);
             Log.d(BackupAppAction.TAG, "Backup deleted: " + backupBuilder.getBackupPath().delete());
+            // Drop apks only this backup has stored
+            ApkStore.prune(this.getContext(), app.getPackageName(), appBackupRootUri, app.getBackupHistory());
+            this.stats.finish();
             return new ActionResult(app, null, String.format("%s: %s",
-                    e.getClass().getSimpleName(), e.getMessage()), false);
+                    e.getClass().getSimpleName(), e.getMessage()), false, this.stats);
         } finally {
-            if (stopProcess) {
-                Log.d(BackupAppAction.TAG, "postprocess package (to set it back to normal operation)");
-                this.postprocessPackage(app.getPackageName());
-            }
+            this.prefetchedFileLists.values().forEach(future -> future.cancel(true));
+            this.prefetchedFileLists.clear();
+            stageExecutor.shutdownNow();
         }
         Log.i(BackupAppAction.TAG, String.format("%s: Backup done: %s", app, backupItem));
-        return new ActionResult(app, backupItem.getBackupProperties(), "", true);
+        this.stats.finish();
+        return new ActionResult(app, backupItem.getBackupProperties(), "", true, this.stats);
     }
 
-    protected void saveBackupProperties(@NonNull StorageFile packageBackupDir, @NotNull BackupProperties properties) throws IOException {
+    /**
+     * @return size of the written properties in bytes
+     */
+    protected long saveBackupProperties(@NonNull StorageFile packageBackupDir, @NotNull BackupProperties properties) throws IOException {
         String propertiesFileName = String.format(BackupProperties.BACKUP_INSTANCE_PROPERTIES, Constants.BACKUP_DATE_TIME_FORMATTER.format(properties.getBackupDate()), properties.getProfileId());
         StorageFile propertiesFile = packageBackupDir.createFile("application/octet-stream", propertiesFileName);
+        final byte[] content = properties.toGson().getBytes(StandardCharsets.UTF_8);
         try (BufferedOutputStream propertiesOut = new BufferedOutputStream(this.getContext().getContentResolver().openOutputStream(propertiesFile.getUri(), "w"))) {
-            propertiesOut.write(properties.toGson().getBytes(StandardCharsets.UTF_8));
+            propertiesOut.write(content);
         }
         Log.i(BackupAppAction.TAG, String.format("Wrote %s file for backup: %s", propertiesFile, properties));
+        return content.length;
     }
 
-    protected void createBackupArchive(Uri backupInstanceDir, String what, List<ShellHandler.FileInfo> allFilesToBackup) throws IOException, Crypto.CryptoSetupException {
+    /**
+     * @return size of the written archive in bytes
+     */
+    protected long createBackupArchive(Uri backupInstanceDir, String what, FileList allFilesToBackup) throws IOException, Crypto.CryptoSetupException {
         Log.i(BackupAppAction.TAG, String.format("Creating %s backup", what));
         StorageFile backupDir = StorageFile.fromUri(this.getContext(), backupInstanceDir);
         String backupFilename = this.getBackupArchiveFilename(what, PrefUtils.isEncryptionEnabled(this.getContext()));
         StorageFile backupFile = backupDir.createFile("application/octet-stream", backupFilename);
         String password = PrefUtils.getDefaultSharedPreferences(this.getContext()).getString(Constants.PREFS_PASSWORD, "");
-        OutputStream outStream = new BufferedOutputStream(this.getContext().getContentResolver().openOutputStream(backupFile.getUri(), "w"));
+        CountingOutputStream counter = new CountingOutputStream(this.getContext().getContentResolver().openOutputStream(backupFile.getUri(), "w"));
+        OutputStream outStream = new BufferedOutputStream(counter);
         if (!password.isEmpty()) {
             outStream = Crypto.encryptStream(outStream, password, PrefUtils.getCryptoSalt(this.getContext()));
         }
-        try (TarArchiveOutputStream archive = new TarArchiveOutputStream(new GzipCompressorOutputStream(outStream))) {
+        // encryption is a stage of the same stream, so it's part of this section
+        try (TraceUtils.Section ignored = TraceUtils.section("compress", what);
+             TarArchiveOutputStream archive = new TarArchiveOutputStream(new GzipCompressorOutputStream(outStream))) {
             archive.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
             TarUtils.suAddFiles(archive, allFilesToBackup);
         } finally {
             Log.d(BackupAppAction.TAG, "Done compressing. Closing " + backupFilename);
             outStream.close();
         }
+        return counter.getBytesWritten();
     }
 
-    protected void copyToBackupArchive(Uri backupInstanceDir, String what, List<ShellHandler.FileInfo> allFilesToBackup) throws IOException {
+    protected void copyToBackupArchive(Uri backupInstanceDir, String what, FileList allFilesToBackup) throws IOException {
         StorageFile backupInstance = StorageFile.fromUri(this.getContext(), backupInstanceDir);
         StorageFile backupDir = backupInstance.createDirectory(what);
         DocumentHelper.suRecursiveCopyFileToDocument(this.getContext(), allFilesToBackup, backupDir.getUri());
     }
 
-    protected void backupPackage(AppInfoX app, StorageFile backupInstanceDir) throws BackupAppAction.BackupFailedException {
+    /**
+     * Backs up the apks of the package, into the apk store of the package if deduplication is
+     * enabled, otherwise into the backup instance
+     *
+     * @return references to the stored apks or null if they were copied into the backup instance
+     */
+    protected List<BackupProperties.ApkFile> backupPackage(AppInfoX app, Uri appBackupDir, StorageFile backupInstanceDir) throws BackupAppAction.BackupFailedException {
         Log.i(BackupAppAction.TAG, String.format("[%s] Backup package apks", app.getPackageName()));
         String[] apksToBackup;
         if (app.getApkSplits() == null) {
@@ -178,28 +296,45 @@ public class BackupAppAction extends BaseAppAction {
                 Arrays.stream(apksToBackup).map(s -> new File(s).getName()).collect(Collectors.joining(" "))
         ));
 
-        try {
-            for (String apk : apksToBackup) {
-                DocumentHelper.suCopyFileToDocument(this.getContext().getContentResolver(), apk, backupInstanceDir);
+        final long apkBytes = Arrays.stream(apksToBackup).mapToLong(apk -> new File(apk).length()).sum();
+        try (ActionStats.Timer timer = this.stats.time(ActionStats.STAGE_APK, null)) {
+            timer.setFiles(apksToBackup.length);
+            try (StageLimiter.Permit ignored = StageLimiter.acquire(StageLimiter.Stage.IO)) {
+                if (PrefUtils.getDefaultSharedPreferences(this.getContext()).getBoolean(Constants.PREFS_DEDUPLICATE_APKS, true)) {
+                    // the store reads every apk, but only writes those it doesn't know yet
+                    timer.setBytes(apkBytes, 0);
+                    return ApkStore.store(this.getContext(), app, appBackupDir, apksToBackup);
+                }
+                timer.setBytes(apkBytes, apkBytes);
+                for (String apk : apksToBackup) {
+                    DocumentHelper.suCopyFileToDocument(this.getContext().getContentResolver(), apk, backupInstanceDir);
+                }
             }
         } catch (IOException e) {
             Log.e(BackupAppAction.TAG, String.format("%s: Backup APKs failed: %s", app, e));
             throw new BackupFailedException("Could not backup apk", e);
         }
+        return null;
     }
 
-    protected boolean genericBackupData(final String backupType, final Uri backupInstanceDir, List<ShellHandler.FileInfo> filesToBackup, boolean compress) throws BackupFailedException, Crypto.CryptoSetupException {
+    protected boolean genericBackupData(final String backupType, final Uri backupInstanceDir, FileList filesToBackup, boolean compress) throws BackupFailedException, Crypto.CryptoSetupException {
         Log.i(BackupAppAction.TAG, String.format("Backing up %s got %d files to backup", backupType, filesToBackup.size()));
 
         if (filesToBackup.isEmpty()) {
             Log.i(BackupAppAction.TAG, String.format("Nothing to backup for %s. Skipping", backupType));
             return false;
         }
-        try {
+        try (ActionStats.Timer timer = this.stats.time(ActionStats.STAGE_ARCHIVE, backupType)) {
+            timer.setFiles(filesToBackup.size());
             if (compress) {
-                this.createBackupArchive(backupInstanceDir, backupType, filesToBackup);
+                try (StageLimiter.Permit ignored = StageLimiter.acquire(StageLimiter.Stage.CPU)) {
+                    timer.setBytes(filesToBackup.getTotalSize(), this.createBackupArchive(backupInstanceDir, backupType, filesToBackup));
+                }
             } else {
-                this.copyToBackupArchive(backupInstanceDir, backupType, filesToBackup);
+                try (StageLimiter.Permit ignored = StageLimiter.acquire(StageLimiter.Stage.IO)) {
+                    this.copyToBackupArchive(backupInstanceDir, backupType, filesToBackup);
+                    timer.setBytes(filesToBackup.getTotalSize(), filesToBackup.getTotalSize());
+                }
             }
         } catch (IOException e) {
             final String message = String.format("%s occurred on %s backup: %s", e.getClass().getCanonicalName(), backupType, e);
@@ -209,42 +344,100 @@ public class BackupAppAction extends BaseAppAction {
         return true;
     }
 
-    private List<ShellHandler.FileInfo> assembleFileList(String sourceDirectory)
+    /**
+     * Starts assembling the file lists of all data stages in the background. The data stages pick
+     * them up through assembleFileList, so listing the next stage overlaps with archiving the
+     * current one.
+     *
+     * @param app      app to be backed up
+     * @param executor executor running the listings
+     */
+    protected void prefetchFileLists(AppInfoX app, ExecutorService executor) {
+        // source directories by their backup type
+        Map<String, String> sourceDirectories = new LinkedHashMap<>(4);
+        sourceDirectories.put(BaseAppAction.BACKUP_DIR_DATA, app.getDataDir());
+        if (PrefUtils.getDefaultSharedPreferences(this.getContext()).getBoolean(Constants.PREFS_EXTERNALDATA, true)) {
+            sourceDirectories.put(BaseAppAction.BACKUP_DIR_EXTERNAL_FILES, app.getExternalDataDir());
+            sourceDirectories.put(BaseAppAction.BACKUP_DIR_OBB_FILES, app.getObbFilesDir());
+        }
+        if (PrefUtils.getDefaultSharedPreferences(this.getContext()).getBoolean(Constants.PREFS_DEVICEPROTECTEDDATA, true)) {
+            sourceDirectories.put(BaseAppAction.BACKUP_DIR_DEVICE_PROTECTED_FILES, app.getDeviceProtectedDataDir());
+        }
+        for (Map.Entry<String, String> sourceDirectory : sourceDirectories.entrySet()) {
+            final String backupType = sourceDirectory.getKey();
+            final String directory = sourceDirectory.getValue();
+            if (directory != null && !this.prefetchedFileLists.containsKey(directory)) {
+                this.prefetchedFileLists.put(directory, executor.submit(() -> this.listFiles(backupType, directory)));
+            }
+        }
+    }
+
+    private FileList assembleFileList(String backupType, String sourceDirectory)
             throws BackupFailedException {
+        Future<FileList> prefetched = sourceDirectory != null
+                ? this.prefetchedFileLists.remove(sourceDirectory) : null;
+        if (prefetched != null) {
+            return BackupAppAction.awaitStage(prefetched, "file list of " + sourceDirectory);
+        }
+        return this.listFiles(backupType, sourceDirectory);
+    }
 
-        // Check what are the contents to backup. No need to start working, if the directory does not exist
+    private static <T> T awaitStage(Future<T> stage, String what) throws BackupFailedException {
         try {
-            // Get a list of directories in the directory to backup
-            List<ShellHandler.FileInfo> dirsInSource = this.getShell().suGetDetailedDirectoryContents(
-                    sourceDirectory,
-                    false,
-                    null
-            );
-            // Excludes cache and libs, when we don't want to backup'em
-            if (PrefUtils.getDefaultSharedPreferences(this.getContext()).getBoolean(Constants.PREFS_EXCLUDECACHE, true)) {
-                dirsInSource = dirsInSource.stream()
-                        .filter(dir -> !BaseAppAction.DATA_EXCLUDED_DIRS.contains(dir.getFilename()))
-                        .collect(Collectors.toList());
+            return stage.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BackupFailedException) {
+                throw (BackupFailedException) e.getCause();
             }
+            throw new BackupFailedException(String.format("Backup stage for %s failed: %s", what, e.getCause()), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BackupFailedException("Interrupted while waiting for " + what, e);
+        }
+    }
 
-            // if the list is empty, there is nothing to do
-            List<ShellHandler.FileInfo> allFilesToBackup = new ArrayList<>();
-            if (dirsInSource.isEmpty()) {
-                return allFilesToBackup;
-            }
+    private static void finishStage(Future<?> stage) {
+        if (stage == null) {
+            return;
+        }
+        try {
+            stage.get();
+        } catch (ExecutionException | CancellationException e) {
+            // the stage's own failure doesn't matter anymore
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private FileList listFiles(String backupType, String sourceDirectory)
+            throws BackupFailedException {
+
+        // Check what are the contents to backup. No need to start working, if the directory does not exist
+        try (ActionStats.Timer timer = this.stats.time(ActionStats.STAGE_LISTING, backupType)) {
+            final boolean excludeCache = PrefUtils.getDefaultSharedPreferences(this.getContext()).getBoolean(Constants.PREFS_EXCLUDECACHE, true);
+            final FileList allFilesToBackup = new FileList();
+            // Get a list of directories in the directory to backup
+            final List<ShellHandler.FileInfo> dirsInSource = new ArrayList<>();
+            this.getShell().suForEachDetailedDirectoryContent(sourceDirectory, false, null, file -> {
+                // Excludes cache and libs, when we don't want to backup'em
+                if (!excludeCache || !BaseAppAction.DATA_EXCLUDED_DIRS.contains(file.getFilename())) {
+                    allFilesToBackup.add(file);
+                    // Do not process files in the "root" directory of the app's data
+                    if (file.getFiletype() == ShellHandler.FileInfo.FileType.DIRECTORY) {
+                        dirsInSource.add(file);
+                    }
+                }
+            });
             for (ShellHandler.FileInfo dir : dirsInSource) {
-                allFilesToBackup.add(dir);
-                // Do not process files in the "root" directory of the app's data
-                if (dir.getFiletype() == ShellHandler.FileInfo.FileType.DIRECTORY) try {
-                    allFilesToBackup.addAll(
-                            this.getShell().suGetDetailedDirectoryContents(dir.getAbsolutePath(), true, dir.getFilename())
-                    );
+                try {
+                    this.getShell().suForEachDetailedDirectoryContent(dir.getAbsolutePath(), true, dir.getFilename(), allFilesToBackup::add);
                 } catch (ShellHandler.ShellCommandFailedException e) {
                     if (ShellHandler.isFileNotFoundException(e)) {
                         Log.w(BackupAppAction.TAG, "Directory has been deleted during processing: " + dir);
                     }
                 }
             }
+            timer.setFiles(allFilesToBackup.size());
             return allFilesToBackup;
         } catch (ShellHandler.ShellCommandFailedException e) {
             throw new BackupFailedException("Could not list contents of " + sourceDirectory, e);
@@ -254,7 +447,7 @@ public class BackupAppAction extends BaseAppAction {
     protected boolean backupData(AppInfoX app, StorageFile backupInstanceDir) throws BackupFailedException, Crypto.CryptoSetupException {
         final String backupType = BaseAppAction.BACKUP_DIR_DATA;
         Log.i(BackupAppAction.TAG, String.format(LOG_START_BACKUP, app.getPackageName(), backupType));
-        List<ShellHandler.FileInfo> filesToBackup = this.assembleFileList(app.getDataDir());
+        FileList filesToBackup = this.assembleFileList(backupType, app.getDataDir());
         return this.genericBackupData(backupType, backupInstanceDir.getUri(), filesToBackup, true);
     }
 
@@ -262,7 +455,7 @@ public class BackupAppAction extends BaseAppAction {
         final String backupType = BaseAppAction.BACKUP_DIR_EXTERNAL_FILES;
         Log.i(BackupAppAction.TAG, String.format(LOG_START_BACKUP, app.getPackageName(), backupType));
         try {
-            List<ShellHandler.FileInfo> filesToBackup = this.assembleFileList(app.getExternalDataDir());
+            FileList filesToBackup = this.assembleFileList(backupType, app.getExternalDataDir());
             return this.genericBackupData(backupType, backupInstanceDir.getUri(), filesToBackup, true);
         } catch (BackupFailedException ex) {
             if (ex.getCause() instanceof ShellHandler.ShellCommandFailedException
@@ -278,7 +471,7 @@ public class BackupAppAction extends BaseAppAction {
         final String backupType = BaseAppAction.BACKUP_DIR_OBB_FILES;
         Log.i(BackupAppAction.TAG, String.format(LOG_START_BACKUP, app.getPackageName(), backupType));
         try {
-            List<ShellHandler.FileInfo> filesToBackup = this.assembleFileList(app.getObbFilesDir());
+            FileList filesToBackup = this.assembleFileList(backupType, app.getObbFilesDir());
             return this.genericBackupData(backupType, backupInstanceDir.getUri(), filesToBackup, false);
         } catch (BackupFailedException ex) {
             if (ex.getCause() instanceof ShellHandler.ShellCommandFailedException
@@ -294,7 +487,7 @@ public class BackupAppAction extends BaseAppAction {
         final String backupType = BaseAppAction.BACKUP_DIR_DEVICE_PROTECTED_FILES;
         Log.i(BackupAppAction.TAG, String.format(LOG_START_BACKUP, app.getPackageName(), backupType));
         try {
-            List<ShellHandler.FileInfo> filesToBackup = this.assembleFileList(app.getDeviceProtectedDataDir());
+            FileList filesToBackup = this.assembleFileList(backupType, app.getDeviceProtectedDataDir());
             return this.genericBackupData(backupType, backupInstanceDir.getUri(), filesToBackup, true);
         } catch (BackupFailedException ex) {
             if (ex.getCause() instanceof ShellHandler.ShellCommandFailedException
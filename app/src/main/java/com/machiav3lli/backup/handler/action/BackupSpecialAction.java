@@ -18,19 +18,22 @@
 package com.machiav3lli.backup.handler.action;
 
 import android.content.Context;
+import android.net.Uri;
 import android.util.Log;
 
 import com.machiav3lli.backup.Constants;
 import com.machiav3lli.backup.handler.Crypto;
+import com.machiav3lli.backup.handler.FileList;
 import com.machiav3lli.backup.handler.ShellHandler;
 import com.machiav3lli.backup.handler.StorageFile;
 import com.machiav3lli.backup.items.ActionResult;
 import com.machiav3lli.backup.items.AppInfoX;
+import com.machiav3lli.backup.items.BackupProperties;
 import com.machiav3lli.backup.items.SpecialAppMetaInfo;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 public class BackupSpecialAction extends BackupAppAction {
     private static final String TAG = Constants.classTag(".BackupSpecialAction");
@@ -61,7 +64,7 @@ public class BackupSpecialAction extends BackupAppAction {
         // This can be optimized, because it's known, that special backups won't meet any symlinks
         // since the list of files is fixed
         // It would make sense to implement something like TarUtils.addFilepath with SuFileInputStream and
-        List<ShellHandler.FileInfo> filesToBackup = new ArrayList<>(appInfo.getFileList().length);
+        FileList filesToBackup = new FileList();
         try {
             for (String filepath : appInfo.getFileList()) {
                 boolean isDirSource = filepath.endsWith("/");
@@ -70,7 +73,7 @@ public class BackupSpecialAction extends BackupAppAction {
                 if (isDirSource) {
                     filesToBackup.add(new ShellHandler.FileInfo(parent, ShellHandler.FileInfo.FileType.DIRECTORY, new File(filepath).getParent(), "system", "system", (short) 0770, 0));
                 }
-                filesToBackup.addAll(fileInfos);
+                fileInfos.forEach(filesToBackup::add);
             }
             this.genericBackupData(BaseAppAction.BACKUP_DIR_DATA, backupInstanceDir.getUri(), filesToBackup, true);
         } catch (ShellHandler.ShellCommandFailedException e) {
@@ -83,8 +86,14 @@ public class BackupSpecialAction extends BackupAppAction {
 
     // Stubbing some functions, to avoid executing them with potentially dangerous results
     @Override
-    protected void backupPackage(AppInfoX app, StorageFile backupInstanceDir) {
+    protected void prefetchFileLists(AppInfoX app, ExecutorService executor) {
+        // stub, the file list of special backups is fixed
+    }
+
+    @Override
+    protected List<BackupProperties.ApkFile> backupPackage(AppInfoX app, Uri appBackupDir, StorageFile backupInstanceDir) {
         // stub
+        return null;
     }
 
     @Override
@@ -24,15 +24,21 @@ import android.os.Build;
 import android.util.Log;
 
 import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.handler.ApkStore;
+import com.machiav3lli.backup.handler.AppQuiescer;
 import com.machiav3lli.backup.handler.Crypto;
 import com.machiav3lli.backup.handler.ShellHandler;
+import com.machiav3lli.backup.handler.StageLimiter;
 import com.machiav3lli.backup.handler.StorageFile;
 import com.machiav3lli.backup.handler.TarUtils;
 import com.machiav3lli.backup.items.ActionResult;
+import com.machiav3lli.backup.items.ActionStats;
 import com.machiav3lli.backup.items.AppInfoX;
 import com.machiav3lli.backup.items.BackupProperties;
 import com.machiav3lli.backup.utils.DocumentHelper;
 import com.machiav3lli.backup.utils.PrefUtils;
+import com.machiav3lli.backup.utils.TraceUtils;
+import com.topjohnwu.superuser.Shell;
 
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
@@ -49,31 +55,50 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class RestoreAppAction extends BaseAppAction {
     private static final String TAG = Constants.classTag(".RestoreAppAction");
     private static final String BASEAPKFILENAME = "base.apk";
-    private static final File PACKAGE_STAGING_DIRECTORY = new File("/data/local/tmp");
+    private static final Pattern PATTERN_INSTALL_SESSION = Pattern.compile("\\[(\\d+)]");
     public static final String LOG_DIR_IS_MISSING_CANNOT_RESTORE = "Backup directory %s is missing. Cannot restore";
     protected static final String LOG_EXTRACTING_S = "[%s] Extracting %s";
     protected static final String LOG_BACKUP_ARCHIVE_MISSING = "Backup archive %s is missing. Cannot restore";
 
+    // Stages of the running restore
+    private ActionStats stats = new ActionStats();
+
     public RestoreAppAction(Context context, ShellHandler shell) {
         super(context, shell);
     }
 
     public ActionResult run(AppInfoX app, BackupProperties backupProperties, Uri backupLocation, int backupMode) {
         Log.i(RestoreAppAction.TAG, String.format("Restoring up: %s [%s]", app.getPackageName(), app.getPackageLabel()));
+        this.stats = new ActionStats();
         boolean stopProcess = PrefUtils.isKillBeforeActionEnabled(this.getContext());
+        AppQuiescer.Hold hold = null;
         if (stopProcess) {
             Log.d(RestoreAppAction.TAG, "preprocess package (to avoid file inconsistencies during backup etc.)");
-            this.preprocessPackage(app.getPackageName());
+            try (ActionStats.Timer ignored = this.stats.time(ActionStats.STAGE_QUIESCE, null)) {
+                hold = this.preprocessPackage(app.getPackageName());
+            }
         }
         try {
             if ((backupMode & BaseAppAction.MODE_APK) == BaseAppAction.MODE_APK) {
-                this.restorePackage(backupLocation, backupProperties);
+                try (ActionStats.Timer timer = this.stats.time(ActionStats.STAGE_APK, null)) {
+                    // sizes are only known for apks in the apk store
+                    if (backupProperties.getApkFiles() != null) {
+                        final long apkBytes = backupProperties.getApkFiles().stream().mapToLong(BackupProperties.ApkFile::getSize).sum();
+                        timer.setFiles(backupProperties.getApkFiles().size());
+                        timer.setBytes(apkBytes, apkBytes);
+                    }
+                    this.restorePackage(backupLocation, backupProperties);
+                }
                 app.refreshFromPackageManager(this.getContext());
             }
 
@@ -82,15 +107,25 @@ public class RestoreAppAction extends BaseAppAction {
             }
         } catch (RestoreFailedException | Crypto.CryptoSetupException e) {
             return new ActionResult(app, null, String.format("%s: %s",
-                    e.getClass().getSimpleName(), e.getMessage()), false);
+                    e.getClass().getSimpleName(), e.getMessage()), false, this.stats);
         } finally {
             if (stopProcess) {
                 Log.d(RestoreAppAction.TAG, "postprocess package (to set it back to normal operation)");
-                this.postprocessPackage(app.getPackageName());
+                try (ActionStats.Timer ignored = this.stats.time(ActionStats.STAGE_UNQUIESCE, null)) {
+                    this.postprocessPackage(hold);
+                }
             }
+            this.stats.finish();
         }
         Log.i(RestoreAppAction.TAG, String.format("%s: Restore done: %s", app, backupProperties));
-        return new ActionResult(app, backupProperties, "", true);
+        return new ActionResult(app, backupProperties, "", true, this.stats);
+    }
+
+    /**
+     * @return stages of the running restore
+     */
+    protected ActionStats getStats() {
+        return this.stats;
     }
 
     protected void restoreAllData(AppInfoX app, BackupProperties backupProperties, Uri backupLocation) throws Crypto.CryptoSetupException, RestoreFailedException {
@@ -143,7 +178,9 @@ public class RestoreAppAction extends BaseAppAction {
             Log.d(RestoreAppAction.TAG, "Encryption enabled");
             in = Crypto.decryptStream(in, password, PrefUtils.getCryptoSalt(this.getContext()));
         }
-        TarUtils.uncompressTo(new TarArchiveInputStream(new GzipCompressorInputStream(in)), targetDir);
+        try (TraceUtils.Section ignored = TraceUtils.section("decompress", filepath.getName())) {
+            TarUtils.uncompressTo(new TarArchiveInputStream(new GzipCompressorInputStream(in)), targetDir);
+        }
         Log.d(RestoreAppAction.TAG, "Done expansion. Closing " + inputFilename);
         in.close();
     }
@@ -153,141 +190,142 @@ public class RestoreAppAction extends BaseAppAction {
         Log.i(TAG, String.format("[%s] Restoring from %s", packageName, backupLocation.getEncodedPath()));
         StorageFile backupDir = StorageFile.fromUri(this.getContext(), backupLocation);
 
-        StorageFile baseApk = backupDir.findFile(RestoreAppAction.BASEAPKFILENAME);
-        Log.d(TAG, String.format("[%s] Found %s in backup archive", packageName, RestoreAppAction.BASEAPKFILENAME));
-        if (baseApk == null) {
-            throw new RestoreFailedException(RestoreAppAction.BASEAPKFILENAME + " is missing in backup", null);
-        }
-
-        StorageFile[] splitApksInBackup;
+        // All apks by the file name they are staged with
+        Map<String, StorageFile> apksToRestore;
         try {
-            splitApksInBackup = Arrays.stream(backupDir.listFiles())
-                    .filter(dir -> !dir.isDirectory()) // Forget about dictionaries immediately
-                    .filter(dir -> dir.getName().endsWith(".apk")) // Only apks are relevant
-                    .filter(dir -> !dir.getName().equals(RestoreAppAction.BASEAPKFILENAME)) // Base apk is a special case
-                    .toArray(StorageFile[]::new);
+            apksToRestore = ApkStore.resolve(this.getContext(), backupProperties);
+            if (apksToRestore == null) {
+                // The apks are part of the backup instance
+                apksToRestore = new LinkedHashMap<>();
+                for (StorageFile file : backupDir.listFiles()) {
+                    if (!file.isDirectory() && file.getName().endsWith(".apk")) { // Only apks are relevant
+                        apksToRestore.put(file.getName(), file);
+                    }
+                }
+            } else {
+                Log.d(TAG, String.format("[%s] Restoring %d apks from the apk store", packageName, apksToRestore.size()));
+            }
         } catch (FileNotFoundException e) {
             String message = String.format("Restore APKs failed: %s", e.getMessage());
             Log.e(RestoreAppAction.TAG, message);
             throw new RestoreFailedException(message, e);
         }
 
-        // Copy all apk paths into a single array
-        StorageFile[] apksToRestore;
+        StorageFile baseApk = apksToRestore.get(RestoreAppAction.BASEAPKFILENAME);
+        if (baseApk == null) {
+            throw new RestoreFailedException(RestoreAppAction.BASEAPKFILENAME + " is missing in backup", null);
+        }
+        Log.d(TAG, String.format("[%s] Found %s in backup archive", packageName, RestoreAppAction.BASEAPKFILENAME));
+
+        // Base apk is a special case
+        String[] splitApksInBackup = apksToRestore.keySet().stream()
+                .filter(name -> !name.equals(RestoreAppAction.BASEAPKFILENAME))
+                .toArray(String[]::new);
         if (splitApksInBackup.length == 0) {
-            apksToRestore = new StorageFile[]{baseApk};
             Log.d(TAG, String.format("[%s] The backup does not contain split apks", packageName));
         } else {
-            apksToRestore = new StorageFile[1 + splitApksInBackup.length];
-            apksToRestore[0] = baseApk;
-            System.arraycopy(splitApksInBackup, 0, apksToRestore, 1, splitApksInBackup.length);
-            Log.i(RestoreAppAction.TAG, String.format("Package is splitted into %d apks", apksToRestore.length));
+            Log.i(RestoreAppAction.TAG, String.format("Package is splitted into %d apks", apksToRestore.size()));
         }
-        /* in newer android versions selinux rules prevent system_server
-         * from accessing many directories. in android 9 this prevents pm
-         * install from installing from other directories that the package
-         * staging directory (/data/local/tmp).
-         * you can also pipe the apk data to the install command providing
-         * it with a -S $apk_size value. but judging from this answer
-         * https://issuetracker.google.com/issues/80270303#comment14 this
-         * could potentially be unwise to use.
+        /* All apks are streamed from the backup into a single install session. This way there is
+         * no copy in the package staging directory (/data/local/tmp) and the base apk is committed
+         * together with its splits, so a failure can't leave a half installed package behind.
          */
-        File stagingApkPath = null;
-        if (RestoreAppAction.PACKAGE_STAGING_DIRECTORY.exists()) {
-            // It's expected, that all SDK 24+ version of Android go this way.
-            stagingApkPath = RestoreAppAction.PACKAGE_STAGING_DIRECTORY;
-        } else {
-            /*
-             * pm cannot install from a file on the data partition
-             * Failure [INSTALL_FAILED_INVALID_URI] is reported
-             * therefore, if the backup directory is oab's own data
-             * directory a temporary directory on the external storage
-             * is created where the apk is then copied to.
-             *
-             * @Tiefkuehlpizze 2020-06-28: When does this occur? Checked it with emulator image with SDK 24. This is
-             *                             a very old piece of code. Maybe it's obsolete.
-             * @machiav3lli 2020-08-09: In some oem ROMs the access to data/local/tmp is not allowed, I don't know how
-             *                              this has changed in the last couple of years.
-             */
-            stagingApkPath = new File(this.getContext().getExternalFilesDir(null), "apkTmp");
-            Log.w(RestoreAppAction.TAG, "Weird configuration. Expecting that the system does not allow " +
-                    "installing from oabxs own data directory. Copying the apk to " + stagingApkPath);
-        }
-
-        boolean success = false;
+        final boolean disableVerification = PrefUtils.isDisableVerification(this.getContext());
+        String sessionId = null;
+        boolean committed = false;
         try {
-            // Try it with a staging path. This is usually the way to go.
-            // copy apks to staging dir
-            for (StorageFile apkDoc : apksToRestore) {
-                // The file must be touched before it can be written for some reason...
-                Log.d(TAG, String.format("[%s] Copying %s to staging dir", packageName, apkDoc.getName()));
-                ShellHandler.runAsRoot("touch '"
-                        + new File(stagingApkPath, apkDoc.getName()).getAbsolutePath() + '\'');
-                DocumentHelper.suCopyFileFromDocument(
-                        this.getContext().getContentResolver(),
-                        apkDoc.getUri(),
-                        new File(stagingApkPath, apkDoc.getName()).getAbsolutePath()
-                );
-            }
-            StringBuilder sb = new StringBuilder();
-            boolean disableVerification = PrefUtils.isDisableVerification(this.getContext());
             // disable verify apps over usb
-            if (disableVerification)
-                sb.append("settings put global verifier_verify_adb_installs 0 && ");
-            // Install main package
-            sb.append(this.getPackageInstallCommand(new File(stagingApkPath, baseApk.getName())));
-            // If split apk resources exist, install them afterwards (order does not matter)
-            if (splitApksInBackup.length > 0) {
-                for (StorageFile apk : splitApksInBackup) {
-                    sb.append(" && ").append(this.getPackageInstallCommand(
-                            new File(stagingApkPath, apk.getName()), backupProperties.getPackageName()));
-                }
+            if (disableVerification) {
+                ShellHandler.runAsRoot("settings put global verifier_verify_adb_installs 0");
             }
-
-            // append cleanup command
-            final File finalStagingApkPath = stagingApkPath;
-            sb.append(String.format(" && %s rm %s", this.getShell().getUtilboxPath(),
-                    Arrays.stream(apksToRestore)
-                            .map(s -> '"' + finalStagingApkPath.getAbsolutePath() + '/' + s.getName() + '"')
-                            .collect(Collectors.joining(" "))
-            ));
-            // re-enable verify apps over usb
-            if (disableVerification)
-                sb.append(" && settings put global verifier_verify_adb_installs 1");
-            String command = sb.toString();
-            ShellHandler.runAsRoot(command);
-            success = true;
+            sessionId = this.createInstallSession();
+            Log.d(TAG, String.format("[%s] Created install session %s", packageName, sessionId));
+            for (Map.Entry<String, StorageFile> apkDoc : apksToRestore.entrySet()) {
+                this.writeToInstallSession(sessionId, apkDoc.getKey(), apkDoc.getValue());
+            }
+            ShellHandler.runAsRoot(String.format("%s install-commit %s", this.getPackageManagerCommand(), sessionId));
+            committed = true;
             // Todo: Reload package meta data; Package Manager knows everything now; Function missing
         } catch (ShellHandler.ShellCommandFailedException e) {
             String error = BaseAppAction.extractErrorMessage(e.getShellResult());
             Log.e(RestoreAppAction.TAG, String.format("Restore APKs failed: %s", error));
             throw new RestoreFailedException(error, e);
         } catch (IOException e) {
-            throw new RestoreFailedException("Could not copy apk to staging directory", e);
+            Log.e(RestoreAppAction.TAG, String.format("Restore APKs failed: %s", e.getMessage()));
+            throw new RestoreFailedException("Could not write apk to the install session: " + e.getMessage(), e);
         } finally {
-            // Cleanup only in case of failure, otherwise it's already included
-            if (!success) {
-                Log.i(TAG, String.format("[%s] Restore unsuccessful. Removing possible leftovers in staging directory", packageName));
-                final File stagingPath = stagingApkPath;
-                String command = Arrays.stream(apksToRestore)
-                        .map(apkDoc -> String.format("rm '%s'", new File(stagingPath, apkDoc.getName()).getAbsolutePath())).collect(Collectors.joining("; "));
+            // Nothing is installed until the session is committed, abandoning it drops the written apks
+            if (sessionId != null && !committed) {
+                Log.i(TAG, String.format("[%s] Restore unsuccessful. Abandoning install session %s", packageName, sessionId));
+                try {
+                    ShellHandler.runAsRoot(String.format("%s install-abandon %s", this.getPackageManagerCommand(), sessionId));
+                } catch (ShellHandler.ShellCommandFailedException e) {
+                    Log.w(TAG, String.format("[%s] Abandoning install session failed: %s", packageName, String.join("; ", e.getShellResult().getErr())));
+                }
+            }
+            // re-enable verify apps over usb
+            if (disableVerification) {
                 try {
-                    ShellHandler.runAsRoot(command);
+                    ShellHandler.runAsRoot("settings put global verifier_verify_adb_installs 1");
                 } catch (ShellHandler.ShellCommandFailedException e) {
-                    Log.w(TAG, String.format("[%s] Cleanup after failure failed: %s", packageName, String.join("; ", e.getShellResult().getErr())));
+                    Log.w(TAG, String.format("[%s] Re-enabling apk verification failed: %s", packageName, String.join("; ", e.getShellResult().getErr())));
                 }
             }
         }
     }
 
+    /**
+     * Creates a new install session, which replaces an already installed version of the package
+     *
+     * @return the id of the session
+     * @throws ShellHandler.ShellCommandFailedException if the package manager refused to create a session
+     * @throws IOException                              if the output of the package manager was not understood
+     */
+    private String createInstallSession() throws ShellHandler.ShellCommandFailedException, IOException {
+        // Expecting something like "Success: created install session [1234567]"
+        Shell.Result result = ShellHandler.runAsRoot(String.format("%s install-create -r", this.getPackageManagerCommand()));
+        String output = String.join(" ", result.getOut());
+        Matcher matcher = RestoreAppAction.PATTERN_INSTALL_SESSION.matcher(output);
+        if (!matcher.find()) {
+            throw new IOException("Unexpected output of install-create: " + output);
+        }
+        return matcher.group(1);
+    }
+
+    /**
+     * Streams the apk from the backup to the package manager. The size must be known in advance,
+     * because the package manager reads exactly that amount from stdin.
+     *
+     * @param sessionId session created with createInstallSession
+     * @param apkName   name of the apk inside of the session
+     * @param apk       apk in the backup
+     * @throws IOException if the apk could not be read or the package manager rejected it
+     */
+    private void writeToInstallSession(String sessionId, String apkName, StorageFile apk) throws IOException {
+        final long size = apk.length();
+        if (size <= 0) {
+            throw new IOException(String.format("Size of %s is unknown", apkName));
+        }
+        Log.d(TAG, String.format("Writing %s (%d bytes) to install session %s", apkName, size, sessionId));
+        try (InputStream in = this.getContext().getContentResolver().openInputStream(apk.getUri())) {
+            if (in == null) {
+                throw new FileNotFoundException("Could not open " + apk.getUri());
+            }
+            ShellHandler.runAsRootWithInput(String.format("%s install-write -S %d %s \"%s\" -",
+                    this.getPackageManagerCommand(), size, sessionId, apkName), in);
+        }
+    }
+
     private void genericRestoreDataByCopying(final String targetPath, final Uri backupInstanceRoot, final String what) throws RestoreFailedException {
-        try {
+        try (ActionStats.Timer ignored = this.stats.time(ActionStats.STAGE_ARCHIVE, what)) {
             StorageFile backupDirFile = StorageFile.fromUri(this.getContext(), backupInstanceRoot);
             StorageFile backupDirToRestore = backupDirFile.findFile(what);
             if (backupDirToRestore == null) {
                 throw new RestoreFailedException(String.format(LOG_DIR_IS_MISSING_CANNOT_RESTORE, what));
             }
-            DocumentHelper.suRecursiveCopyFileFromDocument(this.getContext(), backupDirToRestore.getUri(), targetPath);
+            try (StageLimiter.Permit ignored = StageLimiter.acquire(StageLimiter.Stage.IO)) {
+                DocumentHelper.suRecursiveCopyFileFromDocument(this.getContext(), backupDirToRestore.getUri(), targetPath);
+            }
         } catch (IOException e) {
             throw new RestoreFailedException("Could not read the input file due to IOException", e);
         } catch (ShellHandler.ShellCommandFailedException e) {
@@ -308,17 +346,24 @@ public class RestoreAppAction extends BaseAppAction {
         return new TarArchiveInputStream(new GzipCompressorInputStream(inputStream));
     }
 
-    private void genericRestoreFromArchive(final Uri archiveUri, final String targetDir, boolean isEncrypted, final File cachePath)
+    private void genericRestoreFromArchive(final String what, final Uri archiveUri, final String targetDir, boolean isEncrypted, final File cachePath)
             throws RestoreFailedException, Crypto.CryptoSetupException {
         // Check if the archive exists, uncompressTo can also throw FileNotFoundException
-        if (!StorageFile.fromUri(this.getContext(), archiveUri).exists()) {
+        final StorageFile archive = StorageFile.fromUri(this.getContext(), archiveUri);
+        if (!archive.exists()) {
             throw new RestoreFailedException("Backup archive at " + archiveUri + " is missing");
         }
         Path tempDir = null;
-        try (TarArchiveInputStream inputStream = this.openArchiveFile(archiveUri, isEncrypted)) {
+        try (ActionStats.Timer timer = this.stats.time(ActionStats.STAGE_ARCHIVE, what);
+             TarArchiveInputStream inputStream = this.openArchiveFile(archiveUri, isEncrypted)) {
             // Create a temporary directory in OABX's cache directory and uncompress the data into it
             tempDir = Files.createTempDirectory(cachePath.toPath(), "restore_");
-            TarUtils.uncompressTo(inputStream, tempDir.toFile());
+            try (StageLimiter.Permit ignored = StageLimiter.acquire(StageLimiter.Stage.CPU);
+                 TraceUtils.Section section = TraceUtils.section("decompress", what)) {
+                timer.setFiles(TarUtils.uncompressTo(inputStream, tempDir.toFile()));
+                // the tar stream is a close enough measure of the extracted bytes
+                timer.setBytes(archive.length(), inputStream.getBytesRead());
+            }
             // clear the data from the final directory
             this.wipeDirectory(targetDir, BaseAppAction.DATA_EXCLUDED_DIRS);
             // Move all the extracted data into the target directory
@@ -384,7 +429,7 @@ public class RestoreAppAction extends BaseAppAction {
         if (backupArchive == null) {
             throw new RestoreFailedException(String.format(LOG_BACKUP_ARCHIVE_MISSING, backupFilename));
         }
-        this.genericRestoreFromArchive(backupArchive.getUri(), app.getDataDir(), backupProperties.isEncrypted(), this.getContext().getCacheDir());
+        this.genericRestoreFromArchive(BaseAppAction.BACKUP_DIR_DATA, backupArchive.getUri(), app.getDataDir(), backupProperties.isEncrypted(), this.getContext().getCacheDir());
         this.genericRestorePermissions(BaseAppAction.BACKUP_DIR_DATA, new File(app.getDataDir()));
     }
 
@@ -404,7 +449,7 @@ public class RestoreAppAction extends BaseAppAction {
                 throw new RestoreFailedException("Could not create external data directory at " + externalDataDir);
             }
         }
-        this.genericRestoreFromArchive(backupArchive.getUri(), app.getExternalDataDir(), backupProperties.isEncrypted(), this.getContext().getExternalCacheDir());
+        this.genericRestoreFromArchive(BaseAppAction.BACKUP_DIR_EXTERNAL_FILES, backupArchive.getUri(), app.getExternalDataDir(), backupProperties.isEncrypted(), this.getContext().getExternalCacheDir());
     }
 
     public void restoreObbData(AppInfoX app, BackupProperties backupProperties, StorageFile backupLocation)
@@ -420,7 +465,7 @@ public class RestoreAppAction extends BaseAppAction {
         if (backupArchive == null) {
             throw new RestoreFailedException(String.format(LOG_BACKUP_ARCHIVE_MISSING, backupFilename));
         }
-        this.genericRestoreFromArchive(backupArchive.getUri(), app.getDeviceProtectedDataDir(), backupProperties.isEncrypted(), this.getContext().getCacheDir());
+        this.genericRestoreFromArchive(BaseAppAction.BACKUP_DIR_DEVICE_PROTECTED_FILES, backupArchive.getUri(), app.getDeviceProtectedDataDir(), backupProperties.isEncrypted(), this.getContext().getCacheDir());
         this.genericRestorePermissions(
                 BaseAppAction.BACKUP_DIR_DEVICE_PROTECTED_FILES,
                 new File(app.getDeviceProtectedDataDir())
@@ -429,29 +474,13 @@ public class RestoreAppAction extends BaseAppAction {
     }
 
     /**
-     * Returns an installation command for abd/shell installation.
-     * Supports base packages and additional packages (split apk addons)
-     *
-     * @param apkPath path to the apk to be installed (should be in the staging dir)
-     * @return a complete shell command
-     */
-    public String getPackageInstallCommand(File apkPath) {
-        return this.getPackageInstallCommand(apkPath, null);
-    }
-
-    /**
-     * Returns an installation command for abd/shell installation.
-     * Supports base packages and additional packages (split apk addons)
+     * Returns the command to talk to the package manager. Since Android 9 cmd is the preferred
+     * way, pm is only a wrapper around it.
      *
-     * @param apkPath         path to the apk to be installed (should be in the staging dir)
-     * @param basePackageName null, if it's a base package otherwise the name of the base package
-     * @return a complete shell command
+     * @return the command without any arguments
      */
-    public String getPackageInstallCommand(File apkPath, String basePackageName) {
-        return String.format("%s%s -r \"%s\"",
-                Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? "cmd package install" : "pm install",
-                basePackageName != null ? " -p " + basePackageName : "",
-                apkPath);
+    public String getPackageManagerCommand() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? "cmd package" : "pm";
     }
 
     public enum RestoreCommand {
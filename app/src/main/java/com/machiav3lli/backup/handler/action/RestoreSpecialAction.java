@@ -26,6 +26,7 @@ import com.machiav3lli.backup.handler.Crypto;
 import com.machiav3lli.backup.handler.ShellHandler;
 import com.machiav3lli.backup.handler.StorageFile;
 import com.machiav3lli.backup.handler.TarUtils;
+import com.machiav3lli.backup.items.ActionStats;
 import com.machiav3lli.backup.items.AppInfoX;
 import com.machiav3lli.backup.items.BackupProperties;
 import com.machiav3lli.backup.items.SpecialAppMetaInfo;
@@ -75,10 +76,13 @@ public class RestoreSpecialAction extends RestoreAppAction {
             throw new RestoreFailedException("Backup archive at " + backupArchiveFilename + " is missing");
         }
 
-        try (TarArchiveInputStream archive = this.openArchiveFile(backupArchiveFile.getUri(), isEncrypted)) {
+        try (ActionStats.Timer timer = this.getStats().time(ActionStats.STAGE_ARCHIVE, BaseAppAction.BACKUP_DIR_DATA);
+             TarArchiveInputStream archive = this.openArchiveFile(backupArchiveFile.getUri(), isEncrypted)) {
+            timer.setFiles(metaInfo.getFileList().length);
             tempPath.mkdir();
             // Extract the contents to a temporary directory
             TarUtils.suUncompressTo(archive, tempPath.getAbsolutePath());
+            timer.setBytes(backupArchiveFile.length(), archive.getBytesRead());
 
             // check if all expected files are there
             File[] filesInBackup = tempPath.listFiles();
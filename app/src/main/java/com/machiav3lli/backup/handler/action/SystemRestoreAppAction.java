@@ -23,6 +23,7 @@ import android.os.Build;
 import android.util.Log;
 
 import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.handler.ApkStore;
 import com.machiav3lli.backup.handler.ShellHandler;
 import com.machiav3lli.backup.handler.StorageFile;
 import com.machiav3lli.backup.items.BackupProperties;
@@ -35,6 +36,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Map;
 
 public class SystemRestoreAppAction extends RestoreAppAction {
     private static final String TAG = Constants.classTag(".SystemRestoreAppAction");
@@ -48,7 +50,18 @@ public class SystemRestoreAppAction extends RestoreAppAction {
         StorageFile backupDir = StorageFile.fromUri(this.getContext(), backupLocation);
 
         File apkTargetPath = new File(backupProperties.getSourceDir());
-        StorageFile apkLocation = backupDir.findFile(apkTargetPath.getName());
+        StorageFile apkLocation;
+        try {
+            Map<String, StorageFile> storedApks = ApkStore.resolve(this.getContext(), backupProperties);
+            apkLocation = storedApks != null
+                    ? storedApks.get(apkTargetPath.getName())
+                    : backupDir.findFile(apkTargetPath.getName());
+        } catch (FileNotFoundException e) {
+            throw new RestoreFailedException("Could not find main apk in backup", e);
+        }
+        if (apkLocation == null) {
+            throw new RestoreFailedException("Could not find main apk in backup");
+        }
         // Writing the apk to a temporary location to get it out of the magic storage to a local location
         // that can be accessed with shell commands.
         File tempPath = new File(this.getContext().getCacheDir(), apkTargetPath.getName());
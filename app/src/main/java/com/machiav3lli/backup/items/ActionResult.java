@@ -34,13 +34,23 @@ public class ActionResult {
      */
     public final BackupProperties backupProperties;
     public final boolean succeeded;
+    /**
+     * Timing and throughput of the stages of the action. Can be null, if the action didn't get
+     * far enough to record any
+     */
+    public final ActionStats stats;
 
     public ActionResult(AppInfoX app, BackupProperties backupProperties, @NotNull String message, boolean succeeded) {
+        this(app, backupProperties, message, succeeded, null);
+    }
+
+    public ActionResult(AppInfoX app, BackupProperties backupProperties, @NotNull String message, boolean succeeded, ActionStats stats) {
         this.occurrence = LocalDateTime.now();
         this.app = app;
         this.succeeded = succeeded;
         this.message = message;
         this.backupProperties = backupProperties;
+        this.stats = stats;
     }
 
     public String getMessage() {
@@ -0,0 +1,260 @@
+package com.machiav3lli.backup.items;
+
+import android.os.SystemClock;
+
+import com.google.gson.annotations.Expose;
+import com.google.gson.annotations.SerializedName;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Timing and throughput of the stages of a backup or restore. Stages can be recorded from
+ * several threads, because the stages of a backup are pipelined.
+ */
+public class ActionStats {
+    public static final String STAGE_LISTING = "listing";
+    public static final String STAGE_APK = "apk";
+    public static final String STAGE_ARCHIVE = "archive";
+    public static final String STAGE_PROPERTIES = "properties";
+    public static final String STAGE_QUIESCE = "quiesce";
+    public static final String STAGE_UNQUIESCE = "unquiesce";
+
+    @SerializedName("duration")
+    @Expose
+    private long duration;
+
+    @SerializedName("stages")
+    @Expose
+    private final List<Stage> stages = new ArrayList<>();
+
+    private transient long started = SystemClock.elapsedRealtime();
+
+    /**
+     * Starts timing a stage, it is recorded when the returned timer is closed
+     *
+     * @param name   kind of the stage, one of the STAGE_ constants
+     * @param target what the stage works on, e.g. the data type of an archive, can be null
+     * @return timer of the stage
+     */
+    public Timer time(@NotNull String name, String target) {
+        return new Timer(this, name, target);
+    }
+
+    /**
+     * Stops the overall time of the action
+     */
+    public void finish() {
+        this.duration = SystemClock.elapsedRealtime() - this.started;
+    }
+
+    /**
+     * @return overall duration of the action in milliseconds
+     */
+    public long getDuration() {
+        return this.duration;
+    }
+
+    /**
+     * @return independent stats with the stages recorded so far, stages recorded later on either
+     * of them don't show up in the other one
+     */
+    public ActionStats copy() {
+        ActionStats copy = new ActionStats();
+        copy.duration = this.duration;
+        copy.started = this.started;
+        // stages are immutable, sharing them is fine
+        copy.stages.addAll(this.getStages());
+        return copy;
+    }
+
+    /**
+     * @param other stats of another phase of the same action, can be null
+     * @return independent stats with the stages of both and their durations summed up
+     */
+    public ActionStats merge(ActionStats other) {
+        ActionStats merged = this.copy();
+        if (other != null) {
+            merged.duration += other.duration;
+            merged.stages.addAll(other.getStages());
+        }
+        return merged;
+    }
+
+    public List<Stage> getStages() {
+        synchronized (this.stages) {
+            return Collections.unmodifiableList(new ArrayList<>(this.stages));
+        }
+    }
+
+    /**
+     * @param name kind of the stages, one of the STAGE_ constants
+     * @return summed up duration of all stages of this kind in milliseconds
+     */
+    public long getDuration(String name) {
+        return this.getStages().stream().filter(stage -> stage.name.equals(name)).mapToLong(Stage::getDuration).sum();
+    }
+
+    public long getBytesRead() {
+        return this.getStages().stream().mapToLong(Stage::getBytesRead).sum();
+    }
+
+    public long getBytesWritten() {
+        return this.getStages().stream().mapToLong(Stage::getBytesWritten).sum();
+    }
+
+    /**
+     * @return bytes written by the archive stages relative to the bytes they read, 0 if there
+     * were no archives
+     */
+    public double getCompressionRatio() {
+        long read = 0;
+        long written = 0;
+        for (Stage stage : this.getStages()) {
+            if (stage.name.equals(ActionStats.STAGE_ARCHIVE)) {
+                read += stage.bytesRead;
+                written += stage.bytesWritten;
+            }
+        }
+        return read > 0 ? (double) written / read : 0;
+    }
+
+    /**
+     * @return bytes per second over the whole action
+     */
+    public long getThroughput() {
+        return this.duration > 0 ? Math.max(this.getBytesRead(), this.getBytesWritten()) * 1000 / this.duration : 0;
+    }
+
+    private void add(Stage stage) {
+        synchronized (this.stages) {
+            this.stages.add(stage);
+        }
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return "ActionStats{" +
+                "duration=" + duration +
+                ", stages=" + this.getStages() +
+                '}';
+    }
+
+    public static class Stage {
+        @SerializedName("name")
+        @Expose
+        private final String name;
+
+        @SerializedName("target")
+        @Expose
+        private final String target;
+
+        @SerializedName("duration")
+        @Expose
+        private final long duration;
+
+        @SerializedName("bytesRead")
+        @Expose
+        private final long bytesRead;
+
+        @SerializedName("bytesWritten")
+        @Expose
+        private final long bytesWritten;
+
+        @SerializedName("files")
+        @Expose
+        private final int files;
+
+        public Stage(String name, String target, long duration, long bytesRead, long bytesWritten, int files) {
+            this.name = name;
+            this.target = target;
+            this.duration = duration;
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+            this.files = files;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * @return what the stage worked on, e.g. the data type of an archive, null if the stage
+         * doesn't need one
+         */
+        public String getTarget() {
+            return this.target;
+        }
+
+        /**
+         * @return duration of the stage in milliseconds
+         */
+        public long getDuration() {
+            return this.duration;
+        }
+
+        public long getBytesRead() {
+            return this.bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return this.bytesWritten;
+        }
+
+        public int getFiles() {
+            return this.files;
+        }
+
+        @NotNull
+        @Override
+        public String toString() {
+            return "Stage{" +
+                    "name='" + name + '\'' +
+                    ", target='" + target + '\'' +
+                    ", duration=" + duration +
+                    ", bytesRead=" + bytesRead +
+                    ", bytesWritten=" + bytesWritten +
+                    ", files=" + files +
+                    '}';
+        }
+    }
+
+    /**
+     * Measures a single stage. The stage is recorded when the timer is closed, also if the stage
+     * failed, so failed actions still show where the time went.
+     */
+    public static class Timer implements AutoCloseable {
+        private final ActionStats stats;
+        private final String name;
+        private final String target;
+        private final long started = SystemClock.elapsedRealtime();
+        private long bytesRead = 0;
+        private long bytesWritten = 0;
+        private int files = 0;
+
+        private Timer(ActionStats stats, String name, String target) {
+            this.stats = stats;
+            this.name = name;
+            this.target = target;
+        }
+
+        public void setBytes(long bytesRead, long bytesWritten) {
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+        }
+
+        public void setFiles(int files) {
+            this.files = files;
+        }
+
+        @Override
+        public void close() {
+            this.stats.add(new Stage(this.name, this.target, SystemClock.elapsedRealtime() - this.started,
+                    this.bytesRead, this.bytesWritten, this.files));
+        }
+    }
+}
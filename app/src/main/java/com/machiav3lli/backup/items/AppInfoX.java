@@ -8,8 +8,9 @@ import android.net.Uri;
 import android.util.Log;
 
 import com.machiav3lli.backup.Constants;
-import com.machiav3lli.backup.handler.BackendController;
+import com.machiav3lli.backup.handler.ApkStore;
 import com.machiav3lli.backup.handler.StorageFile;
+import com.machiav3lli.backup.handler.StorageStatsProvider;
 import com.machiav3lli.backup.utils.DocumentHelper;
 import com.machiav3lli.backup.utils.FileUtils;
 import com.machiav3lli.backup.utils.LogUtils;
@@ -20,6 +21,8 @@ import org.jetbrains.annotations.NotNull;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.text.CollationKey;
+import java.text.Collator;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -33,14 +36,31 @@ public class AppInfoX {
     public static final int MODE_APK = 1;
     public static final int MODE_DATA = 2;
     public static final int MODE_BOTH = 3;
+    public static final int BACKUP_FLAG_APK = 1;
+    public static final int BACKUP_FLAG_DATA = 1 << 1;
+    public static final int BACKUP_FLAG_EXTERNAL_DATA = 1 << 2;
+    public static final int BACKUP_FLAG_DEVICE_PROTECTED_DATA = 1 << 3;
+    public static final int BACKUP_FLAG_OBB = 1 << 4;
+    private static final int BACKUP_FLAGS_UNKNOWN = -1;
+    private static final Collator labelCollator = Collator.getInstance();
+
+    static {
+        // case insensitive like compareToIgnoreCase, but locale aware
+        AppInfoX.labelCollator.setStrength(Collator.SECONDARY);
+    }
 
     private final Context context;
     private final String packageName;
     private AppMetaInfo metaInfo;
     private List<BackupItem> backupHistory = new ArrayList<>();
     private Uri backupDir;
-    private StorageStats storageStats;
     private PackageInfo packageInfo;
+    private boolean fromSnapshot;
+    private boolean snapshotInstalled;
+    private boolean snapshotDisabled;
+    private long snapshotDataBytes;
+    private int backupFlags = AppInfoX.BACKUP_FLAGS_UNKNOWN;
+    private CollationKey labelCollationKey;
 
     /**
      * This method is used to inject external created AppMetaInfo objects for example for
@@ -72,7 +92,6 @@ public class AppInfoX {
         if (backupDoc != null) {
             this.backupDir = backupDoc.getUri();
         }
-        this.refreshStorageStats();
     }
 
     public AppInfoX(Context context, @NotNull Uri backupRoot) {
@@ -84,7 +103,6 @@ public class AppInfoX {
         try {
             this.packageInfo = context.getPackageManager().getPackageInfo(this.packageName, 0);
             this.metaInfo = new AppMetaInfo(context, this.packageInfo);
-            this.refreshStorageStats();
         } catch (PackageManager.NameNotFoundException e) {
             Log.i(AppInfoX.TAG, this.packageName + " is not installed.");
             if (this.backupHistory.isEmpty()) {
@@ -104,7 +122,32 @@ public class AppInfoX {
             this.backupHistory = AppInfoX.getBackupHistory(context, this.backupDir);
         }
         this.metaInfo = new AppMetaInfo(context, packageInfo);
-        this.refreshStorageStats();
+    }
+
+    /**
+     * Restores an app from the persisted app list snapshot. The backup history consists of a
+     * summary of the latest backup only, so the object is meant for displaying until the real
+     * one has been loaded and must not be used for any actions.
+     *
+     * @param context       Context object of the app
+     * @param metaInfo      Package information as it was known when the snapshot was written
+     * @param latestBackup  Summary of the latest backup or null if there were no backups
+     * @param installed     whether the package was installed
+     * @param disabled      whether the package was disabled
+     * @param dataBytes     last known data size
+     */
+    public AppInfoX(Context context, @NotNull AppMetaInfo metaInfo, BackupItem latestBackup,
+                    boolean installed, boolean disabled, long dataBytes) {
+        this.context = context;
+        this.metaInfo = metaInfo;
+        this.packageName = metaInfo.getPackageName();
+        if (latestBackup != null) {
+            this.backupHistory.add(latestBackup);
+        }
+        this.fromSnapshot = true;
+        this.snapshotInstalled = installed;
+        this.snapshotDisabled = disabled;
+        this.snapshotDataBytes = dataBytes;
     }
 
     // TODO cause of huge part of cpu time
@@ -133,21 +176,12 @@ public class AppInfoX {
         return backupHistory;
     }
 
-    private boolean refreshStorageStats() {
-        try {
-            this.storageStats = BackendController.getPackageStorageStats(this.context, this.getPackageName());
-            return true;
-        } catch (PackageManager.NameNotFoundException e) {
-            Log.e(AppInfoX.TAG, "Could not refresh StorageStats. Package was not found: " + e.getMessage());
-            return false;
-        }
-    }
-
     public boolean refreshFromPackageManager(Context context) {
         Log.d(AppInfoX.TAG, String.format("Trying to refresh package information for %s from PackageManager", this.getPackageName()));
         try {
             this.packageInfo = context.getPackageManager().getPackageInfo(this.packageName, 0);
             this.metaInfo = new AppMetaInfo(context, this.packageInfo);
+            this.labelCollationKey = null;
         } catch (PackageManager.NameNotFoundException e) {
             Log.i(AppInfoX.TAG, this.packageName + " is not installed. Refresh failed");
             return false;
@@ -157,11 +191,13 @@ public class AppInfoX {
 
     public void refreshBackupHistory() {
         this.backupHistory = AppInfoX.getBackupHistory(this.context, this.backupDir);
+        this.backupFlags = AppInfoX.BACKUP_FLAGS_UNKNOWN;
     }
 
     public void addBackup(@NotNull BackupItem backupItem) {
         Log.d(AppInfoX.TAG, String.format("[%s] Adding backup: %s", this.getPackageName(), backupItem));
         this.backupHistory.add(backupItem);
+        this.backupFlags = AppInfoX.BACKUP_FLAGS_UNKNOWN;
     }
 
     public void deleteAllBackups() {
@@ -170,6 +206,8 @@ public class AppInfoX {
             this.delete(item, false);
         }
         this.backupHistory.clear();
+        ApkStore.prune(this.context, this.packageName, this.backupDir, this.backupHistory);
+        this.backupFlags = AppInfoX.BACKUP_FLAGS_UNKNOWN;
     }
 
     public void delete(BackupItem backupItem) {
@@ -186,7 +224,12 @@ public class AppInfoX {
         String propertiesFileName = String.format(BackupProperties.BACKUP_INSTANCE_PROPERTIES, Constants.BACKUP_DATE_TIME_FORMATTER.format(backupItem.getBackupProperties().getBackupDate()), backupItem.getBackupProperties().getProfileId());
         DocumentHelper.deleteRecursive(this.context, backupItem.getBackupLocation());
         StorageFile.fromUri(this.context, this.backupDir).findFile(propertiesFileName).delete();
-        if (directBoolean) this.backupHistory.remove(backupItem);
+        if (directBoolean) {
+            this.backupHistory.remove(backupItem);
+            this.backupFlags = AppInfoX.BACKUP_FLAGS_UNKNOWN;
+            // the stored apks of the deleted backup might still be referenced by other revisions
+            ApkStore.prune(this.context, this.packageName, this.backupDir, this.backupHistory);
+        }
     }
 
     public Uri getBackupDir(boolean create) throws FileUtils.BackupLocationIsAccessibleException, PrefUtils.StorageLocationNotConfiguredException {
@@ -197,15 +240,19 @@ public class AppInfoX {
     }
 
     public boolean isInstalled() {
-        return this.packageInfo != null || metaInfo.isSpecial();
+        return this.packageInfo != null || metaInfo.isSpecial() || this.snapshotInstalled;
     }
 
     public boolean isDisabled() {
-        return !metaInfo.isSpecial() && (packageInfo != null && !packageInfo.applicationInfo.enabled);
+        return !metaInfo.isSpecial() && ((packageInfo != null && !packageInfo.applicationInfo.enabled) || this.snapshotDisabled);
     }
 
     public boolean isSystem() {
-        return (this.packageInfo != null && metaInfo.isSystem()) || metaInfo.isSpecial();
+        return ((this.packageInfo != null || this.snapshotInstalled) && metaInfo.isSystem()) || metaInfo.isSpecial();
+    }
+
+    public boolean isFromSnapshot() {
+        return this.fromSnapshot;
     }
 
     public boolean isSpecial() {
@@ -285,8 +332,19 @@ public class AppInfoX {
         return this.packageInfo.applicationInfo.sourceDir;
     }
 
+    /**
+     * Returns the size of the app's data as far as it is already known. The storage stats are
+     * loaded asynchronously by the StorageStatsProvider, until then 0 or the size from the app
+     * list snapshot is returned.
+     *
+     * @return data size in bytes or 0 if not available (yet)
+     */
     public long getDataBytes() {
-        return metaInfo.isSpecial() ? 0 : this.storageStats.getDataBytes();
+        if (metaInfo.isSpecial()) {
+            return 0;
+        }
+        StorageStats storageStats = StorageStatsProvider.getInstance(this.context).getCached(this.packageName);
+        return storageStats != null ? storageStats.getDataBytes() : this.snapshotDataBytes;
     }
 
     /**
@@ -304,24 +362,63 @@ public class AppInfoX {
                 && this.getLatestBackup().getBackupProperties().getVersionCode() < this.getVersionCode();
     }
 
+    /**
+     * Returns which parts are contained in any of the backups as BACKUP_FLAG_* bits. The flags
+     * are computed once and cached until the backup history changes.
+     *
+     * @return combination of BACKUP_FLAG_* constants
+     */
+    public int getBackupFlags() {
+        int flags = this.backupFlags;
+        if (flags == AppInfoX.BACKUP_FLAGS_UNKNOWN) {
+            flags = 0;
+            for (BackupItem backupItem : this.backupHistory) {
+                BackupProperties properties = backupItem.getBackupProperties();
+                if (properties.hasApk()) flags |= AppInfoX.BACKUP_FLAG_APK;
+                if (properties.hasAppData()) flags |= AppInfoX.BACKUP_FLAG_DATA;
+                if (properties.hasExternalData()) flags |= AppInfoX.BACKUP_FLAG_EXTERNAL_DATA;
+                if (properties.hasDevicesProtectedData())
+                    flags |= AppInfoX.BACKUP_FLAG_DEVICE_PROTECTED_DATA;
+                if (properties.hasObbData()) flags |= AppInfoX.BACKUP_FLAG_OBB;
+            }
+            this.backupFlags = flags;
+        }
+        return flags;
+    }
+
     public boolean hasApk() {
-        return this.getBackupHistory().stream().anyMatch(backupItem -> backupItem.getBackupProperties().hasApk());
+        return (this.getBackupFlags() & AppInfoX.BACKUP_FLAG_APK) != 0;
     }
 
     public boolean hasAppData() {
-        return this.getBackupHistory().stream().anyMatch(backupItem -> backupItem.getBackupProperties().hasAppData());
+        return (this.getBackupFlags() & AppInfoX.BACKUP_FLAG_DATA) != 0;
     }
 
     public boolean hasExternalData() {
-        return this.getBackupHistory().stream().anyMatch(backupItem -> backupItem.getBackupProperties().hasExternalData());
+        return (this.getBackupFlags() & AppInfoX.BACKUP_FLAG_EXTERNAL_DATA) != 0;
     }
 
     public boolean hasDeviceProtectedData() {
-        return this.getBackupHistory().stream().anyMatch(backupItem -> backupItem.getBackupProperties().hasDevicesProtectedData());
+        return (this.getBackupFlags() & AppInfoX.BACKUP_FLAG_DEVICE_PROTECTED_DATA) != 0;
     }
 
     public boolean hasObbData() {
-        return this.getBackupHistory().stream().anyMatch(backupItem -> backupItem.getBackupProperties().hasObbData());
+        return (this.getBackupFlags() & AppInfoX.BACKUP_FLAG_OBB) != 0;
+    }
+
+    /**
+     * Returns the collation key of the label, so sorting doesn't need to compare the strings
+     * with the collator again and again
+     *
+     * @return cached collation key of the label
+     */
+    public CollationKey getLabelCollationKey() {
+        if (this.labelCollationKey == null) {
+            synchronized (AppInfoX.labelCollator) {
+                this.labelCollationKey = AppInfoX.labelCollator.getCollationKey(this.getPackageLabel());
+            }
+        }
+        return this.labelCollationKey;
     }
 
     @NotNull
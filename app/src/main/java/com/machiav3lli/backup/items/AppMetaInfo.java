@@ -3,6 +3,7 @@ package com.machiav3lli.backup.items;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Parcel;
@@ -170,4 +171,19 @@ public class AppMetaInfo implements Parcelable {
     public Drawable getApplicationIcon() {
         return this.applicationIcon;
     }
+
+    /**
+     * Loads the icon from PackageManager for objects that were not created from a PackageInfo
+     *
+     * @param context Context object
+     * @return true if the icon is available afterwards
+     */
+    public boolean loadApplicationIcon(Context context) {
+        if (this.applicationIcon == null) try {
+            this.applicationIcon = context.getPackageManager().getApplicationIcon(this.packageName);
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+        return true;
+    }
 }
\ No newline at end of file
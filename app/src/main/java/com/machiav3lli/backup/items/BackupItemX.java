@@ -21,6 +21,7 @@ import android.view.View;
 
 import androidx.appcompat.widget.AppCompatTextView;
 
+import com.google.android.material.chip.Chip;
 import com.machiav3lli.backup.R;
 import com.machiav3lli.backup.utils.ItemUtils;
 import com.mikepenz.fastadapter.FastAdapter;
@@ -70,6 +71,7 @@ public class BackupItemX extends AbstractItem<BackupItemX.ViewHolder> {
         AppCompatTextView encrypted = this.itemView.findViewById(R.id.encrypted);
         AppCompatTextView versionName = this.itemView.findViewById(R.id.versionName);
         AppCompatTextView cpuArch = this.itemView.findViewById(R.id.cpuArch);
+        Chip stats = this.itemView.findViewById(R.id.stats);
 
         public ViewHolder(View view) {
             super(view);
@@ -86,6 +88,7 @@ public class BackupItemX extends AbstractItem<BackupItemX.ViewHolder> {
             if (backup.getBackupProperties().isEncrypted()) {
                 this.encrypted.setText(backup.getBackupProperties().getCipherType());
             }
+            this.stats.setVisibility(backup.getBackupProperties().getStats() != null ? View.VISIBLE : View.GONE);
         }
 
         @Override
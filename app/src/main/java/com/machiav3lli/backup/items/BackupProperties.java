@@ -13,6 +13,8 @@ import com.machiav3lli.backup.utils.GsonUtil;
 import org.jetbrains.annotations.NotNull;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 
 public class BackupProperties extends AppMetaInfo implements Parcelable {
 
@@ -55,6 +57,18 @@ public class BackupProperties extends AppMetaInfo implements Parcelable {
     @Expose
     private Uri backupLocation;
 
+    @SerializedName("dataFingerprint")
+    @Expose
+    private String dataFingerprint;
+
+    @SerializedName("apkFiles")
+    @Expose
+    private List<ApkFile> apkFiles;
+
+    @SerializedName("stats")
+    @Expose
+    private ActionStats stats;
+
     public BackupProperties(Uri backupLocation, Context context, PackageInfo pi, LocalDateTime backupDate,
                             boolean hasApk, boolean hasAppData, boolean hasDevicesProtectedData,
                             boolean hasExternalData, boolean hasObbData, String cipherType, String cpuArch) {
@@ -114,6 +128,18 @@ public class BackupProperties extends AppMetaInfo implements Parcelable {
         this.hasObbData = in.readByte() != 0;
         this.cipherType = in.readString();
         this.cpuArch = in.readString();
+        this.dataFingerprint = in.readString();
+        final int apkCount = in.readInt();
+        if (apkCount >= 0) {
+            this.apkFiles = new ArrayList<>(apkCount);
+            for (int i = 0; i < apkCount; i++) {
+                this.apkFiles.add(new ApkFile(in.readString(), in.readString(), in.readLong(), in.readLong()));
+            }
+        }
+        final String stats = in.readString();
+        if (stats != null) {
+            this.stats = GsonUtil.getInstance().fromJson(stats, ActionStats.class);
+        }
     }
 
     @Override
@@ -126,6 +152,19 @@ public class BackupProperties extends AppMetaInfo implements Parcelable {
         dest.writeByte((byte) (this.hasObbData ? 1 : 0));
         dest.writeString(this.cipherType);
         dest.writeString(this.cpuArch);
+        dest.writeString(this.dataFingerprint);
+        if (this.apkFiles == null) {
+            dest.writeInt(-1);
+        } else {
+            dest.writeInt(this.apkFiles.size());
+            for (ApkFile apkFile : this.apkFiles) {
+                dest.writeString(apkFile.getName());
+                dest.writeString(apkFile.getSha256());
+                dest.writeLong(apkFile.getSize());
+                dest.writeLong(apkFile.getLastModified());
+            }
+        }
+        dest.writeString(this.stats != null ? GsonUtil.getInstance().toJson(this.stats) : null);
     }
 
     @Override
@@ -189,6 +228,42 @@ public class BackupProperties extends AppMetaInfo implements Parcelable {
         return this.cpuArch;
     }
 
+    /**
+     * @return fingerprint of the data at the time of the backup, null if the backup doesn't
+     * contain data or was made before fingerprints were recorded
+     */
+    public String getDataFingerprint() {
+        return this.dataFingerprint;
+    }
+
+    public void setDataFingerprint(String dataFingerprint) {
+        this.dataFingerprint = dataFingerprint;
+    }
+
+    /**
+     * @return apks of the backup, which are kept in the apk store of the package, null if the
+     * apks are part of the backup instance
+     */
+    public List<ApkFile> getApkFiles() {
+        return this.apkFiles;
+    }
+
+    public void setApkFiles(List<ApkFile> apkFiles) {
+        this.apkFiles = apkFiles;
+    }
+
+    /**
+     * @return timing and throughput of the stages of the backup, null if the backup was made
+     * before they were recorded
+     */
+    public ActionStats getStats() {
+        return this.stats;
+    }
+
+    public void setStats(ActionStats stats) {
+        this.stats = stats;
+    }
+
     private void setBackupLocation(@NotNull Uri backupLocation) {
         this.backupLocation = backupLocation;
     }
@@ -210,6 +285,66 @@ public class BackupProperties extends AppMetaInfo implements Parcelable {
                 ", cipherType='" + cipherType + '\'' +
                 ", cpuArch='" + cpuArch + '\'' +
                 ", backupLocation=" + backupLocation +
+                ", dataFingerprint='" + dataFingerprint + '\'' +
+                ", apkFiles=" + apkFiles +
+                ", stats=" + stats +
                 '}';
     }
+
+    public static class ApkFile {
+        @SerializedName("name")
+        @Expose
+        private final String name;
+
+        @SerializedName("sha256")
+        @Expose
+        private final String sha256;
+
+        @SerializedName("size")
+        @Expose
+        private final long size;
+
+        @SerializedName("lastModified")
+        @Expose
+        private final long lastModified;
+
+        public ApkFile(String name, String sha256, long size, long lastModified) {
+            this.name = name;
+            this.sha256 = sha256;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return original file name of the apk, e.g. base.apk
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        public String getSha256() {
+            return this.sha256;
+        }
+
+        public long getSize() {
+            return this.size;
+        }
+
+        /**
+         * @return modification time of the installed apk at the time of the backup
+         */
+        public long getLastModified() {
+            return this.lastModified;
+        }
+
+        @NotNull
+        @Override
+        public String toString() {
+            return "ApkFile{" +
+                    "name='" + name + '\'' +
+                    ", sha256='" + sha256 + '\'' +
+                    ", size=" + size +
+                    '}';
+        }
+    }
 }
@@ -41,15 +41,21 @@ public class BatchItemX extends AbstractItem<BatchItemX.ViewHolder> {
     private boolean apkChecked;
     private boolean dataChecked;
     AppInfoX app;
+    private final int contentHash;
 
     public BatchItemX(AppInfoX app) {
         this.app = app;
+        this.contentHash = ItemUtils.calculateContentHash(app);
     }
 
     public AppInfoX getApp() {
         return this.app;
     }
 
+    public int getContentHash() {
+        return this.contentHash;
+    }
+
     public int getActionMode() {
         if (apkChecked && dataChecked) {
             return BaseAppAction.MODE_BOTH;
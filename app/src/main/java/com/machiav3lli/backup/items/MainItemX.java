@@ -17,6 +17,7 @@
  */
 package com.machiav3lli.backup.items;
 
+import android.content.Context;
 import android.view.View;
 
 import androidx.appcompat.widget.AppCompatImageView;
@@ -30,21 +31,31 @@ import com.mikepenz.fastadapter.items.AbstractItem;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.machiav3lli.backup.utils.ItemUtils.getFormattedDate;
 
 
 public class MainItemX extends AbstractItem<MainItemX.ViewHolder> {
+    // icons of snapshot apps are loaded from PackageManager, never on the ui thread
+    private static final ExecutorService ICON_LOADER = Executors.newSingleThreadExecutor();
     AppInfoX app;
+    private final int contentHash;
 
     public MainItemX(AppInfoX app) {
         this.app = app;
+        this.contentHash = ItemUtils.calculateContentHash(app);
     }
 
     public AppInfoX getApp() {
         return this.app;
     }
 
+    public int getContentHash() {
+        return this.contentHash;
+    }
+
     @Override
     public int getLayoutRes() {
         return R.layout.item_main_x;
@@ -73,6 +84,8 @@ public class MainItemX extends AbstractItem<MainItemX.ViewHolder> {
         AppCompatImageView appType = this.itemView.findViewById(R.id.appType);
         AppCompatImageView update = this.itemView.findViewById(R.id.update);
         AppCompatImageView icon = this.itemView.findViewById(R.id.icon);
+        // item the view shows, an icon loaded for a previous item isn't set
+        private MainItemX boundItem;
 
         public ViewHolder(View view) {
             super(view);
@@ -83,10 +96,16 @@ public class MainItemX extends AbstractItem<MainItemX.ViewHolder> {
             final AppInfoX app = item.getApp();
             final AppMetaInfo meta = app.getAppInfo();
 
+            this.boundItem = item;
             if (meta.hasIcon()) {
                 this.icon.setImageDrawable(meta.getApplicationIcon());
             } else {
                 this.icon.setImageResource(R.drawable.ic_placeholder);
+                if (app.isFromSnapshot() && app.isInstalled() && !app.isSpecial()) {
+                    // the snapshot only stores a reference to the icon, the loaded icon is kept
+                    // in the app info like the icons of the scanned apps
+                    this.loadIcon(item, meta);
+                }
             }
             this.label.setText(meta.getPackageLabel());
             this.packageName.setText(app.getPackageName());
@@ -105,8 +124,22 @@ public class MainItemX extends AbstractItem<MainItemX.ViewHolder> {
             ItemUtils.pickItemAppType(app, this.appType);
         }
 
+        private void loadIcon(MainItemX item, AppMetaInfo meta) {
+            final Context context = this.itemView.getContext().getApplicationContext();
+            MainItemX.ICON_LOADER.execute(() -> {
+                if (meta.loadApplicationIcon(context)) {
+                    this.itemView.post(() -> {
+                        if (this.boundItem == item) {
+                            this.icon.setImageDrawable(meta.getApplicationIcon());
+                        }
+                    });
+                }
+            });
+        }
+
         @Override
         public void unbindView(@NotNull MainItemX item) {
+            this.boundItem = null;
             this.label.setText(null);
             this.packageName.setText(null);
             this.lastBackup.setText(null);
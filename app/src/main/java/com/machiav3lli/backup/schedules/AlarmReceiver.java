@@ -22,14 +22,32 @@ import android.content.Context;
 import android.content.Intent;
 
 import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.activities.SchedulerActivityX;
+import com.machiav3lli.backup.schedules.db.Schedule;
+import com.machiav3lli.backup.schedules.db.ScheduleDatabaseHelper;
 
 public class AlarmReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
         int id = intent.getIntExtra("id", -1);
-        Intent serviceIntent = new Intent(context, ScheduleService.class);
-        serviceIntent.putExtra(Constants.classAddress(".schedule_id"), id);
-        context.startService(serviceIntent);
+        final PendingResult pendingResult = this.goAsync();
+        // the schedule has to be read from the database to know its constraints
+        new Thread(() -> {
+            try {
+                Schedule schedule = id >= 0 ? ScheduleDatabaseHelper
+                        .getScheduleDatabase(context, SchedulerActivityX.DATABASE_NAME)
+                        .scheduleDao().getSchedule(id) : null;
+                if (schedule != null && schedule.hasConstraints()) {
+                    ScheduleJobService.enqueue(context, schedule);
+                } else {
+                    Intent serviceIntent = new Intent(context, ScheduleService.class);
+                    serviceIntent.putExtra(Constants.classAddress(".schedule_id"), id);
+                    context.startForegroundService(serviceIntent);
+                }
+            } finally {
+                pendingResult.finish();
+            }
+        }).start();
     }
 }
@@ -0,0 +1,126 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.schedules;
+
+import android.content.Context;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Snapshot of the device state that matters for running scheduled backups: battery, thermal
+ * status and whether someone is using the device.
+ */
+public class DeviceState {
+    private final int batteryLevel;
+    private final boolean charging;
+    private final int thermalStatus;
+    private final boolean interactive;
+
+    private DeviceState(int batteryLevel, boolean charging, int thermalStatus, boolean interactive) {
+        this.batteryLevel = batteryLevel;
+        this.charging = charging;
+        this.thermalStatus = thermalStatus;
+        this.interactive = interactive;
+    }
+
+    public static DeviceState read(Context context) {
+        BatteryManager batteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        int thermalStatus = PowerManager.THERMAL_STATUS_NONE;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            thermalStatus = powerManager.getCurrentThermalStatus();
+        }
+        return new DeviceState(
+                batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY),
+                batteryManager.isCharging(),
+                thermalStatus,
+                powerManager.isInteractive());
+    }
+
+    /**
+     * Checks the constraints JobScheduler can't express: the battery level and the thermal
+     * status. Charging, idle and network are left to JobScheduler.
+     *
+     * @param minBatteryLevel  battery level in percent the device needs to have at least
+     * @param maxThermalStatus highest thermal status the device may have
+     * @return true, if a schedule with these constraints may run now
+     */
+    public boolean allows(int minBatteryLevel, int maxThermalStatus) {
+        // a plugged in device will get there, the level is only meant to protect the battery
+        boolean batteryOk = this.charging || this.batteryLevel < 0 || this.batteryLevel >= minBatteryLevel;
+        return batteryOk && this.thermalStatus <= maxThermalStatus;
+    }
+
+    /**
+     * @param workers configured number of parallel jobs
+     * @return number of background jobs the device can take right now
+     */
+    public int getBackgroundWorkers(int workers) {
+        if (this.thermalStatus >= PowerManager.THERMAL_STATUS_MODERATE) {
+            return 1;
+        }
+        if (this.interactive || this.thermalStatus >= PowerManager.THERMAL_STATUS_LIGHT) {
+            return Math.max(1, workers / 2);
+        }
+        return workers;
+    }
+
+    /**
+     * @return nice value for the root processes of background jobs
+     */
+    public int getNiceness() {
+        return this.interactive || this.thermalStatus >= PowerManager.THERMAL_STATUS_LIGHT ? 15 : 10;
+    }
+
+    /**
+     * @return true, if background jobs should only get idle I/O time
+     */
+    public boolean isIdleIo() {
+        return this.interactive;
+    }
+
+    public int getBatteryLevel() {
+        return this.batteryLevel;
+    }
+
+    public boolean isCharging() {
+        return this.charging;
+    }
+
+    public int getThermalStatus() {
+        return this.thermalStatus;
+    }
+
+    public boolean isInteractive() {
+        return this.interactive;
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return "DeviceState{" +
+                "batteryLevel=" + batteryLevel +
+                ", charging=" + charging +
+                ", thermalStatus=" + thermalStatus +
+                ", interactive=" + interactive +
+                '}';
+    }
+}
@@ -78,6 +78,8 @@ public class HandleAlarms {
         PendingIntent pendingIntent = PendingIntent.getBroadcast(context, id, intent, 0);
         am.cancel(pendingIntent);
         pendingIntent.cancel();
+        // a schedule might already be due and waiting for its constraints
+        ScheduleJobService.cancel(context, id);
     }
 
     // Adapted from the DozeChecker class from k9-mail:
@@ -0,0 +1,316 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.schedules;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.PowerManager;
+import android.util.Log;
+
+import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.R;
+import com.machiav3lli.backup.activities.MainActivityX;
+import com.machiav3lli.backup.activities.SchedulerActivityX;
+import com.machiav3lli.backup.handler.AppRegistry;
+import com.machiav3lli.backup.handler.BackupRestoreHelper;
+import com.machiav3lli.backup.handler.BatchEngine;
+import com.machiav3lli.backup.handler.NotificationHelper;
+import com.machiav3lli.backup.handler.ShellHandler;
+import com.machiav3lli.backup.items.ActionResult;
+import com.machiav3lli.backup.items.AppInfoX;
+import com.machiav3lli.backup.schedules.db.Schedule;
+import com.machiav3lli.backup.tasks.QueuedTask;
+import com.machiav3lli.backup.tasks.TaskQueue;
+import com.machiav3lli.backup.utils.FileUtils;
+import com.machiav3lli.backup.utils.LogUtils;
+import com.machiav3lli.backup.utils.PrefUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Merges schedules that are due at about the same time into one execution plan. All schedules
+ * of a plan share a single scan of the app list, their targets are united and the backup modes
+ * of apps targeted by several schedules are combined, so every app is backed up once.
+ * Schedules arriving while a plan runs are collected into the next plan, which leaves out
+ * apps the previous plan already covered.
+ */
+public final class ScheduleCoordinator {
+    private static final String TAG = Constants.classTag(".ScheduleCoordinator");
+    // schedules firing within this delay after the first one share its plan
+    private static final long COALESCE_DELAY = 10 * 1000L;
+    // apps backed up by a plan are left out of plans starting within this window
+    private static final long BACKUP_WINDOW = 30 * 60 * 1000L;
+    // the wakelock is held as long as jobs keep starting within this time
+    private static final long WAKELOCK_TIMEOUT = 30 * 60 * 1000L;
+
+    private static ScheduleCoordinator instance;
+
+    private final Context context;
+    private final PowerManager powerManager;
+    private final SharedPreferences prefs;
+    private final List<Request> pending = new ArrayList<>();
+    // packageName -> mode and time of the latest backup done by a plan
+    private final Map<String, long[]> recentBackups = new HashMap<>();
+    private boolean running = false;
+    // priority currently applied to the root shell, -1 if untouched
+    private int rootNiceness = -1;
+    private boolean rootIdleIo = false;
+
+    private ScheduleCoordinator(Context context) {
+        this.context = context;
+        this.prefs = PrefUtils.getDefaultSharedPreferences(context);
+        this.powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+    }
+
+    public static synchronized ScheduleCoordinator getInstance(Context context) {
+        if (ScheduleCoordinator.instance == null) {
+            ScheduleCoordinator.instance = new ScheduleCoordinator(context.getApplicationContext());
+        }
+        return ScheduleCoordinator.instance;
+    }
+
+    /**
+     * Adds the schedule to the next execution plan
+     *
+     * @param schedule schedule that is due
+     * @param listener called when the plan containing the schedule is done
+     */
+    public void submit(Schedule schedule, BackupRestoreHelper.OnBackupRestoreListener listener) {
+        synchronized (this) {
+            this.pending.add(new Request(schedule, listener));
+            Log.i(ScheduleCoordinator.TAG, String.format("Schedule %d is due, %d schedule(s) waiting", schedule.getId(), this.pending.size()));
+            if (this.running) {
+                return;
+            }
+            this.running = true;
+        }
+        TaskQueue.getInstance(this.context).coordinate(this::runPlans);
+    }
+
+    private void runPlans() {
+        try {
+            // give schedules firing at about the same time the chance to join
+            Thread.sleep(ScheduleCoordinator.COALESCE_DELAY);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        while (true) {
+            List<Request> requests;
+            synchronized (this) {
+                if (this.pending.isEmpty()) {
+                    this.running = false;
+                    return;
+                }
+                requests = new ArrayList<>(this.pending);
+                this.pending.clear();
+            }
+            try {
+                this.executePlan(requests);
+            } finally {
+                for (Request request : requests) {
+                    request.listener.onBackupRestoreDone();
+                }
+            }
+        }
+    }
+
+    private void executePlan(List<Request> requests) {
+        if (!PrefUtils.checkStoragePermissions(this.context)) {
+            return;
+        }
+        int notificationId = (int) System.currentTimeMillis();
+        NotificationHelper.showNotification(this.context, MainActivityX.class, notificationId, this.context.getString(R.string.fetching_backup_list), "", true);
+        List<AppInfoX> apps;
+        try {
+            apps = AppRegistry.getInstance(this.context).getApps(false);
+        } catch (FileUtils.BackupLocationIsAccessibleException | PrefUtils.StorageLocationNotConfiguredException e) {
+            Log.e(ScheduleCoordinator.TAG, String.format("Scheduled backup failed due to %s: %s", e.getClass().getSimpleName(), e));
+            this.writeToLogFile(e.toString());
+            return;
+        }
+
+        // Unite the targets of all schedules. The mode of an app is the union of the modes of
+        // all schedules targeting it. An unchanged app is only skipped if all of them allow it.
+        Map<String, AppInfoX> targets = new LinkedHashMap<>();
+        Map<String, Integer> modes = new HashMap<>();
+        Set<String> mustBackup = new HashSet<>();
+        for (Request request : requests) {
+            Predicate<AppInfoX> filter = HandleScheduledBackups.getScheduleFilter(this.context, request.schedule);
+            final int subMode = request.schedule.getSubmode().getValue();
+            for (AppInfoX app : apps) {
+                if (filter.test(app)) {
+                    targets.putIfAbsent(app.getPackageName(), app);
+                    modes.merge(app.getPackageName(), subMode, (a, b) -> a | b);
+                    if (!request.schedule.isSkipUnchanged()) {
+                        mustBackup.add(app.getPackageName());
+                    }
+                }
+            }
+        }
+
+        BlacklistsDBHelper blacklistsDBHelper = new BlacklistsDBHelper(this.context);
+        SQLiteDatabase db = blacklistsDBHelper.getReadableDatabase();
+        Set<String> blacklistedPackages = new HashSet<>(blacklistsDBHelper.getBlacklistedPackages(db, SchedulerActivityX.GLOBALBLACKLISTID));
+        blacklistsDBHelper.close();
+
+        final long now = System.currentTimeMillis();
+        List<BatchEngine.Job> jobs = new ArrayList<>(targets.size());
+        for (AppInfoX app : targets.values()) {
+            final String packageName = app.getPackageName();
+            final int mode = modes.get(packageName);
+            if (blacklistedPackages.contains(packageName)) {
+                Log.i(ScheduleCoordinator.TAG, String.format("%s ignored", packageName));
+                continue;
+            }
+            if (this.isCoveredByRecentBackup(packageName, mode, now)) {
+                Log.i(ScheduleCoordinator.TAG, String.format("%s was backed up by a previous plan of this window, skipping", packageName));
+                continue;
+            }
+            // the job skips the app if versionCode and data fingerprint are the same as in the
+            // latest backup
+            jobs.add(new BatchEngine.Job(app, mode, BackupRestoreHelper.ActionType.BACKUP, !mustBackup.contains(packageName)));
+        }
+        Log.i(ScheduleCoordinator.TAG, String.format("Merged %d schedule(s) into a plan of %d backups", requests.size(), jobs.size()));
+        this.runJobs(requests, jobs, notificationId);
+    }
+
+    private void runJobs(List<Request> requests, List<BatchEngine.Job> jobs, int notificationId) {
+        Log.i(ScheduleCoordinator.TAG, "Starting scheduled backup for " + jobs.size() + " items");
+        final ShellHandler shell = MainActivityX.getShellHandlerInstance();
+        final BatchEngine engine = new BatchEngine(this.context, shell, QueuedTask.Priority.BACKGROUND);
+        engine.setSchedules(requests.stream().map(request -> request.schedule.getId()).collect(Collectors.toList()));
+        final PowerManager.WakeLock wl = this.powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, ScheduleCoordinator.TAG);
+        final boolean useWakelock = this.prefs.getBoolean("acquireWakelock", true);
+        // renewed whenever a job starts, so it's released soon after the batch got stuck
+        wl.setReferenceCounted(false);
+        if (useWakelock) {
+            wl.acquire(ScheduleCoordinator.WAKELOCK_TIMEOUT);
+            Log.i(ScheduleCoordinator.TAG, "wakelock acquired");
+        }
+        this.adaptToDeviceState(shell, engine.getWorkers());
+        final int totalOfActions = jobs.size();
+        List<ActionResult> results;
+        try {
+            results = engine.run(jobs, new BatchEngine.OnJobListener() {
+                @Override
+                public void onJobStarted(int index, BatchEngine.Job job) {
+                    if (useWakelock) {
+                        wl.acquire(ScheduleCoordinator.WAKELOCK_TIMEOUT);
+                    }
+                    ScheduleCoordinator.this.adaptToDeviceState(shell, engine.getWorkers());
+                    String title = context.getString(R.string.backupProgress) + " (" + (index + 1) + "/" + totalOfActions + ")";
+                    NotificationHelper.showProgressNotification(context, MainActivityX.class, notificationId, title, job.getApp().getPackageLabel(), QueuedTask.Priority.BACKGROUND);
+                }
+
+                @Override
+                public void onJobFinished(int index, BatchEngine.Job job, ActionResult result, int finishedCount) {
+                    if (result.succeeded) {
+                        ScheduleCoordinator.this.rememberBackup(job.getApp().getPackageName(), job.getMode());
+                    }
+                }
+            });
+        } finally {
+            this.resetPriorities(shell);
+            if (wl.isHeld()) {
+                wl.release();
+                Log.i(ScheduleCoordinator.TAG, "wakelock released");
+            }
+        }
+        // Calculate the overall result
+        String errors = results.stream()
+                .map(ActionResult::getMessage)
+                .filter(msg -> !msg.isEmpty())
+                .collect(Collectors.joining("\n"));
+        ActionResult overallResult = new ActionResult(null, null, errors, results.parallelStream().anyMatch(ar -> ar.succeeded));
+
+        // Update the notification
+        String notificationTitle = overallResult.succeeded ? this.context.getString(R.string.batchSuccess) : this.context.getString(R.string.batchFailure);
+        String notificationMessage = this.context.getString(R.string.sched_notificationMessage);
+        NotificationHelper.showNotification(this.context, MainActivityX.class, notificationId, notificationTitle, notificationMessage, true);
+
+        if (!overallResult.succeeded) {
+            this.writeToLogFile(errors);
+        }
+    }
+
+    /**
+     * Lowers the number of parallel jobs and the priority of the root processes while the
+     * device is in use or getting hot, so the batch doesn't compete with the user.
+     */
+    private synchronized void adaptToDeviceState(ShellHandler shell, int workers) {
+        DeviceState state = DeviceState.read(this.context);
+        TaskQueue.getInstance(this.context).setBackgroundLimit(state.getBackgroundWorkers(workers));
+        if (shell != null && (state.getNiceness() != this.rootNiceness || state.isIdleIo() != this.rootIdleIo)) {
+            Log.i(ScheduleCoordinator.TAG, String.format("Adapting to %s: %d parallel jobs, nice %d",
+                    state, state.getBackgroundWorkers(workers), state.getNiceness()));
+            shell.setTaskPriority(QueuedTask.Priority.BACKGROUND, state.getNiceness(), state.isIdleIo());
+            this.rootNiceness = state.getNiceness();
+            this.rootIdleIo = state.isIdleIo();
+        }
+    }
+
+    private synchronized void resetPriorities(ShellHandler shell) {
+        TaskQueue.getInstance(this.context).resetBackgroundLimit();
+        if (shell != null && this.rootNiceness != -1) {
+            shell.setTaskPriority(QueuedTask.Priority.BACKGROUND, 0, false);
+        }
+        this.rootNiceness = -1;
+        this.rootIdleIo = false;
+    }
+
+    private synchronized boolean isCoveredByRecentBackup(String packageName, int mode, long now) {
+        long[] recent = this.recentBackups.get(packageName);
+        return recent != null && now - recent[1] < ScheduleCoordinator.BACKUP_WINDOW
+                && (recent[0] & mode) == mode;
+    }
+
+    private synchronized void rememberBackup(String packageName, int mode) {
+        final long now = System.currentTimeMillis();
+        this.recentBackups.values().removeIf(recent -> now - recent[1] >= ScheduleCoordinator.BACKUP_WINDOW);
+        this.recentBackups.put(packageName, new long[]{mode, now});
+    }
+
+    private void writeToLogFile(String message) {
+        try {
+            LogUtils logUtils = new LogUtils(this.context);
+            logUtils.writeToLogFile(message);
+        } catch (IOException | PrefUtils.StorageLocationNotConfiguredException | FileUtils.BackupLocationIsAccessibleException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static class Request {
+        final Schedule schedule;
+        final BackupRestoreHelper.OnBackupRestoreListener listener;
+
+        Request(Schedule schedule, BackupRestoreHelper.OnBackupRestoreListener listener) {
+            this.schedule = schedule;
+            this.listener = listener;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.schedules;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.PersistableBundle;
+import android.util.Log;
+
+import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.schedules.db.Schedule;
+
+/**
+ * Defers a due schedule until the device meets the constraints of the schedule. JobScheduler
+ * waits for charging, idle and unmetered network, battery level and thermal status are checked
+ * when the job starts. The backup itself runs in the foreground {@link ScheduleService}, as it
+ * can take longer than a job is allowed to run.
+ */
+public class ScheduleJobService extends JobService {
+    private static final String TAG = Constants.classTag(".ScheduleJobService");
+    // keeps the job ids apart from other jobs of the app
+    private static final int JOB_ID_OFFSET = 1000;
+    // how long to wait until battery level and thermal status are checked again
+    private static final long RECHECK_DELAY = 15 * 60 * 1000L;
+    private static final String EXTRA_SCHEDULE_ID = "scheduleId";
+    private static final String EXTRA_MIN_BATTERY_LEVEL = "minBatteryLevel";
+    private static final String EXTRA_MAX_THERMAL_STATUS = "maxThermalStatus";
+
+    /**
+     * Queues the schedule to run as soon as its constraints are met. A pending job of the same
+     * schedule is replaced.
+     *
+     * @param context  context to use
+     * @param schedule schedule that is due
+     */
+    public static void enqueue(Context context, Schedule schedule) {
+        PersistableBundle extras = new PersistableBundle();
+        extras.putLong(ScheduleJobService.EXTRA_SCHEDULE_ID, schedule.getId());
+        extras.putInt(ScheduleJobService.EXTRA_MIN_BATTERY_LEVEL, schedule.getMinBatteryLevel());
+        extras.putInt(ScheduleJobService.EXTRA_MAX_THERMAL_STATUS, schedule.getMaxThermalStatus());
+        JobInfo.Builder builder = new JobInfo.Builder(ScheduleJobService.JOB_ID_OFFSET + (int) schedule.getId(),
+                new ComponentName(context, ScheduleJobService.class))
+                .setExtras(extras)
+                .setPersisted(true)
+                .setRequiresCharging(schedule.isRequireCharging())
+                .setRequiresDeviceIdle(schedule.isRequireIdle())
+                .setRequiresBatteryNotLow(schedule.getMinBatteryLevel() > 0)
+                .setRequiredNetworkType(schedule.isRequireUnmetered() ? JobInfo.NETWORK_TYPE_UNMETERED : JobInfo.NETWORK_TYPE_NONE);
+        if (!schedule.isRequireIdle()) {
+            // idle jobs are retried in the next idle window instead
+            builder.setBackoffCriteria(ScheduleJobService.RECHECK_DELAY, JobInfo.BACKOFF_POLICY_LINEAR);
+        }
+        JobScheduler jobScheduler = context.getSystemService(JobScheduler.class);
+        if (jobScheduler.schedule(builder.build()) == JobScheduler.RESULT_SUCCESS) {
+            Log.i(ScheduleJobService.TAG, String.format("Schedule %d waits for its constraints", schedule.getId()));
+        } else {
+            Log.e(ScheduleJobService.TAG, String.format("Could not queue schedule %d", schedule.getId()));
+        }
+    }
+
+    public static void cancel(Context context, long scheduleId) {
+        context.getSystemService(JobScheduler.class).cancel(ScheduleJobService.JOB_ID_OFFSET + (int) scheduleId);
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        PersistableBundle extras = params.getExtras();
+        final long id = extras.getLong(ScheduleJobService.EXTRA_SCHEDULE_ID);
+        DeviceState state = DeviceState.read(this);
+        if (!state.allows(extras.getInt(ScheduleJobService.EXTRA_MIN_BATTERY_LEVEL),
+                extras.getInt(ScheduleJobService.EXTRA_MAX_THERMAL_STATUS))) {
+            Log.i(ScheduleJobService.TAG, String.format("Schedule %d keeps waiting: %s", id, state));
+            // the job has to be finished asynchronously to be rescheduled
+            new Handler(this.getMainLooper()).post(() -> this.jobFinished(params, true));
+            return true;
+        }
+        Log.i(ScheduleJobService.TAG, String.format("Constraints of schedule %d are met: %s", id, state));
+        Intent serviceIntent = new Intent(this, ScheduleService.class);
+        serviceIntent.putExtra(Constants.classAddress(".schedule_id"), (int) id);
+        this.startForegroundService(serviceIntent);
+        return false;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // constraints stopped to hold before the backup has been handed over
+        return true;
+    }
+}
@@ -33,14 +33,12 @@ import com.machiav3lli.backup.Constants;
 import com.machiav3lli.backup.R;
 import com.machiav3lli.backup.activities.MainActivityX;
 import com.machiav3lli.backup.activities.SchedulerActivityX;
-import com.machiav3lli.backup.handler.BackupRestoreHelper;
 import com.machiav3lli.backup.schedules.db.Schedule;
 import com.machiav3lli.backup.schedules.db.ScheduleDao;
 import com.machiav3lli.backup.schedules.db.ScheduleDatabase;
 import com.machiav3lli.backup.schedules.db.ScheduleDatabaseHelper;
 
-public class ScheduleService extends Service
-        implements BackupRestoreHelper.OnBackupRestoreListener {
+public class ScheduleService extends Service {
     private static final String TAG = Constants.classTag(".ScheduleService");
     private static final int ID = 2;
 
@@ -51,7 +49,8 @@ public class ScheduleService extends Service
         if (id >= 0) {
             HandleAlarms handleAlarms = new HandleAlarms(this);
             final HandleScheduledBackups handleScheduledBackups = getHandleScheduledBackups();
-            handleScheduledBackups.setOnBackupListener(this);
+            // other schedules might still run in this service, stop only after the last one
+            handleScheduledBackups.setOnBackupListener(() -> stopSelf(startId));
 
             final Thread t = new Thread(() -> {
                 final ScheduleDao scheduleDao = getScheduleDao();
@@ -64,8 +63,7 @@ public class ScheduleService extends Service
                 handleAlarms.setAlarm(id, schedule.getInterval(), schedule.getTimeHour(),
                         schedule.getTimeMinute());
                 Log.i(TAG, getString(R.string.sched_startingbackup));
-                handleScheduledBackups.initiateBackup(id, schedule.getMode(), schedule.getSubmode().getValue(),
-                        schedule.isExcludeSystem(), schedule.isEnableCustomList());
+                handleScheduledBackups.initiateBackup(schedule);
             });
             t.start();
         } else {
@@ -89,7 +87,7 @@ public class ScheduleService extends Service
     public void onCreate() {
         final String channelId = TAG;
         // Do some initialization
-        MainActivityX.initShellHandler();
+        MainActivityX.initShellHandler(this);
         final NotificationChannel notificationChannel = new NotificationChannel(channelId, channelId,
                 NotificationManager.IMPORTANCE_DEFAULT);
         final NotificationManager notificationManager = getSystemService(NotificationManager.class);
@@ -119,9 +117,4 @@ public class ScheduleService extends Service
     public void onDestroy() {
         stopForeground(true);
     }
-
-    @Override
-    public void onBackupRestoreDone() {
-        stopSelf();
-    }
 }
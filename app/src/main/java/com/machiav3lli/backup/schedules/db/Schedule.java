@@ -18,6 +18,7 @@
 package com.machiav3lli.backup.schedules.db;
 
 import android.content.SharedPreferences;
+import android.os.PowerManager;
 import android.util.ArraySet;
 
 import androidx.room.Entity;
@@ -53,6 +54,14 @@ public class Schedule {
     private long timeUntilNextEvent;
     private boolean excludeSystem = false;
     private boolean enableCustomList = false;
+    private boolean skipUnchanged = false;
+    private boolean requireCharging = false;
+    private boolean requireIdle = false;
+    private boolean requireUnmetered = false;
+    // 0 means any battery level
+    private int minBatteryLevel = 0;
+    // one of PowerManager.THERMAL_STATUS_*, the backup waits while the device is hotter
+    private int maxThermalStatus = PowerManager.THERMAL_STATUS_SHUTDOWN;
     @TypeConverters(CustomListConverter.class)
     private Set<String> customList = new ArraySet<>();
 
@@ -173,6 +182,62 @@ public class Schedule {
         this.enableCustomList = enableCustomList;
     }
 
+    public boolean isSkipUnchanged() {
+        return this.skipUnchanged;
+    }
+
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+    }
+
+    public boolean isRequireCharging() {
+        return this.requireCharging;
+    }
+
+    public void setRequireCharging(boolean requireCharging) {
+        this.requireCharging = requireCharging;
+    }
+
+    public boolean isRequireIdle() {
+        return this.requireIdle;
+    }
+
+    public void setRequireIdle(boolean requireIdle) {
+        this.requireIdle = requireIdle;
+    }
+
+    public boolean isRequireUnmetered() {
+        return this.requireUnmetered;
+    }
+
+    public void setRequireUnmetered(boolean requireUnmetered) {
+        this.requireUnmetered = requireUnmetered;
+    }
+
+    public int getMinBatteryLevel() {
+        return this.minBatteryLevel;
+    }
+
+    public void setMinBatteryLevel(int minBatteryLevel) {
+        this.minBatteryLevel = minBatteryLevel;
+    }
+
+    public int getMaxThermalStatus() {
+        return this.maxThermalStatus;
+    }
+
+    public void setMaxThermalStatus(int maxThermalStatus) {
+        this.maxThermalStatus = maxThermalStatus;
+    }
+
+    /**
+     * @return true, if the backup must wait for the device to be in a certain state
+     */
+    public boolean hasConstraints() {
+        return this.requireCharging || this.requireIdle || this.requireUnmetered
+                || this.minBatteryLevel > 0 || this.maxThermalStatus < PowerManager.THERMAL_STATUS_SHUTDOWN;
+    }
+
     public Set<String> getCustomList() {
         return this.customList;
     }
@@ -215,6 +280,12 @@ public class Schedule {
                 timePlaced == schedule.timePlaced &&
                 excludeSystem == schedule.excludeSystem &&
                 enableCustomList == schedule.enableCustomList &&
+                skipUnchanged == schedule.skipUnchanged &&
+                requireCharging == schedule.requireCharging &&
+                requireIdle == schedule.requireIdle &&
+                requireUnmetered == schedule.requireUnmetered &&
+                minBatteryLevel == schedule.minBatteryLevel &&
+                maxThermalStatus == schedule.maxThermalStatus &&
                 mode == schedule.mode &&
                 submode == schedule.submode &&
                 customList.equals(schedule.customList);
@@ -233,6 +304,12 @@ public class Schedule {
         hash = 31 * hash + submode.hashCode();
         hash = 31 * hash + (excludeSystem ? 1 : 0);
         hash = 31 * hash + (enableCustomList ? 1 : 0);
+        hash = 31 * hash + (skipUnchanged ? 1 : 0);
+        hash = 31 * hash + (requireCharging ? 1 : 0);
+        hash = 31 * hash + (requireIdle ? 1 : 0);
+        hash = 31 * hash + (requireUnmetered ? 1 : 0);
+        hash = 31 * hash + minBatteryLevel;
+        hash = 31 * hash + maxThermalStatus;
         hash = 31 * hash + customList.hashCode();
         return hash;
     }
@@ -251,6 +328,12 @@ public class Schedule {
                 ", submode=" + submode +
                 ", excludeSystem=" + excludeSystem +
                 ", enableCustomList=" + enableCustomList +
+                ", skipUnchanged=" + skipUnchanged +
+                ", requireCharging=" + requireCharging +
+                ", requireIdle=" + requireIdle +
+                ", requireUnmetered=" + requireUnmetered +
+                ", minBatteryLevel=" + minBatteryLevel +
+                ", maxThermalStatus=" + maxThermalStatus +
                 ", customList=" + customList +
                 '}';
     }
@@ -312,6 +395,36 @@ public class Schedule {
             return this;
         }
 
+        public Builder withSkipUnchanged(boolean skipUnchanged) {
+            schedule.skipUnchanged = skipUnchanged;
+            return this;
+        }
+
+        public Builder withRequireCharging(boolean requireCharging) {
+            schedule.requireCharging = requireCharging;
+            return this;
+        }
+
+        public Builder withRequireIdle(boolean requireIdle) {
+            schedule.requireIdle = requireIdle;
+            return this;
+        }
+
+        public Builder withRequireUnmetered(boolean requireUnmetered) {
+            schedule.requireUnmetered = requireUnmetered;
+            return this;
+        }
+
+        public Builder withMinBatteryLevel(int minBatteryLevel) {
+            schedule.minBatteryLevel = minBatteryLevel;
+            return this;
+        }
+
+        public Builder withMaxThermalStatus(int maxThermalStatus) {
+            schedule.maxThermalStatus = maxThermalStatus;
+            return this;
+        }
+
         public Builder withCustomList(Set<String> customlist) {
             schedule.customList = customlist;
             return this;
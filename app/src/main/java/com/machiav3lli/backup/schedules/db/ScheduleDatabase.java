@@ -17,10 +17,32 @@
  */
 package com.machiav3lli.backup.schedules.db;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
-@Database(entities = Schedule.class, version = 1)
+@Database(entities = Schedule.class, version = 3)
 public abstract class ScheduleDatabase extends RoomDatabase {
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE Schedule ADD COLUMN skipUnchanged INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE Schedule ADD COLUMN requireCharging INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE Schedule ADD COLUMN requireIdle INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE Schedule ADD COLUMN requireUnmetered INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE Schedule ADD COLUMN minBatteryLevel INTEGER NOT NULL DEFAULT 0");
+            // PowerManager.THERMAL_STATUS_SHUTDOWN, no limit
+            database.execSQL("ALTER TABLE Schedule ADD COLUMN maxThermalStatus INTEGER NOT NULL DEFAULT 6");
+        }
+    };
+
     public abstract ScheduleDao scheduleDao();
 }
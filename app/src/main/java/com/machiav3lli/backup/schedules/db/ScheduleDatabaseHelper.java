@@ -33,7 +33,9 @@ public class ScheduleDatabaseHelper {
     public static ScheduleDatabase getScheduleDatabase(Context context, String name) {
         if (scheduleDatabase == null) {
             scheduleDatabase = Room.databaseBuilder(context,
-                    ScheduleDatabase.class, name).build();
+                    ScheduleDatabase.class, name)
+                    .addMigrations(ScheduleDatabase.MIGRATION_1_2, ScheduleDatabase.MIGRATION_2_3)
+                    .build();
         }
         return scheduleDatabase;
     }
@@ -24,7 +24,6 @@ import com.machiav3lli.backup.handler.ShellHandler;
 import com.machiav3lli.backup.items.ActionResult;
 import com.machiav3lli.backup.items.AppInfoX;
 
-// TODO rebase those Tasks, as AsyncTask is deprecated
 public class BackupTask extends BaseTask {
     public BackupTask(AppInfoX appInfo, HandleMessages handleMessages, MainActivityX oAndBackupX,
                       ShellHandler shellHandler, int backupMode) {
@@ -33,11 +32,11 @@ public class BackupTask extends BaseTask {
     }
 
     @Override
-    public ActionResult doInBackground(Void... _void) {
+    protected ActionResult execute() {
         final MainActivityX mainActivityX = mainActivityXReference.get();
         if (mainActivityX == null || mainActivityX.isFinishing())
             return new ActionResult(this.app, null, "", false);
-        publishProgress();
+        this.showProgress();
         this.result = this.backupRestoreHelper.backup(mainActivityX, this.shellHandler, this.app, this.mode);
         return this.result;
     }
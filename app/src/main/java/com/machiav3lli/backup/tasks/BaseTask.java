@@ -19,7 +19,6 @@ package com.machiav3lli.backup.tasks;
 
 import android.content.Context;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.widget.Toast;
 
 import com.machiav3lli.backup.R;
@@ -37,10 +36,8 @@ import com.machiav3lli.backup.utils.UIUtils;
 
 import java.io.IOException;
 import java.lang.ref.WeakReference;
-import java.util.concurrent.CountDownLatch;
 
-// TODO rebase those Tasks, as AsyncTask is deprecated
-public abstract class BaseTask extends AsyncTask<Void, Void, ActionResult> {
+public abstract class BaseTask extends QueuedTask {
     final BackupRestoreHelper.ActionType actionType;
     final AppInfoX app;
     final WeakReference<HandleMessages> handleMessagesReference;
@@ -49,11 +46,11 @@ public abstract class BaseTask extends AsyncTask<Void, Void, ActionResult> {
     final int mode;
     protected ActionResult result;
 
-    CountDownLatch signal;
     BackupRestoreHelper backupRestoreHelper;
 
     public BaseTask(BackupRestoreHelper.ActionType actionType, AppInfoX app, HandleMessages handleMessages,
                     MainActivityX oAndBackupX, ShellHandler shellHandler, int mode) {
+        super(Priority.INTERACTIVE, app.getPackageLabel());
         this.actionType = actionType;
         this.app = app;
         this.handleMessagesReference = new WeakReference<>(handleMessages);
@@ -63,16 +60,30 @@ public abstract class BaseTask extends AsyncTask<Void, Void, ActionResult> {
         this.backupRestoreHelper = new BackupRestoreHelper();
     }
 
-    @Override
-    public void onProgressUpdate(Void... _void) {
+    /**
+     * Queues the task
+     *
+     * @param context context to get the queue with
+     */
+    public void enqueue(Context context) {
+        TaskQueue.getInstance(context).submit(this);
+    }
+
+    protected void showProgress() {
         final HandleMessages handleMessages = handleMessagesReference.get();
         final MainActivityX oAndBackupX = mainActivityXReference.get();
-        if (handleMessages != null && oAndBackupX != null && !oAndBackupX.isFinishing())
-            handleMessages.showMessage(this.app.getPackageLabel(), getProgressMessage(oAndBackupX, actionType));
+        if (handleMessages != null && oAndBackupX != null && !oAndBackupX.isFinishing()) {
+            final String message = getProgressMessage(oAndBackupX, actionType);
+            handleMessages.showMessage(this.app.getPackageLabel(), message);
+        }
     }
 
     @Override
-    public void onPostExecute(ActionResult result) {
+    protected void onFinished(ActionResult result) {
+        if (this.result == null) {
+            // cancelled before it was started
+            this.result = result;
+        }
         final HandleMessages handleMessages = handleMessagesReference.get();
         final MainActivityX mainActivityX = mainActivityXReference.get();
         if (handleMessages != null && mainActivityX != null && !mainActivityX.isFinishing()) {
@@ -93,9 +104,6 @@ public abstract class BaseTask extends AsyncTask<Void, Void, ActionResult> {
             });
             mainActivityX.refreshWithAppSheet();
         }
-        if (signal != null) {
-            signal.countDown();
-        }
     }
 
     private String getProgressMessage(Context context, BackupRestoreHelper.ActionType actionType) {
@@ -0,0 +1,57 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.tasks;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import com.machiav3lli.backup.Constants;
+
+/**
+ * Cancels all tasks of a priority, it's the target of the cancel action of the progress
+ * notifications
+ */
+public class CancelTasksReceiver extends BroadcastReceiver {
+    private static final String TAG = Constants.classTag(".CancelTasksReceiver");
+    private static final String EXTRA_PRIORITY = "priority";
+
+    /**
+     * @param context  context to create the intent with
+     * @param priority priority of the tasks to cancel
+     * @return intent for the cancel action of a notification
+     */
+    public static PendingIntent getPendingIntent(Context context, QueuedTask.Priority priority) {
+        Intent intent = new Intent(context, CancelTasksReceiver.class)
+                .putExtra(CancelTasksReceiver.EXTRA_PRIORITY, priority.name());
+        // one request code per priority, otherwise the intents would share their extras
+        return PendingIntent.getBroadcast(context, priority.ordinal(), intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String priority = intent.getStringExtra(CancelTasksReceiver.EXTRA_PRIORITY);
+        if (priority == null) {
+            return;
+        }
+        Log.i(CancelTasksReceiver.TAG, String.format("Cancelling all %s tasks", priority));
+        TaskQueue.getInstance(context).cancelAll(QueuedTask.Priority.valueOf(priority));
+    }
+}
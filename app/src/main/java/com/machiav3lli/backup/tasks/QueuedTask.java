@@ -0,0 +1,246 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.tasks;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.handler.StageLimiter;
+import com.machiav3lli.backup.items.ActionResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A unit of work run by the TaskQueue. Tasks are ordered by their priority and the order they
+ * were submitted in. Cancellation is cooperative: long running copy loops call
+ * throwIfCancelled, which aborts the task with an InterruptedIOException, so the existing
+ * error handling of the actions cleans up like on any other I/O error.
+ */
+public abstract class QueuedTask implements Comparable<QueuedTask> {
+    private static final String TAG = Constants.classTag(".QueuedTask");
+    private static final AtomicLong sequence = new AtomicLong(0);
+    private static final ThreadLocal<QueuedTask> current = new ThreadLocal<>();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final long id;
+    private final Priority priority;
+    private final String title;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile State state = State.QUEUED;
+    private volatile boolean cancelRequested = false;
+    private volatile ActionResult result;
+    private StageLimiter stageLimiter;
+
+    protected QueuedTask(Priority priority, String title) {
+        this.id = QueuedTask.sequence.incrementAndGet();
+        this.priority = priority;
+        this.title = title;
+    }
+
+    /**
+     * Wraps a plain runnable, e.g. deleting backups, into a task
+     *
+     * @param priority priority of the task
+     * @param title    title shown for the task
+     * @param runnable work to do
+     * @return task to submit
+     */
+    public static QueuedTask of(Priority priority, String title, Runnable runnable) {
+        return new QueuedTask(priority, title) {
+            @Override
+            protected ActionResult execute() {
+                runnable.run();
+                return new ActionResult(null, null, "", true);
+            }
+        };
+    }
+
+    /**
+     * Binds the task to the calling thread, so helper threads of a task can be cancelled with it
+     *
+     * @param task task the calling thread works for or null to unbind
+     */
+    public static void bind(QueuedTask task) {
+        if (task != null) {
+            QueuedTask.current.set(task);
+        } else {
+            QueuedTask.current.remove();
+        }
+    }
+
+    public static QueuedTask getCurrent() {
+        return QueuedTask.current.get();
+    }
+
+    /**
+     * Checks if the task the calling thread works for has been cancelled. Threads outside of
+     * the queue are never cancelled.
+     *
+     * @throws InterruptedIOException if the task has been cancelled
+     */
+    public static void throwIfCancelled() throws InterruptedIOException {
+        QueuedTask task = QueuedTask.current.get();
+        if (task != null && task.isCancelled()) {
+            throw new InterruptedIOException(String.format("%s has been cancelled", task.getTitle()));
+        }
+    }
+
+    /**
+     * Copies the stream like IOUtils.copy, but checks for cancellation after each chunk
+     *
+     * @param in         stream to read from
+     * @param out        stream to write to
+     * @param bufferSize size of the chunks
+     * @return number of bytes copied
+     * @throws IOException on I/O errors or if the task has been cancelled
+     */
+    public static long copy(InputStream in, OutputStream out, int bufferSize) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        long copied = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            QueuedTask.throwIfCancelled();
+            out.write(buffer, 0, read);
+            copied += read;
+        }
+        return copied;
+    }
+
+    protected abstract ActionResult execute() throws Exception;
+
+    /**
+     * Called by the backup action of the task when it created the directory of the new backup
+     * instance. Tasks can remember it to clean up after a crash.
+     *
+     * @param instanceUri uri of the backup instance directory
+     */
+    public void onBackupInstanceCreated(Uri instanceUri) {
+    }
+
+    /**
+     * Called by the backup action of the task when the app's data has been saved and the app
+     * continues. Batches can prepare the next app in the meantime.
+     */
+    public void onAppDataSaved() {
+    }
+
+    /**
+     * Called on the main thread after the task has finished, failed or was cancelled
+     *
+     * @param result result of the task
+     */
+    protected void onFinished(ActionResult result) {
+    }
+
+    final void run() {
+        QueuedTask.bind(this);
+        StageLimiter.bind(this.stageLimiter);
+        ActionResult taskResult;
+        try {
+            if (this.cancelRequested) {
+                throw new InterruptedIOException(String.format("%s has been cancelled", this.title));
+            }
+            this.state = State.RUNNING;
+            taskResult = this.execute();
+        } catch (Exception e) {
+            Log.e(QueuedTask.TAG, String.format("%s failed: %s", this.title, e));
+            taskResult = new ActionResult(null, null, String.format("%s: %s", e.getClass().getSimpleName(), e.getMessage()), false);
+        } finally {
+            StageLimiter.bind(null);
+            QueuedTask.bind(null);
+        }
+        this.finish(taskResult);
+    }
+
+    final void finish(ActionResult taskResult) {
+        this.result = taskResult;
+        if (this.cancelRequested) {
+            this.state = State.CANCELLED;
+        } else {
+            this.state = taskResult != null && taskResult.succeeded ? State.SUCCEEDED : State.FAILED;
+        }
+        this.done.countDown();
+        QueuedTask.mainHandler.post(() -> this.onFinished(this.result));
+    }
+
+    /**
+     * Requests the cancellation of the task. A queued task won't be started anymore, a running
+     * task stops at its next cancellation check.
+     */
+    public void cancel() {
+        this.cancelRequested = true;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelRequested;
+    }
+
+    /**
+     * Blocks until the task is done
+     *
+     * @return result of the task
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public ActionResult await() throws InterruptedException {
+        this.done.await();
+        return this.result;
+    }
+
+    public void setStageLimiter(StageLimiter stageLimiter) {
+        this.stageLimiter = stageLimiter;
+    }
+
+    public long getId() {
+        return this.id;
+    }
+
+    public Priority getPriority() {
+        return this.priority;
+    }
+
+    public String getTitle() {
+        return this.title;
+    }
+
+    public State getState() {
+        return this.state;
+    }
+
+    public ActionResult getResult() {
+        return this.result;
+    }
+
+    @Override
+    public int compareTo(QueuedTask other) {
+        int byPriority = this.priority.compareTo(other.priority);
+        return byPriority != 0 ? byPriority : Long.compare(this.id, other.id);
+    }
+
+    // Declared from the most to the least urgent
+    public enum Priority {INTERACTIVE, BATCH, BACKGROUND}
+
+    public enum State {QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED}
+}
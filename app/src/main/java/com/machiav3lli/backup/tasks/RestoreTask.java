@@ -27,7 +27,6 @@ import com.machiav3lli.backup.items.ActionResult;
 import com.machiav3lli.backup.items.AppInfoX;
 import com.machiav3lli.backup.items.BackupProperties;
 
-// TODO rebase those Tasks, as AsyncTask is deprecated
 public class RestoreTask extends BaseTask {
     private final BackupProperties backupProperties;
     private final Uri backupLocation;
@@ -41,11 +40,11 @@ public class RestoreTask extends BaseTask {
     }
 
     @Override
-    public ActionResult doInBackground(Void... _void) {
+    protected ActionResult execute() {
         final MainActivityX mainActivityX = mainActivityXReference.get();
         if (mainActivityX == null || mainActivityX.isFinishing())
             return new ActionResult(this.app, this.backupProperties, "", false);
-        publishProgress();
+        this.showProgress();
         this.result = this.backupRestoreHelper.restore(
                 this.mainActivityXReference.get(), this.app, this.backupProperties,
                 this.backupLocation, this.shellHandler, this.mode);
@@ -0,0 +1,210 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.tasks;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.items.ActionResult;
+import com.machiav3lli.backup.utils.PrefUtils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The single place all backup, restore and delete operations are run. Tasks are started by
+ * priority, batch and background tasks are limited to the configured number of parallel jobs.
+ * One additional slot is reserved for interactive tasks, so a single app backup started from
+ * the app sheet doesn't wait behind a running batch.
+ */
+public final class TaskQueue {
+    private static final String TAG = Constants.classTag(".TaskQueue");
+    private static TaskQueue instance;
+
+    private final Context context;
+    private final PriorityQueue<QueuedTask> queued = new PriorityQueue<>();
+    private final List<QueuedTask> running = new ArrayList<>();
+    private final ExecutorService workers = Executors.newCachedThreadPool();
+    private final ExecutorService coordinators = Executors.newCachedThreadPool();
+    private final MutableLiveData<List<QueuedTask>> activeTasks = new MutableLiveData<>(new ArrayList<>());
+    // number of cancelAll calls per priority
+    private final AtomicIntegerArray cancellations = new AtomicIntegerArray(QueuedTask.Priority.values().length);
+    // additional limit for background tasks, adapted to the device state by scheduled backups
+    private volatile int backgroundLimit = Integer.MAX_VALUE;
+
+    private TaskQueue(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public static synchronized TaskQueue getInstance(Context context) {
+        if (TaskQueue.instance == null) {
+            TaskQueue.instance = new TaskQueue(context);
+        }
+        return TaskQueue.instance;
+    }
+
+    public QueuedTask submit(QueuedTask task) {
+        synchronized (this) {
+            this.queued.add(task);
+        }
+        Log.d(TaskQueue.TAG, String.format("Queued %s (%s)", task.getTitle(), task.getPriority()));
+        this.dispatch();
+        return task;
+    }
+
+    /**
+     * Runs code that only coordinates tasks, like the loop of a batch waiting for its apps.
+     * Coordinators don't count against the limits as they mostly wait for their tasks.
+     *
+     * @param coordinator code to run in the background
+     */
+    public void coordinate(Runnable coordinator) {
+        this.coordinators.execute(coordinator);
+    }
+
+    /**
+     * Lets fewer background tasks run in parallel than configured, e.g. while the device is in
+     * use or getting hot. Running tasks are not affected.
+     *
+     * @param limit maximum number of background tasks, at least 1
+     */
+    public void setBackgroundLimit(int limit) {
+        this.backgroundLimit = Math.max(1, limit);
+        this.dispatch();
+    }
+
+    public void resetBackgroundLimit() {
+        this.backgroundLimit = Integer.MAX_VALUE;
+        this.dispatch();
+    }
+
+    /**
+     * Cancels all queued and running tasks of the given priority
+     *
+     * @param priority priority of the tasks to cancel
+     */
+    public void cancelAll(QueuedTask.Priority priority) {
+        this.cancellations.incrementAndGet(priority.ordinal());
+        synchronized (this) {
+            for (QueuedTask task : this.queued) {
+                if (task.getPriority() == priority) task.cancel();
+            }
+            for (QueuedTask task : this.running) {
+                if (task.getPriority() == priority) task.cancel();
+            }
+        }
+        this.dispatch();
+    }
+
+    /**
+     * Coordinators that queue their tasks over time compare this count to the one at their start,
+     * so they don't queue more tasks after the user cancelled them
+     *
+     * @param priority priority of the tasks
+     * @return how often the tasks of the priority were cancelled by cancelAll
+     */
+    public int getCancellations(QueuedTask.Priority priority) {
+        return this.cancellations.get(priority.ordinal());
+    }
+
+    /**
+     * @return queued and running tasks, updated whenever a task is started or finished
+     */
+    public LiveData<List<QueuedTask>> getActiveTasks() {
+        return this.activeTasks;
+    }
+
+    private void dispatch() {
+        List<QueuedTask> cancelled = new ArrayList<>();
+        synchronized (this) {
+            final int limit = Math.max(1, PrefUtils.getDefaultSharedPreferences(this.context).getInt(Constants.PREFS_BATCH_WORKERS, 2));
+            int runningLimited = 0;
+            int runningBackground = 0;
+            for (QueuedTask task : this.running) {
+                if (task.getPriority() != QueuedTask.Priority.INTERACTIVE) runningLimited++;
+                if (task.getPriority() == QueuedTask.Priority.BACKGROUND) runningBackground++;
+            }
+            // Queued tasks that have been cancelled are finished without being started
+            Iterator<QueuedTask> iterator = this.queued.iterator();
+            while (iterator.hasNext()) {
+                QueuedTask task = iterator.next();
+                if (task.isCancelled()) {
+                    iterator.remove();
+                    cancelled.add(task);
+                }
+            }
+            while (!this.queued.isEmpty()) {
+                QueuedTask next = this.queued.peek();
+                boolean interactive = next.getPriority() == QueuedTask.Priority.INTERACTIVE;
+                boolean background = next.getPriority() == QueuedTask.Priority.BACKGROUND;
+                if (interactive ? this.running.size() >= limit + 1 : runningLimited >= limit) {
+                    break;
+                }
+                // background tasks are last in the queue, nothing else waits behind them
+                if (background && runningBackground >= this.backgroundLimit) {
+                    break;
+                }
+                this.queued.poll();
+                this.running.add(next);
+                if (!interactive) runningLimited++;
+                if (background) runningBackground++;
+                this.workers.execute(() -> this.runTask(next));
+            }
+            this.publishActiveTasks();
+        }
+        for (QueuedTask task : cancelled) {
+            task.finish(new ActionResult(null, null, String.format("%s has been cancelled", task.getTitle()), false));
+        }
+    }
+
+    private void runTask(QueuedTask task) {
+        final boolean background = task.getPriority() == QueuedTask.Priority.BACKGROUND;
+        if (background) {
+            // keeps the app's own cpu and io work of scheduled backups out of the user's way
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        }
+        try {
+            task.run();
+        } finally {
+            if (background) {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+            }
+            synchronized (this) {
+                this.running.remove(task);
+            }
+            Log.d(TaskQueue.TAG, String.format("%s finished: %s", task.getTitle(), task.getState()));
+            this.dispatch();
+        }
+    }
+
+    private void publishActiveTasks() {
+        List<QueuedTask> tasks = new ArrayList<>(this.running);
+        tasks.addAll(this.queued);
+        this.activeTasks.postValue(tasks);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.tasks.db;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.Query;
+import androidx.room.Update;
+
+import java.util.List;
+
+@Dao
+public interface BatchDao {
+    @Insert
+    long insertRun(BatchRun batchRun);
+
+    @Insert
+    long[] insertEntries(List<BatchJobEntry> entries);
+
+    @Update
+    void updateRun(BatchRun batchRun);
+
+    @Update
+    void updateEntry(BatchJobEntry entry);
+
+    @Query("SELECT * FROM batchrun WHERE id = :id")
+    BatchRun getBatchRun(long id);
+
+    @Query("SELECT * FROM batchrun WHERE finished = 0 ORDER BY id ASC")
+    List<BatchRun> getUnfinished();
+
+    @Query("SELECT * FROM batchjobentry WHERE batchId = :batchId ORDER BY position ASC")
+    List<BatchJobEntry> getEntries(long batchId);
+
+    @Query("SELECT * FROM batchrun WHERE finished = 1 ORDER BY timeStarted DESC LIMIT :limit")
+    List<BatchRun> getFinished(int limit);
+
+    @Query("SELECT * FROM batchjobentry WHERE batchId = :batchId AND timeFinished > 0 ORDER BY (timeFinished - timeStarted) DESC LIMIT :limit")
+    List<BatchJobEntry> getSlowestEntries(long batchId, int limit);
+
+    @Query("SELECT * FROM batchjobentry WHERE timeStarted >= :since AND timeFinished > 0 ORDER BY (timeFinished - timeStarted) DESC LIMIT :limit")
+    List<BatchJobEntry> getSlowestEntriesSince(long since, int limit);
+
+    @Query("SELECT * FROM batchjobentry WHERE actionType = :actionType AND state = 'DONE' AND bytes > 0 AND timeStarted >= :since ORDER BY packageName ASC, timeStarted DESC")
+    List<BatchJobEntry> getSucceededEntriesSince(String actionType, long since);
+
+    @Query("DELETE FROM batchrun WHERE finished = 1 AND timeFinished < :before")
+    void deleteFinishedBefore(long before);
+}
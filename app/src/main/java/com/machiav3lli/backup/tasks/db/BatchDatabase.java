@@ -0,0 +1,48 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.tasks.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.Database;
+import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+@Database(entities = {BatchRun.class, BatchJobEntry.class}, version = 3)
+public abstract class BatchDatabase extends RoomDatabase {
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE BatchRun ADD COLUMN schedules TEXT");
+            database.execSQL("ALTER TABLE BatchRun ADD COLUMN appCount INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE BatchRun ADD COLUMN succeeded INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE BatchRun ADD COLUMN failed INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE BatchRun ADD COLUMN totalBytes INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE BatchJobEntry ADD COLUMN bytes INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE BatchJobEntry ADD COLUMN stats TEXT");
+        }
+    };
+
+    public abstract BatchDao batchDao();
+}
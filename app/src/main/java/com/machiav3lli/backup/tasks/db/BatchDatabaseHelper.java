@@ -0,0 +1,40 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.tasks.db;
+
+import android.content.Context;
+
+import androidx.room.Room;
+
+public class BatchDatabaseHelper {
+    public static final String DATABASE_NAME = "batches.db";
+    private static BatchDatabase batchDatabase = null;
+
+    private BatchDatabaseHelper() {
+    }
+
+    public static synchronized BatchDatabase getBatchDatabase(Context context) {
+        if (batchDatabase == null) {
+            batchDatabase = Room.databaseBuilder(context.getApplicationContext(),
+                    BatchDatabase.class, DATABASE_NAME)
+                    .addMigrations(BatchDatabase.MIGRATION_1_2, BatchDatabase.MIGRATION_2_3)
+                    .build();
+        }
+        return batchDatabase;
+    }
+}
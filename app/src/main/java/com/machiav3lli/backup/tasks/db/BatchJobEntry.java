@@ -0,0 +1,216 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.tasks.db;
+
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+import androidx.room.TypeConverter;
+import androidx.room.TypeConverters;
+
+import com.machiav3lli.backup.items.ActionStats;
+import com.machiav3lli.backup.utils.GsonUtil;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Journal entry of one app of a batch
+ */
+@Entity(foreignKeys = @ForeignKey(entity = BatchRun.class, parentColumns = "id", childColumns = "batchId", onDelete = ForeignKey.CASCADE),
+        indices = @Index("batchId"))
+public class BatchJobEntry {
+    @PrimaryKey(autoGenerate = true)
+    private long id;
+    private long batchId;
+    private int position;
+    private String packageName;
+    private String actionType;
+    private int mode;
+    @TypeConverters(StateConverter.class)
+    private State state = State.PENDING;
+    // backup instance written by the job, needed to clean it up after a crash
+    private String instanceUri;
+    private String message;
+    private long timeStarted = 0;
+    private long timeFinished = 0;
+    // backup data written by a backup or read by a restore
+    private long bytes = 0;
+    // stats of a restore, backups keep theirs in the backup properties
+    @TypeConverters(StatsConverter.class)
+    private ActionStats stats;
+
+    public long getId() {
+        return this.id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getBatchId() {
+        return this.batchId;
+    }
+
+    public void setBatchId(long batchId) {
+        this.batchId = batchId;
+    }
+
+    public int getPosition() {
+        return this.position;
+    }
+
+    public void setPosition(int position) {
+        this.position = position;
+    }
+
+    public String getPackageName() {
+        return this.packageName;
+    }
+
+    public void setPackageName(String packageName) {
+        this.packageName = packageName;
+    }
+
+    public String getActionType() {
+        return this.actionType;
+    }
+
+    public void setActionType(String actionType) {
+        this.actionType = actionType;
+    }
+
+    public int getMode() {
+        return this.mode;
+    }
+
+    public void setMode(int mode) {
+        this.mode = mode;
+    }
+
+    public State getState() {
+        return this.state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    public String getInstanceUri() {
+        return this.instanceUri;
+    }
+
+    public void setInstanceUri(String instanceUri) {
+        this.instanceUri = instanceUri;
+    }
+
+    public String getMessage() {
+        return this.message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public long getTimeStarted() {
+        return this.timeStarted;
+    }
+
+    public void setTimeStarted(long timeStarted) {
+        this.timeStarted = timeStarted;
+    }
+
+    public long getTimeFinished() {
+        return this.timeFinished;
+    }
+
+    public void setTimeFinished(long timeFinished) {
+        this.timeFinished = timeFinished;
+    }
+
+    public long getBytes() {
+        return this.bytes;
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    public ActionStats getStats() {
+        return this.stats;
+    }
+
+    public void setStats(ActionStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * @return duration of the job in milliseconds, 0 if it didn't finish
+     */
+    public long getDuration() {
+        return this.timeFinished > 0 ? Math.max(0, this.timeFinished - this.timeStarted) : 0;
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return "BatchJobEntry{" +
+                "id=" + id +
+                ", batchId=" + batchId +
+                ", position=" + position +
+                ", packageName='" + packageName + '\'' +
+                ", actionType=" + actionType +
+                ", mode=" + mode +
+                ", state=" + state +
+                ", instanceUri='" + instanceUri + '\'' +
+                ", bytes=" + bytes +
+                '}';
+    }
+
+    public enum State {PENDING, RUNNING, DONE, FAILED}
+
+    static class StateConverter {
+        private StateConverter() {
+        }
+
+        @TypeConverter
+        public static String toString(State state) {
+            return state.name();
+        }
+
+        @TypeConverter
+        public static State toState(String name) {
+            return State.valueOf(name);
+        }
+    }
+
+    static class StatsConverter {
+        private StatsConverter() {
+        }
+
+        @TypeConverter
+        public static String toString(ActionStats stats) {
+            return stats != null ? GsonUtil.getInstance().toJson(stats) : null;
+        }
+
+        @TypeConverter
+        public static ActionStats toStats(String json) {
+            return json != null ? GsonUtil.getInstance().fromJson(json, ActionStats.class) : null;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.tasks.db;
+
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Journal entry of a batch. A batch stays unfinished until all its apps have been processed,
+ * so a batch that is still unfinished when the app starts was interrupted.
+ */
+@Entity
+public class BatchRun {
+    @PrimaryKey(autoGenerate = true)
+    private long id;
+    private String actionType;
+    private String priority;
+    private long timeStarted = System.currentTimeMillis();
+    private long timeFinished = 0;
+    private boolean finished = false;
+    // ids of the schedules a scheduled batch was planned for, comma separated, null if it was started by hand
+    private String schedules;
+    // summary, written when the batch is finished
+    private int appCount = 0;
+    private int succeeded = 0;
+    private int failed = 0;
+    private long totalBytes = 0;
+
+    public long getId() {
+        return this.id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getActionType() {
+        return this.actionType;
+    }
+
+    public void setActionType(String actionType) {
+        this.actionType = actionType;
+    }
+
+    public String getPriority() {
+        return this.priority;
+    }
+
+    public void setPriority(String priority) {
+        this.priority = priority;
+    }
+
+    public long getTimeStarted() {
+        return this.timeStarted;
+    }
+
+    public void setTimeStarted(long timeStarted) {
+        this.timeStarted = timeStarted;
+    }
+
+    public long getTimeFinished() {
+        return this.timeFinished;
+    }
+
+    public void setTimeFinished(long timeFinished) {
+        this.timeFinished = timeFinished;
+    }
+
+    public boolean isFinished() {
+        return this.finished;
+    }
+
+    public void setFinished(boolean finished) {
+        this.finished = finished;
+    }
+
+    public String getSchedules() {
+        return this.schedules;
+    }
+
+    public void setSchedules(String schedules) {
+        this.schedules = schedules;
+    }
+
+    public int getAppCount() {
+        return this.appCount;
+    }
+
+    public void setAppCount(int appCount) {
+        this.appCount = appCount;
+    }
+
+    public int getSucceeded() {
+        return this.succeeded;
+    }
+
+    public void setSucceeded(int succeeded) {
+        this.succeeded = succeeded;
+    }
+
+    public int getFailed() {
+        return this.failed;
+    }
+
+    public void setFailed(int failed) {
+        this.failed = failed;
+    }
+
+    /**
+     * @return bytes of backup data written by a backup batch or read by a restore batch
+     */
+    public long getTotalBytes() {
+        return this.totalBytes;
+    }
+
+    public void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    /**
+     * @return duration of the batch in milliseconds, 0 while it's running
+     */
+    public long getDuration() {
+        return this.finished ? Math.max(0, this.timeFinished - this.timeStarted) : 0;
+    }
+
+    /**
+     * @return bytes per second over the whole batch
+     */
+    public long getThroughput() {
+        final long duration = this.getDuration();
+        return duration > 0 ? this.totalBytes * 1000 / duration : 0;
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return "BatchRun{" +
+                "id=" + id +
+                ", actionType=" + actionType +
+                ", priority=" + priority +
+                ", timeStarted=" + timeStarted +
+                ", timeFinished=" + timeFinished +
+                ", finished=" + finished +
+                ", schedules=" + schedules +
+                ", appCount=" + appCount +
+                ", succeeded=" + succeeded +
+                ", failed=" + failed +
+                ", totalBytes=" + totalBytes +
+                '}';
+    }
+}
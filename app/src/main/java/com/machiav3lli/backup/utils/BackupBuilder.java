@@ -6,11 +6,13 @@ import android.os.Build;
 
 import com.machiav3lli.backup.Constants;
 import com.machiav3lli.backup.handler.StorageFile;
+import com.machiav3lli.backup.items.ActionStats;
 import com.machiav3lli.backup.items.AppMetaInfo;
 import com.machiav3lli.backup.items.BackupItem;
 import com.machiav3lli.backup.items.BackupProperties;
 
 import java.time.LocalDateTime;
+import java.util.List;
 
 public class BackupBuilder {
     private final Context context;
@@ -24,6 +26,9 @@ public class BackupBuilder {
     private boolean hasExternalData = false;
     private boolean hasObbData = false;
     private String cipherType = null;
+    private String dataFingerprint = null;
+    private List<BackupProperties.ApkFile> apkFiles = null;
+    private ActionStats stats = null;
     private final String cpuArch;
 
     public BackupBuilder(Context context, AppMetaInfo appinfo, Uri backupRoot) {
@@ -70,19 +75,30 @@ public class BackupBuilder {
         this.cipherType = cipherType;
     }
 
+    public void setDataFingerprint(String dataFingerprint) {
+        this.dataFingerprint = dataFingerprint;
+    }
+
+    public void setApkFiles(List<BackupProperties.ApkFile> apkFiles) {
+        this.apkFiles = apkFiles;
+    }
+
+    public void setStats(ActionStats stats) {
+        this.stats = stats;
+    }
+
     public BackupItem createBackupItem() {
-        return new BackupItem(
-                new BackupProperties(this.backupPath.getUri(),
-                        this.appinfo, this.backupDate, this.hasApk, this.hasAppData,
-                        this.hasDevicesProtectedData, this.hasExternalData,
-                        this.hasObbData, this.cipherType, this.cpuArch),
-                this.backupPath);
+        return new BackupItem(this.createBackupProperties(), this.backupPath);
     }
 
     public BackupProperties createBackupProperties() {
-        return new BackupProperties(this.backupPath.getUri(),
+        BackupProperties properties = new BackupProperties(this.backupPath.getUri(),
                 this.appinfo, this.backupDate, this.hasApk, this.hasAppData,
                 this.hasDevicesProtectedData, this.hasExternalData,
                 this.hasObbData, this.cipherType, this.cpuArch);
+        properties.setDataFingerprint(this.dataFingerprint);
+        properties.setApkFiles(this.apkFiles);
+        properties.setStats(this.stats);
+        return properties;
     }
 }
\ No newline at end of file
@@ -6,22 +6,22 @@ import android.net.Uri;
 import android.util.Log;
 
 import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.handler.FileList;
 import com.machiav3lli.backup.handler.ShellHandler;
 import com.machiav3lli.backup.handler.StorageFile;
+import com.machiav3lli.backup.tasks.QueuedTask;
 import com.topjohnwu.superuser.io.SuFileInputStream;
 import com.topjohnwu.superuser.io.SuFileOutputStream;
 
-import org.apache.commons.io.IOUtils;
-
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.List;
 
 public final class DocumentHelper {
     public static final String TAG = Constants.classTag(".DocumentHelper");
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     public static StorageFile getBackupRoot(Context context)
             throws FileUtils.BackupLocationIsAccessibleException, PrefUtils.StorageLocationNotConfiguredException {
@@ -64,20 +64,26 @@ public final class DocumentHelper {
         return false;
     }
 
-    public static void suRecursiveCopyFileToDocument(Context context, List<ShellHandler.FileInfo> filesToBackup, Uri targetUri) throws IOException {
+    public static void suRecursiveCopyFileToDocument(Context context, FileList filesToBackup, Uri targetUri) throws IOException {
         final ContentResolver resolver = context.getContentResolver();
-        for (ShellHandler.FileInfo file : filesToBackup) {
-            Uri parentUri = targetUri.buildUpon().appendEncodedPath(new File(file.getFilepath()).getParent()).build();
+        for (int i = 0; i < filesToBackup.size(); i++) {
+            QueuedTask.throwIfCancelled();
+            final String parentPath = filesToBackup.getParentPath(i);
+            Uri parentUri = parentPath.isEmpty() ? targetUri : targetUri.buildUpon().appendEncodedPath(parentPath).build();
             StorageFile parentFile = StorageFile.fromUri(context, parentUri);
-            switch (file.getFiletype()) {
+            switch (filesToBackup.getFiletype(i)) {
                 case REGULAR_FILE:
-                    DocumentHelper.suCopyFileToDocument(resolver, file, StorageFile.fromUri(context, parentUri));
+                    StorageFile newFile = parentFile.createFile("application/octet-stream", filesToBackup.getFilename(i));
+                    assert newFile != null;
+                    try (OutputStream outputFile = resolver.openOutputStream(newFile.getUri())) {
+                        ShellHandler.quirkLibsuReadFileWorkaround(filesToBackup.getAbsolutePath(i), filesToBackup.getFilesize(i), outputFile);
+                    }
                     break;
                 case DIRECTORY:
-                    parentFile.createDirectory(file.getFilename());
+                    parentFile.createDirectory(filesToBackup.getFilename(i));
                     break;
                 default:
-                    Log.e(DocumentHelper.TAG, "SAF does not support " + file.getFiletype());
+                    Log.e(DocumentHelper.TAG, "SAF does not support " + filesToBackup.getFiletype(i));
                     break;
             }
         }
@@ -97,7 +103,7 @@ public final class DocumentHelper {
             StorageFile newFile = targetDir.createFile("application/octet-stream", new File(sourcePath).getName());
             assert newFile != null;
             try (OutputStream outputFile = resolver.openOutputStream(newFile.getUri())) {
-                IOUtils.copy(inputFile, outputFile);
+                QueuedTask.copy(inputFile, outputFile, DocumentHelper.BUFFER_SIZE);
             }
         }
     }
@@ -114,6 +120,7 @@ public final class DocumentHelper {
         final ContentResolver resolver = context.getContentResolver();
         StorageFile rootDir = StorageFile.fromUri(context, sourceDir);
         for (StorageFile sourceDoc : rootDir.listFiles()) {
+            QueuedTask.throwIfCancelled();
             if (sourceDoc.isDirectory()) {
                 ShellHandler.runAsRoot(String.format("mkdir \"%s\"", new File(targetPath, sourceDoc.getName())));
             } else if (sourceDoc.isFile()) {
@@ -126,7 +133,7 @@ public final class DocumentHelper {
     public static void suCopyFileFromDocument(ContentResolver resolver, Uri sourceUri, String targetPath) throws IOException {
         try (SuFileOutputStream outputFile = new SuFileOutputStream(targetPath)) {
             try (InputStream inputFile = resolver.openInputStream(sourceUri)) {
-                IOUtils.copy(inputFile, outputFile);
+                QueuedTask.copy(inputFile, outputFile, DocumentHelper.BUFFER_SIZE);
             }
         }
     }
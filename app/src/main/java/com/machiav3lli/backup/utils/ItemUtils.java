@@ -19,7 +19,6 @@ package com.machiav3lli.backup.utils;
 
 import android.app.usage.StorageStats;
 import android.content.Context;
-import android.content.pm.PackageManager;
 import android.content.res.ColorStateList;
 import android.graphics.Color;
 import android.text.format.Formatter;
@@ -34,21 +33,28 @@ import com.machiav3lli.backup.Constants;
 import com.machiav3lli.backup.R;
 import com.machiav3lli.backup.databinding.SheetAppBinding;
 import com.machiav3lli.backup.fragments.AppSheet;
-import com.machiav3lli.backup.handler.BackendController;
+import com.machiav3lli.backup.handler.StorageStatsProvider;
+import com.machiav3lli.backup.items.ActionStats;
 import com.machiav3lli.backup.items.AppInfoX;
 import com.machiav3lli.backup.items.BackupItem;
 import com.machiav3lli.backup.items.BackupProperties;
+import com.machiav3lli.backup.items.BatchItemX;
+import com.machiav3lli.backup.items.MainItemX;
 import com.machiav3lli.backup.schedules.db.Schedule;
+import com.mikepenz.fastadapter.diff.DiffCallback;
 
 import java.text.DateFormat;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 public final class ItemUtils {
+
     public static final String TAG = Constants.classTag(".ItemUtils");
     public static final int COLOR_UPDATE = Color.rgb(244, 51, 69);
     public static final int COLOR_SYSTEM = Color.rgb(69, 144, 254);
@@ -57,6 +63,42 @@ public final class ItemUtils {
     public static final int COLOR_DISABLED = Color.DKGRAY;
     public static final int COLOR_UNINSTALLED = Color.GRAY;
 
+    public static final DiffCallback<MainItemX> MAIN_ITEM_DIFF_CALLBACK = new DiffCallback<MainItemX>() {
+        @Override
+        public boolean areItemsTheSame(MainItemX oldItem, MainItemX newItem) {
+            return oldItem.getIdentifier() == newItem.getIdentifier();
+        }
+
+        @Override
+        public boolean areContentsTheSame(MainItemX oldItem, MainItemX newItem) {
+            return oldItem.getContentHash() == newItem.getContentHash();
+        }
+
+        @Override
+        public Object getChangePayload(MainItemX oldItem, int oldItemPosition, MainItemX newItem, int newItemPosition) {
+            return null;
+        }
+    };
+
+    public static final DiffCallback<BatchItemX> BATCH_ITEM_DIFF_CALLBACK = new DiffCallback<BatchItemX>() {
+        @Override
+        public boolean areItemsTheSame(BatchItemX oldItem, BatchItemX newItem) {
+            return oldItem.getIdentifier() == newItem.getIdentifier();
+        }
+
+        @Override
+        public boolean areContentsTheSame(BatchItemX oldItem, BatchItemX newItem) {
+            return oldItem.getContentHash() == newItem.getContentHash()
+                    && oldItem.isApkChecked() == newItem.isApkChecked()
+                    && oldItem.isDataChecked() == newItem.isDataChecked();
+        }
+
+        @Override
+        public Object getChangePayload(BatchItemX oldItem, int oldItemPosition, BatchItemX newItem, int newItemPosition) {
+            return null;
+        }
+    };
+
     public static long calculateScheduleID(Schedule sched) {
         return sched.getId()
                 + sched.getInterval() * 24
@@ -77,6 +119,21 @@ public final class ItemUtils {
         return app.getPackageName().hashCode();
     }
 
+    /**
+     * Hashes everything the list items display of an app, so the diff can tell if an item has
+     * to be rebound even if the same AppInfoX object was changed in place
+     *
+     * @param app the app of the item
+     * @return hash of the displayed state
+     */
+    public static int calculateContentHash(AppInfoX app) {
+        BackupItem latestBackup = app.getLatestBackup();
+        return Objects.hash(app.getPackageLabel(), app.getVersionCode(), app.isInstalled(),
+                app.isDisabled(), app.isSystem(), app.getBackupHistory().size(), app.getBackupFlags(),
+                latestBackup != null ? latestBackup.getBackupProperties().getBackupDate() : null,
+                latestBackup != null ? latestBackup.getBackupProperties().getVersionCode() : 0);
+    }
+
     public static long calculateID(BackupItem backup) {
         return backup.getBackupProperties().getBackupDate().hashCode();
     }
@@ -94,18 +151,61 @@ public final class ItemUtils {
             UIUtils.setVisibility(binding.cacheSizeLine, View.GONE, update);
             UIUtils.setVisibility(binding.appSplitsLine, View.GONE, update);
         } else {
-            try {
-                StorageStats storageStats = BackendController.getPackageStorageStats(context, app.getPackageName());
-                binding.appSize.setText(Formatter.formatFileSize(context, storageStats.getAppBytes()));
-                binding.dataSize.setText(Formatter.formatFileSize(context, storageStats.getDataBytes()));
-                binding.cacheSize.setText(Formatter.formatFileSize(context, storageStats.getCacheBytes()));
-                if (storageStats.getCacheBytes() == 0) {
-                    UIUtils.setVisibility(binding.wipeCache, View.GONE, update);
-                }
-            } catch (PackageManager.NameNotFoundException e) {
-                Log.e(AppSheet.TAG, String.format("Package %s is not installed? Exception: %s", app.getPackageName(), e));
+            StorageStatsProvider statsProvider = StorageStatsProvider.getInstance(context);
+            StorageStats storageStats = statsProvider.getCached(app.getPackageName());
+            if (storageStats != null) {
+                ItemUtils.setSheetDataSizes(context, storageStats, binding, update);
+                return;
             }
+            // Not loaded yet, don't block the ui thread with the query
+            new Thread(() -> {
+                StorageStats loadedStats = statsProvider.get(app.getPackageName());
+                if (loadedStats == null) {
+                    Log.e(AppSheet.TAG, String.format("Could not load storage stats of %s. Is it installed?", app.getPackageName()));
+                    return;
+                }
+                binding.getRoot().post(() -> ItemUtils.setSheetDataSizes(context, loadedStats, binding, update));
+            }).start();
+        }
+    }
+
+    private static void setSheetDataSizes(Context context, StorageStats storageStats, SheetAppBinding binding, boolean update) {
+        binding.appSize.setText(Formatter.formatFileSize(context, storageStats.getAppBytes()));
+        binding.dataSize.setText(Formatter.formatFileSize(context, storageStats.getDataBytes()));
+        binding.cacheSize.setText(Formatter.formatFileSize(context, storageStats.getCacheBytes()));
+        if (storageStats.getCacheBytes() == 0) {
+            UIUtils.setVisibility(binding.wipeCache, View.GONE, update);
+        }
+    }
+
+    /**
+     * Describes the stats of a backup or restore: the totals first, followed by a line per stage
+     *
+     * @param context context to get the strings
+     * @param stats   stats of the action
+     * @return multiline description
+     */
+    public static String formatStats(Context context, ActionStats stats) {
+        StringBuilder text = new StringBuilder(context.getString(R.string.backup_stats_summary,
+                ItemUtils.formatDuration(stats.getDuration()),
+                Formatter.formatFileSize(context, stats.getBytesRead()),
+                Formatter.formatFileSize(context, stats.getBytesWritten()),
+                Math.round(stats.getCompressionRatio() * 100),
+                Formatter.formatFileSize(context, stats.getThroughput())));
+        text.append('\n');
+        for (ActionStats.Stage stage : stats.getStages()) {
+            text.append('\n').append(context.getString(R.string.backup_stats_stage,
+                    stage.getTarget() != null ? String.format("%s (%s)", stage.getName(), stage.getTarget()) : stage.getName(),
+                    ItemUtils.formatDuration(stage.getDuration()),
+                    stage.getFiles(),
+                    String.format("%s → %s", Formatter.formatFileSize(context, stage.getBytesRead()),
+                            Formatter.formatFileSize(context, stage.getBytesWritten()))));
         }
+        return text.toString();
+    }
+
+    private static String formatDuration(long millis) {
+        return String.format(Locale.getDefault(), "%.1f s", millis / 1000.0);
     }
 
     public static void pickSheetVersionName(AppInfoX app, SheetAppBinding binding) {
@@ -34,6 +34,7 @@ import androidx.fragment.app.Fragment;
 import androidx.preference.PreferenceManager;
 
 import com.machiav3lli.backup.Constants;
+import com.machiav3lli.backup.handler.ApkStore;
 import com.machiav3lli.backup.handler.Crypto;
 import com.machiav3lli.backup.handler.StorageFile;
 
@@ -96,6 +97,7 @@ public class PrefUtils {
                 .putString(Constants.PREFS_PATH_BACKUP_DIRECTORY, fullUri.toString())
                 .apply();
         FileUtils.invalidateBackupLocation();
+        ApkStore.forgetStoreDirs();
     }
 
     public static boolean isStorageDirSetAndOk(Context context) {
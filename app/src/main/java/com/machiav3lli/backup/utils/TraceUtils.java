@@ -0,0 +1,141 @@
+package com.machiav3lli.backup.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Trace;
+
+import com.machiav3lli.backup.BuildConfig;
+import com.machiav3lli.backup.Constants;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thin wrapper around android.os.Trace, so the sections show up in a Perfetto or systrace
+ * capture with the app category enabled. Tracing is always on in debug builds and can be
+ * switched on in release builds with a developer preference. When it's off, no section names
+ * are built and every call returns right away.
+ */
+public final class TraceUtils {
+    public static final String COUNTER_BYTES_IN_FLIGHT = "bytes in flight";
+    // limit of android.os.Trace
+    private static final int MAX_SECTION_NAME_LENGTH = 127;
+    private static final Section NO_SECTION = () -> {
+    };
+    private static final AtomicInteger cookies = new AtomicInteger(0);
+    private static final AtomicLong bytesInFlight = new AtomicLong(0);
+    private static volatile boolean enabled = BuildConfig.DEBUG;
+    // SharedPreferences only keeps weak references to its listeners
+    private static SharedPreferences.OnSharedPreferenceChangeListener preferenceListener;
+
+    private TraceUtils() {
+    }
+
+    /**
+     * Applies the developer preference and follows its changes
+     *
+     * @param context context to get the preferences
+     */
+    public static synchronized void init(Context context) {
+        SharedPreferences prefs = PrefUtils.getDefaultSharedPreferences(context);
+        TraceUtils.enabled = BuildConfig.DEBUG || prefs.getBoolean(Constants.PREFS_TRACING, false);
+        if (TraceUtils.preferenceListener == null) {
+            TraceUtils.preferenceListener = (changedPrefs, key) -> {
+                if (Constants.PREFS_TRACING.equals(key)) {
+                    TraceUtils.enabled = BuildConfig.DEBUG || changedPrefs.getBoolean(Constants.PREFS_TRACING, false);
+                }
+            };
+            prefs.registerOnSharedPreferenceChangeListener(TraceUtils.preferenceListener);
+        }
+    }
+
+    public static boolean isEnabled() {
+        return TraceUtils.enabled;
+    }
+
+    /**
+     * Begins a section on the calling thread, it ends when the returned section is closed. Has
+     * to be closed on the same thread, so use it with try-with-resources.
+     *
+     * @param name name of the section
+     * @return the section to close
+     */
+    public static Section section(String name) {
+        if (!TraceUtils.enabled) {
+            return TraceUtils.NO_SECTION;
+        }
+        Trace.beginSection(TraceUtils.truncate(name));
+        return Trace::endSection;
+    }
+
+    /**
+     * Like section(String), but the name is only concatenated if tracing is on
+     *
+     * @param name   kind of the section
+     * @param detail what the section works on, e.g. a package or a file
+     * @return the section to close
+     */
+    public static Section section(String name, String detail) {
+        if (!TraceUtils.enabled) {
+            return TraceUtils.NO_SECTION;
+        }
+        Trace.beginSection(TraceUtils.truncate(name + ' ' + detail));
+        return Trace::endSection;
+    }
+
+    /**
+     * Begins an async slice. Unlike sections it can end on another thread and overlap with
+     * other slices of the same name, it's shown on a track of its own.
+     *
+     * @param name   kind of the slice
+     * @param detail what the slice works on, e.g. a package
+     * @return the slice to close
+     */
+    public static Section asyncSection(String name, String detail) {
+        if (!TraceUtils.enabled || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return TraceUtils.NO_SECTION;
+        }
+        final String sectionName = TraceUtils.truncate(name + ' ' + detail);
+        final int cookie = TraceUtils.cookies.incrementAndGet();
+        Trace.beginAsyncSection(sectionName, cookie);
+        return () -> Trace.endAsyncSection(sectionName, cookie);
+    }
+
+    /**
+     * Sets the value of a counter track
+     *
+     * @param name  name of the counter
+     * @param value current value
+     */
+    public static void counter(String name, long value) {
+        if (TraceUtils.enabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.setCounter(name, value);
+        }
+    }
+
+    /**
+     * Adds to the bytes currently being copied or compressed by all threads and updates the
+     * counter track. Every call has to be balanced with a negative delta.
+     *
+     * @param delta bytes started (positive) or done (negative)
+     */
+    public static void addBytesInFlight(long delta) {
+        // counted also while tracing is off, so switching it on in between doesn't skew the counter
+        final long current = TraceUtils.bytesInFlight.addAndGet(delta);
+        TraceUtils.counter(TraceUtils.COUNTER_BYTES_IN_FLIGHT, current);
+    }
+
+    private static String truncate(String name) {
+        return name.length() > TraceUtils.MAX_SECTION_NAME_LENGTH
+                ? name.substring(0, TraceUtils.MAX_SECTION_NAME_LENGTH) : name;
+    }
+
+    /**
+     * A running section or slice
+     */
+    public interface Section extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.handler;
+
+import com.machiav3lli.backup.handler.ShellHandler.FileInfo;
+import com.machiav3lli.backup.handler.ShellHandler.FileInfo.FileType;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the single pass parser of FileInfo with the split based one it replaced. Both run
+ * over the same synthetic listing, the results have to match and the single pass parser has to
+ * be faster. It only runs on demand with ./gradlew test -Pbenchmark.
+ */
+public class FileInfoParserBenchmarkTest {
+    private static final String PARENT = "/data/data/com.example";
+    private static final int LINES = 100_000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void comparesWithTheSplitBasedParser() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        final List<String> listing = FileInfoParserBenchmarkTest.createListing();
+        for (String line : listing) {
+            ReferenceParser.Entry expected = ReferenceParser.fromLsOOutput(line, "files", PARENT);
+            FileInfo actual = FileInfo.fromLsOOutput(line, "files", PARENT);
+            if (expected == null) {
+                assertNull(line, actual);
+                continue;
+            }
+            assertNotNull(line, actual);
+            assertEquals(line, expected.filepath, actual.getFilepath());
+            assertEquals(line, expected.absolutePath, actual.getAbsolutePath());
+            assertEquals(line, expected.filetype, actual.getFiletype());
+            assertEquals(line, expected.owner, actual.getOwner());
+            assertEquals(line, expected.group, actual.getGroup());
+            assertEquals(line, expected.filemode, actual.getFilemode());
+            assertEquals(line, expected.filesize, actual.getFilesize());
+            assertEquals(line, expected.linkName, actual.getLinkName());
+        }
+
+        long referenceNanos = Long.MAX_VALUE;
+        long currentNanos = Long.MAX_VALUE;
+        int sink = 0;
+        for (int round = 0; round < FileInfoParserBenchmarkTest.ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (String line : listing) {
+                ReferenceParser.Entry entry = ReferenceParser.fromLsOOutput(line, "files", PARENT);
+                sink += entry != null ? entry.filemode : 0;
+            }
+            referenceNanos = Math.min(referenceNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            FileInfo.NameTable names = new FileInfo.NameTable();
+            for (String line : listing) {
+                FileInfo info = FileInfo.fromLsOOutput(line, "files", PARENT, names);
+                sink -= info != null ? info.getFilemode() : 0;
+            }
+            currentNanos = Math.min(currentNanos, System.nanoTime() - start);
+        }
+        assertEquals(0, sink);
+        assertTrue(String.format("Parsing %d ls lines: split based %d ms, single pass %d ms",
+                listing.size(), referenceNanos / 1_000_000, currentNanos / 1_000_000),
+                currentNanos < referenceNanos);
+    }
+
+    private static List<String> createListing() {
+        final String[] modes = {"-rw-rw----", "-rw-------", "drwxrwx--x", "drwx------", "-rwxr-xr-x"};
+        final List<String> lines = new ArrayList<>(FileInfoParserBenchmarkTest.LINES);
+        lines.add("total 123456");
+        for (int i = 1; i < FileInfoParserBenchmarkTest.LINES; i++) {
+            if (i % 50 == 0) {
+                lines.add(String.format("lrwxrwxrwx 1 root   root           60 2020-08-13 23:28 lib%d -> /data/app/com.example-1/lib/x86", i));
+                continue;
+            }
+            final String mode = modes[i % modes.length];
+            final String owner = i % 7 == 0 ? "u0_a74_cache" : "u0_a74";
+            lines.add(String.format("%s %d u0_a74 %-12s %10d 2020-%02d-%02d %02d:%02d file_%d.dat",
+                    mode, 1 + i % 3, owner, (long) i * 37 % 10_000_000, 1 + i % 12, 1 + i % 28, i % 24, i % 60, i));
+        }
+        return lines;
+    }
+
+    /**
+     * Copy of the parser before it was rewritten, including the filter that was applied before it
+     */
+    private static class ReferenceParser {
+        private static final Pattern PATTERN_LINKSPLIT = Pattern.compile(" -> ");
+
+        // FileInfo can't take the link target from outside, so the old result is kept here
+        static class Entry {
+            String filepath;
+            String absolutePath;
+            FileType filetype;
+            String owner;
+            String group;
+            short filemode;
+            long filesize;
+            String linkName;
+        }
+
+        static Entry fromLsOOutput(String lsLine, String parentPath, String absoluteParent) {
+            if (lsLine.isEmpty() || lsLine.startsWith("total")
+                    || ReferenceParser.splitWithoutEmptyValues(lsLine, " ", 0).length <= 7) {
+                return null;
+            }
+            String[] tokens = ReferenceParser.splitWithoutEmptyValues(lsLine, " ", 7);
+            String filepath;
+            final String owner = tokens[2];
+            final String group = tokens[3];
+            if (tokens[7].startsWith(absoluteParent)) {
+                absoluteParent = new File(absoluteParent).getParent();
+                tokens[7] = tokens[7].substring(absoluteParent.length() + 1);
+            }
+            if (parentPath == null || parentPath.isEmpty()) {
+                filepath = tokens[7];
+            } else {
+                filepath = parentPath + '/' + tokens[7];
+            }
+            short filemode;
+            try {
+                Set<PosixFilePermission> posixFilePermissions = PosixFilePermissions.fromString(tokens[0].substring(1));
+                filemode = ReferenceParser.translatePosixPermissionToMode(posixFilePermissions);
+            } catch (IllegalArgumentException e) {
+                if (filepath.equals("cache") || filepath.equals("code_cache")) {
+                    filemode = 0771;
+                } else if (tokens[0].charAt(0) == 'd') {
+                    filemode = 0660;
+                } else {
+                    filemode = 0700;
+                }
+            }
+            String linkName = null;
+            long fileSize = 0;
+            FileType type;
+            switch (tokens[0].charAt(0)) {
+                case 'd':
+                    type = FileType.DIRECTORY;
+                    break;
+                case 'l':
+                    type = FileType.SYMBOLIC_LINK;
+                    String[] nameAndLink = ReferenceParser.PATTERN_LINKSPLIT.split(filepath);
+                    filepath = nameAndLink[0];
+                    linkName = nameAndLink[1];
+                    break;
+                case 'p':
+                    type = FileType.NAMED_PIPE;
+                    break;
+                case 's':
+                    type = FileType.SOCKET;
+                    break;
+                case 'b':
+                    type = FileType.BLOCK_DEVICE;
+                    break;
+                case 'c':
+                    type = FileType.CHAR_DEVICE;
+                    break;
+                case '-':
+                default:
+                    type = FileType.REGULAR_FILE;
+                    fileSize = Long.parseLong(tokens[4]);
+                    break;
+            }
+            Entry result = new Entry();
+            result.filepath = filepath;
+            result.absolutePath = absoluteParent + '/' + filepath.substring(filepath.lastIndexOf('/') + 1);
+            result.filetype = type;
+            result.owner = owner;
+            result.group = group;
+            result.filemode = filemode;
+            result.filesize = fileSize;
+            result.linkName = linkName;
+            return result;
+        }
+
+        static String[] splitWithoutEmptyValues(String str, String regex, int limit) {
+            String[] split = Arrays.stream(str.split(regex)).filter(s -> !s.isEmpty()).toArray(String[]::new);
+            // add one to the limit because limit is not meant to count from zero
+            int targetSize = limit > 0 ? Math.min(split.length, limit + 1) : split.length;
+            String[] result = new String[targetSize];
+            System.arraycopy(split, 0, result, 0, targetSize);
+            for (int i = targetSize; i < split.length; i++) {
+                result[result.length - 1] += String.format("%s%s", regex, split[i]);
+            }
+            return result;
+        }
+
+        static short translatePosixPermissionToMode(Set<PosixFilePermission> permission) {
+            int mode = 0;
+            for (PosixFilePermission action : PosixFilePermission.values()) {
+                mode = mode << 1;
+                mode += permission.contains(action) ? 1 : 0;
+            }
+            return (short) mode;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * OAndBackupX: open-source apps backup and restore app.
+ * Copyright (C) 2020  Antonios Hazim
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.machiav3lli.backup.handler;
+
+import com.machiav3lli.backup.handler.ShellHandler.FileInfo;
+import com.machiav3lli.backup.handler.ShellHandler.FileInfo.FileType;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class FileInfoParserTest {
+    private static final String PARENT = "/data/data/com.example";
+
+    @Test
+    public void parsesRegularFile() {
+        FileInfo info = FileInfo.fromLsOOutput(
+                "-rw-rw---- 1 u0_a74 u0_a74_cache    4096 2020-08-14 13:54 prefs.xml", "shared_prefs", PARENT);
+        assertNotNull(info);
+        assertEquals(FileType.REGULAR_FILE, info.getFiletype());
+        assertEquals("shared_prefs/prefs.xml", info.getFilepath());
+        assertEquals(PARENT + "/prefs.xml", info.getAbsolutePath());
+        assertEquals("u0_a74", info.getOwner());
+        assertEquals("u0_a74_cache", info.getGroup());
+        assertEquals(0660, info.getFilemode());
+        assertEquals(4096, info.getFilesize());
+        assertEquals(LocalDateTime.of(2020, 8, 14, 13, 54).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(),
+                info.getModificationTime());
+    }
+
+    @Test
+    public void keepsRepeatedSpacesInNames() {
+        FileInfo info = FileInfo.fromLsOOutput(
+                "-rw------- 1 u0_a74 u0_a74 12 2020-08-14 13:54   two  spaces  ", PARENT);
+        assertNotNull(info);
+        assertEquals("  two  spaces  ", info.getFilename());
+        assertEquals(12, info.getFilesize());
+    }
+
+    @Test
+    public void splitsSymbolicLinks() {
+        FileInfo info = FileInfo.fromLsOOutput(
+                "lrwxrwxrwx 1 root   root           60 2020-08-13 23:28 lib -> /data/app/org.mozilla.fenix-ddea_jq2cVLmYxBKu0ummg==/lib/x86", PARENT);
+        assertNotNull(info);
+        assertEquals(FileType.SYMBOLIC_LINK, info.getFiletype());
+        assertEquals("lib", info.getFilename());
+        assertEquals("/data/app/org.mozilla.fenix-ddea_jq2cVLmYxBKu0ummg==/lib/x86", info.getLinkName());
+    }
+
+    @Test
+    public void skipsTheMinorNumberOfDevices() {
+        FileInfo info = FileInfo.fromLsOOutput(
+                "crw-rw-rw- 1 root   root       1,   3 2020-08-13 23:28 null", "dev", PARENT);
+        assertNotNull(info);
+        assertEquals(FileType.CHAR_DEVICE, info.getFiletype());
+        assertEquals("dev/null", info.getFilepath());
+        assertEquals("root", info.getOwner());
+        assertEquals("root", info.getGroup());
+        assertEquals(0666, info.getFilemode());
+        assertEquals(0, info.getFilesize());
+        assertEquals(LocalDateTime.of(2020, 8, 13, 23, 28).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(),
+                info.getModificationTime());
+
+        FileInfo block = FileInfo.fromLsOOutput(
+                "brw------- 1 root root 253,  0 2020-08-13 23:28 dm-0", PARENT);
+        assertNotNull(block);
+        assertEquals(FileType.BLOCK_DEVICE, block.getFiletype());
+        assertEquals("dm-0", block.getFilename());
+    }
+
+    @Test
+    public void decodesSpecialModeBitsToTheirExecuteBit() {
+        assertEquals(0771, FileInfoParserTest.modeOf("drwxrws--x"));
+        assertEquals(0761, FileInfoParserTest.modeOf("drwxrwS--x"));
+        assertEquals(0755, FileInfoParserTest.modeOf("-rwsr-xr-x"));
+        assertEquals(0655, FileInfoParserTest.modeOf("-rwSr-xr-x"));
+        assertEquals(0777, FileInfoParserTest.modeOf("drwxrwxrwt"));
+        assertEquals(0776, FileInfoParserTest.modeOf("drwxrwxrwT"));
+    }
+
+    @Test
+    public void returnsNullForLinesWhichAreNoEntries() {
+        assertNull(FileInfo.fromLsOOutput("", PARENT));
+        assertNull(FileInfo.fromLsOOutput("total 24", PARENT));
+        assertNull(FileInfo.fromLsOOutput("ls: /data/data/com.example/x: Permission denied", PARENT));
+        assertNull(FileInfo.fromLsOOutput("drwxrwx--x 3 u0_a74 u0_a74 4096 2020-08-14 13:54", PARENT));
+        assertNull(FileInfo.fromLsOOutput("drwxrwx--x 3 u0_a74 u0_a74 4096 2020-08-14 13:54 ", PARENT));
+        assertNull(FileInfo.fromLsOOutput("-rw-rw---- 1 u0_a74 u0_a74 12k 2020-08-14 13:54 file", PARENT));
+    }
+
+    @Test
+    public void sharesNamesWithinOneListing() {
+        FileInfo.NameTable names = new FileInfo.NameTable();
+        FileInfo first = FileInfo.fromLsOOutput("-rw------- 1 u0_a74 u0_a74 1 2020-08-14 13:54 a", "", PARENT, names);
+        FileInfo second = FileInfo.fromLsOOutput("-rw------- 1 u0_a74 u0_a74 1 2020-08-14 13:54 b", "", PARENT, names);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertSame(first.getOwner(), second.getOwner());
+        assertSame(first.getOwner(), second.getGroup());
+    }
+
+    private static short modeOf(String mode) {
+        FileInfo info = FileInfo.fromLsOOutput(mode + " 2 u0_a108 u0_a108_cache 4096 2020-09-22 17:36 cache", PARENT);
+        assertNotNull(info);
+        return info.getFilemode();
+    }
+}